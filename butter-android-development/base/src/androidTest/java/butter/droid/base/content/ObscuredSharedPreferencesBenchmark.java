@@ -0,0 +1,98 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.content;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.provider.Settings;
+import android.test.AndroidTestCase;
+import android.util.Base64;
+import android.util.Log;
+
+import java.util.Locale;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.PBEParameterSpec;
+
+/**
+ * Measures a get on {@link ObscuredSharedPreferences} against the way values were read before the snapshot, with the
+ * key derived and the value decrypted on every get. It needs a device or emulator for ANDROID_ID and the cipher
+ * provider, run it with {@code ./gradlew :base:connectedAndroidTest}; the time per get is logged with the tag
+ * {@value #TAG}.
+ */
+public class ObscuredSharedPreferencesBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "PrefsBenchmark";
+    private static final String PREFS_FILE = "obscured_benchmark";
+    private static final int KEYS = 20;
+    private static final int SNAPSHOT_GETS = 100000;
+    private static final int DECRYPT_GETS = 500;
+    private static final int ROUNDS = 5;
+
+    public void testGetLatency() throws Exception {
+        SharedPreferences delegate = getContext().getSharedPreferences(PREFS_FILE, Context.MODE_PRIVATE);
+        delegate.edit().clear().commit();
+
+        ObscuredSharedPreferences prefs = new ObscuredSharedPreferences(getContext(), delegate);
+        ObscuredSharedPreferences.Editor editor = prefs.edit();
+        for (int i = 0; i < KEYS; i++) {
+            editor.putString("key" + i, "value " + i);
+        }
+        editor.commit();
+
+        // both have to agree before their speed means anything
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals(prefs.getString("key" + i, null), decryptPerGet(delegate.getString("key" + i, null)));
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            int length = 0;
+            for (int i = 0; i < SNAPSHOT_GETS; i++) {
+                length += prefs.getString("key" + (i % KEYS), "").length();
+            }
+            double snapshotNs = (System.nanoTime() - start) / (double) SNAPSHOT_GETS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < DECRYPT_GETS; i++) {
+                length += decryptPerGet(delegate.getString("key" + (i % KEYS), null)).length();
+            }
+            double decryptNs = (System.nanoTime() - start) / (double) DECRYPT_GETS;
+
+            Log.i(TAG, String.format(Locale.US, "round %d: snapshot %.1f ns/get, decrypt per get %.1f ns/get (%d chars)", round, snapshotNs, decryptNs, length));
+        }
+
+        delegate.edit().clear().commit();
+    }
+
+    /**
+     * A get as it was before the snapshot, the key is derived and ANDROID_ID is read for every value
+     */
+    private String decryptPerGet(String value) throws Exception {
+        final byte[] bytes = value != null ? Base64.decode(value, Base64.DEFAULT) : new byte[0];
+        SecretKeyFactory keyFactory = SecretKeyFactory.getInstance(ObscuredSharedPreferences.ALGORITHM);
+        SecretKey key = keyFactory.generateSecret(new PBEKeySpec(ObscuredSharedPreferences.SEKRIT));
+        Cipher pbeCipher = Cipher.getInstance(ObscuredSharedPreferences.ALGORITHM);
+        pbeCipher.init(Cipher.DECRYPT_MODE, key, new PBEParameterSpec(Settings.Secure.getString(getContext().getContentResolver(), Settings.System.ANDROID_ID).getBytes(ObscuredSharedPreferences.UTF8), ObscuredSharedPreferences.ITERATIONS));
+        return new String(pbeCipher.doFinal(bytes), ObscuredSharedPreferences.UTF8);
+    }
+
+}
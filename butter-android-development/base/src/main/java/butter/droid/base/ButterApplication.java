@@ -27,6 +27,7 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.support.multidex.MultiDex;
 import android.support.v4.app.NotificationCompat;
 
@@ -69,6 +70,7 @@ public class ButterApplication extends Application implements ButterUpdater.List
     @Override
     public void onCreate() {
         super.onCreate();
+        long start = SystemClock.elapsedRealtime();
         sThis = this;
 
         if(!BuildConfig.GIT_BRANCH.equals("local"))
@@ -79,13 +81,6 @@ public class ButterApplication extends Application implements ButterUpdater.List
         LeakCanary.install(this);
         Foreground.init(this);
 
-        Stetho.initialize(
-                Stetho.newInitializerBuilder(this)
-                        .enableDumpapp(Stetho.defaultDumperPluginsProvider(this))
-                        .enableWebKitInspector(Stetho.defaultInspectorModulesProvider(this))
-                        .build()
-        );
-
         Constants.DEBUG_ENABLED = false;
         int versionCode = 0;
         try {
@@ -104,35 +99,73 @@ public class ButterApplication extends Application implements ButterUpdater.List
         }
         Timber.plant(new StethoTree());
 
-        ButterUpdater.getInstance(this, this).checkUpdates(false);
-
-        if(VersionUtils.isUsingCorrectBuild()) {
-            TorrentService.start(this);
-        }
-
-        File path = new File(PrefUtils.get(this, Prefs.STORAGE_LOCATION, StorageUtils.getIdealCacheDirectory(this).toString()));
+        // the old caches are moved aside right away, so the torrent service starts with empty directories
+        final File path = new File(PrefUtils.get(this, Prefs.STORAGE_LOCATION, StorageUtils.getIdealCacheDirectory(this).toString()));
         File directory = new File(path, "/torrents/");
         if (PrefUtils.get(this, Prefs.REMOVE_CACHE, true)) {
-            FileUtils.recursiveDelete(directory);
-            FileUtils.recursiveDelete(new File(path + "/subs"));
+            FileUtils.moveToTrash(directory);
+            FileUtils.moveToTrash(new File(path + "/subs"));
         } else {
             File statusFile = new File(directory, "status.json");
             statusFile.delete();
         }
-
-        Timber.d("StorageLocations: " + StorageUtils.getAllStorageLocations());
         Timber.i("Chosen cache location: " + directory);
 
-
+        final File cacheDirectory = StorageUtils.getIdealCacheDirectory(this);
         if (PrefUtils.get(this, Prefs.INSTALLED_VERSION, 0) < versionCode) {
             PrefUtils.save(this, Prefs.INSTALLED_VERSION, versionCode);
-            FileUtils.recursiveDelete(new File(StorageUtils.getIdealCacheDirectory(this) + "/backend"));
+            FileUtils.moveToTrash(new File(cacheDirectory + "/backend"));
+        }
+
+        if(VersionUtils.isUsingCorrectBuild()) {
+            TorrentService.start(this);
         }
 
         Picasso.Builder builder = new Picasso.Builder(getAppContext());
         OkHttpDownloader downloader = new OkHttpDownloader(getHttpClient());
         builder.downloader(downloader);
         Picasso.setSingletonInstance(builder.build());
+
+        StartupGraph startup = new StartupGraph();
+        startup.add("empty-trash", new Runnable() {
+            @Override
+            public void run() {
+                FileUtils.emptyTrash(path);
+                FileUtils.emptyTrash(cacheDirectory);
+            }
+        });
+        startup.add("storage-locations", new Runnable() {
+            @Override
+            public void run() {
+                Timber.d("StorageLocations: " + StorageUtils.getAllStorageLocations());
+            }
+        });
+        startup.addOnMainThread("stetho", new Runnable() {
+            @Override
+            public void run() {
+                Stetho.initialize(
+                        Stetho.newInitializerBuilder(ButterApplication.this)
+                                .enableDumpapp(Stetho.defaultDumperPluginsProvider(ButterApplication.this))
+                                .enableWebKitInspector(Stetho.defaultInspectorModulesProvider(ButterApplication.this))
+                                .build()
+                );
+            }
+        });
+        // after stetho, so the update check can be inspected
+        startup.addOnMainThread("updater", new Runnable() {
+            @Override
+            public void run() {
+                ButterUpdater updater = ButterUpdater.getInstance(ButterApplication.this);
+                // an activity that started before this task may have set its own listener already
+                if (!updater.hasListener()) {
+                    updater.setListener(ButterApplication.this);
+                }
+                updater.checkUpdates(false);
+            }
+        }, "stetho");
+        startup.start(this);
+
+        Timber.d("Application created in %d ms", SystemClock.elapsedRealtime() - start);
     }
 
     @Override
@@ -152,7 +185,7 @@ public class ButterApplication extends Application implements ButterUpdater.List
         return sDefSystemLanguage;
     }
 
-    public static OkHttpClient getHttpClient() {
+    public static synchronized OkHttpClient getHttpClient() {
         if (sHttpClient == null) {
             sHttpClient = new OkHttpClient();
 
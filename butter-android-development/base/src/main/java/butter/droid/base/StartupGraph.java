@@ -0,0 +1,259 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import timber.log.Timber;
+
+/**
+ * StartupGraph.java
+ * <p/>
+ * Runs the work of the application start that isn't needed for the first frame. Tasks declare the tasks they depend
+ * on and run on the main thread or on a background thread as soon as those are done. Nothing runs before the first
+ * activity has drawn its first frame, or before {@link #NO_ACTIVITY_DELAY_MS} when no activity is shown.
+ * <p/>
+ * The time every task waited and ran is logged, so regressions of the start are visible.
+ */
+public class StartupGraph {
+
+    private static final int THREADS = 2;
+    // a process started for a service or receiver never draws a frame
+    private static final long NO_ACTIVITY_DELAY_MS = 5000;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        private int mCount = 0;
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "Startup-" + ++mCount);
+        }
+    });
+    private final Map<String, Task> mTasks = new LinkedHashMap<>();
+    private final Map<String, Long> mTimings = new LinkedHashMap<>();
+    private long mStartTime;
+    private int mRemaining;
+    private boolean mStarted = false;
+
+    /**
+     * Add a task that runs on a background thread
+     *
+     * @param name         Unique name of the task
+     * @param runnable     Work of the task
+     * @param dependencies Names of the tasks that have to be done first, they must have been added already
+     */
+    public synchronized void add(String name, Runnable runnable, String... dependencies) {
+        add(name, false, runnable, dependencies);
+    }
+
+    /**
+     * Add a task that runs on the main thread
+     *
+     * @param name         Unique name of the task
+     * @param runnable     Work of the task
+     * @param dependencies Names of the tasks that have to be done first, they must have been added already
+     */
+    public synchronized void addOnMainThread(String name, Runnable runnable, String... dependencies) {
+        add(name, true, runnable, dependencies);
+    }
+
+    private void add(String name, boolean mainThread, Runnable runnable, String... dependencies) {
+        if (mStarted) {
+            throw new IllegalStateException("Tasks can't be added after the start");
+        }
+        if (mTasks.containsKey(name)) {
+            throw new IllegalArgumentException("Task " + name + " was added already");
+        }
+
+        Task task = new Task(name, mainThread, runnable);
+        for (String dependency : dependencies) {
+            Task parent = mTasks.get(dependency);
+            if (parent == null) {
+                // dependencies have to exist already, so there can't be a cycle
+                throw new IllegalArgumentException("Task " + name + " depends on unknown task " + dependency);
+            }
+            parent.mDependents.add(task);
+            task.mWaitingFor++;
+        }
+        mTasks.put(name, task);
+    }
+
+    /**
+     * Start the tasks once the first activity that is resumed has drawn its first frame, must be called from the main
+     * thread before any activity is created
+     *
+     * @param application Application to watch the activities of
+     */
+    public void start(final Application application) {
+        final Runnable runTasks = new Runnable() {
+            @Override
+            public void run() {
+                StartupGraph.this.run();
+            }
+        };
+
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityResumed(Activity activity) {
+                application.unregisterActivityLifecycleCallbacks(this);
+
+                final View decorView = activity.getWindow().getDecorView();
+                decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        // posted while the frame is being drawn, so it runs after it
+                        mMainHandler.post(runTasks);
+                        return true;
+                    }
+                });
+            }
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        });
+
+        // also covers an activity that is closed before it draws
+        mMainHandler.postDelayed(runTasks, NO_ACTIVITY_DELAY_MS);
+    }
+
+    /**
+     * @return Time in ms every task that is done took, in the order they finished
+     */
+    public synchronized Map<String, Long> getTimings() {
+        return new LinkedHashMap<>(mTimings);
+    }
+
+    private void run() {
+        List<Task> ready = new ArrayList<>();
+        synchronized (this) {
+            if (mStarted) return;
+            mStarted = true;
+            mStartTime = SystemClock.elapsedRealtime();
+            mRemaining = mTasks.size();
+            for (Task task : mTasks.values()) {
+                if (task.mWaitingFor == 0) ready.add(task);
+            }
+        }
+        for (Task task : ready) {
+            schedule(task);
+        }
+    }
+
+    private void schedule(Task task) {
+        if (task.mMainThread) {
+            mMainHandler.post(task);
+        } else {
+            mExecutor.execute(task);
+        }
+    }
+
+    private void onDone(Task task, long waited, long duration) {
+        List<Task> ready = new ArrayList<>();
+        boolean finished;
+        synchronized (this) {
+            mTimings.put(task.mName, duration);
+            for (Task dependent : task.mDependents) {
+                if (--dependent.mWaitingFor == 0) ready.add(dependent);
+            }
+            finished = --mRemaining == 0;
+        }
+
+        Timber.d("Startup task %s took %d ms, started after %d ms", task.mName, duration, waited);
+        for (Task dependent : ready) {
+            schedule(dependent);
+        }
+
+        if (finished) {
+            Timber.d("Startup tasks done after %d ms", SystemClock.elapsedRealtime() - mStartTime);
+            mExecutor.shutdown();
+        }
+    }
+
+    private class Task implements Runnable {
+        final String mName;
+        final boolean mMainThread;
+        final Runnable mRunnable;
+        final List<Task> mDependents = new ArrayList<>();
+        int mWaitingFor = 0;
+
+        Task(String name, boolean mainThread, Runnable runnable) {
+            mName = name;
+            mMainThread = mainThread;
+            mRunnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            long start = SystemClock.elapsedRealtime();
+            try {
+                mRunnable.run();
+            } catch (Exception e) {
+                // a failing task shouldn't keep the tasks that depend on it from running
+                Timber.e(e, "Startup task %s failed", mName);
+            }
+            long end = SystemClock.elapsedRealtime();
+            onDone(this, start - mStartTime, end - start);
+        }
+    }
+
+}
@@ -90,6 +90,7 @@ public class BeamManager implements ConnectableDeviceListener, DiscoveryManagerL
     private AlertDialog mPairingAlertDialog;
     private AlertDialog mPairingCodeDialog;
     private StreamInfo mStreamInfo;
+    private RemotePlaybackTracker mPlaybackTracker;
 
     private BeamManager(Context context) {
         mContext = context;
@@ -202,6 +203,13 @@ public class BeamManager implements ConnectableDeviceListener, DiscoveryManagerL
         return mCurrentDevice.getCapability(MediaControl.class);
     }
 
+    /**
+     * @return Playback state of the connected device, null when no device is connected
+     */
+    public RemotePlaybackTracker getPlaybackTracker() {
+        return mPlaybackTracker;
+    }
+
     public VolumeControl getVolumeControl() {
         if (mCurrentDevice != null && mCurrentDevice.hasCapability(VolumeControl.Volume_Get) && mCurrentDevice.hasCapability(VolumeControl.Volume_Get) && mCurrentDevice.hasCapability(VolumeControl.Volume_Subscribe)) {
             return mCurrentDevice.getCapability(VolumeControl.class);
@@ -230,9 +238,11 @@ public class BeamManager implements ConnectableDeviceListener, DiscoveryManagerL
         mStreamInfo = info;
 
         String location = info.getVideoLocation();
+        String mimeType = BeamServer.MP4.mimeType;
         if(!location.startsWith("http")) {
             BeamServer.setCurrentVideo(location);
             location = BeamServer.getVideoURL();
+            mimeType = BeamServer.getVideoFileType().mimeType;
         }
 
         String subsLocation = null;
@@ -269,12 +279,14 @@ public class BeamManager implements ConnectableDeviceListener, DiscoveryManagerL
 
         //String url, String mimeType, String title, String description, String iconSrc, boolean shouldLoop, LaunchListener listener
         if (mCurrentDevice != null) {
-            MediaInfo mediaInfo = new MediaInfo(location, subsLocation, "video/mp4", title, "");
+            MediaInfo mediaInfo = new MediaInfo(location, subsLocation, mimeType, title, "");
             mediaInfo.addImages(new ImageInfo(imageUrl));
             mCurrentDevice.getCapability(MediaPlayer.class).playMedia(mediaInfo, false, new MediaPlayer.LaunchListener() {
                 @Override
                 public void onSuccess(MediaPlayer.MediaLaunchObject object) {
                     mLaunchSession = object.launchSession;
+                    if (mPlaybackTracker != null)
+                        mPlaybackTracker.reset();
                     if (listener != null)
                         listener.onSuccess(object);
                 }
@@ -357,6 +369,10 @@ public class BeamManager implements ConnectableDeviceListener, DiscoveryManagerL
         }
 
         mConnected = true;
+        if (mPlaybackTracker != null)
+            mPlaybackTracker.release();
+        mPlaybackTracker = new RemotePlaybackTracker(device);
+
         for (BeamListener listener : mListeners)
             listener.updateBeamIcon();
 
@@ -367,6 +383,10 @@ public class BeamManager implements ConnectableDeviceListener, DiscoveryManagerL
     @Override
     public void onDeviceDisconnected(ConnectableDevice device) {
         mConnected = false;
+        if (mPlaybackTracker != null) {
+            mPlaybackTracker.release();
+            mPlaybackTracker = null;
+        }
         for (BeamListener listener : mListeners)
             listener.updateBeamIcon();
 
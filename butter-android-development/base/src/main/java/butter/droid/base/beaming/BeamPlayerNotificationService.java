@@ -13,7 +13,6 @@ import android.support.v7.app.NotificationCompat;
 
 import com.connectsdk.device.ConnectableDevice;
 import com.connectsdk.service.capability.MediaControl;
-import com.connectsdk.service.capability.listeners.ResponseListener;
 import com.connectsdk.service.command.ServiceCommandError;
 import com.squareup.picasso.Picasso;
 import com.squareup.picasso.Target;
@@ -32,7 +31,7 @@ public class BeamPlayerNotificationService extends Service {
     public static final String ACTION_STOP = "action_stop";
 
     private BeamManager mManager;
-    private MediaControl mMediaControl;
+    private RemotePlaybackTracker mPlaybackTracker;
     private Boolean mIsPlaying = false;
     private Bitmap mImage;
 
@@ -47,61 +46,27 @@ public class BeamPlayerNotificationService extends Service {
 
         String action = intent.getAction();
 
-        if(mMediaControl == null) {
+        if(mPlaybackTracker == null) {
             Intent stopIntent = new Intent( getApplicationContext(), BeamPlayerNotificationService.class );
             stopService(stopIntent);
             return;
         }
 
         if( action.equalsIgnoreCase( ACTION_PLAY ) || action.equalsIgnoreCase( ACTION_PAUSE ) ) {
-            ResponseListener<Object> responseListener = new ResponseListener<Object>() {
-                @Override
-                public void onSuccess(Object object) {
-                    mMediaControl.getPlayState(mPlayStateListener);
-                }
-
-                @Override
-                public void onError(ServiceCommandError error) {
-                    mMediaControl.getPlayState(mPlayStateListener);
-                }
-            };
-
+            // the tracker polls the device for the new state
             if(mIsPlaying) {
                 mIsPlaying = false;
-                mMediaControl.pause(responseListener);
+                mPlaybackTracker.pause(null);
                 buildNotification(generateAction(R.drawable.ic_av_play, "Play", ACTION_PLAY));
             } else {
                 mIsPlaying = true;
-                mMediaControl.play(responseListener);
+                mPlaybackTracker.play(null);
                 buildNotification(generateAction(R.drawable.ic_av_pause, "Pause", ACTION_PAUSE));
             }
-            mMediaControl.getPlayState(mPlayStateListener);
         } else if( action.equalsIgnoreCase( ACTION_FAST_FORWARD ) ) {
-            mMediaControl.getPosition(new MediaControl.PositionListener() {
-                @Override
-                public void onSuccess(Long object) {
-                    long seek = object + 10000;
-                    mMediaControl.seek(seek, null);
-                }
-
-                @Override
-                public void onError(ServiceCommandError error) {
-
-                }
-            });
+            mPlaybackTracker.seek(mPlaybackTracker.getPosition() + 10000, null);
         } else if( action.equalsIgnoreCase( ACTION_REWIND ) ) {
-            mMediaControl.getPosition(new MediaControl.PositionListener() {
-                @Override
-                public void onSuccess(Long object) {
-                    long seek = object - 10000;
-                    mMediaControl.seek(seek, null);
-                }
-
-                @Override
-                public void onError(ServiceCommandError error) {
-
-                }
-            });
+            mPlaybackTracker.seek(mPlaybackTracker.getPosition() - 10000, null);
         } else if( action.equalsIgnoreCase( ACTION_STOP ) ) {
             mManager.stopVideo();
         }
@@ -168,14 +133,12 @@ public class BeamPlayerNotificationService extends Service {
 
     private void initMediaSessions() {
         mManager = BeamManager.getInstance(this);
-        if(mManager.getConnectedDevice() != null) {
+        if(mManager.getConnectedDevice() != null && mManager.getPlaybackTracker() != null) {
 
-            mMediaControl = mManager.getMediaControl();
-            mMediaControl.subscribePlayState(mPlayStateListener);
+            mPlaybackTracker = mManager.getPlaybackTracker();
+            mPlaybackTracker.addListener(mPlaybackListener);
             mManager.addDeviceListener(mDeviceListener);
 
-            mMediaControl.getPlayState(mPlayStateListener);
-
             if(mManager.getStreamInfo().getImageUrl() != null)
                 Picasso.with(this).load(mManager.getStreamInfo().getImageUrl()).resize(400, 400).centerInside().into(new Target() {
                     @Override
@@ -209,13 +172,24 @@ public class BeamPlayerNotificationService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        if (mPlaybackTracker != null) {
+            mPlaybackTracker.removeListener(mPlaybackListener);
+            mPlaybackTracker = null;
+        }
+        if (mManager != null) {
+            mManager.removeDeviceListener(mDeviceListener);
+        }
         NotificationManager notificationManager = (NotificationManager) getApplicationContext().getSystemService(Context.NOTIFICATION_SERVICE);
         notificationManager.cancel(1);
     }
 
-    private MediaControl.PlayStateListener mPlayStateListener = new MediaControl.PlayStateListener() {
+    private RemotePlaybackTracker.Listener mPlaybackListener = new RemotePlaybackTracker.Listener() {
         @Override
-        public void onSuccess(MediaControl.PlayStateStatus state) {
+        public void onPositionChanged(long position, long duration) {
+        }
+
+        @Override
+        public void onPlayStateChanged(MediaControl.PlayStateStatus state) {
             mIsPlaying = state.equals(MediaControl.PlayStateStatus.Playing);
 
             if(state.equals(MediaControl.PlayStateStatus.Paused)) {
@@ -226,8 +200,7 @@ public class BeamPlayerNotificationService extends Service {
         }
 
         @Override
-        public void onError(ServiceCommandError error) {
-
+        public void onPlayStateError(ServiceCommandError error) {
         }
     };
 
@@ -0,0 +1,340 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.beaming;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.connectsdk.device.ConnectableDevice;
+import com.connectsdk.service.capability.MediaControl;
+import com.connectsdk.service.capability.listeners.ResponseListener;
+import com.connectsdk.service.command.ServiceCommandError;
+import com.connectsdk.service.command.ServiceSubscription;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RemotePlaybackTracker.java
+ * <p/>
+ * Keeps track of the playback on the connected device for all screens that show it. The device is polled quickly
+ * after a seek, a state change or a new video and slowly while it plays steadily; the play state comes from the
+ * subscription of the device when it sends events for it. Between samples the position moves on locally, so the
+ * listeners get a smooth position without a request to the device every time.
+ * <p/>
+ * Polling only runs while there are listeners. All methods are called on the main thread.
+ */
+public class RemotePlaybackTracker {
+
+    // how often listeners get the interpolated position
+    private static final long DISPATCH_INTERVAL_MS = 250;
+    private static final long FAST_POLL_MS = 1000;
+    private static final long STEADY_POLL_MS = 5000;
+    // number of fast polls after something changed
+    private static final int FAST_POLLS = 4;
+    // a sample this far from the interpolated position means the device stalls or skips, keep polling fast
+    private static final long DRIFT_MS = 1500;
+
+    private final ConnectableDevice mDevice;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    private MediaControl.PlayStateStatus mPlayState = MediaControl.PlayStateStatus.Unknown;
+    private ServiceSubscription<MediaControl.PlayStateListener> mPlayStateSubscription;
+    private long mPosition = 0, mPositionTime = 0, mDuration = 0;
+    private boolean mHasSample = false, mPolling = false;
+    // time of the position request without a response yet, -1 when there is none
+    private long mPositionRequestTime = -1;
+    private int mFastPolls = FAST_POLLS;
+    // increased on every seek, samples requested before it are outdated
+    private int mGeneration = 0;
+
+    public interface Listener {
+        /**
+         * @param position Interpolated position in ms
+         * @param duration Duration in ms, 0 when it isn't known
+         */
+        void onPositionChanged(long position, long duration);
+
+        void onPlayStateChanged(MediaControl.PlayStateStatus state);
+
+        void onPlayStateError(ServiceCommandError error);
+    }
+
+    RemotePlaybackTracker(ConnectableDevice device) {
+        mDevice = device;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+        if (mListeners.size() == 1) {
+            start();
+        } else {
+            listener.onPlayStateChanged(mPlayState);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+        if (mListeners.isEmpty()) {
+            stop();
+        }
+    }
+
+    /**
+     * @return Interpolated position in ms
+     */
+    public long getPosition() {
+        long position = mPosition;
+        if (mPlayState == MediaControl.PlayStateStatus.Playing && mHasSample) {
+            position += SystemClock.elapsedRealtime() - mPositionTime;
+        }
+        return mDuration > 0 ? Math.min(position, mDuration) : position;
+    }
+
+    public long getDuration() {
+        return mDuration;
+    }
+
+    public MediaControl.PlayStateStatus getPlayState() {
+        return mPlayState;
+    }
+
+    public boolean isPlaying() {
+        return mPlayState == MediaControl.PlayStateStatus.Playing;
+    }
+
+    public void play(ResponseListener<Object> listener) {
+        MediaControl mediaControl = getMediaControl();
+        if (mediaControl == null) return;
+
+        mediaControl.play(listener);
+        setPlayState(MediaControl.PlayStateStatus.Playing);
+        pollSoon();
+    }
+
+    public void pause(ResponseListener<Object> listener) {
+        MediaControl mediaControl = getMediaControl();
+        if (mediaControl == null) return;
+
+        // freeze the position where it is now
+        setPosition(getPosition());
+        mediaControl.pause(listener);
+        setPlayState(MediaControl.PlayStateStatus.Paused);
+        pollSoon();
+    }
+
+    /**
+     * @param position Position in ms
+     */
+    public void seek(long position, ResponseListener<Object> listener) {
+        MediaControl mediaControl = getMediaControl();
+        if (mediaControl == null) return;
+
+        position = Math.max(0, mDuration > 0 ? Math.min(position, mDuration) : position);
+        mGeneration++;
+        setPosition(position);
+        mediaControl.seek(position, listener);
+        dispatchPosition();
+        pollSoon();
+    }
+
+    /**
+     * Forget the state of the previous video, called when a new video is played
+     */
+    void reset() {
+        mGeneration++;
+        mPosition = 0;
+        mPositionTime = SystemClock.elapsedRealtime();
+        mDuration = 0;
+        mHasSample = false;
+        mPlayState = MediaControl.PlayStateStatus.Unknown;
+        pollSoon();
+    }
+
+    /**
+     * Stop polling and drop the listeners, called when the device disconnects
+     */
+    void release() {
+        mListeners.clear();
+        stop();
+    }
+
+    private void start() {
+        if (mPolling) return;
+        mPolling = true;
+
+        MediaControl mediaControl = getMediaControl();
+        if (mediaControl != null && mDevice.hasCapability(MediaControl.PlayState_Subscribe)) {
+            mPlayStateSubscription = mediaControl.subscribePlayState(mPlayStateListener);
+        }
+
+        mFastPolls = FAST_POLLS;
+        mHandler.post(mPollRunnable);
+        mHandler.post(mDispatchRunnable);
+    }
+
+    private void stop() {
+        if (!mPolling) return;
+        mPolling = false;
+
+        if (mPlayStateSubscription != null) {
+            mPlayStateSubscription.unsubscribe();
+            mPlayStateSubscription = null;
+        }
+        mHandler.removeCallbacks(mPollRunnable);
+        mHandler.removeCallbacks(mDispatchRunnable);
+    }
+
+    private MediaControl getMediaControl() {
+        return mDevice.getCapability(MediaControl.class);
+    }
+
+    /**
+     * Poll quickly for a while, something changed on the device
+     */
+    private void pollSoon() {
+        mFastPolls = FAST_POLLS;
+        if (mPolling) {
+            mHandler.removeCallbacks(mPollRunnable);
+            mHandler.postDelayed(mPollRunnable, FAST_POLL_MS);
+        }
+    }
+
+    private void setPosition(long position) {
+        mPosition = position;
+        mPositionTime = SystemClock.elapsedRealtime();
+        mHasSample = true;
+    }
+
+    private void setPlayState(MediaControl.PlayStateStatus state) {
+        if (state == mPlayState) return;
+
+        // keep the interpolated position as the base for the new state
+        setPosition(getPosition());
+        mPlayState = state;
+        mFastPolls = FAST_POLLS;
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onPlayStateChanged(state);
+        }
+    }
+
+    private void dispatchPosition() {
+        long position = getPosition();
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onPositionChanged(position, mDuration);
+        }
+    }
+
+    private void poll() {
+        MediaControl mediaControl = getMediaControl();
+        if (mediaControl == null) return;
+
+        if (mPlayStateSubscription == null || mFastPolls > 0) {
+            mediaControl.getPlayState(mPlayStateListener);
+        }
+
+        if (mDevice.hasCapability(MediaControl.Duration) && (mDuration <= 0 || mFastPolls > 0)) {
+            mediaControl.getDuration(mDurationListener);
+        }
+
+        // don't stack requests on a slow device, but don't wait forever for a lost response either
+        final long requestTime = SystemClock.elapsedRealtime();
+        if (mDevice.hasCapability(MediaControl.Position) && (mPositionRequestTime < 0 || requestTime - mPositionRequestTime > STEADY_POLL_MS)) {
+            mPositionRequestTime = requestTime;
+            final int generation = mGeneration;
+            mediaControl.getPosition(new MediaControl.PositionListener() {
+                @Override
+                public void onSuccess(Long position) {
+                    if (mPositionRequestTime == requestTime) mPositionRequestTime = -1;
+                    if (generation != mGeneration || position == null) return;
+
+                    // the device answered somewhere between the request and the response
+                    long now = SystemClock.elapsedRealtime();
+                    long sampleTime = requestTime + (now - requestTime) / 2;
+                    if (mHasSample && Math.abs(getPosition() - (position + (isPlaying() ? now - sampleTime : 0))) > DRIFT_MS) {
+                        mFastPolls = FAST_POLLS;
+                    }
+                    mPosition = position;
+                    mPositionTime = sampleTime;
+                    mHasSample = true;
+                    dispatchPosition();
+                }
+
+                @Override
+                public void onError(ServiceCommandError error) {
+                    if (mPositionRequestTime == requestTime) mPositionRequestTime = -1;
+                }
+            });
+        }
+    }
+
+    private final Runnable mPollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mPolling) return;
+
+            poll();
+            if (mFastPolls > 0) {
+                mFastPolls--;
+            }
+            mHandler.postDelayed(this, mFastPolls > 0 ? FAST_POLL_MS : STEADY_POLL_MS);
+        }
+    };
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mPolling) return;
+
+            if (mHasSample) {
+                dispatchPosition();
+            }
+            mHandler.postDelayed(this, DISPATCH_INTERVAL_MS);
+        }
+    };
+
+    private final MediaControl.PlayStateListener mPlayStateListener = new MediaControl.PlayStateListener() {
+        @Override
+        public void onSuccess(MediaControl.PlayStateStatus state) {
+            setPlayState(state);
+        }
+
+        @Override
+        public void onError(ServiceCommandError error) {
+            for (Listener listener : new ArrayList<>(mListeners)) {
+                listener.onPlayStateError(error);
+            }
+        }
+    };
+
+    private final MediaControl.DurationListener mDurationListener = new MediaControl.DurationListener() {
+        @Override
+        public void onSuccess(Long duration) {
+            if (duration != null && duration > 0) {
+                mDuration = duration;
+            }
+        }
+
+        @Override
+        public void onError(ServiceCommandError error) {
+        }
+    };
+
+}
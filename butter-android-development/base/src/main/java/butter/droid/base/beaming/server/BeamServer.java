@@ -21,22 +21,18 @@ import android.content.Context;
 import android.net.wifi.WifiManager;
 import android.os.PowerManager;
 
-import com.koushikdutta.async.AsyncServer;
-import com.koushikdutta.async.http.Headers;
-import com.koushikdutta.async.http.HttpDate;
-import com.koushikdutta.async.http.server.AsyncHttpServer;
-import com.koushikdutta.async.http.server.AsyncHttpServerRequest;
-import com.koushikdutta.async.http.server.AsyncHttpServerResponse;
-import com.koushikdutta.async.http.server.HttpServerRequestCallback;
-
 import java.io.File;
-import java.util.Date;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import butter.droid.base.ButterApplication;
 import butter.droid.base.subs.FormatSRT;
 import butter.droid.base.subs.FormatVTT;
+import butter.droid.base.subs.SubtitleCache;
 import butter.droid.base.subs.TimedTextObject;
+import butter.droid.base.torrent.TorrentService;
 import butter.droid.base.utils.FileUtils;
 import timber.log.Timber;
 
@@ -49,13 +45,15 @@ public class BeamServer {
             SRT = new FileType("srt", "application/x-subrip", "*", ""),
             VTT = new FileType("vtt", "text/vtt", "*", "");
     private static FileType[] FILE_TYPES = {MP4, AVI, MKV};
-    private static FileType[] SUB_TYPES = {SRT, VTT};
     private static HashMap<String, FileType> EXTENSIONS, CONTENT_TYPES;
     private static String sHost;
     private static Integer sPort;
+    private static StreamingServer sStreamingServer;
     private static File sCurrentVideo = null, sCurrentSubs = null;
-    private AsyncServer mAsyncServer = new AsyncServer();
-    private AsyncHttpServer mHttpServer;
+    // paths of the sessions of the current files, created when their url is asked for
+    private static String sVideoPath = null;
+    private static Map<String, String> sVideoHeaders = null;
+    private static Map<FileType, String> sSubsPaths = new HashMap<>();
     private PowerManager.WakeLock mWakeLock;
     private WifiManager.WifiLock mWifiLock;
 
@@ -72,45 +70,33 @@ public class BeamServer {
     }
 
     public BeamServer(String host, int port) {
-        mHttpServer = new AsyncHttpServer() {
-            protected boolean onRequest(AsyncHttpServerRequest httpServerRequest, AsyncHttpServerResponse httpServerResponse) {
-                Timber.d(httpServerRequest.toString());
-                httpServerResponse.getHeaders().set("Access-Control-Allow-Origin", "*");
-                return super.onRequest(httpServerRequest, httpServerResponse);
+        synchronized (BeamServer.class) {
+            sHost = host;
+            if (sStreamingServer == null || sPort == null || sPort != port) {
+                if (sStreamingServer != null) {
+                    sStreamingServer.stop();
+                }
+                sStreamingServer = new StreamingServer(port);
+                sVideoPath = null;
+                sVideoHeaders = null;
+                sSubsPaths.clear();
             }
-        };
-
-        sHost = host;
-        sPort = port;
-
-        for (FileType localFileType : FILE_TYPES) {
-            VideoFileReponse localVideoFileReponse = new VideoFileReponse(localFileType);
-            mHttpServer.get("/video." + localFileType.extension, localVideoFileReponse);
-            mHttpServer.addAction("HEAD", "/video." + localFileType.extension, localVideoFileReponse);
-        }
-
-        for(FileType localSubsFileType : SUB_TYPES) {
-            SubtitleFileResponse localSubsFileReponse = new SubtitleFileResponse(localSubsFileType);
-            mHttpServer.get("/video." + localSubsFileType.extension, localSubsFileReponse);
-            mHttpServer.addAction("HEAD", "/video." + localSubsFileType.extension, localSubsFileReponse);
+            sPort = port;
         }
-
-        mHttpServer.get("/(.*?)", new HttpServerRequestCallback() {
-            @Override
-            public void onRequest(AsyncHttpServerRequest request, AsyncHttpServerResponse response) {
-                response.send("Not found");
-                response.code(404);
-            }
-        });
     }
 
-    public static void setCurrentVideo(File file) {
+    public static synchronized void setCurrentVideo(File file) {
+        if (sVideoPath != null && sStreamingServer != null) {
+            sStreamingServer.removeSession(sVideoPath);
+        }
+        sVideoPath = null;
+        sVideoHeaders = null;
         sCurrentVideo = file;
     }
 
-    public static void setCurrentSubs(File file) {
+    public static synchronized void setCurrentSubs(File file) {
+        removeSubs();
         if(file == null) {
-            sCurrentSubs = null;
             return;
         }
 
@@ -119,20 +105,25 @@ public class BeamServer {
         File srtFile = new File(sCurrentSubs.getAbsolutePath() + ".srt");
 
         try {
-            if (FileUtils.getFileExtension(file.getName()).equals("srt") && !vttFile.exists() && srtFile.exists()) {
-                FormatSRT srt = new FormatSRT();
-                TimedTextObject timedTextObject = srt.parseFile(file.getName(), FileUtils.getContentsAsString(file.getAbsolutePath()));
-                String[] vttStr = timedTextObject.toVTT();
-                FileUtils.saveStringFile(vttStr, vttFile);
-            } else if (FileUtils.getFileExtension(file.getName()).equals("vtt") && !srtFile.exists() && vttFile.exists()) {
-                FormatVTT vtt = new FormatVTT();
-                TimedTextObject timedTextObject = vtt.parseFile(file.getName(), FileUtils.getContentsAsString(file.getAbsolutePath()));
-                String[] srtStr = timedTextObject.toSRT();
-                FileUtils.saveStringFile(srtStr, srtFile);
+            // the exports are regenerated when the source is newer, the compiled subtitle cache saves the parsing
+            if (FileUtils.getFileExtension(file.getName()).equals("srt") && srtFile.exists() && isOutdated(vttFile, srtFile)) {
+                TimedTextObject timedTextObject = SubtitleCache.loadOrParse(srtFile, new FormatSRT(), null);
+                FileUtils.saveStringFile(timedTextObject.toVTT(), vttFile);
+            } else if (FileUtils.getFileExtension(file.getName()).equals("vtt") && vttFile.exists() && isOutdated(srtFile, vttFile)) {
+                TimedTextObject timedTextObject = SubtitleCache.loadOrParse(vttFile, new FormatVTT(), null);
+                FileUtils.saveStringFile(timedTextObject.toSRT(), srtFile);
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
+
+        if (sVideoHeaders != null) {
+            sVideoHeaders.put("CaptionInfo.sec", getSubsURL(SRT));
+        }
+    }
+
+    private static boolean isOutdated(File export, File source) {
+        return !export.exists() || export.lastModified() < source.lastModified();
     }
 
     public static void setCurrentVideo(String file) {
@@ -143,43 +134,98 @@ public class BeamServer {
         setCurrentSubs(new File(file));
     }
 
-    public static void removeSubs() {
+    public static synchronized void removeSubs() {
+        if (sStreamingServer != null) {
+            for (String path : sSubsPaths.values()) {
+                sStreamingServer.removeSession(path);
+            }
+        }
+        sSubsPaths.clear();
         sCurrentSubs = null;
+        if (sVideoHeaders != null) {
+            sVideoHeaders.remove("CaptionInfo.sec");
+        }
     }
 
     public static String getHost() {
         return "http://" + sHost + ":" + sPort;
     }
 
-    public static String getVideoURL() {
-        return "http://" + sHost + ":" + sPort + "/video.mp4";
+    /**
+     * @return Type of the current video, by its extension
+     */
+    public static synchronized FileType getVideoFileType() {
+        FileType fileType = sCurrentVideo == null ? null : EXTENSIONS.get(FileUtils.getFileExtension(sCurrentVideo.getName()).toLowerCase());
+        return fileType == null ? MP4 : fileType;
+    }
+
+    /**
+     * @return Url of the current video, or null when there is none. The video of the current torrent stream is served
+     * while it is downloaded
+     */
+    public static synchronized String getVideoURL() {
+        if (sCurrentVideo == null || sStreamingServer == null) return null;
+
+        if (sVideoPath == null) {
+            FileType fileType = getVideoFileType();
+            sVideoHeaders = new ConcurrentHashMap<>(fileType.getHeaders());
+            if (sCurrentSubs != null) {
+                sVideoHeaders.put("CaptionInfo.sec", getSubsURL(SRT));
+            }
+
+            TorrentService torrentService = TorrentService.getInstance();
+            StreamingServer.Source source;
+            if (torrentService != null && torrentService.isStreamingFile(sCurrentVideo)) {
+                source = new TorrentSource(torrentService, sCurrentVideo);
+            } else {
+                source = new StreamingServer.FileSource(sCurrentVideo);
+            }
+            sVideoPath = sStreamingServer.addSession("video." + fileType.extension, sCurrentVideo, fileType.mimeType, sVideoHeaders, source);
+        }
+        return getHost() + sVideoPath;
     }
 
     public static String getSubsURL() {
-        return "http://" + sHost + ":" + sPort + "/video." + SRT.extension;
+        return getSubsURL(SRT);
     }
 
-    public static String getSubsURL(FileType fileType) {
-        return "http://" + sHost + ":" + sPort + "/video." + fileType.extension;
+    /**
+     * @return Url of the current subtitles in the format, or null when there are none
+     */
+    public static synchronized String getSubsURL(FileType fileType) {
+        if (sCurrentSubs == null || sStreamingServer == null) return null;
+
+        String path = sSubsPaths.get(fileType);
+        if (path == null) {
+            File file = new File(sCurrentSubs.getAbsolutePath() + "." + fileType.extension);
+            path = sStreamingServer.addSession("video." + fileType.extension, file, fileType.mimeType, fileType.getHeaders(), new StreamingServer.FileSource(file));
+            sSubsPaths.put(fileType, path);
+        }
+        return getHost() + path;
     }
 
     public void start() {
-        mHttpServer.listen(mAsyncServer, sPort);
+        try {
+            sStreamingServer.start();
+        } catch (IOException e) {
+            Timber.e(e, "Starting CastingServer failed");
+            return;
+        }
 
-        PowerManager powerManager = (PowerManager) ButterApplication.getAppContext().getSystemService(Context.POWER_SERVICE);
-        mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "CastingServer");
+        if (mWakeLock == null) {
+            PowerManager powerManager = (PowerManager) ButterApplication.getAppContext().getSystemService(Context.POWER_SERVICE);
+            mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "CastingServer");
+            mWakeLock.setReferenceCounted(false);
+            WifiManager wifiManager = (WifiManager) ButterApplication.getAppContext().getSystemService(Context.WIFI_SERVICE);
+            mWifiLock = wifiManager.createWifiLock(WifiManager.WIFI_MODE_FULL, "CastingServer");
+            mWifiLock.setReferenceCounted(false);
+        }
         mWakeLock.acquire();
-        WifiManager wifiManager = (WifiManager) ButterApplication.getAppContext().getSystemService(Context.WIFI_SERVICE);
-        mWifiLock = wifiManager.createWifiLock(WifiManager.WIFI_MODE_FULL, "CastingServer");
         mWifiLock.acquire();
     }
 
     public void stop() {
-        if(mHttpServer != null)
-            mHttpServer.stop();
-        AsyncServer.getDefault().stop();
-        if(mAsyncServer != null)
-            mAsyncServer.stop();
+        sStreamingServer.stop();
 
         if(mWifiLock != null && mWifiLock.isHeld())
         mWifiLock.release();
@@ -208,59 +254,15 @@ public class BeamServer {
             return this.mimeType.startsWith("video/");
         }
 
-        public void setHeaders(Headers paramHeaders) {
-            paramHeaders.set("contentFeatures.dlna.org", this.dlnaContentFeatures);
-            paramHeaders.set("TransferMode.DLNA.ORG", this.dlnaTransferMode);
-            paramHeaders.set("DAAP-Server", "iTunes/11.0.5 (OS X)");
-            paramHeaders.set("Date", HttpDate.format(new Date()));
-            paramHeaders.set("Last-Modified", "2015-01-01T10:00:00Z");
-            paramHeaders.set("Content-Type", this.mimeType);
-            paramHeaders.set("CaptionInfo.sec", getSubsURL(SRT));
-        }
-
-        public void setHeaders(AsyncHttpServerResponse httpServerResponse) {
-            setHeaders(httpServerResponse.getHeaders());
-        }
-    }
-
-    class VideoFileReponse implements HttpServerRequestCallback {
-        FileType mFileType;
-
-        public VideoFileReponse(FileType fileType) {
-            mFileType = fileType;
-        }
-
-        public void onRequest(AsyncHttpServerRequest asyncHttpServerRequest, AsyncHttpServerResponse httpServerResponse) {
-            if (sCurrentVideo != null && sCurrentVideo.exists()) {
-                mFileType.setHeaders(httpServerResponse);
-                httpServerResponse.sendFile(sCurrentVideo);
-            } else {
-                httpServerResponse.send("Not found");
-                httpServerResponse.code(404);
-            }
-
-            Timber.i(httpServerResponse.toString());
-        }
-    }
-
-    class SubtitleFileResponse implements HttpServerRequestCallback {
-        FileType mFileType;
-
-        public SubtitleFileResponse(FileType fileType) {
-            mFileType = fileType;
-        }
-
-        public void onRequest(AsyncHttpServerRequest asyncHttpServerRequest, AsyncHttpServerResponse httpServerResponse) {
-            File file = new File(sCurrentSubs.getAbsolutePath() + "." + mFileType.extension);
-            if (sCurrentSubs != null && file.exists()) {
-                mFileType.setHeaders(httpServerResponse);
-                httpServerResponse.sendFile(file);
-            } else {
-                httpServerResponse.send("Not found");
-                httpServerResponse.code(404);
-            }
-
-            Timber.i(httpServerResponse.toString());
+        /**
+         * @return Headers for DLNA receivers, the server adds the content type, dates and ranges
+         */
+        public Map<String, String> getHeaders() {
+            Map<String, String> headers = new HashMap<>();
+            headers.put("contentFeatures.dlna.org", this.dlnaContentFeatures);
+            headers.put("TransferMode.DLNA.ORG", this.dlnaTransferMode);
+            headers.put("DAAP-Server", "iTunes/11.0.5 (OS X)");
+            return headers;
         }
     }
 }
@@ -0,0 +1,502 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.beaming.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * StreamingServer.java
+ * <p/>
+ * HTTP server for the files that are beamed to a device. Every file is served in a session with its own url, so
+ * several files can be served at the same time. Receivers seek with Range requests, those are answered with the
+ * requested bytes, copied from the file to the socket by the kernel with {@link FileChannel#transferTo}.
+ * <p/>
+ * A file can be served while it is downloaded. Bytes that aren't there yet are waited for through the {@link Source}
+ * of the session, a request that waits too long is aborted instead of answered with short data.
+ */
+public class StreamingServer {
+
+    private static final int MAX_CONNECTIONS = 8;
+    private static final int MAX_SESSIONS = 8;
+    private static final int MAX_HEADER_SIZE = 8 * 1024;
+    private static final int IDLE_TIMEOUT_MS = 15 * 1000;
+    private static final int WRITE_TIMEOUT_MS = 30 * 1000;
+    // how long a request waits for bytes that aren't downloaded yet
+    private static final long DATA_TIMEOUT_MS = 60 * 1000;
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+
+    private final int mPort;
+    private final Map<String, Session> mSessions = new LinkedHashMap<String, Session>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+            return size() > MAX_SESSIONS;
+        }
+    };
+    private final SecureRandom mRandom = new SecureRandom();
+    private ServerSocketChannel mServerChannel;
+    private ThreadPoolExecutor mExecutor;
+
+    /**
+     * Content of a session
+     */
+    public interface Source {
+        /**
+         * @return Length of the content, -1 when it isn't known yet
+         */
+        long getLength();
+
+        /**
+         * @param offset Offset in the content
+         * @param max    Maximum number of bytes
+         * @return Number of bytes from the offset that can be read now
+         */
+        long getAvailable(long offset, long max);
+
+        /**
+         * Wait until the byte at the offset can be read. Reads of a receiver run ahead of its playback, so waiting
+         * must not be taken as the playback position.
+         *
+         * @return false when it can't be read before the timeout
+         */
+        boolean waitFor(long offset, long timeoutMs) throws InterruptedException;
+    }
+
+    /**
+     * Source for a file that is complete
+     */
+    public static class FileSource implements Source {
+        private final File mFile;
+
+        public FileSource(File file) {
+            mFile = file;
+        }
+
+        @Override
+        public long getLength() {
+            return mFile.exists() ? mFile.length() : -1;
+        }
+
+        @Override
+        public long getAvailable(long offset, long max) {
+            return Math.max(0, Math.min(max, mFile.length() - offset));
+        }
+
+        @Override
+        public boolean waitFor(long offset, long timeoutMs) {
+            return offset < mFile.length();
+        }
+    }
+
+    private static class Session {
+        final String mToken;
+        final File mFile;
+        final String mContentType;
+        final Map<String, String> mHeaders;
+        final Source mSource;
+        final String mLastModified = formatDate(new Date());
+
+        Session(String token, File file, String contentType, Map<String, String> headers, Source source) {
+            mToken = token;
+            mFile = file;
+            mContentType = contentType;
+            mHeaders = headers;
+            mSource = source;
+        }
+    }
+
+    private static class Request {
+        String method;
+        String path;
+        boolean keepAlive;
+        final Map<String, String> headers = new HashMap<>();
+    }
+
+    public StreamingServer(int port) {
+        mPort = port;
+    }
+
+    public synchronized void start() throws IOException {
+        if (mServerChannel != null) return;
+
+        final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(mPort));
+        mServerChannel = serverChannel;
+        mExecutor = new ThreadPoolExecutor(1, MAX_CONNECTIONS + 1, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+
+        final ThreadPoolExecutor executor = mExecutor;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept(serverChannel, executor);
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        if (mServerChannel == null) return;
+
+        try {
+            mServerChannel.close();
+        } catch (IOException e) {
+            Timber.d(e, "Closing server failed");
+        }
+        mExecutor.shutdownNow();
+        mServerChannel = null;
+        mExecutor = null;
+    }
+
+    /**
+     * Serve a file
+     *
+     * @param name        Name of the file in the url
+     * @param file        File
+     * @param contentType Content type of the file
+     * @param headers     Additional headers of responses
+     * @param source      Source that tells which part of the file can be read
+     * @return Path of the file on the server
+     */
+    public String addSession(String name, File file, String contentType, Map<String, String> headers, Source source) {
+        byte[] bytes = new byte[12];
+        mRandom.nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes) {
+            token.append(Integer.toHexString((b & 0xFF) | 0x100).substring(1));
+        }
+
+        String path = "/" + token + "/" + name;
+        synchronized (mSessions) {
+            mSessions.put(path, new Session(token.toString(), file, contentType, headers, source));
+        }
+        return path;
+    }
+
+    public void removeSession(String path) {
+        synchronized (mSessions) {
+            mSessions.remove(path);
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel, ThreadPoolExecutor executor) {
+        while (serverChannel.isOpen()) {
+            final SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                if (serverChannel.isOpen()) Timber.e(e, "Accepting connection failed");
+                return;
+            }
+
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(channel);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                Timber.w("Too many connections, closing %s", channel.socket().getRemoteSocketAddress());
+                close(channel);
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        Selector selector = null;
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            selector = Selector.open();
+            SelectionKey key = channel.register(selector, 0);
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_SIZE);
+
+            boolean keepAlive = true;
+            while (keepAlive) {
+                Request request = readRequest(channel, key, buffer);
+                if (request == null) break;
+                keepAlive = respond(channel, key, request);
+            }
+        } catch (IOException e) {
+            Timber.d("Connection closed: %s", e.getMessage());
+        } catch (InterruptedException e) {
+            // the server stopped
+        } finally {
+            if (selector != null) {
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+            close(channel);
+        }
+    }
+
+    /**
+     * @return Request, or null when the connection was closed or idle for too long
+     */
+    private Request readRequest(SocketChannel channel, SelectionKey key, ByteBuffer buffer) throws IOException {
+        int end;
+        while ((end = findHeaderEnd(buffer)) < 0) {
+            if (!buffer.hasRemaining()) throw new IOException("Request header too large");
+            if (!await(key, SelectionKey.OP_READ, IDLE_TIMEOUT_MS)) return null;
+            if (channel.read(buffer) == -1) return null;
+        }
+
+        String head = new String(buffer.array(), 0, end, "ISO-8859-1");
+        // keep what the client sent after the header, requests without a body are all this server handles
+        int length = buffer.position();
+        System.arraycopy(buffer.array(), end + 4, buffer.array(), 0, length - end - 4);
+        buffer.position(length - end - 4);
+
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) throw new IOException("Invalid request line " + lines[0]);
+
+        Request request = new Request();
+        request.method = requestLine[0];
+        int query = requestLine[1].indexOf('?');
+        request.path = query < 0 ? requestLine[1] : requestLine[1].substring(0, query);
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                request.headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.US), lines[i].substring(colon + 1).trim());
+            }
+        }
+
+        String connection = request.headers.get("connection");
+        if ("HTTP/1.1".equals(requestLine[2])) {
+            request.keepAlive = !"close".equalsIgnoreCase(connection);
+        } else {
+            request.keepAlive = "keep-alive".equalsIgnoreCase(connection);
+        }
+        return request;
+    }
+
+    private static int findHeaderEnd(ByteBuffer buffer) {
+        byte[] bytes = buffer.array();
+        for (int i = 0; i + 3 < buffer.position(); i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return true when the connection can be used for the next request
+     */
+    private boolean respond(SocketChannel channel, SelectionKey key, Request request) throws IOException, InterruptedException {
+        Session session;
+        synchronized (mSessions) {
+            session = mSessions.get(request.path);
+        }
+
+        boolean head = request.method.equals("HEAD");
+        if (session == null) {
+            sendEmpty(channel, key, request, "404 Not Found", null);
+            return request.keepAlive;
+        }
+        if (!head && !request.method.equals("GET")) {
+            sendEmpty(channel, key, request, "405 Method Not Allowed", "Allow: GET, HEAD\r\n");
+            return request.keepAlive;
+        }
+
+        long length = session.mSource.getLength();
+        if (length < 0) {
+            sendEmpty(channel, key, request, "503 Service Unavailable", "Retry-After: 5\r\n");
+            return request.keepAlive;
+        }
+
+        String etag = "\"" + session.mToken + "\"";
+        long[] range = null;
+        String ifRange = request.headers.get("if-range");
+        if (ifRange == null || ifRange.equals(etag) || ifRange.equals(session.mLastModified)) {
+            range = parseRange(request.headers.get("range"), length);
+        }
+        if (range != null && range.length == 0) {
+            sendEmpty(channel, key, request, "416 Range Not Satisfiable", "Content-Range: bytes */" + length + "\r\n");
+            return request.keepAlive;
+        }
+
+        long start = range == null ? 0 : range[0];
+        long end = range == null ? length - 1 : range[1];
+
+        StringBuilder header = new StringBuilder();
+        header.append("HTTP/1.1 ").append(range == null ? "200 OK" : "206 Partial Content").append("\r\n");
+        header.append("Content-Type: ").append(session.mContentType).append("\r\n");
+        header.append("Content-Length: ").append(end - start + 1).append("\r\n");
+        header.append("Accept-Ranges: bytes\r\n");
+        if (range != null) {
+            header.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(length).append("\r\n");
+        }
+        header.append("ETag: ").append(etag).append("\r\n");
+        header.append("Last-Modified: ").append(session.mLastModified).append("\r\n");
+        for (Map.Entry<String, String> entry : session.mHeaders.entrySet()) {
+            header.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+        }
+        appendCommonHeaders(header, request);
+        Timber.d("%s %s: %s", request.method, request.path, range == null ? "all" : start + "-" + end);
+
+        write(channel, key, ByteBuffer.wrap(header.toString().getBytes("ISO-8859-1")));
+        if (!head) {
+            sendBody(channel, key, session, start, end + 1);
+        }
+        return request.keepAlive;
+    }
+
+    private void sendBody(SocketChannel channel, SelectionKey key, Session session, long start, long end) throws IOException, InterruptedException {
+        RandomAccessFile file = null;
+        try {
+            long position = start;
+            while (position < end) {
+                long available = session.mSource.getAvailable(position, Math.min(end - position, TRANSFER_SIZE));
+                if (available <= 0) {
+                    if (!session.mSource.waitFor(position, DATA_TIMEOUT_MS)) {
+                        throw new IOException("Timed out waiting for byte " + position + " of " + session.mFile);
+                    }
+                    continue;
+                }
+
+                if (file == null) {
+                    file = new RandomAccessFile(session.mFile, "r");
+                }
+                transfer(file.getChannel(), position, available, channel, key);
+                position += available;
+            }
+        } finally {
+            if (file != null) file.close();
+        }
+    }
+
+    private static void transfer(FileChannel file, long position, long count, SocketChannel channel, SelectionKey key) throws IOException {
+        while (count > 0) {
+            long written = file.transferTo(position, count, channel);
+            if (written == 0) {
+                if (position >= file.size()) throw new IOException("File ends before its available data");
+                if (!await(key, SelectionKey.OP_WRITE, WRITE_TIMEOUT_MS)) throw new IOException("Write timed out");
+            }
+            position += written;
+            count -= written;
+        }
+    }
+
+    private static void write(SocketChannel channel, SelectionKey key, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) == 0 && !await(key, SelectionKey.OP_WRITE, WRITE_TIMEOUT_MS)) {
+                throw new IOException("Write timed out");
+            }
+        }
+    }
+
+    /**
+     * @return false on a timeout
+     */
+    private static boolean await(SelectionKey key, int operation, int timeoutMs) throws IOException {
+        key.interestOps(operation);
+        int selected = key.selector().select(timeoutMs);
+        key.selector().selectedKeys().clear();
+        return selected > 0;
+    }
+
+    private static void sendEmpty(SocketChannel channel, SelectionKey key, Request request, String status, String extraHeaders) throws IOException {
+        StringBuilder header = new StringBuilder();
+        header.append("HTTP/1.1 ").append(status).append("\r\n");
+        header.append("Content-Length: 0\r\n");
+        if (extraHeaders != null) header.append(extraHeaders);
+        appendCommonHeaders(header, request);
+        Timber.d("%s %s: %s", request.method, request.path, status);
+        write(channel, key, ByteBuffer.wrap(header.toString().getBytes("ISO-8859-1")));
+    }
+
+    private static void appendCommonHeaders(StringBuilder header, Request request) {
+        header.append("Date: ").append(formatDate(new Date())).append("\r\n");
+        header.append("Access-Control-Allow-Origin: *\r\n");
+        header.append("Connection: ").append(request.keepAlive ? "keep-alive" : "close").append("\r\n");
+        header.append("\r\n");
+    }
+
+    /**
+     * @return First and last byte of the range, an empty array when the range can't be satisfied, or null when the
+     * whole content should be sent
+     */
+    static long[] parseRange(String range, long length) {
+        if (range == null || !range.startsWith("bytes=")) return null;
+        String spec = range.substring("bytes=".length()).trim();
+        // several ranges would need a multipart response, the whole content is a valid answer as well
+        if (spec.contains(",")) return null;
+
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // the last n bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) return new long[0];
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (end < start) return last.isEmpty() || start >= length ? new long[0] : null;
+            }
+            if (start >= length) return new long[0];
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String formatDate(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(date);
+    }
+
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+}
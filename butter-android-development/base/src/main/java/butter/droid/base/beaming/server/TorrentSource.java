@@ -0,0 +1,70 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package butter.droid.base.beaming.server;
+
+import java.io.File;
+
+import butter.droid.base.torrent.TorrentService;
+
+/**
+ * TorrentSource.java
+ * <p/>
+ * Source for the video file of the current stream, only the downloaded pieces are read and the pieces a receiver
+ * is about to read are fetched right away. Reads don't move the playhead of the stream, that follows the position the
+ * receiver reports.
+ */
+class TorrentSource implements StreamingServer.Source {
+
+    private final TorrentService mService;
+    private final File mFile;
+
+    TorrentSource(TorrentService service, File file) {
+        mService = service;
+        mFile = file;
+    }
+
+    @Override
+    public long getLength() {
+        if (!mService.isStreamingFile(mFile)) {
+            return mFile.exists() ? mFile.length() : -1;
+        }
+        long length = mService.getVideoFileSize();
+        return length > 0 ? length : -1;
+    }
+
+    @Override
+    public long getAvailable(long offset, long max) {
+        if (!mService.isStreamingFile(mFile)) {
+            // the stream is done or stopped, whatever is left on disk is complete
+            return mFile.exists() ? Math.max(0, Math.min(max, mFile.length() - offset)) : 0;
+        }
+        long available = mService.getAvailableBytes(offset, max);
+        if (available < max) {
+            // the read stops at a missing piece, fetch it while the available part is sent
+            mService.readAhead(offset + available);
+        }
+        return available;
+    }
+
+    @Override
+    public boolean waitFor(long offset, long timeoutMs) throws InterruptedException {
+        return mService.isStreamingFile(mFile) && mService.waitForBytes(offset, timeoutMs);
+    }
+
+}
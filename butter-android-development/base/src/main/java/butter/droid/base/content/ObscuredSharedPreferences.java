@@ -24,8 +24,18 @@ import android.os.Build;
 import android.provider.Settings;
 import android.util.Base64;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
@@ -33,92 +43,151 @@ import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.PBEParameterSpec;
 
+import butter.droid.base.utils.ThreadUtils;
+import timber.log.Timber;
+
 /**
  * Warning, this gives a false sense of security.  If an attacker has enough access to
  * acquire your password store, then he almost certainly has enough access to acquire your
  * source binary and figure out your encryption key.  However, it will prevent casual
  * investigators from acquiring passwords, and thereby may prevent undesired negative
  * publicity.
+ * <p/>
+ * The key is derived once per process. All values are decrypted once into an in-memory snapshot that the getters
+ * read from, changes made to the underlying preferences by someone else invalidate the changed keys. Edits update the
+ * snapshot immediately, they are encrypted and written to disk in batches on a background thread.
  */
 public class ObscuredSharedPreferences implements SharedPreferences {
     protected static final String UTF8 = "utf-8";
-    private static final char[] SEKRIT = new char[]{0x9D, 0xD9, 0x01, 0xAF, 0xBB, 0x23, 0x12, 0xED}; // INSERT A RANDOM PASSWORD HERE.
+    static final char[] SEKRIT = new char[]{0x9D, 0xD9, 0x01, 0xAF, 0xBB, 0x23, 0x12, 0xED}; // INSERT A RANDOM PASSWORD HERE.
     // Don't use anything you wouldn't want to
     // get out there if someone decompiled
     // your app.
+    static final String ALGORITHM = "PBEWithMD5AndDES";
+    static final int ITERATIONS = 20;
+
+    // marks a removed key in a pending write
+    private static final Object REMOVED = new Object();
 
+    private static Cipher sEncryptCipher;
+    private static Cipher sDecryptCipher;
 
     protected SharedPreferences delegate;
     protected Context context;
 
+    private final ExecutorService mWriteExecutor = Executors.newSingleThreadExecutor();
+    private final Map<OnSharedPreferenceChangeListener, Object> mListeners = new WeakHashMap<>();
+    private Map<String, Object> mSnapshot;
+    private Map<String, Object> mPendingWrites = new LinkedHashMap<>();
+    private boolean mPendingClear = false;
+    private boolean mWriteScheduled = false;
+    // keys written to the delegate by write() whose change notification hasn't come back yet, with their count
+    private final Map<String, Integer> mOwnWrites = new HashMap<>();
+
+    // the delegate only keeps a weak reference to its listeners
+    private final OnSharedPreferenceChangeListener mDelegateListener = new OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            // our own writes were already reported when the edit was applied
+            if (consumeOwnWrite(key)) {
+                return;
+            }
+            if (invalidate(key)) {
+                notifyListeners(Collections.singletonList(key));
+            }
+        }
+    };
+
     public ObscuredSharedPreferences(Context context, SharedPreferences delegate) {
         this.delegate = delegate;
-        this.context = context;
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.delegate.registerOnSharedPreferenceChangeListener(mDelegateListener);
+
+        // decrypt the snapshot before the first get needs it
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                getSnapshot();
+            }
+        });
     }
 
     public class Editor implements SharedPreferences.Editor {
-        protected SharedPreferences.Editor delegate;
+        private final Map<String, Object> mModified = new LinkedHashMap<>();
+        private boolean mClear = false;
 
         public Editor() {
-            this.delegate = ObscuredSharedPreferences.this.delegate.edit();
         }
 
         @Override
         public Editor putBoolean(String key, boolean value) {
-            delegate.putString(key, encrypt(Boolean.toString(value)));
+            mModified.put(key, value);
             return this;
         }
 
         @Override
         public Editor putFloat(String key, float value) {
-            delegate.putString(key, encrypt(Float.toString(value)));
+            mModified.put(key, value);
             return this;
         }
 
         @Override
         public Editor putInt(String key, int value) {
-            delegate.putString(key, encrypt(Integer.toString(value)));
+            mModified.put(key, value);
             return this;
         }
 
         @Override
         public Editor putLong(String key, long value) {
-            delegate.putString(key, encrypt(Long.toString(value)));
+            mModified.put(key, value);
             return this;
         }
 
         @Override
         public Editor putString(String key, String value) {
-            delegate.putString(key, encrypt(value));
+            mModified.put(key, value == null ? REMOVED : value);
             return this;
         }
 
         @TargetApi(Build.VERSION_CODES.HONEYCOMB)
         @Override
         public SharedPreferences.Editor putStringSet(String s, Set<String> strings) {
-            delegate.putStringSet(s, strings);
+            mModified.put(s, strings == null ? REMOVED : new HashSet<>(strings));
             return this;
         }
 
         @Override
         public void apply() {
-            delegate.apply();
+            List<String> changed = applyToSnapshot(mModified, mClear);
+            notifyListeners(changed);
         }
 
         @Override
         public Editor clear() {
-            delegate.clear();
+            mClear = true;
             return this;
         }
 
         @Override
         public boolean commit() {
-            return delegate.commit();
+            apply();
+            try {
+                // the write executor runs in order, so this waits for the write of this edit
+                mWriteExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                }).get();
+                return true;
+            } catch (InterruptedException | ExecutionException e) {
+                Timber.w(e, "Waiting for preferences write failed");
+                return false;
+            }
         }
 
         @Override
         public Editor remove(String s) {
-            delegate.remove(s);
+            mModified.put(s, REMOVED);
             return this;
         }
     }
@@ -130,70 +199,325 @@ public class ObscuredSharedPreferences implements SharedPreferences {
 
     @Override
     public Map<String, ?> getAll() {
-        throw new UnsupportedOperationException(); // left as an exercise to the reader
+        synchronized (this) {
+            return new HashMap<>(getSnapshot());
+        }
     }
 
     @Override
     public boolean getBoolean(String key, boolean defValue) {
-        final String v = delegate.getString(key, null);
-        return v != null ? Boolean.parseBoolean(decrypt(v)) : defValue;
+        synchronized (this) {
+            Object v = getSnapshot().get(key);
+            if (v == null || v instanceof Boolean) {
+                return v != null ? (Boolean) v : defValue;
+            }
+            boolean value = Boolean.parseBoolean(v.toString());
+            if (v instanceof String) mSnapshot.put(key, value);
+            return value;
+        }
     }
 
     @Override
     public float getFloat(String key, float defValue) {
-        final String v = delegate.getString(key, null);
-        return v != null ? Float.parseFloat(decrypt(v)) : defValue;
+        synchronized (this) {
+            Object v = getSnapshot().get(key);
+            if (v == null || v instanceof Float) {
+                return v != null ? (Float) v : defValue;
+            }
+            float value = Float.parseFloat(v.toString());
+            if (v instanceof String) mSnapshot.put(key, value);
+            return value;
+        }
     }
 
     @Override
     public int getInt(String key, int defValue) {
-        final String v = delegate.getString(key, null);
-        return v != null ? Integer.parseInt(decrypt(v)) : defValue;
+        synchronized (this) {
+            Object v = getSnapshot().get(key);
+            if (v == null || v instanceof Integer) {
+                return v != null ? (Integer) v : defValue;
+            }
+            int value = Integer.parseInt(v.toString());
+            if (v instanceof String) mSnapshot.put(key, value);
+            return value;
+        }
     }
 
     @Override
     public long getLong(String key, long defValue) {
-        final String v = delegate.getString(key, null);
-        return v != null ? Long.parseLong(decrypt(v)) : defValue;
+        synchronized (this) {
+            Object v = getSnapshot().get(key);
+            if (v == null || v instanceof Long) {
+                return v != null ? (Long) v : defValue;
+            }
+            long value = Long.parseLong(v.toString());
+            if (v instanceof String) mSnapshot.put(key, value);
+            return value;
+        }
     }
 
     @Override
     public String getString(String key, String defValue) {
-        final String v = delegate.getString(key, null);
-        return v != null ? decrypt(v) : defValue;
+        synchronized (this) {
+            Object v = getSnapshot().get(key);
+            return v != null && !(v instanceof Set) ? v.toString() : defValue;
+        }
     }
 
+    @SuppressWarnings("unchecked")
     @TargetApi(Build.VERSION_CODES.HONEYCOMB)
     @Override
     public Set<String> getStringSet(String s, Set<String> strings) {
-        return delegate.getStringSet(s, strings);
+        synchronized (this) {
+            Object v = getSnapshot().get(s);
+            return v instanceof Set ? new HashSet<>((Set<String>) v) : strings;
+        }
     }
 
     @Override
     public boolean contains(String s) {
-        return delegate.contains(s);
+        synchronized (this) {
+            return getSnapshot().containsKey(s);
+        }
     }
 
     @Override
     public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener onSharedPreferenceChangeListener) {
-        delegate.registerOnSharedPreferenceChangeListener(onSharedPreferenceChangeListener);
+        synchronized (mListeners) {
+            mListeners.put(onSharedPreferenceChangeListener, this);
+        }
     }
 
     @Override
     public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener onSharedPreferenceChangeListener) {
-        delegate.unregisterOnSharedPreferenceChangeListener(onSharedPreferenceChangeListener);
+        synchronized (mListeners) {
+            mListeners.remove(onSharedPreferenceChangeListener);
+        }
+    }
+
+    /**
+     * @return The decrypted values, read from the delegate on first use. Values are stored as a String until they are
+     * read with a typed getter.
+     */
+    private synchronized Map<String, Object> getSnapshot() {
+        if (mSnapshot != null) {
+            return mSnapshot;
+        }
+
+        Map<String, Object> snapshot = new HashMap<>();
+        for (Map.Entry<String, ?> entry : delegate.getAll().entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                String decrypted = decrypt((String) value);
+                if (decrypted == null) {
+                    // decrypt() cleared the preferences
+                    snapshot.clear();
+                    break;
+                }
+                snapshot.put(entry.getKey(), decrypted);
+            } else if (value != null) {
+                snapshot.put(entry.getKey(), value);
+            }
+        }
+        mSnapshot = snapshot;
+        return mSnapshot;
+    }
+
+    /**
+     * Read a key that was changed in the delegate again, unless a write of our own for it is still pending
+     *
+     * @return true when the key was read again
+     */
+    private synchronized boolean invalidate(String key) {
+        if (mSnapshot == null || mPendingClear || mPendingWrites.containsKey(key)) {
+            return false;
+        }
+
+        Object value = delegate.getAll().get(key);
+        if (value instanceof String) {
+            String decrypted = decrypt((String) value);
+            if (decrypted == null) {
+                mSnapshot.clear();
+                return true;
+            }
+            value = decrypted;
+        }
+        if (value == null) {
+            mSnapshot.remove(key);
+        } else {
+            mSnapshot.put(key, value);
+        }
+        return true;
+    }
+
+    /**
+     * @return true when the change of the key in the delegate was made by {@link #write()}
+     */
+    private synchronized boolean consumeOwnWrite(String key) {
+        Integer count = mOwnWrites.get(key);
+        if (count == null) {
+            return false;
+        }
+        if (count == 1) {
+            mOwnWrites.remove(key);
+        } else {
+            mOwnWrites.put(key, count - 1);
+        }
+        return true;
+    }
+
+    /**
+     * Apply an edit to the snapshot and schedule the write of it
+     *
+     * @return The changed keys
+     */
+    private List<String> applyToSnapshot(Map<String, Object> modified, boolean clear) {
+        List<String> changed = new ArrayList<>(modified.keySet());
+        boolean schedule;
+        synchronized (this) {
+            Map<String, Object> snapshot = getSnapshot();
+            if (clear) {
+                snapshot.clear();
+                mPendingWrites.clear();
+                mPendingClear = true;
+            }
+            for (Map.Entry<String, Object> entry : modified.entrySet()) {
+                if (entry.getValue() == REMOVED) {
+                    snapshot.remove(entry.getKey());
+                } else {
+                    snapshot.put(entry.getKey(), entry.getValue());
+                }
+                mPendingWrites.remove(entry.getKey());
+                mPendingWrites.put(entry.getKey(), entry.getValue());
+            }
+            // a write that is already scheduled picks up this edit as well
+            schedule = !mWriteScheduled && (clear || !modified.isEmpty());
+            mWriteScheduled |= schedule;
+        }
+
+        if (schedule) {
+            mWriteExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write();
+                }
+            });
+        }
+        return changed;
+    }
+
+    /**
+     * Encrypt the pending writes and write them to the delegate, runs on the write executor
+     */
+    @SuppressWarnings("unchecked")
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void write() {
+        Map<String, Object> writes;
+        boolean clear;
+        synchronized (this) {
+            writes = mPendingWrites;
+            clear = mPendingClear;
+            mPendingWrites = new LinkedHashMap<>();
+            mPendingClear = false;
+            mWriteScheduled = false;
+        }
+        if (writes.isEmpty() && !clear) {
+            return;
+        }
+
+        // the delegate only notifies the keys whose value changes, the keys it drops on a clear aren't notified
+        Map<String, ?> current = clear ? Collections.<String, Object>emptyMap() : delegate.getAll();
+        List<String> changed = new ArrayList<>(writes.size());
+        SharedPreferences.Editor editor = delegate.edit();
+        if (clear) {
+            editor.clear();
+        }
+        for (Map.Entry<String, Object> entry : writes.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (value == REMOVED) {
+                editor.remove(key);
+            } else if (value instanceof Set) {
+                editor.putStringSet(key, (Set<String>) value);
+            } else {
+                value = encrypt(value.toString());
+                editor.putString(key, (String) value);
+            }
+            if (value == REMOVED ? current.containsKey(key) : !value.equals(current.get(key))) {
+                changed.add(key);
+            }
+        }
+
+        synchronized (this) {
+            for (String key : changed) {
+                Integer count = mOwnWrites.get(key);
+                mOwnWrites.put(key, count == null ? 1 : count + 1);
+            }
+        }
+        editor.commit();
+    }
+
+    private void notifyListeners(final List<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        ThreadUtils.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                List<OnSharedPreferenceChangeListener> listeners;
+                synchronized (mListeners) {
+                    listeners = new ArrayList<>(mListeners.keySet());
+                }
+                for (String key : keys) {
+                    for (OnSharedPreferenceChangeListener listener : listeners) {
+                        listener.onSharedPreferenceChanged(ObscuredSharedPreferences.this, key);
+                    }
+                }
+            }
+        });
     }
 
+    /**
+     * Derive the key once, the ciphers are reused for every value
+     */
+    private synchronized static Cipher getCipher(Context context, boolean encrypt) throws Exception {
+        if (sEncryptCipher != null) {
+            return encrypt ? sEncryptCipher : sDecryptCipher;
+        }
+
+        SecretKeyFactory keyFactory = SecretKeyFactory.getInstance(ALGORITHM);
+        SecretKey key = keyFactory.generateSecret(new PBEKeySpec(SEKRIT));
+        PBEParameterSpec spec = new PBEParameterSpec(Settings.Secure.getString(context.getContentResolver(), Settings.System.ANDROID_ID).getBytes(UTF8), ITERATIONS);
+
+        Cipher encryptCipher = Cipher.getInstance(ALGORITHM);
+        encryptCipher.init(Cipher.ENCRYPT_MODE, key, spec);
+        Cipher decryptCipher = Cipher.getInstance(ALGORITHM);
+        decryptCipher.init(Cipher.DECRYPT_MODE, key, spec);
+
+        sDecryptCipher = decryptCipher;
+        sEncryptCipher = encryptCipher;
+        return encrypt ? sEncryptCipher : sDecryptCipher;
+    }
+
+    /**
+     * A cipher that failed may not be usable anymore, they are created again on next use
+     */
+    private synchronized static void resetCiphers() {
+        sEncryptCipher = null;
+        sDecryptCipher = null;
+    }
 
     protected String encrypt(String value) {
 
         try {
             final byte[] bytes = value != null ? value.getBytes(UTF8) : new byte[0];
-            SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("PBEWithMD5AndDES");
-            SecretKey key = keyFactory.generateSecret(new PBEKeySpec(SEKRIT));
-            Cipher pbeCipher = Cipher.getInstance("PBEWithMD5AndDES");
-            pbeCipher.init(Cipher.ENCRYPT_MODE, key, new PBEParameterSpec(Settings.Secure.getString(context.getContentResolver(), Settings.System.ANDROID_ID).getBytes(UTF8), 20));
-            return new String(Base64.encode(pbeCipher.doFinal(bytes), Base64.NO_WRAP), UTF8);
+            Cipher pbeCipher = getCipher(context, true);
+            byte[] encrypted;
+            synchronized (pbeCipher) {
+                encrypted = pbeCipher.doFinal(bytes);
+            }
+            return new String(Base64.encode(encrypted, Base64.NO_WRAP), UTF8);
 
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -204,15 +528,17 @@ public class ObscuredSharedPreferences implements SharedPreferences {
     protected String decrypt(String value) {
         try {
             final byte[] bytes = value != null ? Base64.decode(value, Base64.DEFAULT) : new byte[0];
-            SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("PBEWithMD5AndDES");
-            SecretKey key = keyFactory.generateSecret(new PBEKeySpec(SEKRIT));
-            Cipher pbeCipher = Cipher.getInstance("PBEWithMD5AndDES");
-            pbeCipher.init(Cipher.DECRYPT_MODE, key, new PBEParameterSpec(Settings.Secure.getString(context.getContentResolver(), Settings.System.ANDROID_ID).getBytes(UTF8), 20));
-            return new String(pbeCipher.doFinal(bytes), UTF8);
+            Cipher pbeCipher = getCipher(context, false);
+            byte[] decrypted;
+            synchronized (pbeCipher) {
+                decrypted = pbeCipher.doFinal(bytes);
+            }
+            return new String(decrypted, UTF8);
         } catch (Exception e) {
+            resetCiphers();
             delegate.edit().clear().apply();
             return null;
         }
     }
 
-}
\ No newline at end of file
+}
@@ -110,7 +110,7 @@ public class DefaultPlayer {
 
             intent.setClassName(playerData[1], playerData[0]);
             intent.setAction(Intent.ACTION_VIEW);
-            intent.setDataAndType(Uri.parse(BeamServer.getVideoURL()), "video/mp4");
+            intent.setDataAndType(Uri.parse(BeamServer.getVideoURL()), BeamServer.getVideoFileType().mimeType);
 
             if(media != null) {
                 if(media.isMovie) {
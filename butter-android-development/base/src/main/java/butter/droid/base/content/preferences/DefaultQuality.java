@@ -20,7 +20,10 @@ package butter.droid.base.content.preferences;
 import android.content.Context;
 
 import java.util.List;
+import java.util.Map;
 
+import butter.droid.base.providers.media.models.Media;
+import butter.droid.base.torrent.QualitySelector;
 import butter.droid.base.utils.PrefUtils;
 
 public class DefaultQuality {
@@ -41,4 +44,17 @@ public class DefaultQuality {
         return quality;
     }
 
+    /**
+     * Get the quality to stream, the default quality or a lower one that starts faster
+     *
+     * @param context    Context
+     * @param torrents   Available torrents by quality
+     * @param durationMs Runtime of the media, 0 when it isn't known
+     * @return Quality
+     * @see QualitySelector
+     */
+    public static String get(Context context, Map<String, Media.Torrent> torrents, long durationMs) {
+        return QualitySelector.select(context, torrents, durationMs);
+    }
+
 }
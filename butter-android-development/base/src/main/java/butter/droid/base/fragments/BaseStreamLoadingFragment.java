@@ -26,6 +26,7 @@ import com.github.sv244.torrentstream.StreamStatus;
 import com.github.sv244.torrentstream.Torrent;
 import com.github.sv244.torrentstream.listeners.TorrentListener;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import hugo.weaving.DebugLog;
@@ -41,6 +42,7 @@ import butter.droid.base.providers.subs.SubsProvider;
 import butter.droid.base.subs.SubtitleDownloader;
 import butter.droid.base.subs.TimedTextObject;
 import butter.droid.base.torrent.StreamInfo;
+import butter.droid.base.torrent.StreamReadiness;
 import butter.droid.base.torrent.TorrentService;
 import butter.droid.base.utils.PrefUtils;
 import butter.droid.base.utils.ThreadUtils;
@@ -68,7 +70,7 @@ import butter.droid.base.utils.ThreadUtils;
 public abstract class BaseStreamLoadingFragment extends Fragment
         implements TorrentListener,
         SubtitleDownloader.ISubtitleDownloaderListener,
-        SubsProvider.Callback {
+        SubsProvider.PartialCallback {
 
     protected FragmentListener mCallback;
     private SubsProvider mSubsProvider;
@@ -243,7 +245,40 @@ public abstract class BaseStreamLoadingFragment extends Fragment
         }
 
         //start streaming the new file
-        mService.streamTorrent(torrentUrl);
+        mService.streamTorrent(torrentUrl, mStreamInfo.getDurationMs());
+    }
+
+    /**
+     * @return Prediction for starting playback of the stream now, with the expected stall and the time until a
+     * stall-free start. Null when the service isn't streaming
+     */
+    @Nullable
+    protected StreamReadiness.Prediction getStreamPrediction() {
+        return mService == null ? null : mService.getStreamPrediction();
+    }
+
+    /**
+     * The service holds playback until a stall-free start is predicted, so that is what the loading screen shows
+     *
+     * @param status Status of the stream
+     * @return Progress towards a stall-free start in percent, the buffer progress of the stream while there is no
+     * prediction yet
+     */
+    protected int getStartProgress(StreamStatus status) {
+        StreamReadiness.Prediction prediction = getStreamPrediction();
+        if (prediction == null || prediction.requiredLeadBytes <= 0) {
+            return status.bufferProgress;
+        }
+        return (int) Math.min(100, prediction.leadBytes * 100 / prediction.requiredLeadBytes);
+    }
+
+    /**
+     * @return Seconds until playback can start without stalling, -1 when it isn't known
+     */
+    protected long getStartWaitSeconds() {
+        StreamReadiness.Prediction prediction = getStreamPrediction();
+        if (prediction == null || prediction.waitMs < 0) return -1;
+        return (prediction.waitMs + 999) / 1000;
     }
 
     /**
@@ -328,10 +363,47 @@ public abstract class BaseStreamLoadingFragment extends Fragment
         }
     }
 
+    @Override
+    public void onLanguageFound(String language, String url) {
+        // start downloading the wanted language right away instead of waiting for the slower providers
+        String wanted = mStreamInfo.getSubtitleLanguage();
+        if (wanted == null) {
+            wanted = PrefUtils.get(getActivity(), Prefs.SUBTITLE_DEFAULT, SubsProvider.SUBTITLE_LANGUAGE_NONE);
+        }
+        if (!language.equals(wanted)) return;
+
+        Media media = mStreamInfo.getMedia();
+        synchronized (this) {
+            if (mSubtitleLanguage != null) return;
+            Map<String, String> subtitles = new HashMap<>();
+            if (media.subtitles != null) subtitles.putAll(media.subtitles);
+            subtitles.put(language, url);
+            media.subtitles = subtitles;
+        }
+
+        mStreamInfo.setSubtitleLanguage(language);
+        startSubtitleDownload(language);
+    }
+
     @Override
     public void onSuccess(Map<String, String> items) {
         Media media = mStreamInfo.getMedia();
-        media.subtitles = items;
+
+        synchronized (this) {
+            if (mSubtitleLanguage != null) {
+                // download was already started from onLanguageFound, only the list is updated and keeps the url that
+                // is being downloaded for that language
+                if (items != null) {
+                    Map<String, String> subtitles = new HashMap<>(items);
+                    if (media.subtitles != null && media.subtitles.containsKey(mSubtitleLanguage)) {
+                        subtitles.put(mSubtitleLanguage, media.subtitles.get(mSubtitleLanguage));
+                    }
+                    media.subtitles = subtitles;
+                }
+                return;
+            }
+            media.subtitles = items;
+        }
 
         mSubsStatus = SubsStatus.SUCCESS;
         mHasSubs = false;
@@ -348,15 +420,23 @@ public abstract class BaseStreamLoadingFragment extends Fragment
         }
 
         if (mStreamInfo.getSubtitleLanguage() != null && !mStreamInfo.getSubtitleLanguage().equals(SubsProvider.SUBTITLE_LANGUAGE_NONE)) {
-            mSubtitleLanguage = mStreamInfo.getSubtitleLanguage();
-            mSubsStatus = SubsStatus.DOWNLOADING;
-            mHasSubs = true;
-            SubtitleDownloader subtitleDownloader = new SubtitleDownloader(getActivity(), mStreamInfo, mSubtitleLanguage);
-            subtitleDownloader.setSubtitleDownloaderListener(this);
-            subtitleDownloader.downloadSubtitle();
+            startSubtitleDownload(mStreamInfo.getSubtitleLanguage());
         }
     }
 
+    private void startSubtitleDownload(String language) {
+        synchronized (this) {
+            if (mSubtitleLanguage != null) return;
+            mSubtitleLanguage = language;
+        }
+
+        mSubsStatus = SubsStatus.DOWNLOADING;
+        mHasSubs = true;
+        SubtitleDownloader subtitleDownloader = new SubtitleDownloader(getActivity(), mStreamInfo, mSubtitleLanguage);
+        subtitleDownloader.setSubtitleDownloaderListener(this);
+        subtitleDownloader.downloadSubtitle();
+    }
+
     @Override
     public void onFailure(Exception e) {
         mSubsStatus = SubsStatus.FAILURE;
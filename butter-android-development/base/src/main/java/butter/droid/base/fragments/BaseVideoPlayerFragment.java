@@ -51,7 +51,6 @@ import org.videolan.libvlc.MediaPlayer;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Locale;
 
 import butter.droid.base.ButterApplication;
@@ -109,6 +108,7 @@ public abstract class BaseVideoPlayerFragment
     private String mCurrentSubsLang = SubsProvider.SUBTITLE_LANGUAGE_NONE;
     private TimedTextObject mSubs;
     private Caption mLastSub = null;
+    private Caption mShownSub = null;
     private File mSubsFile = null;
 
     private boolean mEnded = false;
@@ -396,6 +396,11 @@ public abstract class BaseVideoPlayerFragment
     protected void setCurrentTime(long time) {
         if (time / getDuration() * 100 <= getStreamerProgress()) {
             mMediaPlayer.setTime(time);
+            // don't wait for VLC to report the new position
+            TorrentService service = mCallback == null ? null : mCallback.getService();
+            if (service != null) {
+                service.setPlaybackPosition(time, getDuration());
+            }
         }
     }
 
@@ -546,20 +551,16 @@ public abstract class BaseVideoPlayerFragment
 
     protected void progressSubtitleCaption() {
         if (mLibVLC != null && mMediaPlayer != null && mMediaPlayer.isPlaying() && mSubs != null) {
-            Collection<Caption> subtitles = mSubs.captions.values();
-            double currentTime = getCurrentTime() - mSubtitleOffset;
+            long currentTime = getCurrentTime() - mSubtitleOffset;
             if (mLastSub != null && currentTime >= mLastSub.start.getMilliseconds() && currentTime <= mLastSub.end.getMilliseconds()) {
-                showTimedCaptionText(mLastSub);
-            } else {
-                for (Caption caption : subtitles) {
-                    if (currentTime >= caption.start.getMilliseconds() && currentTime <= caption.end.getMilliseconds()) {
-                        mLastSub = caption;
-                        showTimedCaptionText(caption);
-                        break;
-                    } else if (currentTime > caption.end.getMilliseconds()) {
-                        showTimedCaptionText(null);
-                    }
-                }
+                return;
+            }
+
+            Caption caption = mSubs.getCaptionIndex().find(currentTime);
+            mLastSub = caption;
+            if (caption != mShownSub) {
+                mShownSub = caption;
+                showTimedCaptionText(caption);
             }
         }
     }
@@ -590,6 +591,8 @@ public abstract class BaseVideoPlayerFragment
             throw new IllegalArgumentException("Media doesn't have subtitle with specified language");
         }
 
+        mLastSub = null;
+        mShownSub = null;
         showTimedCaptionText(null);
         loadOrDownloadSubtitle();
     }
@@ -689,8 +692,10 @@ public abstract class BaseVideoPlayerFragment
                 mDuration = mMediaPlayer.getLength();
                 mMediaPlayer.play();
                 break;
-            case MediaPlayer.Event.TimeChanged:
             case MediaPlayer.Event.PositionChanged:
+                updatePlayhead();
+                // fall through
+            case MediaPlayer.Event.TimeChanged:
                 onProgressChanged(getCurrentTime(), getDuration());
                 progressSubtitleCaption();
                 break;
@@ -723,9 +728,26 @@ public abstract class BaseVideoPlayerFragment
 
     @Override
     public void onStreamProgress(Torrent torrent, StreamStatus streamStatus) {
-        int newProgress = (int) ((getDuration() / 100) * streamStatus.progress);
-        if (mStreamerProgress < newProgress) {
-            mStreamerProgress = newProgress;
+        TorrentService service = mCallback == null ? null : mCallback.getService();
+        float buffered = service == null ? -1 : service.getBufferedPosition();
+        if (buffered >= 0) {
+            // the data after the playhead, which moves with a seek
+            mStreamerProgress = (int) (getDuration() * buffered);
+        } else {
+            int newProgress = (int) ((getDuration() / 100) * streamStatus.progress);
+            if (mStreamerProgress < newProgress) {
+                mStreamerProgress = newProgress;
+            }
+        }
+    }
+
+    /**
+     * Let the torrent service download the pieces at the position VLC reads from first
+     */
+    private void updatePlayhead() {
+        TorrentService service = mCallback == null ? null : mCallback.getService();
+        if (service != null) {
+            service.setPlaybackPosition(mMediaPlayer.getPosition());
         }
     }
 
@@ -869,6 +891,8 @@ public abstract class BaseVideoPlayerFragment
             @Override
             public void onNewValue(int value) {
                 mSubtitleOffset = value * 60;
+                mLastSub = null;
+                mShownSub = null;
                 showTimedCaptionText(null);
             }
         });
@@ -881,6 +905,9 @@ public abstract class BaseVideoPlayerFragment
     public void onSubtitleDownloadCompleted(boolean isSuccessful, TimedTextObject subtitleFile) {
         onSubtitleEnabledStateChanged(isSuccessful);
         mSubs = subtitleFile;
+        mLastSub = null;
+        mShownSub = null;
+        showTimedCaptionText(null);
     }
 
     BeamDeviceListener mDeviceListener = new BeamDeviceListener() {
@@ -17,77 +17,68 @@
 
 package butter.droid.base.providers;
 
-import android.os.AsyncTask;
-
 import com.google.gson.Gson;
-import com.squareup.okhttp.Call;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
 
 import butter.droid.base.ButterApplication;
-import butter.droid.base.providers.media.MediaProvider;
-import butter.droid.base.providers.meta.MetaProvider;
-import butter.droid.base.providers.subs.SubsProvider;
 
 /**
  * BaseProvider.java
  * <p/>
- * Base class for providers, has code to enqueue network requests to the OkHttpClient
+ * Base class for providers, has code to enqueue network requests through the {@link RequestManager}
  */
 public abstract class BaseProvider {
 
     protected Gson mGson = new Gson();
-    protected Call mCurrentCall;
 
     protected OkHttpClient getClient() {
         return ButterApplication.getHttpClient();
     }
 
     /**
-     * Enqueue request without callback
+     * Start a new request for the owner, the requests that were started before for the same owner are cancelled
      *
-     * @param request Request
-     * @return Call
+     * @param owner Owner of the request, like the fragment the result is shown in
+     * @return Ticket to make the requests with
+     */
+    protected RequestManager.Ticket newRequest(Object owner) {
+        return RequestManager.getInstance().newTicket(this, owner);
+    }
+
+    /**
+     * Enqueue request with callback, the request is part of the current request of this provider
+     *
+     * @param request         Request
+     * @param requestCallback Callback
+     * @return Ticket the request was made with
      */
-    protected Call enqueue(Request request) {
-        return enqueue(request, null);
+    protected RequestManager.Ticket enqueue(Request request, com.squareup.okhttp.Callback requestCallback) {
+        RequestManager.Ticket ticket = RequestManager.getInstance().getTicket(this, this);
+        enqueue(request, ticket, requestCallback);
+        return ticket;
     }
 
     /**
      * Enqueue request with callback
      *
      * @param request         Request
+     * @param ticket          Ticket from {@link #newRequest(Object)}
      * @param requestCallback Callback
-     * @return Call
      */
-    protected Call enqueue(Request request, com.squareup.okhttp.Callback requestCallback) {
-        mCurrentCall = getClient().newCall(request);
-        if (requestCallback != null) mCurrentCall.enqueue(requestCallback);
-        return mCurrentCall;
+    protected void enqueue(Request request, RequestManager.Ticket ticket, com.squareup.okhttp.Callback requestCallback) {
+        RequestManager.getInstance().enqueue(request, ticket, requestCallback);
     }
 
+    /**
+     * Cancel all requests of this provider, doesn't block
+     */
     public void cancel() {
-        // Cancel in asynctask to prevent networkOnMainThreadException but make it blocking to prevent network calls to be made and then immediately cancelled.
-        try {
-            new AsyncTask<Void, Void, Void>() {
-                @Override
-                protected Void doInBackground(Void... params) {
-                    getClient().cancel(MediaProvider.MEDIA_CALL);
-                    getClient().cancel(MetaProvider.META_CALL);
-                    getClient().cancel(SubsProvider.SUBS_CALL);
-                    return null;
-                }
-            }.execute().get();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        }
+        RequestManager.getInstance().cancel(this);
     }
 
     /**
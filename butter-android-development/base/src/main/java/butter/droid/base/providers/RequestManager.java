@@ -0,0 +1,332 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.providers;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import butter.droid.base.ButterApplication;
+import timber.log.Timber;
+
+/**
+ * RequestManager.java
+ * <p/>
+ * Runs the network requests of the providers. Identical GET requests that are in flight at the same time share one
+ * call, every caller gets its own copy of the response.
+ * <p/>
+ * Requests are made with a {@link Ticket} of the provider that makes them and of an owner, usually the caller of the
+ * provider, like the fragment that shows the list. Starting a new generation for the owner with
+ * {@link #newTicket(Object, Object)}, or cancelling the owner or the provider, makes the older tickets inactive: a call
+ * that has no active tickets left is cancelled and the callbacks of the inactive tickets get an {@link IOException}
+ * "Canceled", like for a cancelled OkHttp call. None of this blocks the calling thread.
+ */
+public class RequestManager {
+
+    /**
+     * Message of the exception passed to the callbacks of requests that were cancelled, same as OkHttp
+     */
+    public static final String CANCELED = "Canceled";
+
+    private static RequestManager sInstance;
+
+    private final OkHttpClient mClient;
+    private final Map<String, SharedCall> mShared = new HashMap<>();
+    private final List<SharedCall> mCalls = new ArrayList<>();
+    private final Map<Object, Integer> mGenerations = new WeakHashMap<>();
+
+    private RequestManager(OkHttpClient client) {
+        mClient = client;
+    }
+
+    public static synchronized RequestManager getInstance() {
+        if (sInstance == null) {
+            sInstance = new RequestManager(ButterApplication.getHttpClient());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Start a new generation for the owner, the requests of the previous tickets of the owner are dropped
+     *
+     * @param provider Provider that makes the requests
+     * @param owner    Owner of the requests
+     * @return Ticket for the new requests
+     */
+    public Ticket newTicket(Object provider, Object owner) {
+        Ticket ticket;
+        synchronized (this) {
+            ticket = new Ticket(provider, getGeneration(provider), owner, getGeneration(owner) + 1);
+            mGenerations.put(owner, ticket.mGeneration);
+        }
+        prune();
+        return ticket;
+    }
+
+    /**
+     * @param provider Provider that makes the requests
+     * @param owner    Owner of the requests
+     * @return Ticket of the current generation of the owner
+     */
+    public synchronized Ticket getTicket(Object provider, Object owner) {
+        return new Ticket(provider, getGeneration(provider), owner, getGeneration(owner));
+    }
+
+    /**
+     * Drop all requests of the owner or provider
+     *
+     * @param owner Owner or provider of the requests
+     */
+    public void cancel(Object owner) {
+        synchronized (this) {
+            mGenerations.put(owner, getGeneration(owner) + 1);
+        }
+        prune();
+    }
+
+    /**
+     * Enqueue a request, or join an identical request that is already in flight
+     *
+     * @param request  Request
+     * @param ticket   Ticket of the caller
+     * @param callback Callback, gets an {@link IOException} {@link #CANCELED} when the ticket is no longer active
+     */
+    public void enqueue(final Request request, Ticket ticket, final Callback callback) {
+        if (!ticket.isActive()) {
+            mClient.getDispatcher().getExecutorService().execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onFailure(request, new IOException(CANCELED));
+                }
+            });
+            return;
+        }
+
+        String key = getKey(request);
+        SharedCall sharedCall;
+        boolean start = false;
+        synchronized (this) {
+            sharedCall = key == null ? null : mShared.get(key);
+            if (sharedCall == null) {
+                sharedCall = new SharedCall(key, mClient.newCall(request));
+                if (key != null) mShared.put(key, sharedCall);
+                mCalls.add(sharedCall);
+                start = true;
+            }
+            sharedCall.mSubscribers.add(new Subscriber(ticket, callback));
+        }
+
+        if (start) {
+            sharedCall.mCall.enqueue(sharedCall);
+        }
+    }
+
+    private int getGeneration(Object owner) {
+        Integer generation = mGenerations.get(owner);
+        return generation == null ? 0 : generation;
+    }
+
+    /**
+     * @return Key for requests that can be shared, null when the request can't be shared
+     */
+    private static String getKey(Request request) {
+        if (!"GET".equals(request.method())) {
+            return null;
+        }
+        return request.urlString() + '\n' + request.headers();
+    }
+
+    /**
+     * Remove inactive subscribers, tell them they were cancelled and cancel the calls that nobody is waiting for
+     * anymore
+     */
+    private void prune() {
+        final List<Call> canceled = new ArrayList<>();
+        final List<Subscriber> dropped = new ArrayList<>();
+        final List<Request> droppedRequests = new ArrayList<>();
+        synchronized (this) {
+            Iterator<SharedCall> iterator = mCalls.iterator();
+            while (iterator.hasNext()) {
+                SharedCall sharedCall = iterator.next();
+                Iterator<Subscriber> subscribers = sharedCall.mSubscribers.iterator();
+                while (subscribers.hasNext()) {
+                    Subscriber subscriber = subscribers.next();
+                    if (!subscriber.mTicket.isActive()) {
+                        subscribers.remove();
+                        dropped.add(subscriber);
+                        droppedRequests.add(sharedCall.mCall.request());
+                    }
+                }
+                if (sharedCall.mSubscribers.isEmpty()) {
+                    iterator.remove();
+                    if (sharedCall.mKey != null) mShared.remove(sharedCall.mKey);
+                    canceled.add(sharedCall.mCall);
+                }
+            }
+        }
+
+        if (!canceled.isEmpty() || !dropped.isEmpty()) {
+            // cancelling can close a socket and the callbacks may do anything, keep both off the calling thread
+            mClient.getDispatcher().getExecutorService().execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (Call call : canceled) {
+                        call.cancel();
+                    }
+                    for (int i = 0; i < dropped.size(); i++) {
+                        dropped.get(i).mCallback.onFailure(droppedRequests.get(i), new IOException(CANCELED));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Remove the call so identical requests start a new call from now on
+     *
+     * @param canceled Filled with the subscribers that are no longer active
+     * @return The subscribers that are still active
+     */
+    private synchronized List<Subscriber> finish(SharedCall sharedCall, List<Subscriber> canceled) {
+        mCalls.remove(sharedCall);
+        if (sharedCall.mKey != null && mShared.get(sharedCall.mKey) == sharedCall) {
+            mShared.remove(sharedCall.mKey);
+        }
+
+        List<Subscriber> subscribers = new ArrayList<>(sharedCall.mSubscribers.size());
+        for (Subscriber subscriber : sharedCall.mSubscribers) {
+            if (subscriber.mTicket.isActive()) {
+                subscribers.add(subscriber);
+            } else {
+                canceled.add(subscriber);
+            }
+        }
+        sharedCall.mSubscribers.clear();
+        return subscribers;
+    }
+
+    /**
+     * Requests made with a ticket can be dropped together
+     */
+    public class Ticket {
+        private final Object mProvider;
+        private final int mProviderGeneration;
+        private final Object mOwner;
+        private final int mGeneration;
+        private volatile boolean mCanceled = false;
+
+        private Ticket(Object provider, int providerGeneration, Object owner, int generation) {
+            mProvider = provider;
+            mProviderGeneration = providerGeneration;
+            mOwner = owner;
+            mGeneration = generation;
+        }
+
+        /**
+         * @return false when the ticket, its owner or its provider was cancelled or a new generation was started for
+         * the owner
+         */
+        public boolean isActive() {
+            if (mCanceled) return false;
+            synchronized (RequestManager.this) {
+                return getGeneration(mOwner) == mGeneration && getGeneration(mProvider) == mProviderGeneration;
+            }
+        }
+
+        /**
+         * Drop the requests made with this ticket, doesn't block
+         */
+        public void cancel() {
+            mCanceled = true;
+            prune();
+        }
+    }
+
+    private static class Subscriber {
+        final Ticket mTicket;
+        final Callback mCallback;
+
+        Subscriber(Ticket ticket, Callback callback) {
+            mTicket = ticket;
+            mCallback = callback;
+        }
+    }
+
+    private class SharedCall implements Callback {
+        final String mKey;
+        final Call mCall;
+        final List<Subscriber> mSubscribers = new ArrayList<>();
+
+        SharedCall(String key, Call call) {
+            mKey = key;
+            mCall = call;
+        }
+
+        @Override
+        public void onFailure(Request request, IOException e) {
+            List<Subscriber> canceled = new ArrayList<>();
+            for (Subscriber subscriber : finish(this, canceled)) {
+                subscriber.mCallback.onFailure(request, e);
+            }
+            notifyCanceled(request, canceled);
+        }
+
+        @Override
+        public void onResponse(Response response) throws IOException {
+            MediaType contentType = response.body().contentType();
+            byte[] body;
+            try {
+                body = response.body().bytes();
+            } catch (IOException e) {
+                onFailure(response.request(), e);
+                return;
+            }
+
+            List<Subscriber> canceled = new ArrayList<>();
+            List<Subscriber> subscribers = finish(this, canceled);
+            notifyCanceled(response.request(), canceled);
+            for (Subscriber subscriber : subscribers) {
+                Response copy = response.newBuilder().body(ResponseBody.create(contentType, body)).build();
+                try {
+                    subscriber.mCallback.onResponse(copy);
+                } catch (IOException e) {
+                    Timber.w(e, "Callback failed for %s", response.request().urlString());
+                }
+            }
+        }
+
+        private void notifyCanceled(Request request, List<Subscriber> canceled) {
+            for (Subscriber subscriber : canceled) {
+                subscriber.mCallback.onFailure(request, new IOException(CANCELED));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,256 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.providers.media;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import butter.droid.base.ButterApplication;
+import butter.droid.base.utils.StorageUtils;
+import timber.log.Timber;
+
+/**
+ * MediaCache.java
+ * <p/>
+ * Disk cache for the raw catalog pages of a {@link MediaProvider}, keyed by the provider and the {@link MediaProvider.Filters}
+ * that were used to request the page. Providers serve the last good page from here before going to the network, so the
+ * lists don't start with a spinner when the app is opened.
+ * <p/>
+ * Pages younger than {@link #FRESH_MS} are served without asking the network, older pages are served and refreshed.
+ * Pages older than {@link #MAX_AGE_MS} are dropped. The cache is limited to {@link #MAX_ENTRIES} pages and
+ * {@link #MAX_SIZE} bytes, the least recently used pages are removed first.
+ */
+public class MediaCache {
+
+    public static final long FRESH_MS = 15 * 60 * 1000;
+    public static final long MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000L;
+    public static final int MAX_ENTRIES = 64;
+    public static final long MAX_SIZE = 4 * 1024 * 1024;
+
+    private static final int VERSION = 1;
+    private static final String DIRECTORY = "catalog";
+
+    private static MediaCache sInstance;
+
+    private final File mDirectory;
+    // file name -> file size, in access order
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(MAX_ENTRIES, 0.75f, true);
+    private long mSize = 0;
+    private boolean mInitialised = false;
+
+    private MediaCache(File directory) {
+        mDirectory = directory;
+    }
+
+    public static synchronized MediaCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new MediaCache(new File(StorageUtils.getIdealCacheDirectory(ButterApplication.getAppContext()), DIRECTORY));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Build the key for a page, all fields of the filters that change the result are part of it
+     *
+     * @param provider Provider that requests the page
+     * @param filters  Filters used for the request
+     * @return Key
+     */
+    public static String getKey(MediaProvider provider, MediaProvider.Filters filters) {
+        return provider.getClass().getName() + '|' + filters.sort + '|' + filters.order + '|' + filters.genre + '|'
+                + filters.keywords + '|' + filters.page + '|' + filters.langCode;
+    }
+
+    /**
+     * @param key Key from {@link #getKey(MediaProvider, MediaProvider.Filters)}
+     * @return Cached page or null when there is none or it is too old
+     */
+    public Entry get(String key) {
+        String name = getFileName(key);
+        File file = new File(mDirectory, name);
+        synchronized (this) {
+            init();
+            // get() instead of containsKey() so the access order is updated
+            if (mEntries.get(name) == null) {
+                return null;
+            }
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != VERSION || !in.readUTF().equals(key)) {
+                return null;
+            }
+            long fetchedAt = in.readLong();
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+
+            if (System.currentTimeMillis() - fetchedAt > MAX_AGE_MS) {
+                remove(name);
+                return null;
+            }
+            // keeps the eviction order after a restart
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(new String(body, "UTF-8"), fetchedAt);
+        } catch (IOException e) {
+            Timber.w(e, "Invalid catalog cache %s", file);
+            remove(name);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Store a page, written to a temporary file first so readers never see a partial page
+     *
+     * @param key  Key from {@link #getKey(MediaProvider, MediaProvider.Filters)}
+     * @param body Raw response of the provider
+     */
+    public void put(String key, String body) {
+        String name = getFileName(key);
+        File file = new File(mDirectory, name);
+        File tempFile = new File(mDirectory, name + ".tmp");
+
+        try {
+            mDirectory.mkdirs();
+            byte[] bytes = body.getBytes("UTF-8");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                out.writeInt(VERSION);
+                out.writeUTF(key);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Timber.w(e, "Could not write catalog cache %s", file);
+            tempFile.delete();
+            return;
+        }
+
+        synchronized (this) {
+            init();
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                return;
+            }
+            Long previous = mEntries.put(name, file.length());
+            if (previous != null) mSize -= previous;
+            mSize += file.length();
+            trim();
+        }
+    }
+
+    private synchronized void remove(String name) {
+        Long size = mEntries.remove(name);
+        if (size != null) mSize -= size;
+        new File(mDirectory, name).delete();
+    }
+
+    /**
+     * Fill the in memory index from the files on disk, oldest files first so they are evicted first
+     */
+    private void init() {
+        if (mInitialised) return;
+        mInitialised = true;
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long left = lhs.lastModified();
+                long right = rhs.lastModified();
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+                continue;
+            }
+            mEntries.put(file.getName(), file.length());
+            mSize += file.length();
+        }
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while ((mEntries.size() > MAX_ENTRIES || mSize > MAX_SIZE) && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            new File(mDirectory, entry.getKey()).delete();
+            mSize -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    private static String getFileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // both are always available on Android
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    public static class Entry {
+        public final String body;
+        public final long fetchedAt;
+
+        Entry(String body, long fetchedAt) {
+            this.body = body;
+            this.fetchedAt = fetchedAt;
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() - fetchedAt < FRESH_MS;
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.providers.media;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import butter.droid.base.providers.media.models.Media;
+
+/**
+ * MediaList.java
+ * <p/>
+ * List of media that is extended page by page. Items are indexed by their videoId, adding an item that is already in
+ * the list does nothing, so providers can append a page without scanning the list for duplicates. The items that were
+ * added by the last page are available through {@link #getNewItems()}.
+ * <p/>
+ * The list can only be grown at the end, or cleared. It is only changed on the main thread, providers append pages
+ * there.
+ */
+public class MediaList extends ArrayList<Media> {
+
+    private final HashSet<String> mIds = new HashSet<>();
+    private int mPageStart = 0;
+
+    public MediaList() {
+        super();
+    }
+
+    public MediaList(Collection<? extends Media> items) {
+        super(items.size());
+        addAll(items);
+    }
+
+    /**
+     * Mark the end of the list as the start of a new page
+     */
+    public void startPage() {
+        mPageStart = size();
+    }
+
+    /**
+     * Remove the items of the last page, so it can be replaced by a refreshed copy
+     */
+    public void dropPage() {
+        removeRange(mPageStart, size());
+    }
+
+    /**
+     * @return Position of the first item of the last page
+     */
+    public int getPageStart() {
+        return mPageStart;
+    }
+
+    /**
+     * @return The items added since the last {@link #startPage()}
+     */
+    public List<Media> getNewItems() {
+        return subList(mPageStart, size());
+    }
+
+    @Override
+    public boolean add(Media media) {
+        if (media.videoId != null) {
+            if (!mIds.add(media.videoId)) return false;
+        }
+        return super.add(media);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Media> items) {
+        ensureCapacity(size() + items.size());
+        boolean changed = false;
+        for (Media media : items) {
+            changed |= add(media);
+        }
+        return changed;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        mIds.clear();
+        mPageStart = 0;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        if (toIndex != size()) {
+            throw new UnsupportedOperationException("Only the end of a MediaList can be removed");
+        }
+        for (int i = fromIndex; i < toIndex; i++) {
+            String videoId = get(i).videoId;
+            if (videoId != null) mIds.remove(videoId);
+        }
+        super.removeRange(fromIndex, toIndex);
+        if (mPageStart > fromIndex) mPageStart = fromIndex;
+    }
+
+    @Override
+    public void add(int index, Media media) {
+        throw new UnsupportedOperationException("Items can only be added at the end of a MediaList");
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends Media> items) {
+        throw new UnsupportedOperationException("Items can only be added at the end of a MediaList");
+    }
+
+    @Override
+    public Media set(int index, Media media) {
+        throw new UnsupportedOperationException("Items of a MediaList can't be replaced");
+    }
+
+    @Override
+    public Media remove(int index) {
+        throw new UnsupportedOperationException("Items of a MediaList can't be removed");
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        throw new UnsupportedOperationException("Items of a MediaList can't be removed");
+    }
+
+}
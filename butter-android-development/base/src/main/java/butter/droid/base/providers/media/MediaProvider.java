@@ -22,12 +22,11 @@ import android.os.Parcelable;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.Nullable;
 
-import com.squareup.okhttp.Call;
-
 import java.util.ArrayList;
 import java.util.List;
 
 import butter.droid.base.providers.BaseProvider;
+import butter.droid.base.providers.RequestManager;
 import butter.droid.base.providers.media.models.Genre;
 import butter.droid.base.providers.media.models.Media;
 
@@ -45,21 +44,36 @@ public abstract class MediaProvider extends BaseProvider implements Parcelable {
      * @param filters  Filters the provider can use to sort or search
      * @param callback MediaProvider callback
      */
-    public Call getList(Filters filters, Callback callback) {
+    public RequestManager.Ticket getList(Filters filters, Callback callback) {
         return getList(null, filters, callback);
     }
 
     /**
-     * Get a list of Media items from the provider
+     * Get a list of Media items from the provider, the callback owns the request
+     *
+     * @param currentList Input the current list so it can be extended
+     * @param filters     Filters the provider can use to sort or search
+     * @param callback    MediaProvider callback
+     * @return Ticket of the request, can be used to cancel it
+     */
+    public RequestManager.Ticket getList(ArrayList<Media> currentList, Filters filters, Callback callback) {
+        return getList(currentList, filters, callback, callback);
+    }
+
+    /**
+     * Get a list of Media items from the provider. A new request cancels the requests that were made before for the
+     * same owner, the callback of a cancelled request gets {@link Callback#onFailure(Exception)} with an exception
+     * with the message {@link RequestManager#CANCELED}.
      *
      * @param currentList Input the current list so it can be extended
      * @param filters     Filters the provider can use to sort or search
+     * @param owner       Owner of the request, like the fragment that shows the list
      * @param callback    MediaProvider callback
-     * @return Call
+     * @return Ticket of the request, can be used to cancel it
      */
-    public abstract Call getList(ArrayList<Media> currentList, Filters filters, Callback callback);
+    public abstract RequestManager.Ticket getList(ArrayList<Media> currentList, Filters filters, Object owner, Callback callback);
 
-    public abstract Call getDetail(ArrayList<Media> currentList, Integer index, Callback callback);
+    public abstract RequestManager.Ticket getDetail(ArrayList<Media> currentList, Integer index, Callback callback);
 
     public abstract int getLoadingMessage();
 
@@ -73,6 +87,14 @@ public abstract class MediaProvider extends BaseProvider implements Parcelable {
         return new ArrayList<>();
     }
 
+    /**
+     * Lists can be served from the {@link MediaCache} first, in that case onSuccess is called a second time when the
+     * list has been refreshed, with {@code changed = false} when nothing changed.
+     * <p/>
+     * onSuccess is called on the main thread with a new list that belongs to the callback, holding the items the page
+     * added. When the current list passed to getList is a {@link MediaList} the page has been appended to it before,
+     * from {@link MediaList#getPageStart()}, a refreshed page replaces the cached one there.
+     */
     public interface Callback {
         void onSuccess(Filters filters, ArrayList<Media> items, boolean changed);
 
@@ -0,0 +1,273 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.providers.media;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import butter.droid.base.providers.RequestManager;
+import butter.droid.base.providers.media.models.Media;
+import timber.log.Timber;
+
+/**
+ * MediaSearch.java
+ * <p/>
+ * Search across one or more media providers while the user is typing.
+ * <p/>
+ * Queries are debounced, only the last query typed within {@link #DEBOUNCE_MS} goes to the network. Results of
+ * earlier queries are kept in memory: a query that was done before is answered from memory, and for a refined query
+ * ("star w" to "star wa") the matching results of the shorter query are shown until the providers answer. The results
+ * of all providers are merged and passed to the listener as soon as a provider answers. Responses of a query that was
+ * replaced by a newer one are ignored.
+ * <p/>
+ * Must be used from the UI thread, the listener is called on the UI thread.
+ */
+public class MediaSearch {
+
+    public static final int DEBOUNCE_MS = 300;
+    private static final int CACHE_SIZE = 20;
+    private static final int LATENCY_SAMPLES = 100;
+
+    // latency of the provider answers in ms, shared by all searches
+    private static final long[] sLatencies = new long[LATENCY_SAMPLES];
+    private static int sLatencyCount = 0;
+
+    private final List<MediaProvider> mProviders;
+    private final MediaProvider.Filters mFilters;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, ArrayList<Media>> mCache = new LinkedHashMap<String, ArrayList<Media>>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ArrayList<Media>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private int mGeneration = 0;
+    private Runnable mPendingSearch;
+
+    public interface Listener {
+        /**
+         * @param query    Query the results are for
+         * @param items    All results found so far
+         * @param complete true when all providers answered
+         */
+        void onResults(String query, ArrayList<Media> items, boolean complete);
+
+        /**
+         * All providers failed
+         */
+        void onFailure(String query, Exception e);
+    }
+
+    /**
+     * @param providers Providers to search, results are merged in this order
+     * @param filters   Filters for the search, the keywords and page are set by the search
+     * @param listener  Listener for the results
+     */
+    public MediaSearch(List<MediaProvider> providers, MediaProvider.Filters filters, Listener listener) {
+        mProviders = new ArrayList<>(providers);
+        mFilters = new MediaProvider.Filters(filters);
+        mListener = listener;
+    }
+
+    /**
+     * Search for the query after {@link #DEBOUNCE_MS}, replaces the previous query
+     *
+     * @param query Query
+     */
+    public void search(final String query) {
+        cancel();
+        final String key = query.trim().toLowerCase(Locale.US);
+        if (key.isEmpty()) {
+            mListener.onResults(query, new ArrayList<Media>(), true);
+            return;
+        }
+
+        ArrayList<Media> cached = mCache.get(key);
+        if (cached != null) {
+            mListener.onResults(query, new ArrayList<>(cached), true);
+            return;
+        }
+
+        ArrayList<Media> refined = findRefinedResults(key);
+        if (refined != null) {
+            mListener.onResults(query, refined, false);
+        }
+
+        final int generation = mGeneration;
+        mPendingSearch = new Runnable() {
+            @Override
+            public void run() {
+                mPendingSearch = null;
+                new Search(query, key, generation).start();
+            }
+        };
+        mHandler.postDelayed(mPendingSearch, DEBOUNCE_MS);
+    }
+
+    /**
+     * Stop the current search, its requests are cancelled and its results are ignored
+     */
+    public void cancel() {
+        mGeneration++;
+        if (mPendingSearch != null) {
+            mHandler.removeCallbacks(mPendingSearch);
+            mPendingSearch = null;
+        }
+        RequestManager.getInstance().cancel(this);
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return Latency of the provider answers in ms at the percentile, over the last {@link #LATENCY_SAMPLES} answers,
+     * or -1 when nothing was measured yet
+     */
+    public static synchronized long getLatencyPercentile(int percentile) {
+        int count = Math.min(sLatencyCount, LATENCY_SAMPLES);
+        if (count == 0) return -1;
+        long[] sorted = Arrays.copyOf(sLatencies, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100d * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    private static synchronized void addLatency(long latency) {
+        sLatencies[sLatencyCount % LATENCY_SAMPLES] = latency;
+        sLatencyCount++;
+    }
+
+    /**
+     * @param key Normalized query
+     * @return Results of the longest earlier query this query starts with, filtered on the title, or null
+     */
+    private ArrayList<Media> findRefinedResults(String key) {
+        for (int length = key.length() - 1; length > 0; length--) {
+            ArrayList<Media> cached = mCache.get(key.substring(0, length));
+            if (cached == null) continue;
+
+            ArrayList<Media> results = new ArrayList<>();
+            for (Media media : cached) {
+                if (media.title != null && media.title.toLowerCase(Locale.US).contains(key)) {
+                    results.add(media);
+                }
+            }
+            return results;
+        }
+        return null;
+    }
+
+    /**
+     * Single query to all providers
+     */
+    private class Search {
+        private final String mQuery;
+        private final String mKey;
+        private final int mSearchGeneration;
+        private final ArrayList<Media>[] mResults;
+        private final boolean[] mAnswered;
+        private int mPending;
+        private long mStartTime;
+        private Exception mLastError;
+
+        @SuppressWarnings("unchecked")
+        Search(String query, String key, int generation) {
+            mQuery = query;
+            mKey = key;
+            mSearchGeneration = generation;
+            mResults = new ArrayList[mProviders.size()];
+            mAnswered = new boolean[mProviders.size()];
+            mPending = mProviders.size();
+        }
+
+        void start() {
+            mStartTime = SystemClock.elapsedRealtime();
+            for (int i = 0; i < mProviders.size(); i++) {
+                final int index = i;
+                MediaProvider.Filters filters = new MediaProvider.Filters(mFilters);
+                filters.keywords = mQuery;
+                filters.page = 1;
+                // the search owns the requests, so a new query cancels the requests of the previous one
+                mProviders.get(i).getList(null, filters, MediaSearch.this, new MediaProvider.Callback() {
+                    @Override
+                    public void onSuccess(MediaProvider.Filters filters, final ArrayList<Media> items, final boolean changed) {
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                // nothing new in the refreshed copy of a cached list
+                                if (!changed && mAnswered[index]) return;
+                                if (changed) mResults[index] = items;
+                                onAnswer(index, null);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onFailure(final Exception e) {
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onAnswer(index, e);
+                            }
+                        });
+                    }
+                });
+            }
+        }
+
+        private void onAnswer(int index, Exception e) {
+            if (mSearchGeneration != mGeneration) return;
+
+            if (!mAnswered[index]) {
+                mAnswered[index] = true;
+                mPending--;
+                addLatency(SystemClock.elapsedRealtime() - mStartTime);
+            }
+            if (e != null) mLastError = e;
+
+            MediaList merged = new MediaList();
+            boolean found = false;
+            for (ArrayList<Media> results : mResults) {
+                if (results == null) continue;
+                merged.addAll(results);
+                found = true;
+            }
+
+            boolean complete = mPending == 0;
+            if (!found && complete) {
+                mListener.onFailure(mQuery, mLastError);
+                return;
+            }
+            if (found) {
+                if (complete) {
+                    mCache.put(mKey, merged);
+                    Timber.d("Search latency p50 %d ms, p90 %d ms, p99 %d ms", getLatencyPercentile(50), getLatencyPercentile(90), getLatencyPercentile(99));
+                }
+                mListener.onResults(mQuery, new ArrayList<>(merged), complete);
+            }
+        }
+    }
+
+}
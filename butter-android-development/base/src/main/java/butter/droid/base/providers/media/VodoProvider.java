@@ -25,7 +25,6 @@ import android.os.Build;
 
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.internal.LinkedTreeMap;
-import com.squareup.okhttp.Call;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
 
@@ -38,15 +37,21 @@ import java.util.List;
 
 import butter.droid.base.ButterApplication;
 import butter.droid.base.R;
+import butter.droid.base.providers.RequestManager;
 import butter.droid.base.providers.media.models.Genre;
 import butter.droid.base.providers.media.models.Media;
 import butter.droid.base.providers.media.models.Movie;
+import butter.droid.base.providers.subs.MultiSubsProvider;
+import butter.droid.base.providers.subs.SubsProvider;
 import butter.droid.base.utils.LocaleUtils;
 import butter.droid.base.utils.StringUtils;
+import butter.droid.base.utils.ThreadUtils;
+import timber.log.Timber;
 
 public class VodoProvider extends MediaProvider {
 
     private static final VodoProvider sMediaProvider = new VodoProvider();
+    private static final SubsProvider sSubsProvider = new MultiSubsProvider();
     private static Integer CURRENT_API = 0;
     private static final String[] API_URLS = {
             "http://vodo.net/popcorn"
@@ -56,7 +61,11 @@ public class VodoProvider extends MediaProvider {
     private static Filters sFilters = new Filters();
 
     @Override
-    protected Call enqueue(Request request, com.squareup.okhttp.Callback requestCallback) {
+    protected void enqueue(Request request, RequestManager.Ticket ticket, com.squareup.okhttp.Callback requestCallback) {
+        super.enqueue(addUserAgent(request), ticket, requestCallback);
+    }
+
+    private Request addUserAgent(Request request) {
         Context context = ButterApplication.getAppContext();
         PackageInfo pInfo;
         String versionName = "0.0.0";
@@ -66,19 +75,21 @@ public class VodoProvider extends MediaProvider {
         } catch (PackageManager.NameNotFoundException e) {
             e.printStackTrace();
         }
-        request = request.newBuilder().removeHeader("User-Agent").addHeader("User-Agent", String.format("Mozilla/5.0 (Linux; U; Android %s; %s; %s Build/%s) AppleWebkit/534.30 (KHTML, like Gecko) PT/%s", Build.VERSION.RELEASE, LocaleUtils.getCurrentAsString(), Build.MODEL, Build.DISPLAY, versionName)).build();
-        return super.enqueue(request, requestCallback);
+        return request.newBuilder().removeHeader("User-Agent").addHeader("User-Agent", String.format("Mozilla/5.0 (Linux; U; Android %s; %s; %s Build/%s) AppleWebkit/534.30 (KHTML, like Gecko) PT/%s", Build.VERSION.RELEASE, LocaleUtils.getCurrentAsString(), Build.MODEL, Build.DISPLAY, versionName)).build();
     }
 
     @Override
-    public Call getList(final ArrayList<Media> existingList, Filters filters, final Callback callback) {
+    public RequestManager.Ticket getList(final ArrayList<Media> existingList, Filters filters, Object owner, final Callback callback) {
         sFilters = filters;
 
-        final ArrayList<Media> currentList;
-        if (existingList == null) {
-            currentList = new ArrayList<>();
+        // a MediaList of the caller is extended on the main thread, other lists are copied once for this query
+        final MediaList currentList;
+        if (existingList instanceof MediaList) {
+            currentList = (MediaList) existingList;
+        } else if (existingList != null) {
+            currentList = new MediaList(existingList);
         } else {
-            currentList = (ArrayList<Media>) existingList.clone();
+            currentList = new MediaList();
         }
 
         ArrayList<NameValuePair> params = new ArrayList<>();
@@ -141,77 +152,193 @@ public class VodoProvider extends MediaProvider {
         requestBuilder.url(CURRENT_URL);
         requestBuilder.tag(MEDIA_CALL);
 
-        return fetchList(currentList, requestBuilder, filters, callback);
+        return fetchCachedList(currentList, requestBuilder, filters, owner, callback);
     }
 
     /**
-     * Fetch the list of movies from YTS
+     * Serve the list from the {@link MediaCache} when possible. A fresh page is served without going to the network,
+     * a stale page is served first and then refreshed, the callback is called a second time with the refreshed
+     * list or with {@code changed = false} when the page didn't change.
      *
-     * @param currentList    Current shown list to be extended
+     * @param currentList    List of the query, extended on the main thread
      * @param requestBuilder Request to be executed
+     * @param owner          Owner of the request
      * @param callback       Network callback
-     * @return Call
+     * @return Ticket of the request
      */
-    private Call fetchList(final ArrayList<Media> currentList, final Request.Builder requestBuilder, final Filters filters, final Callback callback) {
-        return enqueue(requestBuilder.build(), new com.squareup.okhttp.Callback() {
+    private RequestManager.Ticket fetchCachedList(final MediaList currentList, final Request.Builder requestBuilder, final Filters filters, Object owner, final Callback callback) {
+        final RequestManager.Ticket ticket = newRequest(owner);
+        final ListCallback listCallback = new ListCallback(currentList, requestBuilder, filters, callback, MediaCache.getKey(this, filters), ticket);
+        getClient().getDispatcher().getExecutorService().execute(new Runnable() {
             @Override
-            public void onFailure(Request request, IOException e) {
-                String url = requestBuilder.build().urlString();
-                if (CURRENT_API >= API_URLS.length - 1) {
-                    callback.onFailure(e);
+            public void run() {
+                if (!ticket.isActive()) {
+                    callback.onFailure(new IOException(RequestManager.CANCELED));
+                    return;
+                }
+                MediaCache.Entry entry = MediaCache.getInstance().get(listCallback.mCacheKey);
+                if (entry != null && listCallback.deliverCached(entry.body) && entry.isFresh()) {
+                    return;
+                }
+                enqueue(requestBuilder.build(), ticket, listCallback);
+            }
+        });
+        return ticket;
+    }
+
+    /**
+     * @param body Response of the API
+     * @return Parsed response or null when it isn't valid
+     */
+    private VodoResponse parseResponse(String body) {
+        try {
+            return mGson.fromJson(body, VodoResponse.class);
+        } catch (IllegalStateException e) {
+            return null;
+        } catch (JsonSyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Handles the response of the list request, retries on the mirrors and keeps the {@link MediaCache} up to date
+     */
+    private class ListCallback implements com.squareup.okhttp.Callback {
+        private final MediaList mCurrentList;
+        private final Request.Builder mRequestBuilder;
+        private final Filters mFilters;
+        private final Callback mCallback;
+        private final String mCacheKey;
+        private final RequestManager.Ticket mTicket;
+        private String mCachedBody;
+
+        ListCallback(MediaList currentList, Request.Builder requestBuilder, Filters filters, Callback callback, String cacheKey, RequestManager.Ticket ticket) {
+            mCurrentList = currentList;
+            mRequestBuilder = requestBuilder;
+            mFilters = filters;
+            mCallback = callback;
+            mCacheKey = cacheKey;
+            mTicket = ticket;
+        }
+
+        /**
+         * @param body Cached response
+         * @return true when the cached page was valid and passed to the callback
+         */
+        boolean deliverCached(String body) {
+            VodoResponse result = parseResponse(body);
+            if (result == null || result.downloads == null || result.downloads.size() <= 0) {
+                return false;
+            }
+            mCachedBody = body;
+            publish(result.formatForApp(), false, true);
+            return true;
+        }
+
+        @Override
+        public void onFailure(Request request, IOException e) {
+            if (!mTicket.isActive()) {
+                mCallback.onFailure(new IOException(RequestManager.CANCELED));
+                return;
+            }
+
+            String url = mRequestBuilder.build().urlString();
+            if (CURRENT_API >= API_URLS.length - 1) {
+                if (mCachedBody != null) {
+                    // the cached page is already shown, keep it instead of showing an error
+                    Timber.w(e, "Could not refresh %s", url);
+                    publish(null, false, false);
                 } else {
-                    if(url.contains(API_URLS[CURRENT_API])) {
-                        url = url.replace(API_URLS[CURRENT_API], API_URLS[CURRENT_API + 1]);
-                        url = url.replace(API_URLS[CURRENT_API], API_URLS[CURRENT_API + 1]);
-                        CURRENT_API++;
-                    } else {
-                        url = url.replace(API_URLS[CURRENT_API - 1], API_URLS[CURRENT_API]);
-                        url = url.replace(API_URLS[CURRENT_API - 1], API_URLS[CURRENT_API]);
-                    }
-                    requestBuilder.url(url);
-                    fetchList(currentList, requestBuilder, filters, callback);
+                    mCallback.onFailure(e);
                 }
+            } else {
+                if(url.contains(API_URLS[CURRENT_API])) {
+                    url = url.replace(API_URLS[CURRENT_API], API_URLS[CURRENT_API + 1]);
+                    url = url.replace(API_URLS[CURRENT_API], API_URLS[CURRENT_API + 1]);
+                    CURRENT_API++;
+                } else {
+                    url = url.replace(API_URLS[CURRENT_API - 1], API_URLS[CURRENT_API]);
+                    url = url.replace(API_URLS[CURRENT_API - 1], API_URLS[CURRENT_API]);
+                }
+                mRequestBuilder.url(url);
+                enqueue(mRequestBuilder.build(), mTicket, this);
             }
+        }
 
-            @Override
-            public void onResponse(Response response) throws IOException {
-                if (response.isSuccessful()) {
-                    String responseStr;
-                    try {
-                        responseStr = response.body().string();
-                    } catch (SocketException e) {
-                        onFailure(response.request(), new IOException("Socket failed"));
-                        return;
-                    }
+        @Override
+        public void onResponse(Response response) throws IOException {
+            if (!mTicket.isActive()) {
+                mCallback.onFailure(new IOException(RequestManager.CANCELED));
+                return;
+            }
 
-                    VodoResponse result;
-                    try {
-                        result = mGson.fromJson(responseStr, VodoResponse.class);
-                    } catch (IllegalStateException e) {
-                        onFailure(response.request(), new IOException("JSON Failed"));
-                        return;
-                    } catch (JsonSyntaxException e) {
-                        onFailure(response.request(), new IOException("JSON Failed"));
-                        return;
-                    }
+            if (response.isSuccessful()) {
+                String responseStr;
+                try {
+                    responseStr = response.body().string();
+                } catch (SocketException e) {
+                    onFailure(response.request(), new IOException("Socket failed"));
+                    return;
+                }
+
+                if (responseStr.equals(mCachedBody)) {
+                    MediaCache.getInstance().put(mCacheKey, responseStr);
+                    publish(null, false, false);
+                    return;
+                }
+
+                VodoResponse result = parseResponse(responseStr);
+                if (result == null) {
+                    onFailure(response.request(), new IOException("JSON Failed"));
+                    return;
+                }
+
+                if(result.downloads == null || result.downloads.size() <= 0) {
+                    mCallback.onFailure(new NetworkErrorException("No movies found"));
+                } else {
+                    MediaCache.getInstance().put(mCacheKey, responseStr);
+                    // the refreshed page replaces the cached one
+                    publish(result.formatForApp(), mCachedBody != null, true);
+                }
+                return;
+            }
+            onFailure(response.request(), new IOException("Couldn't connect to Vodo"));
+        }
 
-                    if(result == null) {
-                        callback.onFailure(new NetworkErrorException("No response"));
-                    } else if(result.downloads == null || result.downloads.size() <= 0) {
-                        callback.onFailure(new NetworkErrorException("No movies found"));
-                    } else {
-                        ArrayList<Media> formattedData = result.formatForApp(currentList);
-                        callback.onSuccess(filters, formattedData, true);
+        /**
+         * Append the page to the list and pass the items it added to the callback on the main thread, unless the
+         * request was cancelled in the meantime. The list is only changed on the main thread.
+         *
+         * @param page        Items of the page, null when nothing changed
+         * @param replacePage true when the page replaces the last page of the list, like a refreshed cached page
+         * @param changed     false when the list is the same as the one that was passed before
+         */
+        private void publish(final List<Media> page, final boolean replacePage, final boolean changed) {
+            ThreadUtils.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mTicket.isActive()) {
+                        mCallback.onFailure(new IOException(RequestManager.CANCELED));
                         return;
                     }
+                    ArrayList<Media> items = new ArrayList<>();
+                    if (page != null) {
+                        if (replacePage) {
+                            mCurrentList.dropPage();
+                        } else {
+                            mCurrentList.startPage();
+                        }
+                        mCurrentList.addAll(page);
+                        items.addAll(mCurrentList.getNewItems());
+                    }
+                    mCallback.onSuccess(mFilters, items, changed);
                 }
-                onFailure(response.request(), new IOException("Couldn't connect to Vodo"));
-            }
-        });
+            });
+        }
     }
 
     @Override
-    public Call getDetail(ArrayList<Media> currentList, Integer index, Callback callback) {
+    public RequestManager.Ticket getDetail(ArrayList<Media> currentList, Integer index, Callback callback) {
         ArrayList<Media> returnList = new ArrayList<>();
         returnList.add(currentList.get(index));
         callback.onSuccess(null, returnList, true);
@@ -222,70 +349,52 @@ public class VodoProvider extends MediaProvider {
         public ArrayList<LinkedTreeMap<String, Object>> downloads;
 
         /**
-         * Test if there is an item that already exists
+         * Format data for the application, items that are already in the list are skipped when the page is added
          *
-         * @param results List with items
-         * @param id      Id of item to check for
-         * @return Return the index of the item in the results
+         * @return Items of the page
          */
-        private int isInResults(ArrayList<Media> results, String id) {
-            int i = 0;
-            for (Media item : results) {
-                if (item.videoId.equals(id)) return i;
-                i++;
-            }
-            return -1;
-        }
-
-        /**
-         * Format data for the application
-         *
-         * @param existingList List to be extended
-         * @return List with items
-         */
-        public ArrayList<Media> formatForApp(ArrayList<Media> existingList) {
+        public List<Media> formatForApp() {
             ArrayList<LinkedTreeMap<String, Object>> movies = new ArrayList<>();
             if (downloads != null) {
                 movies = downloads;
             }
 
+            List<Media> page = new ArrayList<>(movies.size());
             for (LinkedTreeMap<String, Object> item : movies) {
-                Movie movie = new Movie(sMediaProvider, null);
-
-                movie.imdbId = (String) item.get("ImdbCode");
-                movie.videoId = movie.imdbId.substring(2);
-
-                int existingItem = isInResults(existingList, movie.videoId);
-                if (existingItem == -1) {
-                    movie.title = (String) item.get("MovieTitleClean");
-                    String yearStr = item.get("MovieYear").toString();
-                    Double year = Double.parseDouble(yearStr);
-                    movie.year = Integer.toString(year.intValue());
-                    movie.rating = item.get("MovieRating").toString();
-                    movie.genre = StringUtils.uppercaseFirst(item.get("Genre").toString().split(",")[0]);
-                    movie.image = (String) item.get("CoverImage");
-                    movie.headerImage = (String) item.get("CoverImage");
-                    movie.trailer = null;
-                    String runtimeStr = item.get("Runtime").toString();
-                    Double runtime = 0d;
-                    if(!runtimeStr.isEmpty())
-                        runtime = Double.parseDouble(runtimeStr);
-                    movie.runtime = Integer.toString(runtime.intValue());
-                    movie.synopsis = (String) item.get("Synopsis");
-                    movie.certification = null;
-                    movie.fullImage = movie.image;
-
-                    Media.Torrent torrent = new Media.Torrent();
-                    torrent.seeds = 0;
-                    torrent.peers = 0;
-                    torrent.hash = null;
-                    torrent.url = (String) item.get("TorrentUrl");
-                    movie.torrents.put(item.get("Quality").toString(), torrent);
-
-                    existingList.add(movie);
-                }
+                String imdbId = (String) item.get("ImdbCode");
+                String videoId = imdbId.substring(2);
+
+                Movie movie = new Movie(sMediaProvider, sSubsProvider);
+                movie.imdbId = imdbId;
+                movie.videoId = videoId;
+                movie.title = (String) item.get("MovieTitleClean");
+                String yearStr = item.get("MovieYear").toString();
+                Double year = Double.parseDouble(yearStr);
+                movie.year = Integer.toString(year.intValue());
+                movie.rating = item.get("MovieRating").toString();
+                movie.genre = StringUtils.uppercaseFirst(item.get("Genre").toString().split(",")[0]);
+                movie.image = (String) item.get("CoverImage");
+                movie.headerImage = (String) item.get("CoverImage");
+                movie.trailer = null;
+                String runtimeStr = item.get("Runtime").toString();
+                Double runtime = 0d;
+                if(!runtimeStr.isEmpty())
+                    runtime = Double.parseDouble(runtimeStr);
+                movie.runtime = Integer.toString(runtime.intValue());
+                movie.synopsis = (String) item.get("Synopsis");
+                movie.certification = null;
+                movie.fullImage = movie.image;
+
+                Media.Torrent torrent = new Media.Torrent();
+                torrent.seeds = 0;
+                torrent.peers = 0;
+                torrent.hash = null;
+                torrent.url = (String) item.get("TorrentUrl");
+                movie.torrents.put(item.get("Quality").toString(), torrent);
+
+                page.add(movie);
             }
-            return existingList;
+            return page;
         }
     }
     @Override
@@ -93,6 +93,18 @@ public class Media implements Parcelable {
         }
     }
 
+    /**
+     * @param runtime Runtime in minutes, as the providers give it
+     * @return Runtime in ms, 0 when it isn't known
+     */
+    protected static long parseRuntime(String runtime) {
+        try {
+            return Math.max(0, Long.parseLong(runtime.trim())) * 60 * 1000;
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
     @Override
     public int describeContents() {
         return 0;
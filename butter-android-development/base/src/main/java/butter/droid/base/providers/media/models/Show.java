@@ -75,6 +75,13 @@ public class Show extends Media implements Parcelable {
         }
     }
 
+    /**
+     * @return Runtime in ms, 0 when it isn't known
+     */
+    public long getRuntimeMs() {
+        return parseRuntime(runtime);
+    }
+
     @Override
     public int describeContents() {
         return 0;
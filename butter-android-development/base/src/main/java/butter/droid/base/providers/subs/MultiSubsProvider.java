@@ -0,0 +1,184 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package butter.droid.base.providers.subs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import butter.droid.base.providers.media.models.Episode;
+import butter.droid.base.providers.media.models.Movie;
+import timber.log.Timber;
+
+/**
+ * Queries several {@link SubsProvider}s at the same time and merges their results per language.
+ * <p/>
+ * Every provider picks its best rated subtitle per language by its own rating, the ratings of different providers
+ * can't be compared. A language goes to the provider that comes first in the list, whatever order they answer in.
+ * Languages are reported to a {@link PartialCallback} as soon as they arrive and again when the subtitle of an earlier
+ * provider replaces them, {@link Callback#onSuccess(Map)} follows once every provider answered or when
+ * {@link #DEADLINE_MS} passed, so a slow or dead provider never delays the result by more than the deadline.
+ */
+public class MultiSubsProvider extends SubsProvider {
+
+    public static final long DEADLINE_MS = 6000;
+
+    private static final ScheduledExecutorService sDeadlineExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private final List<SubsProvider> mProviders;
+
+    public MultiSubsProvider() {
+        this(new YSubsProvider(), new OpenSubsProvider());
+    }
+
+    public MultiSubsProvider(SubsProvider... providers) {
+        mProviders = new ArrayList<>(Arrays.asList(providers));
+    }
+
+    @Override
+    public void getList(final Movie movie, Callback callback) {
+        Resolution resolution = new Resolution(callback);
+        for (int i = 0; i < mProviders.size(); i++) {
+            mProviders.get(i).getList(movie, resolution.newProviderCallback(i));
+        }
+    }
+
+    @Override
+    public void getList(final Episode episode, Callback callback) {
+        Resolution resolution = new Resolution(callback);
+        for (int i = 0; i < mProviders.size(); i++) {
+            mProviders.get(i).getList(episode, resolution.newProviderCallback(i));
+        }
+    }
+
+    @Override
+    public void preload(List<Episode> episodes) {
+        for (SubsProvider provider : mProviders) {
+            provider.preload(episodes);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        for (SubsProvider provider : mProviders) {
+            provider.cancel();
+        }
+    }
+
+    /**
+     * State of a single lookup across all providers
+     */
+    private class Resolution {
+        private final Callback mCallback;
+        private final Map<String, String> mItems = new HashMap<>();
+        private final Map<String, Integer> mSources = new HashMap<>();
+        private final ScheduledFuture<?> mDeadline;
+        private int mPending = mProviders.size();
+        private Exception mLastError;
+        private boolean mDone = false;
+
+        Resolution(Callback callback) {
+            mCallback = callback;
+            mDeadline = sDeadlineExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    Timber.d("Subtitle providers missed the deadline, %d pending", mPending);
+                    finish();
+                }
+            }, DEADLINE_MS, TimeUnit.MILLISECONDS);
+        }
+
+        Callback newProviderCallback(final int index) {
+            return new Callback() {
+                @Override
+                public void onSuccess(Map<String, String> items) {
+                    onProviderResult(index, items, null);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    Timber.d("%s failed: %s", mProviders.get(index).getClass().getSimpleName(), e.getMessage());
+                    onProviderResult(index, null, e);
+                }
+            };
+        }
+
+        private void onProviderResult(int index, Map<String, String> items, Exception error) {
+            List<String> newLanguages = new ArrayList<>();
+            boolean finished;
+            synchronized (this) {
+                if (mDone) return;
+
+                if (items != null) {
+                    for (Map.Entry<String, String> entry : items.entrySet()) {
+                        String language = entry.getKey();
+                        if (entry.getValue() == null || language.equals(SUBTITLE_LANGUAGE_NONE)) continue;
+                        if (isBetter(language, index)) {
+                            mItems.put(language, entry.getValue());
+                            mSources.put(language, index);
+                            newLanguages.add(language);
+                        }
+                    }
+                }
+                if (error != null) mLastError = error;
+                finished = --mPending == 0;
+            }
+
+            if (mCallback instanceof PartialCallback) {
+                for (String language : newLanguages) {
+                    ((PartialCallback) mCallback).onLanguageFound(language, items.get(language));
+                }
+            }
+
+            if (finished) {
+                mDeadline.cancel(false);
+                finish();
+            }
+        }
+
+        private boolean isBetter(String language, int index) {
+            return !mSources.containsKey(language) || index < mSources.get(language);
+        }
+
+        private void finish() {
+            Map<String, String> result;
+            Exception error;
+            synchronized (this) {
+                if (mDone) return;
+                mDone = true;
+                result = new HashMap<>(mItems);
+                error = mLastError;
+            }
+
+            if (!result.isEmpty()) {
+                mCallback.onSuccess(result);
+            } else if (error != null) {
+                mCallback.onFailure(error);
+            } else {
+                mCallback.onFailure(new IOException("No subtitles found"));
+            }
+        }
+    }
+
+}
@@ -19,7 +19,11 @@ package butter.droid.base.providers.subs;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -32,7 +36,30 @@ import butter.droid.base.providers.media.models.Movie;
 
 public class OpenSubsProvider extends SubsProvider {
 
-    protected String mApiUrl = "http://api.opensubtitles.org/xml-rpc";
+    /**
+     * OpenSubtitles tokens expire after 15 minutes without requests, keep a margin
+     */
+    private static final long TOKEN_LIFETIME_MS = 10 * 60 * 1000;
+
+    /**
+     * A season is searched at once when its episodes are listed, the episodes are looked up one by one afterwards
+     */
+    private static final long RESULT_LIFETIME_MS = 30 * 60 * 1000;
+    private static final int MAX_CACHED_RESULTS = 200;
+
+    /**
+     * SearchSubtitles returns at most {@link #SEARCH_LIMIT} subtitles per call, all languages of a few episodes fit
+     */
+    private static final int EPISODES_PER_SEARCH = 5;
+    private static final int SEARCH_LIMIT = 500;
+
+    /**
+     * Client, token and results per API url, so a subclass with another url never uses the ones of this one
+     */
+    private static final Map<String, Session> sSessions = new HashMap<>();
+
+    // LogIn always used https, searches go to the same endpoint so they share the client and its connection
+    protected String mApiUrl = "https://api.opensubtitles.org/xml-rpc";
     protected String mUserAgent = "Popcorn Time v1";//"Popcorn Time Android v1";
 
     @Override
@@ -43,129 +70,358 @@ public class OpenSubsProvider extends SubsProvider {
 
     @Override
     public void getList(final Episode episode, final Callback callback) {
-        login(new XMLRPCCallback() {
+        Session session = getSession();
+        Result result;
+        boolean search = false;
+        synchronized (session) {
+            result = session.getResult(episode.videoId);
+            if (result == null) {
+                search = session.addWaiter(episode.videoId, callback);
+            }
+        }
+
+        if (result != null) {
+            callback.onSuccess(new HashMap<>(result.items));
+        } else if (search) {
+            search(session, Collections.singletonList(episode), true);
+        }
+    }
+
+    /**
+     * Search the episodes that aren't cached or searched already, several per SearchSubtitles call
+     */
+    @Override
+    public void preload(List<Episode> episodes) {
+        Session session = getSession();
+        List<Episode> toSearch = new ArrayList<>();
+        synchronized (session) {
+            for (Episode episode : episodes) {
+                if (session.getResult(episode.videoId) == null && session.addWaiter(episode.videoId, null)) {
+                    toSearch.add(episode);
+                }
+            }
+        }
+
+        for (int i = 0; i < toSearch.size(); i += EPISODES_PER_SEARCH) {
+            search(session, new ArrayList<>(toSearch.subList(i, Math.min(i + EPISODES_PER_SEARCH, toSearch.size()))), true);
+        }
+    }
+
+    /**
+     * Search the episodes with a single SearchSubtitles call, the result of every episode goes to the callbacks
+     * waiting for its videoId
+     */
+    private void search(final Session session, final List<Episode> episodes, final boolean retryOnAuthError) {
+        withToken(session, new TokenCallback() {
             @Override
-            public void onResponse(long id, Object result) {
-                Map<String, Object> response = (Map<String, Object>) result;
-                String token = (String) response.get("token");
-
-                final String episodeStr = Integer.toString(episode.episode);
-                final String seasonStr = Integer.toString(episode.season);
-
-                if (!token.isEmpty()) {
-                    search(episode, token, new XMLRPCCallback() {
-                        @Override
-                        public void onResponse(long id, Object result) {
-                            Map<String, Map<String, String>> returnMap = new HashMap<>();
-                            Map<String, Integer[]> scoreMap = new HashMap<>();
-                            Map<String, String> episodeMap = new HashMap<>();
-                            Map<String, Object> subData = (Map<String, Object>) result;
-                            if (subData != null && subData.get("data") != null && subData.get("data") instanceof Object[]) {
-                                Object[] dataList = (Object[]) subData.get("data");
-                                for (Object dataItem : dataList) {
-                                    Map<String, String> item = (Map<String, String>) dataItem;
-                                    if (!item.get("SubFormat").equals("srt")) {
-                                        continue;
-                                    }
-
-                                    // episode check
-                                    if (Integer.parseInt(item.get("SeriesIMDBParent")) != Integer.parseInt(episode.imdbId.replace("tt", ""))) {
-                                        continue;
-                                    }
-                                    if (!item.get("SeriesSeason").equals(seasonStr)) {
-                                        continue;
-                                    }
-                                    if (!item.get("SeriesEpisode").equals(episodeStr)) {
-                                        continue;
-                                    }
-
-                                    String url = item.get("SubDownloadLink").replace(".gz", ".srt");
-                                    String lang = item.get("ISO639").replace("pb", "pt-br");
-                                    int downloads = Integer.parseInt(item.get("SubDownloadsCnt"));
-                                    int score = 0;
-
-                                    if (item.get("MatchedBy").equals("tag")) {
-                                        score += 50;
-                                    }
-                                    if (item.get("UserRank").equals("trusted")) {
-                                        score += 100;
-                                    }
-                                    if (!episodeMap.containsKey(lang)) {
-                                        episodeMap.put(lang, url);
-                                        scoreMap.put(lang, new Integer[]{score, downloads});
-                                    } else if (score > scoreMap.get(lang)[0] || (score == scoreMap.get(lang)[0] && downloads > scoreMap.get(lang)[1])) {
-                                        episodeMap.put(lang, url);
-                                        scoreMap.put(lang, new Integer[]{score, downloads});
-                                    }
-                                }
-                                returnMap.put(episode.videoId, episodeMap);
-                                callback.onSuccess(returnMap.get(episode.videoId));
+            public void onToken(final String token) {
+                List<Map<String, String>> queries = new ArrayList<>(episodes.size());
+                for (Episode episode : episodes) {
+                    Map<String, String> option = new HashMap<>();
+                    option.put("imdbid", episode.imdbId.replace("tt", ""));
+                    option.put("season", String.format(Locale.US, "%d", episode.season));
+                    option.put("episode", String.format(Locale.US, "%d", episode.episode));
+                    option.put("sublanguageid", "all");
+                    queries.add(option);
+                }
+
+                session.client.callAsync(new XMLRPCCallback() {
+                    @Override
+                    public void onResponse(long id, Object result) {
+                        Map<String, Object> subData = (Map<String, Object>) result;
+                        if (subData != null && isAuthError(subData.get("status"))) {
+                            invalidateToken(session, token);
+                            if (retryOnAuthError) {
+                                search(session, episodes, false);
                             } else {
-                                callback.onFailure(new XMLRPCException("No subs found"));
+                                fail(session, episodes, new XMLRPCException("Token not correct"));
                             }
+                            return;
                         }
 
-                        @Override
-                        public void onError(long id, XMLRPCException error) {
-                            callback.onFailure(error);
+                        Object[] dataList = null;
+                        if (subData != null && subData.get("data") instanceof Object[]) {
+                            dataList = (Object[]) subData.get("data");
                         }
+                        boolean truncated = dataList != null && dataList.length >= SEARCH_LIMIT;
 
-                        @Override
-                        public void onServerError(long id, XMLRPCServerException error) {
-                            callback.onFailure(error);
+                        for (Episode episode : episodes) {
+                            Map<String, String> items = dataList == null ? null : selectSubtitles(dataList, episode);
+                            if (truncated && episodes.size() > 1 && items.isEmpty()) {
+                                // the other episodes may have filled the result, search this one on its own
+                                search(session, Collections.singletonList(episode), retryOnAuthError);
+                            } else if (items == null) {
+                                finish(session, episode, null, new XMLRPCException("No subs found"));
+                            } else {
+                                finish(session, episode, items, null);
+                            }
                         }
-                    });
+                    }
+
+                    @Override
+                    public void onError(long id, XMLRPCException error) {
+                        fail(session, episodes, error);
+                    }
+
+                    @Override
+                    public void onServerError(long id, XMLRPCServerException error) {
+                        fail(session, episodes, error);
+                    }
+                }, "SearchSubtitles", token, queries.toArray());
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                fail(session, episodes, e);
+            }
+        });
+    }
+
+    private static void fail(Session session, List<Episode> episodes, Exception e) {
+        for (Episode episode : episodes) {
+            finish(session, episode, null, e);
+        }
+    }
+
+    /**
+     * Cache the result of an episode and pass it, or the error, to the callbacks waiting for it
+     */
+    private static void finish(Session session, Episode episode, Map<String, String> items, Exception error) {
+        List<Callback> waiting;
+        synchronized (session) {
+            waiting = session.pending.remove(episode.videoId);
+            if (error == null) {
+                session.results.put(episode.videoId, new Result(items));
+            }
+        }
+        if (waiting == null) {
+            return;
+        }
+
+        for (Callback callback : waiting) {
+            if (error == null) {
+                callback.onSuccess(new HashMap<>(items));
+            } else {
+                callback.onFailure(error);
+            }
+        }
+    }
+
+    /**
+     * Pick the best subtitle per language for an episode, trusted uploaders and tag matches score higher,
+     * the download count decides between equal scores.
+     *
+     * @param dataList SearchSubtitles result
+     * @param episode  Episode
+     * @return Subtitle url per language
+     */
+    private Map<String, String> selectSubtitles(Object[] dataList, Episode episode) {
+        final String episodeStr = Integer.toString(episode.episode);
+        final String seasonStr = Integer.toString(episode.season);
+        final int showImdbId = Integer.parseInt(episode.imdbId.replace("tt", ""));
+
+        Map<String, Integer[]> scoreMap = new HashMap<>();
+        Map<String, String> episodeMap = new HashMap<>();
+        for (Object dataItem : dataList) {
+            Map<String, String> item = (Map<String, String>) dataItem;
+            if (!item.get("SubFormat").equals("srt")) {
+                continue;
+            }
+
+            // episode check
+            if (Integer.parseInt(item.get("SeriesIMDBParent")) != showImdbId) {
+                continue;
+            }
+            if (!item.get("SeriesSeason").equals(seasonStr)) {
+                continue;
+            }
+            if (!item.get("SeriesEpisode").equals(episodeStr)) {
+                continue;
+            }
+
+            String url = item.get("SubDownloadLink").replace(".gz", ".srt");
+            String lang = item.get("ISO639").replace("pb", "pt-br");
+            int downloads = Integer.parseInt(item.get("SubDownloadsCnt"));
+            int score = 0;
+
+            if (item.get("MatchedBy").equals("tag")) {
+                score += 50;
+            }
+            if (item.get("UserRank").equals("trusted")) {
+                score += 100;
+            }
+            if (!episodeMap.containsKey(lang)) {
+                episodeMap.put(lang, url);
+                scoreMap.put(lang, new Integer[]{score, downloads});
+            } else if (score > scoreMap.get(lang)[0] || (score == scoreMap.get(lang)[0] && downloads > scoreMap.get(lang)[1])) {
+                episodeMap.put(lang, url);
+                scoreMap.put(lang, new Integer[]{score, downloads});
+            }
+        }
+        return episodeMap;
+    }
+
+    private interface TokenCallback {
+        void onToken(String token);
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * Use the cached token, or login to server to get a new one. Lookups that need a token while a login is running
+     * wait for that login.
+     */
+    private void withToken(final Session session, TokenCallback callback) {
+        String cachedToken = null;
+        boolean login = false;
+        synchronized (session) {
+            if (session.token != null && System.currentTimeMillis() < session.tokenExpiry) {
+                session.tokenExpiry = System.currentTimeMillis() + TOKEN_LIFETIME_MS;
+                cachedToken = session.token;
+            } else {
+                if (session.loginWaiters == null) {
+                    session.loginWaiters = new ArrayList<>();
+                    login = true;
+                }
+                session.loginWaiters.add(callback);
+            }
+        }
+        if (cachedToken != null) {
+            callback.onToken(cachedToken);
+            return;
+        }
+        if (!login) {
+            return;
+        }
+
+        session.client.callAsync(new XMLRPCCallback() {
+            @Override
+            public void onResponse(long id, Object result) {
+                Map<String, Object> response = (Map<String, Object>) result;
+                String token = response == null ? null : (String) response.get("token");
+
+                if (token != null && !token.isEmpty()) {
+                    loggedIn(session, token, null);
                 } else {
-                    callback.onFailure(new XMLRPCException("Token not correct"));
+                    loggedIn(session, null, new XMLRPCException("Token not correct"));
                 }
             }
 
             @Override
             public void onError(long id, XMLRPCException error) {
-                callback.onFailure(error);
+                loggedIn(session, null, error);
             }
 
             @Override
             public void onServerError(long id, XMLRPCServerException error) {
-                callback.onFailure(error);
+                loggedIn(session, null, error);
             }
-        });
+        }, "LogIn", "", "", "en", mUserAgent);
     }
 
-    /**
-     * Login to server and get token
-     *
-     * @return Token
-     */
-    private void login(XMLRPCCallback callback) {
-        try {
-            XMLRPCClient client = new XMLRPCClient(new URL(mApiUrl.replace("http://", "https://")), mUserAgent);
-            client.callAsync(callback, "LogIn", "", "", "en", mUserAgent);
-        } catch (MalformedURLException e) {
-            e.printStackTrace();
-            // Just catch and fail
+    private static void loggedIn(Session session, String token, Exception error) {
+        List<TokenCallback> waiters;
+        synchronized (session) {
+            if (token != null) {
+                session.token = token;
+                session.tokenExpiry = System.currentTimeMillis() + TOKEN_LIFETIME_MS;
+            }
+            waiters = session.loginWaiters;
+            session.loginWaiters = null;
+        }
+
+        for (TokenCallback waiter : waiters) {
+            if (token != null) {
+                waiter.onToken(token);
+            } else {
+                waiter.onFailure(error);
+            }
+        }
+    }
+
+    private static void invalidateToken(Session session, String token) {
+        synchronized (session) {
+            if (token.equals(session.token)) {
+                session.token = null;
+            }
         }
     }
 
+    private static boolean isAuthError(Object status) {
+        return status instanceof String && ((String) status).startsWith("401");
+    }
+
     /**
-     * Search for subtitles by imdbId, season and episode
-     *
-     * @param episode Episode
-     * @param token   Login token
-     * @return SRT URL
+     * @return the client, token and results shared by all lookups on {@link #mApiUrl}, so connections, the token and
+     * results are reused
      */
-    private void search(Episode episode, String token, XMLRPCCallback callback) {
-        try {
-            XMLRPCClient client = new XMLRPCClient(new URL(mApiUrl), mUserAgent);
-            Map<String, String> option = new HashMap<>();
-            option.put("imdbid", episode.imdbId.replace("tt", ""));
-            option.put("season", String.format(Locale.US, "%d", episode.season));
-            option.put("episode", String.format(Locale.US, "%d", episode.episode));
-            option.put("sublanguageid", "all");
-            client.callAsync(callback, "SearchSubtitles", token, new Object[]{option});
-        } catch (MalformedURLException e) {
-            e.printStackTrace();
+    private Session getSession() {
+        synchronized (sSessions) {
+            Session session = sSessions.get(mApiUrl);
+            if (session == null) {
+                try {
+                    session = new Session(new XMLRPCClient(new URL(mApiUrl), mUserAgent));
+                } catch (MalformedURLException e) {
+                    throw new IllegalStateException(e);
+                }
+                sSessions.put(mApiUrl, session);
+            }
+            return session;
+        }
+    }
+
+    private static class Session {
+        final XMLRPCClient client;
+        String token;
+        long tokenExpiry;
+        List<TokenCallback> loginWaiters;
+
+        final Map<String, Result> results = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                return size() > MAX_CACHED_RESULTS;
+            }
+        };
+        final Map<String, List<Callback>> pending = new HashMap<>();
+
+        Session(XMLRPCClient client) {
+            this.client = client;
+        }
+
+        Result getResult(String videoId) {
+            Result result = results.get(videoId);
+            if (result != null && System.currentTimeMillis() - result.time > RESULT_LIFETIME_MS) {
+                results.remove(videoId);
+                return null;
+            }
+            return result;
+        }
+
+        /**
+         * @param callback Callback for the result, or null to only search it
+         * @return true when the episode isn't searched yet and the caller has to search it
+         */
+        boolean addWaiter(String videoId, Callback callback) {
+            List<Callback> waiting = pending.get(videoId);
+            boolean search = waiting == null;
+            if (search) {
+                waiting = new ArrayList<>();
+                pending.put(videoId, waiting);
+            }
+            if (callback != null) {
+                waiting.add(callback);
+            }
+            return search;
+        }
+    }
+
+    private static class Result {
+        final Map<String, String> items;
+        final long time = System.currentTimeMillis();
+
+        Result(Map<String, String> items) {
+            this.items = items;
         }
     }
 
-}
\ No newline at end of file
+}
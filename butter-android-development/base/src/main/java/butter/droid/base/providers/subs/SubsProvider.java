@@ -25,6 +25,7 @@ import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -59,12 +60,30 @@ public abstract class SubsProvider extends BaseProvider {
 
     public abstract void getList(Episode episode, Callback callback);
 
+    /**
+     * Look up the subtitles of several episodes ahead, like the episodes of a season when they are listed, so
+     * {@link #getList(Episode, Callback)} can answer from the results later. Does nothing by default.
+     *
+     * @param episodes Episodes
+     */
+    public void preload(List<Episode> episodes) {
+    }
+
     public interface Callback {
         void onSuccess(Map<String, String> items);
 
         void onFailure(Exception e);
     }
 
+    /**
+     * Callback for lookups that combine several sources, see {@link MultiSubsProvider}.
+     * Languages are reported as soon as a source returns them, before {@link #onSuccess(Map)} is called. A language
+     * is reported again when a source that comes earlier in the list returns it later.
+     */
+    public interface PartialCallback extends Callback {
+        void onLanguageFound(String language, String url);
+    }
+
     public static File getStorageLocation(Context context) {
         return new File(PrefUtils.get(context, Prefs.STORAGE_LOCATION, StorageUtils.getIdealCacheDirectory(context).toString()) + "/subs/");
     }
@@ -217,15 +236,15 @@ public abstract class SubsProvider extends BaseProvider {
     private static void parseFormatAndSave(String inputUrl, File srtPath, String languageCode, InputStream inputStream) throws IOException {
         TimedTextObject subtitleObject = null;
 
-        String inputString = FileUtils.inputstreamToCharsetString(inputStream, languageCode);
-        String[] inputText = inputString.split("\n|\r\n");
+        // the stream is not closed here, the caller owns it (it may be a zip entry)
+        BufferedReader reader = FileUtils.inputstreamToCharsetReader(inputStream, languageCode);
 
         if (inputUrl.contains(".ass") || inputUrl.contains(".ssa")) {
             FormatASS formatASS = new FormatASS();
-            subtitleObject = formatASS.parseFile(inputUrl, inputText);
+            subtitleObject = formatASS.parseFile(inputUrl, reader);
         } else if (inputUrl.contains(".srt")) {
             FormatSRT formatSRT = new FormatSRT();
-            subtitleObject = formatSRT.parseFile(inputUrl, inputText);
+            subtitleObject = formatSRT.parseFile(inputUrl, reader);
         }
 
         if (subtitleObject != null) {
@@ -24,6 +24,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import butter.droid.base.providers.media.models.Episode;
 import butter.droid.base.providers.media.models.Movie;
@@ -81,22 +83,32 @@ public class YSubsProvider extends SubsProvider {
 
     @Override
     public void getList(final Movie media, final Callback callback) {
-        final Request.Builder requestBuilder = new Request.Builder();
-        requestBuilder.url(API_URL + media.imdbId);
-        requestBuilder.tag(SUBS_CALL);
-
-        fetch(requestBuilder, media, new Callback() {
-            @Override
-            public void onSuccess(Map<String, String> items) {
-                callback.onSuccess(items);
-            }
+        // both mirrors are asked at once, the first good answer is used and it only fails when both fail
+        final String[] urls = {API_URL, MIRROR_URL};
+        final AtomicInteger remaining = new AtomicInteger(urls.length);
+        final AtomicBoolean answered = new AtomicBoolean(false);
+
+        for (String url : urls) {
+            final Request.Builder requestBuilder = new Request.Builder();
+            requestBuilder.url(url + media.imdbId);
+            requestBuilder.tag(SUBS_CALL);
+
+            fetch(requestBuilder, media, new Callback() {
+                @Override
+                public void onSuccess(Map<String, String> items) {
+                    if (answered.compareAndSet(false, true)) {
+                        callback.onSuccess(items);
+                    }
+                }
 
-            @Override
-            public void onFailure(Exception e) {
-                requestBuilder.url(MIRROR_URL + media.imdbId);
-                fetch(requestBuilder, media, callback);
-            }
-        });
+                @Override
+                public void onFailure(Exception e) {
+                    if (remaining.decrementAndGet() == 0 && answered.compareAndSet(false, true)) {
+                        callback.onFailure(e);
+                    }
+                }
+            });
+        }
     }
 
     @Override
@@ -118,7 +130,14 @@ public class YSubsProvider extends SubsProvider {
                 if (response.isSuccessful()) {
                     String responseStr = response.body().string();
                     YSubsResponse result = mGson.fromJson(responseStr, YSubsResponse.class);
-                    callback.onSuccess(result.formatForPopcorn(PREFIX, LANGUAGE_MAPPING).get(media.imdbId));
+                    Map<String, String> items = result == null ? null : result.formatForPopcorn(PREFIX, LANGUAGE_MAPPING).get(media.imdbId);
+                    if (items != null) {
+                        callback.onSuccess(items);
+                    } else {
+                        callback.onFailure(new IOException("No subtitles for " + media.imdbId));
+                    }
+                } else {
+                    callback.onFailure(new IOException("Unexpected response " + response.code()));
                 }
             }
         });
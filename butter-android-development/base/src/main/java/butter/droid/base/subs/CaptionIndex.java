@@ -0,0 +1,146 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package butter.droid.base.subs;
+
+import java.util.Collection;
+
+/**
+ * Immutable, time sorted view of the captions of a {@link TimedTextObject}.
+ * <p/>
+ * Captions are stored in parallel arrays ordered by start time, together with the running maximum of the end times.
+ * A lookup is a binary search on the start times followed by a short backwards walk that only visits captions
+ * which can still be on screen, so overlapping captions are handled and the cost does not depend on the playback
+ * position or on the direction of the last seek.
+ * <p/>
+ * An index of a compiled subtitle only holds the times, the captions are created when a lookup first returns them.
+ */
+public class CaptionIndex {
+
+    private final Caption[] mCaptions;
+    private final int[] mStarts;
+    private final int[] mEnds;
+    private final int[] mMaxEnds;
+    private final Loader mLoader;
+
+    /**
+     * Creates the caption at a position of the index when it is first needed
+     */
+    interface Loader {
+        Caption load(int index);
+    }
+
+    /**
+     * @param captions captions ordered by start time, as returned by {@code TimedTextObject.captions.values()}
+     */
+    CaptionIndex(Collection<Caption> captions) {
+        int size = captions.size();
+        mCaptions = new Caption[size];
+        mStarts = new int[size];
+        mEnds = new int[size];
+        mMaxEnds = new int[size];
+
+        mLoader = null;
+
+        int i = 0;
+        int maxEnd = Integer.MIN_VALUE;
+        for (Caption caption : captions) {
+            mCaptions[i] = caption;
+            mStarts[i] = caption.start.mseconds;
+            mEnds[i] = caption.end.mseconds;
+            maxEnd = Math.max(maxEnd, mEnds[i]);
+            mMaxEnds[i] = maxEnd;
+            i++;
+        }
+    }
+
+    /**
+     * @param starts start times ordered like the captions of {@code TimedTextObject.captions}
+     * @param ends   end times of the same captions
+     * @param loader creates a caption the first time it is returned
+     */
+    CaptionIndex(int[] starts, int[] ends, Loader loader) {
+        mCaptions = new Caption[starts.length];
+        mStarts = starts;
+        mEnds = ends;
+        mMaxEnds = new int[starts.length];
+        mLoader = loader;
+
+        int maxEnd = Integer.MIN_VALUE;
+        for (int i = 0; i < starts.length; i++) {
+            maxEnd = Math.max(maxEnd, ends[i]);
+            mMaxEnds[i] = maxEnd;
+        }
+    }
+
+    /**
+     * @return number of indexed captions
+     */
+    public int size() {
+        return mCaptions.length;
+    }
+
+    /**
+     * Find the caption that should be visible at the given time. When several captions overlap the one that started
+     * first is returned.
+     *
+     * @param time playback time in milliseconds
+     * @return the visible caption or null if there is none
+     */
+    public Caption find(long time) {
+        int index = lastStartingBefore(time);
+        Caption result = null;
+        while (index >= 0 && mMaxEnds[index] >= time) {
+            if (mEnds[index] >= time) {
+                result = get(index);
+            }
+            index--;
+        }
+        return result;
+    }
+
+    /**
+     * @param index position in start time order
+     * @return caption at the position
+     */
+    Caption get(int index) {
+        Caption caption = mCaptions[index];
+        if (caption == null) {
+            // the loader returns equal captions, a lookup racing with another one only wastes the work
+            caption = mLoader.load(index);
+            mCaptions[index] = caption;
+        }
+        return caption;
+    }
+
+    /**
+     * @return index of the last caption that starts at or before the given time, -1 if there is none
+     */
+    private int lastStartingBefore(long time) {
+        int low = 0;
+        int high = mStarts.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mStarts[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+}
@@ -17,7 +17,9 @@
 
 package butter.droid.base.subs;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 
 /**
@@ -48,9 +50,15 @@ import java.util.ArrayList;
 public class FormatASS extends TimedTextFileFormat {
 
     public TimedTextObject parseFile(String fileName, String[] inputString) throws IOException {
+        return parseFile(fileName, toReader(inputString));
+    }
+
+    @Override
+    public TimedTextObject parseFile(String fileName, Reader reader) throws IOException {
 
         TimedTextObject tto = new TimedTextObject();
         tto.fileName = fileName;
+        BufferedReader in = toBufferedReader(reader);
 
         Caption caption;
         Style style;
@@ -67,12 +75,11 @@ public class FormatASS extends TimedTextFileFormat {
 
         String line;
         int lineCounter = 0;
-        int stringIndex = 0;
         try {
             //we scour the file
-            line = getLine(inputString, stringIndex++);
+            line = in.readLine();
             lineCounter++;
-            while (line != null && stringIndex < inputString.length) {
+            while (line != null) {
                 line = line.trim();
                 //we skip any line until we find a section [section name]
                 if (line.startsWith("[")) {
@@ -80,7 +87,7 @@ public class FormatASS extends TimedTextFileFormat {
                     if (line.equalsIgnoreCase("[Script info]")) {
                         //its the script info section section
                         lineCounter++;
-                        line = getLine(inputString, stringIndex++).trim();
+                        line = in.readLine().trim();
                         //Each line is scanned for useful info until a new section is detected
                         while (!line.startsWith("[")) {
                             if (line.startsWith("Title:"))
@@ -95,13 +102,13 @@ public class FormatASS extends TimedTextFileFormat {
                                     isASS = true;
                                     //we check the type to set isASS or to warn if it comes from an older version than the studied specs
                                 else if (!line.split(":")[1].trim().equalsIgnoreCase("v4.00"))
-                                    tto.warnings += "Script version is older than 4.00, it may produce parsing errors.";
+                                    tto.warnings.append("Script version is older than 4.00, it may produce parsing errors.");
                             } else if (line.startsWith("Timer:"))
                                 //We have found the timer
                                 timer = Float.parseFloat(line.split(":")[1].trim().replace(',', '.'));
                             //we go to the next line
                             lineCounter++;
-                            line = getLine(inputString, stringIndex++).trim();
+                            line = in.readLine().trim();
                         }
 
                     } else if (line.equalsIgnoreCase("[v4 Styles]")
@@ -111,23 +118,23 @@ public class FormatASS extends TimedTextFileFormat {
                         if (line.contains("+") && !isASS) {
                             //its ASS and it had not been noted
                             isASS = true;
-                            tto.warnings += "ScriptType should be set to v4:00+ in the [Script Info] section.\n\n";
+                            tto.warnings.append("ScriptType should be set to v4:00+ in the [Script Info] section.\n\n");
                         }
                         lineCounter++;
-                        line = getLine(inputString, stringIndex++).trim();
+                        line = in.readLine().trim();
                         //the first line should define the format
                         if (!line.startsWith("Format:")) {
                             //if not, we scan for the format.
-                            tto.warnings += "Format: (format definition) expected at line " + line + " for the styles section\n\n";
+                            tto.warnings.append("Format: (format definition) expected at line ").append(line).append(" for the styles section\n\n");
                             while (!line.startsWith("Format:")) {
                                 lineCounter++;
-                                line = getLine(inputString, stringIndex++).trim();
+                                line = in.readLine().trim();
                             }
                         }
                         // we recover the format's fields
                         styleFormat = line.split(":")[1].trim().split(",");
                         lineCounter++;
-                        line = getLine(inputString, stringIndex++).trim();
+                        line = in.readLine().trim();
                         // we parse each style until we reach a new section
                         while (!line.startsWith("[")) {
                             //we check it is a style
@@ -139,28 +146,28 @@ public class FormatASS extends TimedTextFileFormat {
                             }
                             //next line
                             lineCounter++;
-                            line = getLine(inputString, stringIndex++).trim();
+                            line = in.readLine().trim();
                         }
 
                     } else if (line.trim().equalsIgnoreCase("[Events]")) {
                         //its the events specification section
                         lineCounter++;
-                        line = getLine(inputString, stringIndex++).trim();
-                        tto.warnings += "Only dialogue events are considered, all other events are ignored.\n\n";
+                        line = in.readLine().trim();
+                        tto.warnings.append("Only dialogue events are considered, all other events are ignored.\n\n");
                         //the first line should define the format of the dialogues
                         if (!line.startsWith("Format:")) {
                             //if not, we scan for the format.
-                            tto.warnings += "Format: (format definition) expected at line " + line + " for the events section\n\n";
+                            tto.warnings.append("Format: (format definition) expected at line ").append(line).append(" for the events section\n\n");
                             while (!line.startsWith("Format:")) {
                                 lineCounter++;
-                                line = getLine(inputString, stringIndex++).trim();
+                                line = in.readLine().trim();
                             }
                         }
                         // we recover the format's fields
                         dialogueFormat = line.split(":")[1].trim().split(",");
                         //next line
                         lineCounter++;
-                        line = getLine(inputString, stringIndex++).trim();
+                        line = in.readLine().trim();
                         // we parse each style until we reach a new section
                         while (!line.startsWith("[")) {
                             //we check it is a dialogue
@@ -176,20 +183,20 @@ public class FormatASS extends TimedTextFileFormat {
                             }
                             //next line
                             lineCounter++;
-                            line = getLine(inputString, stringIndex++).trim();
+                            line = in.readLine().trim();
                         }
 
                     } else if (line.trim().equalsIgnoreCase("[Fonts]") || line.trim().equalsIgnoreCase("[Graphics]")) {
                         //its the custom fonts or embedded graphics section
                         //these are not supported
-                        tto.warnings += "The section " + line.trim() + " is not supported for conversion, all information there will be lost.\n\n";
-                        line = getLine(inputString, stringIndex++).trim();
+                        tto.warnings.append("The section ").append(line.trim()).append(" is not supported for conversion, all information there will be lost.\n\n");
+                        line = in.readLine().trim();
                     } else {
-                        tto.warnings += "Unrecognized section: " + line.trim() + " all information there is ignored.";
-                        line = getLine(inputString, stringIndex++).trim();
+                        tto.warnings.append("Unrecognized section: ").append(line.trim()).append(" all information there is ignored.");
+                        line = in.readLine().trim();
                     }
                 } else {
-                    line = getLine(inputString, stringIndex++);
+                    line = in.readLine();
                     lineCounter++;
                 }
             }
@@ -197,10 +204,11 @@ public class FormatASS extends TimedTextFileFormat {
             tto.cleanUnusedStyles();
 
         } catch (NullPointerException e) {
-            tto.warnings += "unexpected end of file, maybe last caption is not complete.\n\n";
+            tto.warnings.append("unexpected end of file, maybe last caption is not complete.\n\n");
         }
 
         tto.built = true;
+        tto.invalidateCaptionIndex();
         return tto;
     }
 
@@ -339,12 +347,12 @@ public class FormatASS extends TimedTextFileFormat {
      * @param styleFormat the list of attributes in this format line
      * @return a new Style object.
      */
-    private Style parseStyleForASS(String[] line, String[] styleFormat, int index, boolean isASS, String warnings) {
+    private Style parseStyleForASS(String[] line, String[] styleFormat, int index, boolean isASS, StringBuilder warnings) {
 
         Style newStyle = new Style(Style.defaultID());
         if (line.length != styleFormat.length) {
             //both should have the same size
-            warnings += "incorrectly formated line at " + index + "\n\n";
+            warnings.append("incorrectly formated line at ").append(index).append("\n\n");
         } else {
             for (int i = 0; i < styleFormat.length; i++) {
                 //we go through every format parameter and save the interesting values
@@ -425,7 +433,7 @@ public class FormatASS extends TimedTextFileFormat {
                                 newStyle.textAlign = "top-right";
                                 break;
                             default:
-                                warnings += "undefined alignment for style at line " + index + "\n\n";
+                                warnings.append("undefined alignment for style at line ").append(index).append("\n\n");
                         }
                     } else {
                         switch (placement) {
@@ -457,7 +465,7 @@ public class FormatASS extends TimedTextFileFormat {
                                 newStyle.textAlign = "top-right";
                                 break;
                             default:
-                                warnings += "undefined alignment for style at line " + index + "\n\n";
+                                warnings.append("undefined alignment for style at line ").append(index).append("\n\n");
                         }
                     }
                 }
@@ -493,7 +501,7 @@ public class FormatASS extends TimedTextFileFormat {
                 if (s != null)
                     newCaption.style = s;
                 else
-                    tto.warnings += "undefined style: " + line[i].trim() + "\n\n";
+                    tto.warnings.append("undefined style: ").append(line[i].trim()).append("\n\n");
             } else if (dialogueFormat[i].trim().equalsIgnoreCase("Start")) {
                 //we save the starting time
                 newCaption.start = new Time("h:mm:ss.cs", line[i].trim());
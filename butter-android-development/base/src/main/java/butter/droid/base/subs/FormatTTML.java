@@ -7,7 +7,7 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Iterator;
 
@@ -43,6 +43,11 @@ public class FormatTTML extends TimedTextFileFormat {
 
 
     public TimedTextObject parseFile(String fileName, String[] inputString) throws IOException, FatalParsingException {
+        return parseFile(fileName, toReader(inputString));
+    }
+
+    @Override
+    public TimedTextObject parseFile(String fileName, Reader reader) throws IOException, FatalParsingException {
 
         TimedTextObject tto = new TimedTextObject();
         tto.fileName = fileName;
@@ -51,7 +56,7 @@ public class FormatTTML extends TimedTextFileFormat {
         DocumentBuilder dBuilder;
         try {
             dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.parse(new InputSource(new StringReader(join(inputString, "\n"))));
+            Document doc = dBuilder.parse(new InputSource(reader));
             doc.getDocumentElement().normalize();
 
             //we recover the metadata
@@ -68,7 +73,7 @@ public class FormatTTML extends TimedTextFileFormat {
             NodeList captionsN = doc.getElementsByTagName("p");
             //regions of the layout could also be recovered this way
 
-            tto.warnings += "Styling attributes are only recognized inside a style definition, to be referenced later in the captions.\n\n";
+            tto.warnings.append("Styling attributes are only recognized inside a style definition, to be referenced later in the captions.\n\n");
             //we parse the styles
             for (int i = 0; i < styleN.getLength(); i++) {
                 Style style = new Style(Style.defaultID());
@@ -204,7 +209,7 @@ public class FormatTTML extends TimedTextFileFormat {
                         caption.style = style;
                     else
                         //unrecognized style
-                        tto.warnings += "unrecoginzed style referenced: " + currentAtr.getNodeValue() + "\n\n";
+                        tto.warnings.append("unrecoginzed style referenced: ").append(currentAtr.getNodeValue()).append("\n\n");
                 }
 
                 //we save the text
@@ -239,6 +244,7 @@ public class FormatTTML extends TimedTextFileFormat {
 
 
         tto.built = true;
+        tto.invalidateCaptionIndex();
         return tto;
     }
 
@@ -379,7 +385,7 @@ public class FormatTTML extends TimedTextFileFormat {
             else {
                 //unrecognized format
                 value = "ffffffff";
-                tto.warnings += "Unrecoginzed format: " + color + "\n\n";
+                tto.warnings.append("Unrecoginzed format: ").append(color).append("\n\n");
             }
 
         } else if (color.startsWith("rgb")) {
@@ -410,7 +416,7 @@ public class FormatTTML extends TimedTextFileFormat {
 
             } catch (Exception e) {
                 value = "ffffffff";
-                tto.warnings += "Unrecoginzed color: " + color + "\n\n";
+                tto.warnings.append("Unrecoginzed color: ").append(color).append("\n\n");
             }
 
         } else {
@@ -419,7 +425,7 @@ public class FormatTTML extends TimedTextFileFormat {
             //if not recognized named color
             if (value == null || value.isEmpty()) {
                 value = "ffffffff";
-                tto.warnings += "Unrecoginzed color: " + color + "\n\n";
+                tto.warnings.append("Unrecoginzed color: ").append(color).append("\n\n");
             }
         }
 
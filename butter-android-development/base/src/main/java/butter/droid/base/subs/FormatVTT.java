@@ -17,7 +17,9 @@
 
 package butter.droid.base.subs;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -29,93 +31,86 @@ public class FormatVTT extends TimedTextFileFormat {
 
     @Override
     public TimedTextObject parseFile(String fileName, String[] inputString) throws IOException, FatalParsingException {
+        return parseFile(fileName, toReader(inputString));
+    }
+
+    @Override
+    public TimedTextObject parseFile(String fileName, Reader reader) throws IOException {
+
         TimedTextObject tto = new TimedTextObject();
-        Caption caption = new Caption();
+        BufferedReader in = toBufferedReader(reader);
+        StringBuilder text = new StringBuilder();
+        Caption caption;
         int captionNumber = 1;
-        boolean allGood;
 
         //the file name is saved
         tto.fileName = fileName;
 
         int lineCounter = 0;
-        int stringIndex = 0;
         String line;
-        try {
-            line = getLine(inputString, stringIndex++);
-            while (line != null && stringIndex < inputString.length) {
-                line = line.trim();
+        while ((line = nextLine(in)) != null) {
+            lineCounter++;
+            //if its a blank line, ignore it, otherwise...
+            if (line.isEmpty()) continue;
+
+            caption = null;
+            //the first thing should be an increasing number
+            int num;
+            try {
+                num = Integer.parseInt(line);
+            } catch (NumberFormatException e) {
+                num = -1;
+            }
+            if (num != captionNumber) {
+                tto.warnings.append(captionNumber).append(" expected at line ").append(lineCounter);
+                tto.warnings.append("\n skipping to next line\n\n");
+            } else {
+                captionNumber++;
+                //we go to next line, here the begin and end time should be found
                 lineCounter++;
-                //if its a blank line, ignore it, otherwise...
-                if (!line.isEmpty()) {
-                    allGood = false;
-                    //the first thing should be an increasing number
-                    try {
-                        int num = Integer.parseInt(line);
-                        if (num != captionNumber)
-                            throw new Exception();
-                        else {
-                            captionNumber++;
-                            allGood = true;
-                        }
-                    } catch (Exception e) {
-                        tto.warnings += captionNumber + " expected at line " + lineCounter;
-                        tto.warnings += "\n skipping to next line\n\n";
-                    }
-                    if (allGood) {
-                        //we go to next line, here the begin and end time should be found
-                        try {
-                            lineCounter++;
-                            line = getLine(inputString, stringIndex++).trim();
-                            String start = line.substring(0, 12);
-                            String end = line.substring(line.length() - 12, line.length());
-                            Time time = new Time("hh:mm:ss.ms", start);
-                            caption.start = time;
-                            time = new Time("hh:mm:ss.ms", end);
-                            caption.end = time;
-                        } catch (Exception e) {
-                            tto.warnings += "incorrect time format at line " + lineCounter;
-                            allGood = false;
-                        }
-                    }
-                    if (allGood) {
-                        //we go to next line where the caption text starts
-                        lineCounter++;
-                        line = getLine(inputString, stringIndex++).trim();
-                        String text = "";
-                        while (!line.isEmpty() && stringIndex < inputString.length) {
-                            text += line + "<br />";
-                            line = getLine(inputString, stringIndex++).trim();
-                            lineCounter++;
-                        }
-                        caption.content = text;
-                        int key = caption.start.mseconds;
-                        //in case the key is already there, we increase it by a millisecond, since no duplicates are allowed
-                        while (tto.captions.containsKey(key)) key++;
-                        if (key != caption.start.mseconds)
-                            tto.warnings += "caption with same start time found...\n\n";
-                        //we add the caption.
-                        tto.captions.put(key, caption);
-                    }
-                    //we go to next blank
-                    while (!line.isEmpty() && stringIndex < inputString.length) {
-                        line = getLine(inputString, stringIndex++).trim();
-                        lineCounter++;
-                    }
-                    caption = new Caption();
+                line = nextLine(in);
+                if (line == null) {
+                    tto.warnings.append("unexpected end of file, maybe last caption is not complete.\n\n");
+                    break;
                 }
-                if (stringIndex < inputString.length) {
-                    line = getLine(inputString, stringIndex++);
+                try {
+                    caption = new Caption();
+                    caption.start = new Time("hh:mm:ss.ms", line, 0);
+                    caption.end = new Time("hh:mm:ss.ms", line, line.length() - 12);
+                } catch (Exception e) {
+                    tto.warnings.append("incorrect time format at line ").append(lineCounter);
+                    caption = null;
                 }
             }
 
-        } catch (NullPointerException e) {
-            tto.warnings += "unexpected end of file, maybe last caption is not complete.\n\n";
+            //the caption text goes until the next blank line, if the caption is not valid we just skip it
+            text.setLength(0);
+            while ((line = nextLine(in)) != null && !line.isEmpty()) {
+                lineCounter++;
+                if (caption != null) text.append(line).append("<br />");
+            }
+            lineCounter++;
+
+            if (caption != null) {
+                caption.content = text.toString();
+                int key = caption.start.mseconds;
+                //in case the key is already there, we increase it by a millisecond, since no duplicates are allowed
+                while (tto.captions.containsKey(key)) key++;
+                if (key != caption.start.mseconds)
+                    tto.warnings.append("caption with same start time found...\n\n");
+                //we add the caption.
+                tto.captions.put(key, caption);
+            }
+
+            if (line == null) break;
         }
 
         tto.built = true;
+        tto.invalidateCaptionIndex();
         return tto;
     }
 
+
     public String[] toFile(TimedTextObject tto) {
 
         //first we check if the TimedTextObject had been built, otherwise...
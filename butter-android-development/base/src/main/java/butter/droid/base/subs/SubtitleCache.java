@@ -0,0 +1,282 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package butter.droid.base.subs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import butter.droid.base.utils.FileUtils;
+import timber.log.Timber;
+
+/**
+ * Compact binary copy of a parsed subtitle file, stored next to the source file.
+ * <p/>
+ * Layout (big endian):
+ * <pre>
+ * int   magic, int version
+ * long  source length, long source last modified
+ * int   caption count N
+ * int[N] start times, int[N] end times, int[N] index of the caption text in the string table
+ * int   string count M, M times: int byte length + UTF-8 bytes
+ * </pre>
+ * The cache is memory mapped on load so opening a subtitle doesn't need charset detection or parsing. Only the times
+ * are read then, they make the caption index. A caption text is decoded from the mapped file when the caption is first
+ * shown, the captions map is only filled when the subtitle is exported. A cache is ignored when the format version or
+ * the size or modification time of the source file don't match.
+ * Styles are not stored, the cached files are SRT which doesn't have them.
+ */
+public class SubtitleCache {
+
+    private static final int MAGIC = 0x42535542; // "BSUB"
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".cache";
+
+    private SubtitleCache() {
+    }
+
+    /**
+     * @param source subtitle file
+     * @return location of the compiled copy of the subtitle file
+     */
+    public static File getCacheFile(File source) {
+        return new File(source.getParentFile(), source.getName() + EXTENSION);
+    }
+
+    /**
+     * Load the compiled subtitle or parse the source file when there is no valid cache yet, in which case the cache
+     * is written for the next time.
+     *
+     * @param source       subtitle file
+     * @param format       format of the subtitle file
+     * @param languageCode language code used for the charset detection, may be null
+     * @return the subtitle
+     * @throws IOException when the source file can't be read
+     */
+    public static TimedTextObject loadOrParse(File source, TimedTextFileFormat format, String languageCode) throws IOException, FatalParsingException {
+        TimedTextObject tto = load(source);
+        if (tto != null) {
+            return tto;
+        }
+
+        InputStream inputStream = new FileInputStream(source);
+        try {
+            tto = format.parseFile(source.toString(), FileUtils.inputstreamToCharsetReader(inputStream, languageCode));
+        } finally {
+            inputStream.close();
+        }
+
+        try {
+            save(source, tto);
+        } catch (IOException e) {
+            Timber.w(e, "Could not write subtitle cache for %s", source);
+        }
+        return tto;
+    }
+
+    /**
+     * @param source subtitle file
+     * @return the cached subtitle, or null when there is no cache or it is outdated
+     */
+    public static TimedTextObject load(File source) {
+        File cacheFile = getCacheFile(source);
+        if (!cacheFile.exists() || !source.exists()) {
+            return null;
+        }
+
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(cacheFile);
+            FileChannel channel = inputStream.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != source.length() || buffer.getLong() != source.lastModified()) {
+                return null;
+            }
+
+            int count = buffer.getInt();
+            int[] starts = readInts(buffer, count);
+            int[] ends = readInts(buffer, count);
+            int[] texts = readInts(buffer, count);
+
+            // only the positions of the strings, a broken table is found here rather than during playback
+            int[] stringOffsets = new int[buffer.getInt()];
+            for (int i = 0; i < stringOffsets.length; i++) {
+                stringOffsets[i] = buffer.position();
+                int length = buffer.getInt();
+                if (length < 0) {
+                    throw new IOException("Invalid string length " + length);
+                }
+                buffer.position(buffer.position() + length);
+            }
+            for (int text : texts) {
+                if (text < 0 || text >= stringOffsets.length) {
+                    throw new IOException("Invalid string index " + text);
+                }
+            }
+
+            TimedTextObject tto = new TimedTextObject();
+            tto.fileName = source.toString();
+            tto.setCompiledCaptions(new CaptionIndex(starts, ends, new MappedCaptions(buffer, starts, ends, texts, stringOffsets)));
+            tto.built = true;
+            return tto;
+        } catch (Exception e) {
+            Timber.w(e, "Invalid subtitle cache %s", cacheFile);
+            cacheFile.delete();
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the compiled copy of a parsed subtitle file
+     *
+     * @param source subtitle file that was parsed
+     * @param tto    parsed subtitle
+     * @throws IOException when the cache can't be written
+     */
+    public static void save(File source, TimedTextObject tto) throws IOException {
+        tto.loadCaptions();
+        int count = tto.captions.size();
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        int[] texts = new int[count];
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> stringIndex = new HashMap<>();
+
+        int i = 0;
+        for (Caption caption : tto.captions.values()) {
+            starts[i] = caption.start.mseconds;
+            ends[i] = caption.end.mseconds;
+            Integer index = stringIndex.get(caption.content);
+            if (index == null) {
+                index = strings.size();
+                strings.add(caption.content);
+                stringIndex.put(caption.content, index);
+            }
+            texts[i] = index;
+            i++;
+        }
+
+        File cacheFile = getCacheFile(source);
+        File tempFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            out.writeInt(count);
+            writeInts(out, starts);
+            writeInts(out, ends);
+            writeInts(out, texts);
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                byte[] bytes = string.getBytes("UTF-8");
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(cacheFile)) {
+            tempFile.delete();
+            throw new IOException("Could not move subtitle cache to " + cacheFile);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Captions of a mapped cache, a text used by several captions is decoded once
+     */
+    private static class MappedCaptions implements CaptionIndex.Loader {
+
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+        private final ByteBuffer mBuffer;
+        private final int[] mStarts;
+        private final int[] mEnds;
+        private final int[] mTexts;
+        private final int[] mStringOffsets;
+        private final String[] mStrings;
+
+        MappedCaptions(ByteBuffer buffer, int[] starts, int[] ends, int[] texts, int[] stringOffsets) {
+            mBuffer = buffer;
+            mStarts = starts;
+            mEnds = ends;
+            mTexts = texts;
+            mStringOffsets = stringOffsets;
+            mStrings = new String[stringOffsets.length];
+        }
+
+        @Override
+        public synchronized Caption load(int index) {
+            Caption caption = new Caption();
+            caption.start = new Time(mStarts[index]);
+            caption.end = new Time(mEnds[index]);
+            caption.content = getString(mTexts[index]);
+            return caption;
+        }
+
+        private String getString(int index) {
+            String string = mStrings[index];
+            if (string == null) {
+                int offset = mStringOffsets[index];
+                byte[] bytes = new byte[mBuffer.getInt(offset)];
+                mBuffer.position(offset + 4);
+                mBuffer.get(bytes);
+                string = new String(bytes, UTF_8);
+                mStrings[index] = string;
+            }
+            return string;
+        }
+    }
+
+}
@@ -9,7 +9,6 @@ import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
@@ -17,7 +16,6 @@ import java.lang.ref.WeakReference;
 import butter.droid.base.providers.media.models.Media;
 import butter.droid.base.providers.subs.SubsProvider;
 import butter.droid.base.torrent.StreamInfo;
-import butter.droid.base.utils.FileUtils;
 
 public class SubtitleDownloader {
 
@@ -157,13 +155,14 @@ public class SubtitleDownloader {
         }
 
         private TimedTextObject parseAsTimedTextObject(File file) throws IOException {
-            FileInputStream fileInputStream = new FileInputStream(file);
-            FormatSRT formatSRT = new FormatSRT();
-            TimedTextObject result = formatSRT.parseFile(
-                    file.toString(),
-                    FileUtils.inputstreamToCharsetString(
-                            fileInputStream,
-                            subtitleLanguage).split("\n"));
+            TimedTextObject result;
+            try {
+                result = SubtitleCache.loadOrParse(file, new FormatSRT(), subtitleLanguage);
+            } catch (FatalParsingException e) {
+                throw new IOException(e);
+            }
+            // build the lookup index here so the player never does it on the main thread
+            result.getCaptionIndex();
             return result;
         }
     }
@@ -22,42 +22,57 @@ public class Time {
     /**
      * Constructor to create a time object.
      *
-     * @param format supported formats: "hh:mm:ss,ms", "h:mm:ss.cs" and "h:m:s:f/fps"
+     * @param format supported formats: "hh:mm:ss,ms", "hh:mm:ss.ms", "h:mm:ss.cs" and "h:m:s:f/fps"
      * @param value  string in the correct format
      */
     protected Time(String format, String value) {
-        if (format.equalsIgnoreCase("hh:mm:ss,ms")) {
-            // this type of format:  01:02:22,501 (used in .SRT)
+        this(format, value, 0);
+    }
+
+    /**
+     * Constructor to create a time object from a value in milliseconds.
+     *
+     * @param mseconds time in milliseconds
+     */
+    protected Time(int mseconds) {
+        this.mseconds = mseconds;
+    }
+
+    /**
+     * Constructor to create a time object from a value that is part of a longer line, so parsers don't need to
+     * cut the value out first. Fixed width formats are read digit by digit at known offsets.
+     *
+     * @param format supported formats: "hh:mm:ss,ms", "hh:mm:ss.ms", "h:mm:ss.cs" and "h:m:s:f/fps"
+     * @param value  string containing the time in the correct format
+     * @param offset index of the first character of the time in value
+     */
+    protected Time(String format, String value, int offset) {
+        if (format.equalsIgnoreCase("hh:mm:ss,ms") || format.equalsIgnoreCase("hh:mm:ss.ms")) {
+            // this type of format:  01:02:22,501 (used in .SRT) or 01:02:22.501 (used in .VTT)
             int h, m, s, ms;
-            h = Integer.parseInt(value.substring(0, 2));
-            m = Integer.parseInt(value.substring(3, 5));
-            s = Integer.parseInt(value.substring(6, 8));
-            ms = Integer.parseInt(value.substring(9, 12));
+            h = digits(value, offset, 2);
+            m = digits(value, offset + 3, 2);
+            s = digits(value, offset + 6, 2);
+            ms = digits(value, offset + 9, 3);
 
             mseconds = ms + s * 1000 + m * 60000 + h * 3600000;
 
         } else if (format.equalsIgnoreCase("h:mm:ss.cs")) {
             // this type of format:  1:02:22.51 (used in .ASS/.SSA)
             int h, m, s, cs;
-            h = Integer.parseInt(value.substring(0, 1));
-            m = Integer.parseInt(value.substring(2, 4));
-            s = Integer.parseInt(value.substring(5, 7));
-            cs = Integer.parseInt(value.substring(8, 10));
-
-            mseconds = cs * 10 + s * 1000 + m * 60000 + h * 3600000;
-        } else if (format.equalsIgnoreCase("hh:mm:ss.ms")) {
-            // this type of format:  01:02:22.501 (used in .VTT)
-            int h, m, s, cs;
-            h = Integer.parseInt(value.substring(0, 1));
-            m = Integer.parseInt(value.substring(2, 4));
-            s = Integer.parseInt(value.substring(5, 7));
-            cs = Integer.parseInt(value.substring(8, 10));
+            // the hours are usually a single digit, but longer files may use more
+            int hourDigits = value.indexOf(':', offset) - offset;
+            h = digits(value, offset, hourDigits);
+            offset += hourDigits - 1;
+            m = digits(value, offset + 2, 2);
+            s = digits(value, offset + 5, 2);
+            cs = digits(value, offset + 8, 2);
 
             mseconds = cs * 10 + s * 1000 + m * 60000 + h * 3600000;
         } else if (format.equalsIgnoreCase("h:m:s:f/fps")) {
             int h, m, s, f;
             float fps;
-            String[] args = value.split("/");
+            String[] args = value.substring(offset).split("/");
             fps = Float.parseFloat(args[1]);
             args = args[0].split(":");
             h = Integer.parseInt(args[0]);
@@ -69,6 +84,26 @@ public class Time {
         }
     }
 
+    /**
+     * Read a fixed amount of decimal digits without creating intermediate strings
+     *
+     * @param value  string containing the digits
+     * @param offset index of the first digit
+     * @param count  number of digits to read
+     * @return the value of the digits
+     */
+    private static int digits(String value, int offset, int count) {
+        if (count <= 0) throw new NumberFormatException("Invalid time: " + value);
+
+        int result = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9) throw new NumberFormatException("Invalid time: " + value);
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
     // in an integer we can store 24 days worth of milliseconds, no need for a long
     protected int mseconds;
 
@@ -17,7 +17,12 @@
 
 package butter.droid.base.subs;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class specifies the interface for any format supported by the converter, these formats must
@@ -57,7 +62,27 @@ public abstract class TimedTextFileFormat {
     public abstract TimedTextObject parseFile(String fileName, String[] inputString) throws IOException, FatalParsingException;
 
     public TimedTextObject parseFile(String fileName, String inputString) throws IOException, FatalParsingException {
-        return parseFile(fileName, inputString.split("\n|\r\n"));
+        return parseFile(fileName, new StringReader(inputString));
+    }
+
+    /**
+     * This methods parses the subtitle read line by line from the given reader, and returns a TimedTextObject.
+     * Formats that can be parsed while streaming override this, the default implementation reads all lines first.
+     * The reader is not closed.
+     *
+     * @param fileName String that contains the path to the file
+     * @param reader   Reader with the contents of the file
+     * @return TimedTextObject representing the parsed file
+     * @throws java.io.IOException when having trouble reading from the reader
+     */
+    public TimedTextObject parseFile(String fileName, Reader reader) throws IOException, FatalParsingException {
+        BufferedReader bufferedReader = toBufferedReader(reader);
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = bufferedReader.readLine()) != null) {
+            lines.add(line);
+        }
+        return parseFile(fileName, lines.toArray(new String[lines.size()]));
     }
 
     /**
@@ -70,6 +95,28 @@ public abstract class TimedTextFileFormat {
      */
     public abstract Object toFile(TimedTextObject tto);
 
+    protected BufferedReader toBufferedReader(Reader reader) {
+        if (reader instanceof BufferedReader) {
+            return (BufferedReader) reader;
+        }
+        return new BufferedReader(reader);
+    }
+
+    /**
+     * @return the next line of the reader without surrounding whitespace, or null at the end of the input
+     */
+    protected String nextLine(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        return line == null ? null : line.trim();
+    }
+
+    /**
+     * @return the lines joined by new lines in a reader, so array input can use the streaming parsers
+     */
+    protected Reader toReader(String[] lines) {
+        return new StringReader(lines.length == 0 ? "" : join(lines, "\n"));
+    }
+
     protected String getLine(String[] strArray, int index) {
         if (index < strArray.length) {
             return strArray[index];
@@ -63,11 +63,12 @@ public class TimedTextObject {
     public Hashtable<String, Style> styling;
 
     //list of captions (begin time, reference)
-    //represented by a tree map to maintain order
+    //represented by a tree map to maintain order, call invalidateCaptionIndex() after changing it
+    //a subtitle loaded from the compiled cache fills it in loadCaptions(), until then only the index has the captions
     public TreeMap<Integer, Caption> captions;
 
     //to store non fatal errors produced during parsing
-    public String warnings;
+    public StringBuilder warnings;
 
     //**** OPTIONS *****
     //to know whether file should be saved as .ASS or .SSA
@@ -78,6 +79,12 @@ public class TimedTextObject {
     //to know if a parsing method has been applied
     public boolean built = false;
 
+    //time sorted lookup structure, created once the captions are parsed
+    private CaptionIndex captionIndex;
+
+    //index of a compiled subtitle whose captions have not been put in the captions map yet
+    private CaptionIndex pendingCaptions;
+
 
     /**
      * Protected constructor so it can't be created from outside
@@ -86,7 +93,7 @@ public class TimedTextObject {
         styling = new Hashtable<String, Style>();
         captions = new TreeMap<Integer, Caption>();
 
-        warnings = "List of non fatal errors produced during parsing:\n\n";
+        warnings = new StringBuilder("List of non fatal errors produced during parsing:\n\n");
     }
 
 	
@@ -101,6 +108,7 @@ public class TimedTextObject {
      * @return an array of strings where each String represents a line
      */
     public String[] toSRT() {
+        loadCaptions();
         return new FormatSRT().toFile(this);
     }
 
@@ -111,6 +119,7 @@ public class TimedTextObject {
      * @return an array of strings where each String represents a line
      */
     public String[] toASS() {
+        loadCaptions();
         return new FormatASS().toFile(this);
     }
 
@@ -120,9 +129,60 @@ public class TimedTextObject {
      * @return an array of strings where each String represents a line
      */
     public String[] toVTT() {
+        loadCaptions();
         return new FormatVTT().toFile(this);
     }
 
+    /**
+     * Method to get the time sorted caption index used for playback lookups.
+     * The index is created on first use, so call this once from a background thread after parsing.
+     *
+     * @return an immutable index over the current captions
+     */
+    public synchronized CaptionIndex getCaptionIndex() {
+        if (captionIndex == null) {
+            captionIndex = new CaptionIndex(captions.values());
+        }
+        return captionIndex;
+    }
+
+    /**
+     * Method to drop the caption index after the captions were changed, the next call to getCaptionIndex() creates
+     * it again. The parsers call this once they are done.
+     */
+    public synchronized void invalidateCaptionIndex() {
+        loadCaptions();
+        captionIndex = null;
+    }
+
+    /**
+     * Method to fill the captions map of a subtitle that was loaded from the compiled cache, which only creates the
+     * caption index. Does nothing for a parsed subtitle.
+     */
+    public synchronized void loadCaptions() {
+        if (pendingCaptions == null) {
+            return;
+        }
+
+        for (int i = 0; i < pendingCaptions.size(); i++) {
+            Caption caption = pendingCaptions.get(i);
+            int key = caption.start.mseconds;
+            //same as the parsers, no duplicate keys are allowed
+            while (captions.containsKey(key)) key++;
+            captions.put(key, caption);
+        }
+        pendingCaptions = null;
+    }
+
+    /**
+     * Method to use the index of a compiled subtitle, the captions map is filled from it when it is needed
+     */
+    synchronized void setCompiledCaptions(CaptionIndex index) {
+        captions.clear();
+        captionIndex = index;
+        pendingCaptions = index;
+    }
+
 	/* 
      * PROTECTED METHODS
 	 * 
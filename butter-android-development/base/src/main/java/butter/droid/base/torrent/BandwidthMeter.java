@@ -0,0 +1,91 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.torrent;
+
+import android.content.Context;
+
+import butter.droid.base.content.preferences.Prefs;
+import butter.droid.base.utils.NetworkUtils;
+import butter.droid.base.utils.PrefUtils;
+
+/**
+ * BandwidthMeter.java
+ * <p/>
+ * Measures the download speed streams reach, separately for wifi and mobile connections. The speed of a stream is
+ * the average of its samples once it reached speed, it is blended into the stored estimate when the stream stops.
+ */
+public class BandwidthMeter {
+
+    // weight of the speed of a stream in the stored estimate
+    private static final double STREAM_WEIGHT = 0.5;
+    // samples before this are left out, the swarm is still being found
+    private static final int WARM_UP_SAMPLES = 10;
+
+    private final Context mContext;
+    private final boolean mWifi;
+    private double mTotal = 0;
+    private int mSamples = 0;
+
+    public BandwidthMeter(Context context) {
+        mContext = context.getApplicationContext();
+        mWifi = NetworkUtils.isWifiConnected(mContext);
+    }
+
+    /**
+     * @param downloadSpeed Download speed of the stream in bytes per second
+     */
+    public synchronized void addSample(float downloadSpeed) {
+        if (++mSamples > WARM_UP_SAMPLES) {
+            mTotal += downloadSpeed;
+        }
+    }
+
+    /**
+     * Blend the speed of the stream into the stored estimate
+     */
+    public synchronized void save() {
+        int samples = mSamples - WARM_UP_SAMPLES;
+        if (samples <= 0) return;
+
+        double speed = mTotal / samples;
+        long estimate = getEstimate(mContext, mWifi);
+        if (estimate > 0) {
+            speed = STREAM_WEIGHT * speed + (1 - STREAM_WEIGHT) * estimate;
+        }
+        PrefUtils.save(mContext, getKey(mWifi), (long) speed);
+        mTotal = 0;
+        mSamples = 0;
+    }
+
+    /**
+     * @return Estimated download speed of a stream on the current connection in bytes per second, -1 when nothing
+     * was measured yet
+     */
+    public static long getEstimate(Context context) {
+        return getEstimate(context, NetworkUtils.isWifiConnected(context));
+    }
+
+    private static long getEstimate(Context context, boolean wifi) {
+        return PrefUtils.get(context, getKey(wifi), -1L);
+    }
+
+    private static String getKey(boolean wifi) {
+        return Prefs.BANDWIDTH_ESTIMATE + (wifi ? "_wifi" : "_mobile");
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.torrent;
+
+import com.frostwire.jlibtorrent.FileStorage;
+import com.frostwire.jlibtorrent.TorrentHandle;
+import com.frostwire.jlibtorrent.TorrentInfo;
+import com.github.sv244.torrentstream.Torrent;
+
+/**
+ * PiecePrioritizer.java
+ * <p/>
+ * Keeps the download of a stream at the position of the player. The pieces in a window after the playhead get a
+ * deadline, the time until the player reaches them, so the torrent engine requests them in that order and from the
+ * fastest peers. When the player jumps out of the window the old deadlines are dropped, so the swarm stops fetching
+ * data the player moved away from.
+ * <p/>
+ * Reads of the streaming server only get a few pieces at their offset, see {@link #readAhead(Torrent, long)}, a
+ * receiver buffers ahead of its playback and its reads say nothing about where the player is.
+ */
+class PiecePrioritizer {
+
+    // media ahead of the playhead the window covers
+    private static final long WINDOW_MS = 60 * 1000;
+    private static final int MIN_WINDOW_PIECES = 8;
+    private static final int MAX_WINDOW_PIECES = 64;
+    // time the player takes for a piece when the bitrate isn't known
+    private static final int DEFAULT_PIECE_MS = 1000;
+    // pieces from the offset of a read that are fetched right away
+    private static final int READ_AHEAD_PIECES = 2;
+
+    private int mWindowStart = -1;
+    private int mWindowEnd = -1;
+
+    /**
+     * Move the window to the playhead, does nothing while the playhead stays in the same piece
+     *
+     * @param torrent Torrent that is streamed
+     * @param offset  Byte offset in the video file the player reads from
+     * @param bitrate Bitrate of the media in bytes per second, -1 when it isn't known
+     * @return true when the window moved
+     */
+    synchronized boolean setPlayhead(Torrent torrent, long offset, double bitrate) {
+        TorrentHandle handle = torrent.getTorrentHandle();
+        TorrentInfo info = handle == null ? null : handle.getTorrentInfo();
+        if (info == null) return false;
+
+        FileStorage files = info.files();
+        int fileIndex = getVideoFileIndex(files);
+        if (fileIndex < 0) return false;
+
+        long pieceLength = info.pieceLength();
+        long fileStart = files.fileOffset(fileIndex);
+        long fileSize = files.fileSize(fileIndex);
+        offset = Math.max(0, Math.min(offset, fileSize - 1));
+        int first = (int) ((fileStart + offset) / pieceLength);
+        int last = (int) ((fileStart + fileSize - 1) / pieceLength);
+        if (first == mWindowStart) return false;
+
+        int window = MIN_WINDOW_PIECES;
+        long pieceMs = DEFAULT_PIECE_MS;
+        if (bitrate > 0) {
+            window = (int) Math.max(MIN_WINDOW_PIECES, Math.min(MAX_WINDOW_PIECES, bitrate * WINDOW_MS / 1000 / pieceLength));
+            pieceMs = (long) (pieceLength * 1000 / bitrate);
+        }
+        int end = Math.min(last, first + window - 1);
+
+        if (mWindowStart < 0 || first < mWindowStart || first > mWindowEnd) {
+            // a seek, the pieces of the old window aren't needed soon anymore
+            handle.clearPieceDeadlines();
+        }
+
+        long deadline = 0;
+        for (int piece = first; piece <= end; piece++) {
+            if (!handle.havePiece(piece)) {
+                handle.setPieceDeadline(piece, (int) Math.min(deadline, Integer.MAX_VALUE));
+            }
+            deadline += pieceMs;
+        }
+
+        mWindowStart = first;
+        mWindowEnd = end;
+        return true;
+    }
+
+    /**
+     * Fetch the pieces at the offset right away, for a read that waits for them. The window stays where it is.
+     *
+     * @param torrent Torrent that is streamed
+     * @param offset  Byte offset in the video file that is read
+     */
+    synchronized void readAhead(Torrent torrent, long offset) {
+        TorrentHandle handle = torrent.getTorrentHandle();
+        TorrentInfo info = handle == null ? null : handle.getTorrentInfo();
+        if (info == null) return;
+
+        FileStorage files = info.files();
+        int fileIndex = getVideoFileIndex(files);
+        if (fileIndex < 0) return;
+
+        long pieceLength = info.pieceLength();
+        long fileStart = files.fileOffset(fileIndex);
+        long fileSize = files.fileSize(fileIndex);
+        offset = Math.max(0, Math.min(offset, fileSize - 1));
+        int first = (int) ((fileStart + offset) / pieceLength);
+        int last = (int) ((fileStart + fileSize - 1) / pieceLength);
+
+        for (int piece = first; piece <= Math.min(last, first + READ_AHEAD_PIECES - 1); piece++) {
+            if (!handle.havePiece(piece)) {
+                handle.setPieceDeadline(piece, 0);
+            }
+        }
+    }
+
+    /**
+     * @return Index of the video file, the largest file of the torrent, or -1 when there are no files
+     */
+    static int getVideoFileIndex(FileStorage files) {
+        int index = -1;
+        long size = -1;
+        for (int i = 0; i < files.numFiles(); i++) {
+            if (files.fileSize(i) > size) {
+                size = files.fileSize(i);
+                index = i;
+            }
+        }
+        return index;
+    }
+
+}
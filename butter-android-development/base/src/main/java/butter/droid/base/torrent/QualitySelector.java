@@ -0,0 +1,192 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.torrent;
+
+import android.content.Context;
+
+import org.videolan.libvlc.util.HWDecoderUtil;
+import org.videolan.libvlc.util.VLCUtil;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import butter.droid.base.content.preferences.DefaultQuality;
+import butter.droid.base.content.preferences.Prefs;
+import butter.droid.base.providers.media.models.Media;
+import butter.droid.base.utils.PrefUtils;
+import butter.droid.base.vlc.VLCOptions;
+import timber.log.Timber;
+
+/**
+ * QualitySelector.java
+ * <p/>
+ * Picks the quality to stream. Qualities above the default quality of the user and above what the device can decode
+ * are left out. For the others the download speed is estimated from the measured bandwidth and the swarm of the
+ * torrent, and {@link StreamReadiness} predicts how long playback has to wait to run without stalling. The highest
+ * quality that starts within {@link #MAX_WAIT_MS} is used, otherwise the one that starts first.
+ * <p/>
+ * Every decision is logged with its inputs.
+ */
+public class QualitySelector {
+
+    private static final long MAX_WAIT_MS = 15 * 1000;
+    // typical bitrate of a 1080p release in bytes per second, lower qualities scale with the number of pixels
+    private static final double REFERENCE_BITRATE = 3 * 1000 * 1000 / 8;
+    private static final int REFERENCE_HEIGHT = 1080;
+    private static final double MIN_BITRATE = 60 * 1000;
+    // rough download speed a seed and a peer add to a stream, in bytes per second
+    private static final double SEED_SPEED = 40 * 1024;
+    private static final double PEER_SPEED = 10 * 1024;
+
+    // decoder and CPU of the device don't change, they are looked up once
+    private static boolean sHasHardwareDecoder;
+    private static int sSoftwareDecodeHeight = -1;
+
+    private QualitySelector() {
+    }
+
+    /**
+     * @param context    Context
+     * @param torrents   Available torrents by quality
+     * @param durationMs Duration of the media, 0 when it isn't known, the file size of a typical movie is assumed then
+     * @return Quality to stream
+     */
+    public static String select(Context context, Map<String, Media.Torrent> torrents, long durationMs) {
+        String preferred = DefaultQuality.get(context, new ArrayList<>(torrents.keySet()));
+        int maxHeight = Math.min(getMaxDecodeHeight(context), getHeight(preferred));
+        long bandwidth = BandwidthMeter.getEstimate(context);
+
+        String best = null;
+        int bestHeight = -1;
+        String fastest = null;
+        long fastestWait = Long.MAX_VALUE;
+        boolean predicted = false;
+
+        for (Map.Entry<String, Media.Torrent> entry : torrents.entrySet()) {
+            String quality = entry.getKey();
+            Media.Torrent torrent = entry.getValue();
+            int height = getHeight(quality);
+            if (height > maxHeight) continue;
+
+            double speed = getExpectedSpeed(torrent, bandwidth);
+            if (speed < 0) continue;
+            predicted = true;
+
+            double bitrate = getBitrate(height);
+            StreamReadiness readiness = new StreamReadiness(durationMs);
+            readiness.setFileSize((long) (bitrate * readiness.getDurationMs() / 1000));
+            readiness.update((float) speed, 0, 0);
+            long wait = readiness.getPrediction().waitMs;
+            if (wait < 0) wait = Long.MAX_VALUE;
+
+            Timber.d("Quality %s: bitrate %.0f B/s, expected speed %.0f B/s, %d seeds, %d peers, wait %d ms", quality, bitrate, speed, torrent.seeds, torrent.peers, wait);
+
+            if (wait <= MAX_WAIT_MS && height > bestHeight) {
+                best = quality;
+                bestHeight = height;
+            }
+            if (wait < fastestWait) {
+                fastest = quality;
+                fastestWait = wait;
+            }
+        }
+
+        String quality;
+        if (!predicted) {
+            // no speed is known or the device can't decode any of them, keep the default
+            quality = preferred;
+        } else if (best != null) {
+            quality = best;
+        } else {
+            quality = fastest != null ? fastest : preferred;
+        }
+
+        Timber.d("Selected quality %s: default %s, decodes up to %dp, bandwidth %d B/s", quality, preferred, maxHeight, bandwidth);
+        return quality;
+    }
+
+    /**
+     * @return Download speed a stream of the torrent probably reaches in bytes per second, -1 when it isn't known
+     */
+    private static double getExpectedSpeed(Media.Torrent torrent, long bandwidth) {
+        int seeds = torrent.seeds == null ? 0 : torrent.seeds;
+        int peers = torrent.peers == null ? 0 : torrent.peers;
+        double swarmSpeed = seeds > 0 || peers > 0 ? seeds * SEED_SPEED + peers * PEER_SPEED : -1;
+
+        if (swarmSpeed > 0 && bandwidth > 0) {
+            return Math.min(swarmSpeed, bandwidth);
+        }
+        return swarmSpeed > 0 ? swarmSpeed : bandwidth;
+    }
+
+    /**
+     * @return Estimated bitrate of the quality in bytes per second
+     */
+    private static double getBitrate(int height) {
+        double scale = (double) height / REFERENCE_HEIGHT;
+        return Math.max(MIN_BITRATE, REFERENCE_BITRATE * scale * scale);
+    }
+
+    /**
+     * @return Height of the video of the quality, like 720 for "720p". 3D releases are 1080p
+     */
+    static int getHeight(String quality) {
+        if (quality.equalsIgnoreCase("3D")) return 1080;
+        int end = quality.indexOf('p');
+        try {
+            return Integer.parseInt(end > 0 ? quality.substring(0, end) : quality);
+        } catch (NumberFormatException e) {
+            return REFERENCE_HEIGHT;
+        }
+    }
+
+    /**
+     * @return Height of the highest video the device can probably decode in time
+     */
+    private static int getMaxDecodeHeight(Context context) {
+        int hardwareAcceleration = VLCOptions.HW_ACCELERATION_AUTOMATIC;
+        try {
+            hardwareAcceleration = PrefUtils.get(context, Prefs.HW_ACCELERATION, VLCOptions.HW_ACCELERATION_AUTOMATIC);
+        } catch (NumberFormatException ignored) {}
+
+        synchronized (QualitySelector.class) {
+            if (sSoftwareDecodeHeight < 0) {
+                HWDecoderUtil.Decoder decoder = HWDecoderUtil.getDecoderFromDevice();
+                sHasHardwareDecoder = decoder != HWDecoderUtil.Decoder.NONE && decoder != HWDecoderUtil.Decoder.UNKNOWN;
+                sSoftwareDecodeHeight = getSoftwareDecodeHeight();
+            }
+            if (hardwareAcceleration != VLCOptions.HW_ACCELERATION_DISABLED && sHasHardwareDecoder) {
+                return 1080;
+            }
+            return sSoftwareDecodeHeight;
+        }
+    }
+
+    /**
+     * @return Height of the highest video the CPU can probably decode in time
+     */
+    private static int getSoftwareDecodeHeight() {
+        VLCUtil.MachineSpecs specs = VLCUtil.getMachineSpecs();
+        if (specs == null) return 720;
+        float speed = specs.frequency > 0 ? specs.frequency : specs.bogoMIPS;
+        if (specs.processors >= 4 && speed >= 1500) return 1080;
+        if ((specs.hasArmV7 || specs.hasX86 || specs.is64bits) && specs.processors >= 2) return 720;
+        return 480;
+    }
+
+}
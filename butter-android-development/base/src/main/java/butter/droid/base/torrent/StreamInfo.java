@@ -21,6 +21,7 @@ import android.os.Parcel;
 import android.os.Parcelable;
 
 import butter.droid.base.providers.media.models.Media;
+import butter.droid.base.providers.media.models.Movie;
 import butter.droid.base.providers.media.models.Show;
 
 public class StreamInfo implements Parcelable {
@@ -39,6 +40,7 @@ public class StreamInfo implements Parcelable {
     private Boolean mIsShow = false;
     private Integer mColor = -1;
     private Media mMedia;
+    private long mDurationMs = 0;
 
     public StreamInfo(String torrentUrl) {
         this(null, null, torrentUrl, null, null);
@@ -77,6 +79,12 @@ public class StreamInfo implements Parcelable {
             mIsShow = show != null;
 
             mMedia = media;
+            // episodes run as long as their show
+            if (show != null) {
+                mDurationMs = show.getRuntimeMs();
+            } else if (media instanceof Movie) {
+                mDurationMs = ((Movie) media).getRuntimeMs();
+            }
         }
     }
 
@@ -124,6 +132,13 @@ public class StreamInfo implements Parcelable {
         return mColor;
     }
 
+    /**
+     * @return Duration of the media in ms, 0 when it isn't known
+     */
+    public long getDurationMs() {
+        return mDurationMs;
+    }
+
     public Media getMedia() {
         return mMedia;
     }
@@ -155,6 +170,7 @@ public class StreamInfo implements Parcelable {
         dest.writeParcelable(this.mMedia, 0);
         dest.writeString(this.mShowTitle);
         dest.writeString(this.mShowEpisodeTitle);
+        dest.writeLong(this.mDurationMs);
     }
 
     private StreamInfo(Parcel in) {
@@ -170,6 +186,7 @@ public class StreamInfo implements Parcelable {
         this.mMedia = in.readParcelable(Media.class.getClassLoader());
         this.mShowTitle = in.readString();
         this.mShowEpisodeTitle = in.readString();
+        this.mDurationMs = in.readLong();
     }
 
     public static final Creator<StreamInfo> CREATOR = new Creator<StreamInfo>() {
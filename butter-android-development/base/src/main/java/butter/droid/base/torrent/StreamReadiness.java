@@ -0,0 +1,185 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.torrent;
+
+/**
+ * StreamReadiness.java
+ * <p/>
+ * Decides when playback of a stream can start without stalling. The bitrate of the media is estimated from the size
+ * of the video file and the duration of the media. Together with the smoothed download speed this gives the lead,
+ * the bytes downloaded ahead of the playhead, that is needed to play the rest of the file without waiting for the
+ * download. The download speed is taken with a margin, since swarms are rarely stable.
+ * <p/>
+ * Playback is considered ready when the lead is at least that large and at least {@link #MIN_LEAD_MS} of media.
+ */
+public class StreamReadiness {
+
+    // weight of a new download speed measurement
+    private static final double SPEED_SMOOTHING = 0.3;
+    // the download speed is divided by this before predicting
+    private static final double SPEED_MARGIN = 1.25;
+    public static final long MIN_LEAD_MS = 10 * 1000;
+    private static final long MIN_LEAD_BYTES = 2 * 1024 * 1024;
+    // used when the duration of the media isn't known
+    private static final long DEFAULT_DURATION_MS = 100 * 60 * 1000;
+
+    private final long mDurationMs;
+    private long mFileSize = -1;
+    private double mSpeed = -1;
+    private long mPlayhead = 0;
+    private long mLead = 0;
+
+    /**
+     * @param durationMs Duration of the media, 0 when it isn't known
+     */
+    public StreamReadiness(long durationMs) {
+        mDurationMs = durationMs > 0 ? durationMs : DEFAULT_DURATION_MS;
+    }
+
+    public long getDurationMs() {
+        return mDurationMs;
+    }
+
+    /**
+     * @param fileSize Size of the video file in bytes
+     */
+    public synchronized void setFileSize(long fileSize) {
+        mFileSize = fileSize;
+    }
+
+    public synchronized long getFileSize() {
+        return mFileSize;
+    }
+
+    /**
+     * @param playhead Byte offset in the video file the player reads from. The lead is kept when the playhead stays
+     *                 within it, the downloaded data doesn't go away, otherwise it starts over at 0
+     */
+    public synchronized void setPlayhead(long playhead) {
+        long leadEnd = mPlayhead + mLead;
+        mLead = playhead >= mPlayhead && playhead <= leadEnd ? leadEnd - playhead : 0;
+        mPlayhead = playhead;
+    }
+
+    public synchronized long getPlayhead() {
+        return mPlayhead;
+    }
+
+    /**
+     * @return Bytes available from the playhead without a gap
+     */
+    public synchronized long getLead() {
+        return mLead;
+    }
+
+    /**
+     * @param downloadSpeed Download speed in bytes per second
+     * @param playhead      Playhead the lead was measured from, the lead is left out when the playhead moved since
+     * @param lead          Bytes available from the playhead without a gap
+     */
+    public synchronized void update(float downloadSpeed, long playhead, long lead) {
+        mSpeed = mSpeed < 0 ? downloadSpeed : SPEED_SMOOTHING * downloadSpeed + (1 - SPEED_SMOOTHING) * mSpeed;
+        if (playhead == mPlayhead) {
+            mLead = lead;
+        }
+    }
+
+    /**
+     * @return true when the file size and download speed are known
+     */
+    public synchronized boolean canPredict() {
+        return mFileSize > 0 && mSpeed >= 0;
+    }
+
+    public synchronized boolean isReady() {
+        return canPredict() && mLead >= getRequiredLead();
+    }
+
+    public synchronized Prediction getPrediction() {
+        if (!canPredict()) {
+            return new Prediction(-1, mSpeed, mLead, -1, -1, -1);
+        }
+
+        double bitrate = getBitrate();
+        double speed = mSpeed / SPEED_MARGIN;
+        long remaining = Math.max(0, mFileSize - mPlayhead);
+        long required = getRequiredLead();
+
+        double playTime = remaining / bitrate;
+        double stall;
+        long wait;
+        if (speed <= 0) {
+            stall = mLead >= remaining ? 0 : Double.POSITIVE_INFINITY;
+            wait = mLead >= required ? 0 : -1;
+        } else {
+            stall = Math.max(0, (remaining - mLead) / speed - playTime);
+            wait = (long) (Math.max(0, required - mLead) / speed * 1000);
+        }
+        return new Prediction(bitrate, mSpeed, mLead, required, stall, wait);
+    }
+
+    /**
+     * @return Estimated bitrate of the media in bytes per second, -1 when the file size isn't known
+     */
+    public synchronized double getBitrate() {
+        return mFileSize > 0 ? mFileSize * 1000d / mDurationMs : -1;
+    }
+
+    /**
+     * @return Lead needed so the download stays ahead of the playhead until the end of the file
+     */
+    private long getRequiredLead() {
+        double bitrate = getBitrate();
+        long remaining = Math.max(0, mFileSize - mPlayhead);
+        long minimum = Math.min(remaining, Math.max(MIN_LEAD_BYTES, (long) (bitrate * MIN_LEAD_MS / 1000)));
+        double speed = mSpeed / SPEED_MARGIN;
+        // while the rest of the file plays, speed * playTime bytes are downloaded
+        long needed = (long) (remaining - speed * (remaining / bitrate));
+        return Math.max(minimum, needed);
+    }
+
+    /**
+     * Prediction for starting playback now
+     */
+    public static class Prediction {
+        // bytes per second, -1 when unknown
+        public final double bitrate;
+        public final double downloadSpeed;
+        public final long leadBytes;
+        // -1 when unknown
+        public final long requiredLeadBytes;
+        // time playback would wait for the download in total, -1 when unknown
+        public final double stallSeconds;
+        // time until playback can start without stalling, -1 when unknown
+        public final long waitMs;
+
+        Prediction(double bitrate, double downloadSpeed, long leadBytes, long requiredLeadBytes, double stallSeconds, long waitMs) {
+            this.bitrate = bitrate;
+            this.downloadSpeed = downloadSpeed;
+            this.leadBytes = leadBytes;
+            this.requiredLeadBytes = requiredLeadBytes;
+            this.stallSeconds = stallSeconds;
+            this.waitMs = waitMs;
+        }
+
+        public boolean isStallFree() {
+            return stallSeconds == 0;
+        }
+    }
+
+}
@@ -29,21 +29,7 @@ public enum TorrentHealth {
     EXCELLENT, GOOD, MEDIUM, BAD, UNKNOWN;
 
     public static TorrentHealth calculate(int seeds, int peers) {
-        double ratio;
-        if (peers > 0) {
-            ratio = seeds / peers;
-        } else {
-            ratio = seeds;
-        }
-
-        double normalizedRatio = Math.min(ratio / 5 * 100, 100);
-        double normalizedSeeds = Math.min(seeds / 30 * 100, 100);
-
-        double weightedRatio = normalizedRatio * 0.6;
-        double weightedSeeds = normalizedSeeds * 0.4;
-        double weightedTotal = weightedRatio + weightedSeeds;
-
-        int scaledTotal = (int) (weightedTotal * 3 / 100);
+        int scaledTotal = (int) (score(seeds, peers) * 3 / 100);
 
         switch (scaledTotal) {
             case 0:
@@ -59,6 +45,27 @@ public enum TorrentHealth {
         return UNKNOWN;
     }
 
+    /**
+     * @param seeds Number of seeds
+     * @param peers Number of peers
+     * @return Health of a swarm from 0 to 100, weighted from the seed to peer ratio and the number of seeds
+     */
+    public static double score(int seeds, int peers) {
+        double ratio;
+        if (peers > 0) {
+            ratio = (double) seeds / peers;
+        } else {
+            ratio = seeds;
+        }
+
+        double normalizedRatio = Math.min(ratio / 5 * 100, 100);
+        double normalizedSeeds = Math.min(seeds / 30d * 100, 100);
+
+        double weightedRatio = normalizedRatio * 0.6;
+        double weightedSeeds = normalizedSeeds * 0.4;
+        return weightedRatio + weightedSeeds;
+    }
+
     public int getImageResource() {
         switch (this) {
             case BAD:
@@ -0,0 +1,363 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.torrent;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.frostwire.jlibtorrent.AnnounceEntry;
+import com.frostwire.jlibtorrent.TorrentInfo;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import butter.droid.base.ButterApplication;
+import butter.droid.base.providers.media.models.Media;
+import butter.droid.base.utils.ThreadUtils;
+import timber.log.Timber;
+
+/**
+ * TorrentHealthService.java
+ * <p/>
+ * Gets the live number of seeds and peers of torrents from their trackers, the numbers from the providers are often
+ * days old. All trackers of a torrent are scraped in parallel on a small pool and the highest numbers are used.
+ * Results are cached for a few minutes, so opening a detail screen again doesn't scrape again. Torrents are keyed by
+ * their info hash, a torrent that is requested again while it is being scraped waits for the running scrape.
+ */
+public class TorrentHealthService {
+
+    private static final int THREADS = 4;
+    private static final long CACHE_MS = 5 * 60 * 1000;
+    private static final int MAX_CACHED = 64;
+    private static final int MAX_TRACKERS = 8;
+    // scraped in addition to the trackers of the torrent, most public torrents are known to them
+    private static final String[] DEFAULT_TRACKERS = {
+            "udp://tracker.opentrackr.org:1337/announce"
+    };
+
+    private static TorrentHealthService sInstance;
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREADS);
+    private final Map<String, Target> mTargets = new LruMap<>();
+    private final Map<String, Swarm> mSwarms = new LruMap<>();
+    private final Map<String, List<Waiter>> mPending = new HashMap<>();
+
+    public interface Callback {
+        /**
+         * Called on the main thread after the seeds and peers of the torrent were updated
+         *
+         * @param quality Quality of the torrent
+         * @param torrent Torrent
+         */
+        void onHealthUpdated(String quality, Media.Torrent torrent);
+    }
+
+    private TorrentHealthService() {
+    }
+
+    public static synchronized TorrentHealthService getInstance() {
+        if (sInstance == null) {
+            sInstance = new TorrentHealthService();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Update the seeds and peers of the torrents with live numbers. Torrents of which no tracker answers keep the
+     * numbers of the provider.
+     *
+     * @param torrents Torrents by quality
+     * @param callback Callback, called for every torrent that was updated
+     */
+    public void refresh(Map<String, Media.Torrent> torrents, final Callback callback) {
+        for (final Map.Entry<String, Media.Torrent> entry : torrents.entrySet()) {
+            final Media.Torrent torrent = entry.getValue();
+            if (torrent == null || torrent.url == null) continue;
+
+            Swarm swarm = getCachedSwarm(torrent.url);
+            if (swarm != null) {
+                deliver(entry.getKey(), torrent, swarm, callback);
+                continue;
+            }
+
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        scrape(entry.getKey(), torrent, callback);
+                    } catch (IOException e) {
+                        Timber.d("Can't scrape %s: %s", torrent.url, e.getMessage());
+                    }
+                }
+            });
+        }
+    }
+
+    private void scrape(String quality, Media.Torrent torrent, Callback callback) throws IOException {
+        final Target target = getTarget(torrent);
+
+        synchronized (mPending) {
+            // the same torrent may have been scraped by another url, or just before
+            Swarm swarm = getCachedSwarm(torrent.url);
+            if (swarm != null) {
+                deliver(quality, torrent, swarm, callback);
+                return;
+            }
+
+            List<Waiter> waiters = mPending.get(target.key);
+            if (waiters != null) {
+                waiters.add(new Waiter(quality, torrent, callback));
+                return;
+            }
+            waiters = new ArrayList<>();
+            waiters.add(new Waiter(quality, torrent, callback));
+            mPending.put(target.key, waiters);
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        final Swarm result = new Swarm();
+        final int[] remaining = {target.trackers.size()};
+
+        for (final String tracker : target.trackers) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int[] numbers = null;
+                    try {
+                        numbers = TrackerScraper.scrape(ButterApplication.getHttpClient(), tracker, target.infoHash);
+                    } catch (IOException e) {
+                        Timber.d("Scrape of %s failed: %s", tracker, e.getMessage());
+                    }
+
+                    boolean done;
+                    synchronized (result) {
+                        if (numbers != null) {
+                            // trackers share most of their peers, the highest numbers are the closest
+                            result.seeds = Math.max(result.seeds, numbers[0]);
+                            result.peers = Math.max(result.peers, numbers[1]);
+                            result.answers++;
+                        }
+                        done = --remaining[0] == 0;
+                    }
+
+                    if (!done) return;
+
+                    if (result.answers > 0) {
+                        result.time = SystemClock.elapsedRealtime();
+                        Timber.d("Scraped %s in %d ms: %d seeds, %d peers", target.key, result.time - start, result.seeds, result.peers);
+                        // cached before the scrape stops being pending, a new request always finds one of them
+                        synchronized (mSwarms) {
+                            mSwarms.put(target.key, result);
+                        }
+                    }
+
+                    List<Waiter> waiters;
+                    synchronized (mPending) {
+                        waiters = mPending.remove(target.key);
+                    }
+
+                    if (result.answers > 0) {
+                        for (Waiter waiter : waiters) {
+                            deliver(waiter.quality, waiter.torrent, result, waiter.callback);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void deliver(final String quality, final Media.Torrent torrent, final Swarm swarm, final Callback callback) {
+        ThreadUtils.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                torrent.seeds = swarm.seeds;
+                torrent.peers = swarm.peers;
+                callback.onHealthUpdated(quality, torrent);
+            }
+        });
+    }
+
+    private Swarm getCachedSwarm(String url) {
+        Target target;
+        synchronized (mTargets) {
+            target = mTargets.get(url);
+        }
+        if (target == null) return null;
+
+        synchronized (mSwarms) {
+            Swarm swarm = mSwarms.get(target.key);
+            if (swarm != null && SystemClock.elapsedRealtime() - swarm.time > CACHE_MS) {
+                mSwarms.remove(target.key);
+                return null;
+            }
+            return swarm;
+        }
+    }
+
+    /**
+     * Find the info hash and the trackers of the torrent, from the hash or magnet link when there is one and from the
+     * torrent file otherwise
+     */
+    private Target getTarget(Media.Torrent torrent) throws IOException {
+        synchronized (mTargets) {
+            Target target = mTargets.get(torrent.url);
+            if (target != null) return target;
+        }
+
+        byte[] infoHash = null;
+        Set<String> trackers = new LinkedHashSet<>();
+
+        if (torrent.url.startsWith("magnet:")) {
+            Uri uri = Uri.parse(torrent.url.replace("magnet:?", "magnet://?"));
+            for (String topic : uri.getQueryParameters("xt")) {
+                if (topic.startsWith("urn:btih:")) {
+                    infoHash = decodeInfoHash(topic.substring("urn:btih:".length()));
+                }
+            }
+            trackers.addAll(uri.getQueryParameters("tr"));
+        } else if (torrent.hash != null) {
+            infoHash = decodeInfoHash(torrent.hash);
+        }
+
+        if (infoHash == null) {
+            Response response = ButterApplication.getHttpClient().newCall(new Request.Builder().url(torrent.url).build()).execute();
+            try {
+                if (!response.isSuccessful()) {
+                    throw new IOException("Download of " + torrent.url + " failed with " + response.code());
+                }
+                TorrentInfo info = TorrentInfo.bdecode(response.body().bytes());
+                infoHash = decodeInfoHash(info.infoHash().toHex());
+                for (AnnounceEntry announce : info.trackers()) {
+                    trackers.add(announce.url());
+                }
+            } finally {
+                response.body().close();
+            }
+        }
+
+        if (infoHash == null) throw new IOException("No info hash for " + torrent.url);
+
+        for (String tracker : DEFAULT_TRACKERS) {
+            trackers.add(tracker);
+        }
+        List<String> limited = new ArrayList<>();
+        for (String tracker : trackers) {
+            if (limited.size() == MAX_TRACKERS) break;
+            limited.add(tracker);
+        }
+
+        Target target = new Target(infoHash, limited);
+        synchronized (mTargets) {
+            mTargets.put(torrent.url, target);
+        }
+        return target;
+    }
+
+    /**
+     * @param hash Info hash as 40 hex or 32 base32 characters
+     * @return Info hash, or null when it isn't valid
+     */
+    static byte[] decodeInfoHash(String hash) {
+        if (hash.length() == 40) {
+            byte[] bytes = new byte[20];
+            for (int i = 0; i < 20; i++) {
+                int high = Character.digit(hash.charAt(i * 2), 16);
+                int low = Character.digit(hash.charAt(i * 2 + 1), 16);
+                if (high < 0 || low < 0) return null;
+                bytes[i] = (byte) ((high << 4) | low);
+            }
+            return bytes;
+        } else if (hash.length() == 32) {
+            byte[] bytes = new byte[20];
+            int buffer = 0;
+            int bits = 0;
+            int index = 0;
+            for (char c : hash.toUpperCase().toCharArray()) {
+                int value = c >= 'A' && c <= 'Z' ? c - 'A' : c >= '2' && c <= '7' ? c - '2' + 26 : -1;
+                if (value < 0) return null;
+                buffer = (buffer << 5) | value;
+                bits += 5;
+                if (bits >= 8) {
+                    bits -= 8;
+                    bytes[index++] = (byte) (buffer >> bits);
+                }
+            }
+            return bytes;
+        }
+        return null;
+    }
+
+    private static class Target {
+        final byte[] infoHash;
+        final String key;
+        final List<String> trackers;
+
+        Target(byte[] infoHash, List<String> trackers) {
+            this.infoHash = infoHash;
+            this.trackers = trackers;
+
+            StringBuilder key = new StringBuilder(infoHash.length * 2);
+            for (byte b : infoHash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            this.key = key.toString();
+        }
+    }
+
+    private static class Waiter {
+        final String quality;
+        final Media.Torrent torrent;
+        final Callback callback;
+
+        Waiter(String quality, Media.Torrent torrent, Callback callback) {
+            this.quality = quality;
+            this.torrent = torrent;
+            this.callback = callback;
+        }
+    }
+
+    private static class Swarm {
+        int seeds;
+        int peers;
+        int answers;
+        long time;
+    }
+
+    private static class LruMap<V> extends LinkedHashMap<String, V> {
+        LruMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > MAX_CACHED;
+        }
+    }
+
+}
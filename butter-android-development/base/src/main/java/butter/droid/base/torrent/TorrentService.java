@@ -27,9 +27,13 @@ import android.content.ServiceConnection;
 import android.os.Binder;
 import android.os.IBinder;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v4.app.NotificationCompat;
 
+import com.frostwire.jlibtorrent.FileStorage;
+import com.frostwire.jlibtorrent.TorrentHandle;
+import com.frostwire.jlibtorrent.TorrentInfo;
 import com.github.sv244.torrentstream.StreamStatus;
 import com.github.sv244.torrentstream.Torrent;
 import com.github.sv244.torrentstream.TorrentOptions;
@@ -37,6 +41,7 @@ import com.github.sv244.torrentstream.TorrentStream;
 import com.github.sv244.torrentstream.listeners.TorrentListener;
 import com.sjl.foreground.Foreground;
 
+import java.io.File;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
@@ -55,6 +60,12 @@ public class TorrentService extends Service implements TorrentListener {
     public static final Integer NOTIFICATION_ID = 3423423;
 
     private static String WAKE_LOCK = "TorrentService_WakeLock";
+    // how long a stream the library considers ready is held back for a stall-free start
+    private static final long MAX_HOLD_MS = 30 * 1000;
+    // the lead isn't measured beyond this
+    private static final long MAX_LEAD = 512 * 1024 * 1024;
+    // readers waiting for bytes check again after this, in case no progress is reported
+    private static final long WAIT_POLL_MS = 250;
 
     private static TorrentService sThis;
 
@@ -63,6 +74,12 @@ public class TorrentService extends Service implements TorrentListener {
     private StreamStatus mStreamStatus;
 
     private boolean mInForeground = false, mIsReady = false, mStopped = false;
+    private StreamReadiness mReadiness;
+    private PiecePrioritizer mPrioritizer;
+    private BandwidthMeter mBandwidthMeter;
+    private long mLibraryReadyTime = -1;
+
+    private final Object mProgressLock = new Object();
 
     private IBinder mBinder = new ServiceBinder();
     private List<TorrentListener> mListener = new ArrayList<>();
@@ -195,6 +212,14 @@ public class TorrentService extends Service implements TorrentListener {
     }
 
     public void streamTorrent(@NonNull final String torrentUrl) {
+        streamTorrent(torrentUrl, 0);
+    }
+
+    /**
+     * @param torrentUrl Url of the torrent
+     * @param durationMs Duration of the media, used to estimate the bitrate. 0 when it isn't known
+     */
+    public void streamTorrent(@NonNull final String torrentUrl, long durationMs) {
         Timber.d("streamTorrent");
         mStopped = false;
 
@@ -219,6 +244,10 @@ public class TorrentService extends Service implements TorrentListener {
         mTorrentStream.setOptions(options);
 
         mIsReady = false;
+        mLibraryReadyTime = -1;
+        mReadiness = new StreamReadiness(durationMs);
+        mPrioritizer = new PiecePrioritizer();
+        mBandwidthMeter = new BandwidthMeter(this);
         mTorrentStream.addListener(this);
         mTorrentStream.startStream(torrentUrl);
     }
@@ -237,6 +266,12 @@ public class TorrentService extends Service implements TorrentListener {
 
         mTorrentStream.stopStream();
         mIsReady = false;
+        mReadiness = null;
+        mPrioritizer = null;
+        if (mBandwidthMeter != null) {
+            mBandwidthMeter.save();
+            mBandwidthMeter = null;
+        }
 
         Timber.d("Stopped torrent and removed files if possible");
     }
@@ -249,6 +284,161 @@ public class TorrentService extends Service implements TorrentListener {
         return mIsReady;
     }
 
+    /**
+     * @return Prediction for starting playback of the current stream now, null when nothing is streaming
+     */
+    public StreamReadiness.Prediction getStreamPrediction() {
+        StreamReadiness readiness = mReadiness;
+        return readiness == null ? null : readiness.getPrediction();
+    }
+
+    /**
+     * Tell the service where the player is, the pieces after that position are downloaded first. Called by the
+     * players for every position change, so also after a seek.
+     *
+     * @param position Position in the media, from 0 to 1
+     */
+    public void setPlaybackPosition(float position) {
+        StreamReadiness readiness = mReadiness;
+        if (readiness == null) return;
+
+        long fileSize = readiness.getFileSize();
+        if (fileSize > 0) {
+            setPlayhead((long) (Math.max(0, Math.min(1, position)) * fileSize));
+        }
+    }
+
+    /**
+     * @param offset Byte offset in the video file the player reads from
+     * @see #setPlaybackPosition(float)
+     */
+    public void setPlayhead(long offset) {
+        StreamReadiness readiness = mReadiness;
+        PiecePrioritizer prioritizer = mPrioritizer;
+        Torrent torrent = mCurrentTorrent;
+        if (readiness == null || prioritizer == null || torrent == null) return;
+
+        long fileSize = readiness.getFileSize();
+        if (fileSize <= 0) return;
+
+        readiness.setPlayhead(offset);
+        if (prioritizer.setPlayhead(torrent, offset, readiness.getBitrate())) {
+            torrent.setInterestedBytes(offset);
+        }
+    }
+
+    /**
+     * @param time     Position in the media in ms
+     * @param duration Duration of the media in ms
+     * @see #setPlaybackPosition(float)
+     */
+    public void setPlaybackPosition(long time, long duration) {
+        if (duration > 0) {
+            setPlaybackPosition((float) time / duration);
+        }
+    }
+
+    /**
+     * @return Position in the media up to which the data after the playhead is downloaded without a gap, from 0 to 1,
+     * or -1 when it isn't known
+     */
+    public float getBufferedPosition() {
+        StreamReadiness readiness = mReadiness;
+        if (readiness == null) return -1;
+
+        long fileSize = readiness.getFileSize();
+        if (fileSize <= 0) return -1;
+        return Math.min(1f, (float) (readiness.getPlayhead() + readiness.getLead()) / fileSize);
+    }
+
+    /**
+     * @param file File
+     * @return true when the file is the video file of the current stream
+     */
+    public boolean isStreamingFile(File file) {
+        Torrent torrent = mCurrentTorrent;
+        return torrent != null && mTorrentStream.isStreaming() && torrent.getVideoFile() != null
+                && torrent.getVideoFile().getAbsoluteFile().equals(file.getAbsoluteFile());
+    }
+
+    /**
+     * @return Size of the video file of the current stream, or -1 when it isn't known yet
+     */
+    public long getVideoFileSize() {
+        Torrent torrent = mCurrentTorrent;
+        return torrent == null ? -1 : getVideoFileSize(torrent);
+    }
+
+    /**
+     * @param offset Offset in the video file
+     * @param max    Maximum number of bytes
+     * @return Number of bytes from the offset that are downloaded and verified
+     */
+    public long getAvailableBytes(long offset, long max) {
+        Torrent torrent = mCurrentTorrent;
+        return torrent == null ? 0 : getAvailableBytes(torrent, offset, max);
+    }
+
+    private static long getAvailableBytes(Torrent torrent, long offset, long max) {
+        try {
+            TorrentHandle handle = torrent.getTorrentHandle();
+            TorrentInfo info = handle.getTorrentInfo();
+            FileStorage files = info.files();
+            int index = PiecePrioritizer.getVideoFileIndex(files);
+            long fileStart = files.fileOffset(index);
+            long pieceLength = info.pieceLength();
+            long end = Math.min(offset + max, files.fileSize(index));
+
+            long position = offset;
+            while (position < end) {
+                int piece = (int) ((fileStart + position) / pieceLength);
+                if (!handle.havePiece(piece)) break;
+                position = (piece + 1) * pieceLength - fileStart;
+            }
+            return Math.max(0, Math.min(position, end) - offset);
+        } catch (Exception e) {
+            // metadata isn't there yet
+            return 0;
+        }
+    }
+
+    /**
+     * Fetch the pieces at the offset of the video file right away. Unlike {@link #setPlayhead(long)} the pieces at the
+     * playhead keep their priority, used for reads that aren't made by the player.
+     *
+     * @param offset Offset in the video file
+     */
+    public void readAhead(long offset) {
+        PiecePrioritizer prioritizer = mPrioritizer;
+        Torrent torrent = mCurrentTorrent;
+        if (prioritizer == null || torrent == null) return;
+
+        prioritizer.readAhead(torrent, offset);
+    }
+
+    /**
+     * Wait until the byte at the offset of the video file is downloaded. The pieces from the offset are fetched right
+     * away in the meantime, see {@link #readAhead(long)}, the playhead doesn't move.
+     *
+     * @param offset    Offset in the video file
+     * @param timeoutMs Maximum time to wait
+     * @return false when the byte wasn't downloaded in time or the stream stopped
+     */
+    public boolean waitForBytes(long offset, long timeoutMs) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+
+        synchronized (mProgressLock) {
+            while (getAvailableBytes(offset, 1) == 0) {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0 || !mTorrentStream.isStreaming()) return false;
+                // again on every poll, a seek of the player drops the deadlines
+                readAhead(offset);
+                mProgressLock.wait(Math.min(remaining, WAIT_POLL_MS));
+            }
+        }
+        return true;
+    }
+
     public boolean checkStopped() {
         if(mStopped) {
             mStopped = false;
@@ -270,6 +460,13 @@ public class TorrentService extends Service implements TorrentListener {
         context.bindService(torrentServiceIntent, serviceConnection, Context.BIND_AUTO_CREATE);
     }
 
+    /**
+     * @return The running service, or null when it isn't created
+     */
+    public static TorrentService getInstance() {
+        return sThis;
+    }
+
     public static void start(Context context) {
         Intent torrentServiceIntent = new Intent(context, TorrentService.class);
         context.startService(torrentServiceIntent);
@@ -335,6 +532,18 @@ public class TorrentService extends Service implements TorrentListener {
     @Override
     public void onStreamReady(Torrent torrent) {
         mCurrentTorrent = torrent;
+        mLibraryReadyTime = SystemClock.elapsedRealtime();
+        if (mIsReady) return;
+
+        StreamReadiness readiness = mReadiness;
+        if (readiness == null || !readiness.canPredict() || readiness.isReady()) {
+            setReady(torrent);
+        } else {
+            Timber.d("Holding stream, predicted stall %.1f s", readiness.getPrediction().stallSeconds);
+        }
+    }
+
+    private void setReady(Torrent torrent) {
         mIsReady = true;
 
         for(TorrentListener listener : mListener) {
@@ -342,8 +551,68 @@ public class TorrentService extends Service implements TorrentListener {
         }
     }
 
+    /**
+     * Update the readiness of the stream, playback starts as soon as a stall-free start is predicted. Before the
+     * library has prepared the stream, that also needs the end of the file, which players read for the index.
+     */
+    private void updateReadiness(Torrent torrent, StreamStatus streamStatus) {
+        StreamReadiness readiness = mReadiness;
+        if (readiness == null) return;
+
+        if (readiness.getFileSize() <= 0) {
+            readiness.setFileSize(getVideoFileSize(torrent));
+        }
+        long fileSize = readiness.getFileSize();
+        // the playhead first, a lead read after it belongs to it or to a later playhead that update() ignores
+        long playhead = readiness.getPlayhead();
+        readiness.update(streamStatus.downloadSpeed, playhead, getLead(torrent, playhead, readiness.getLead()));
+
+        if (mIsReady) return;
+
+        if (mLibraryReadyTime >= 0) {
+            if (readiness.isReady() || SystemClock.elapsedRealtime() - mLibraryReadyTime > MAX_HOLD_MS) {
+                setReady(torrent);
+            }
+        } else if (fileSize > 0 && readiness.isReady() && torrent.hasBytes(fileSize - 1)) {
+            mCurrentTorrent = torrent;
+            setReady(torrent);
+        }
+    }
+
+    /**
+     * @param knownLead Lead found before, only the pieces after it are checked since downloaded pieces stay
+     * @return Bytes available from the playhead without a gap
+     */
+    private static long getLead(Torrent torrent, long playhead, long knownLead) {
+        if (knownLead >= MAX_LEAD) return knownLead;
+        return knownLead + getAvailableBytes(torrent, playhead + knownLead, MAX_LEAD - knownLead);
+    }
+
+    /**
+     * @return Size of the video file, the largest file of the torrent, or -1 when it isn't known yet
+     */
+    private static long getVideoFileSize(Torrent torrent) {
+        try {
+            FileStorage files = torrent.getTorrentHandle().getTorrentInfo().files();
+            int index = PiecePrioritizer.getVideoFileIndex(files);
+            return index < 0 ? -1 : files.fileSize(index);
+        } catch (Exception e) {
+            // metadata isn't there yet
+            return -1;
+        }
+    }
+
     @Override
     public void onStreamProgress(Torrent torrent, StreamStatus streamStatus) {
+        updateReadiness(torrent, streamStatus);
+        BandwidthMeter bandwidthMeter = mBandwidthMeter;
+        if (bandwidthMeter != null && streamStatus.progress < 100) {
+            bandwidthMeter.addSample(streamStatus.downloadSpeed);
+        }
+        synchronized (mProgressLock) {
+            mProgressLock.notifyAll();
+        }
+
         for(TorrentListener listener : mListener) {
             if (null != listener) {
                 listener.onStreamProgress(torrent, streamStatus);
@@ -0,0 +1,171 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.torrent;
+
+import com.frostwire.jlibtorrent.Entry;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * TrackerScraper.java
+ * <p/>
+ * Asks a tracker for the number of seeds and peers of a torrent. Udp trackers are scraped with the protocol of BEP 15,
+ * http trackers through the scrape url next to their announce url.
+ */
+class TrackerScraper {
+
+    private static final long UDP_PROTOCOL_ID = 0x41727101980L;
+    private static final int ACTION_CONNECT = 0;
+    private static final int ACTION_SCRAPE = 2;
+    private static final int ACTION_ERROR = 3;
+    private static final int UDP_TIMEOUT_MS = 3000;
+
+    private static final Random sRandom = new Random();
+
+    private TrackerScraper() {
+    }
+
+    /**
+     * @param httpClient Client for http trackers
+     * @param tracker    Announce url of the tracker
+     * @param infoHash   Info hash of the torrent, 20 bytes
+     * @return Seeds and peers, in that order
+     */
+    static int[] scrape(OkHttpClient httpClient, String tracker, byte[] infoHash) throws IOException {
+        if (tracker.startsWith("udp://")) {
+            return scrapeUdp(tracker, infoHash);
+        } else if (tracker.startsWith("http://") || tracker.startsWith("https://")) {
+            return scrapeHttp(httpClient, tracker, infoHash);
+        }
+        throw new IOException("Unsupported tracker " + tracker);
+    }
+
+    private static int[] scrapeUdp(String tracker, byte[] infoHash) throws IOException {
+        URI uri;
+        try {
+            uri = new URI(tracker);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid tracker " + tracker);
+        }
+        if (uri.getHost() == null || uri.getPort() <= 0) {
+            throw new IOException("Invalid tracker " + tracker);
+        }
+
+        DatagramSocket socket = new DatagramSocket();
+        try {
+            socket.setSoTimeout(UDP_TIMEOUT_MS);
+            socket.connect(new InetSocketAddress(uri.getHost(), uri.getPort()));
+
+            int transactionId = sRandom.nextInt();
+            ByteBuffer request = ByteBuffer.allocate(16);
+            request.putLong(UDP_PROTOCOL_ID).putInt(ACTION_CONNECT).putInt(transactionId);
+            ByteBuffer response = exchange(socket, request, transactionId, ACTION_CONNECT, 16);
+            long connectionId = response.getLong();
+
+            transactionId = sRandom.nextInt();
+            request = ByteBuffer.allocate(36);
+            request.putLong(connectionId).putInt(ACTION_SCRAPE).putInt(transactionId).put(infoHash);
+            response = exchange(socket, request, transactionId, ACTION_SCRAPE, 20);
+            int seeds = response.getInt();
+            response.getInt(); // completed
+            int peers = response.getInt();
+            return new int[]{seeds, peers};
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Send a request and read the answer to it
+     *
+     * @return Response, positioned after the action and transaction id
+     */
+    private static ByteBuffer exchange(DatagramSocket socket, ByteBuffer request, int transactionId, int action, int minLength) throws IOException {
+        socket.send(new DatagramPacket(request.array(), request.position()));
+
+        byte[] buffer = new byte[512];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        socket.receive(packet);
+
+        ByteBuffer response = ByteBuffer.wrap(buffer, 0, packet.getLength());
+        if (packet.getLength() < 8) throw new IOException("Short tracker response");
+        int responseAction = response.getInt();
+        if (response.getInt() != transactionId) throw new IOException("Unexpected tracker response");
+        if (responseAction == ACTION_ERROR) {
+            throw new IOException("Tracker error: " + new String(buffer, 8, packet.getLength() - 8, "UTF-8"));
+        }
+        if (responseAction != action || packet.getLength() < minLength) {
+            throw new IOException("Unexpected tracker response");
+        }
+        return response;
+    }
+
+    private static int[] scrapeHttp(OkHttpClient httpClient, String tracker, byte[] infoHash) throws IOException {
+        // the scrape url is the announce url with the last "announce" in the path replaced
+        int slash = tracker.lastIndexOf('/');
+        if (slash < 0 || !tracker.startsWith("announce", slash + 1)) {
+            throw new IOException("Tracker " + tracker + " doesn't support scraping");
+        }
+        String url = tracker.substring(0, slash + 1) + "scrape" + tracker.substring(slash + 1 + "announce".length());
+        url += (url.contains("?") ? "&" : "?") + "info_hash=" + urlEncode(infoHash);
+
+        Response response = httpClient.newCall(new Request.Builder().url(url).build()).execute();
+        try {
+            if (!response.isSuccessful()) {
+                throw new IOException("Scrape of " + tracker + " failed with " + response.code());
+            }
+
+            Map<String, Entry> files = Entry.bdecode(response.body().bytes()).dictionary().get("files").dictionary();
+            // only one torrent was asked for, the key is its binary info hash
+            Iterator<Entry> iterator = files.values().iterator();
+            if (!iterator.hasNext()) throw new IOException("Torrent unknown to " + tracker);
+            Map<String, Entry> stats = iterator.next().dictionary();
+            return new int[]{(int) stats.get("complete").integer(), (int) stats.get("incomplete").integer()};
+        } catch (NullPointerException e) {
+            throw new IOException("Invalid scrape response from " + tracker);
+        } finally {
+            response.body().close();
+        }
+    }
+
+    private static String urlEncode(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.' || c == '~') {
+                sb.append(c);
+            } else {
+                sb.append('%').append(Integer.toHexString((b & 0xFF) | 0x100).substring(1).toUpperCase());
+            }
+        }
+        return sb.toString();
+    }
+
+}
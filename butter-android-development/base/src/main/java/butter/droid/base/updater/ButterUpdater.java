@@ -36,19 +36,14 @@ import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.security.MessageDigest;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Observable;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
-import okio.BufferedSink;
-import okio.Okio;
 import butter.droid.base.BuildConfig;
 import butter.droid.base.Constants;
 import butter.droid.base.ButterApplication;
@@ -81,7 +76,6 @@ public class ButterUpdater extends Observable {
     private static final String LAST_UPDATE_KEY = "last_update";
     public static final String UPDATE_FILE = "update_file";
     private static final String SHA1_TIME = "sha1_update_time";
-    private static final String SHA1_KEY = "sha1_update";
 
     private final OkHttpClient mHttpClient = ButterApplication.getHttpClient();
     private final Gson mGson = new Gson();
@@ -96,6 +90,7 @@ public class ButterUpdater extends Observable {
     private String mAbi;
 
     private Listener mListener;
+    private boolean mDownloading = false;
 
     private ButterUpdater(Context context) {
         if (Constants.DEBUG_ENABLED) {
@@ -120,8 +115,18 @@ public class ButterUpdater extends Observable {
         ApplicationInfo appinfo = context.getApplicationInfo();
 
         if (new File(appinfo.sourceDir).lastModified() > PrefUtils.get(mContext, SHA1_TIME, 0l)) {
-            PrefUtils.save(mContext, SHA1_KEY, SHA1(appinfo.sourceDir));
-            PrefUtils.save(mContext, SHA1_TIME, System.currentTimeMillis());
+            // the checksum of the new APK is stored by the service, ready for the update check
+            ChecksumService.getInstance(mContext).getChecksum(new File(appinfo.sourceDir), new ChecksumService.Callback() {
+                @Override
+                public void onChecksum(File file, String checksum) {
+                    PrefUtils.save(mContext, SHA1_TIME, System.currentTimeMillis());
+                }
+
+                @Override
+                public void onFailure(File file, Exception e) {
+                    e.printStackTrace();
+                }
+            });
 
             String updateFile = PrefUtils.get(mContext, UPDATE_FILE, "");
             if (updateFile.length() > 0) {
@@ -152,6 +157,10 @@ public class ButterUpdater extends Observable {
         mListener = listener;
     }
 
+    public boolean hasListener() {
+        return mListener != null;
+    }
+
     private Runnable periodicUpdate = new Runnable() {
         @Override
         public void run() {
@@ -246,14 +255,11 @@ public class ButterUpdater extends Observable {
                         channel = variant.get(mChannelStr).get(mAbi);
                     }
 
-                    ApplicationInfo appinfo = mContext.getApplicationInfo();
-                    if ((channel == null || channel.checksum.equals(SHA1(appinfo.sourceDir)) || channel.versionCode <= mVersionCode) && VersionUtils.isUsingCorrectBuild()) {
+                    if ((channel == null || channel.versionCode <= mVersionCode) && VersionUtils.isUsingCorrectBuild()) {
                         setChanged();
                         notifyObservers(STATUS_NO_UPDATE);
                     } else {
-                        downloadFile(channel.updateUrl);
-                        setChanged();
-                        notifyObservers(STATUS_GOT_UPDATE);
+                        checkChannel(channel);
                     }
                 } else {
                     setChanged();
@@ -265,42 +271,142 @@ public class ButterUpdater extends Observable {
         }
     };
 
-    private void downloadFile(final String location) {
-        Request request = new Request.Builder()
-                .url(location)
-                .build();
+    /**
+     * Download the update of the channel unless the installed APK is the same
+     */
+    private void checkChannel(final UpdaterData.Arch channel) {
+        if (!VersionUtils.isUsingCorrectBuild()) {
+            onChannelChecked(channel, null);
+            return;
+        }
 
-        mHttpClient.newCall(request).enqueue(new Callback() {
+        ApplicationInfo appinfo = mContext.getApplicationInfo();
+        ChecksumService.getInstance(mContext).getChecksum(new File(appinfo.sourceDir), new ChecksumService.Callback() {
             @Override
-            public void onFailure(Request request, IOException e) {
-                // uhoh
+            public void onChecksum(File file, String checksum) {
+                onChannelChecked(channel, checksum);
             }
 
             @Override
-            public void onResponse(Response response) throws IOException {
-                if (response.isSuccessful()) {
-                    String fileName = location.substring(location.lastIndexOf('/') + 1);
-                    File downloadedFile = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), fileName);
-                    BufferedSink sink = Okio.buffer(Okio.sink(downloadedFile));
-                    sink.writeAll(response.body().source());
-                    sink.close();
-
-                    String updateFilePath = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS).getAbsolutePath() + "/" + fileName;
-
-                    PrefUtils.getPrefs(mContext).edit()
-                            .putString(SHA1_KEY, SHA1(updateFilePath))
-                            .putString(UPDATE_FILE, updateFilePath)
-                            .putLong(SHA1_TIME, System.currentTimeMillis())
-                            .apply();
-
-                    if(mListener != null) {
-                        mListener.updateAvailable(updateFilePath);
+            public void onFailure(File file, Exception e) {
+                e.printStackTrace();
+                onChannelChecked(channel, null);
+            }
+        });
+    }
+
+    /**
+     * @param installedChecksum Checksum of the installed APK, null when it isn't known
+     */
+    private void onChannelChecked(UpdaterData.Arch channel, String installedChecksum) {
+        if (channel == null || (installedChecksum != null && installedChecksum.equals(channel.checksum))) {
+            setChanged();
+            notifyObservers(STATUS_NO_UPDATE);
+        } else if (downloadUpdate(channel, installedChecksum)) {
+            setChanged();
+            notifyObservers(STATUS_GOT_UPDATE);
+        }
+    }
+
+    /**
+     * Download the update, as a patch for the installed APK when the channel has one. An interrupted download is
+     * resumed by the next check.
+     *
+     * @return false when a download is running already
+     */
+    private boolean downloadUpdate(UpdaterData.Arch channel, String installedChecksum) {
+        synchronized (this) {
+            if (mDownloading) return false;
+            mDownloading = true;
+        }
+
+        String fileName = channel.updateUrl.substring(channel.updateUrl.lastIndexOf('/') + 1);
+        File updateFile = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), fileName);
+
+        UpdaterData.Delta delta = null;
+        if (channel.deltas != null && installedChecksum != null) {
+            delta = channel.deltas.get(installedChecksum);
+        }
+
+        if (delta != null && delta.updateUrl != null) {
+            downloadDelta(channel, delta, updateFile);
+        } else {
+            downloadFile(channel, updateFile);
+        }
+        return true;
+    }
+
+    private void downloadFile(UpdaterData.Arch channel, File updateFile) {
+        new UpdateDownload(mHttpClient, channel.updateUrl, updateFile, channel.checksum).start(new UpdateDownload.Listener() {
+            @Override
+            public void onDownloaded(File file, String checksum) {
+                onUpdateDownloaded(file, checksum);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                e.printStackTrace();
+                onDownloadFinished();
+            }
+        });
+    }
+
+    private void downloadDelta(final UpdaterData.Arch channel, UpdaterData.Delta delta, final File updateFile) {
+        final File patch = new File(mContext.getCacheDir(), updateFile.getName() + ".patch");
+        new UpdateDownload(mHttpClient, delta.updateUrl, patch, delta.checksum).start(new UpdateDownload.Listener() {
+            @Override
+            public void onDownloaded(File file, String checksum) {
+                File patched = new File(updateFile.getPath() + ".patched");
+                try {
+                    String patchedChecksum = DeltaPatch.apply(new File(mContext.getApplicationInfo().sourceDir), patch, patched);
+                    if (channel.checksum != null && !channel.checksum.equalsIgnoreCase(patchedChecksum)) {
+                        throw new IOException("Patched update doesn't match " + channel.checksum);
                     }
+                    if ((updateFile.exists() && !updateFile.delete()) || !patched.renameTo(updateFile)) {
+                        throw new IOException("Can't move patched update to " + updateFile);
+                    }
+                    onUpdateDownloaded(updateFile, patchedChecksum);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    patched.delete();
+                    downloadFile(channel, updateFile);
+                } finally {
+                    patch.delete();
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                e.printStackTrace();
+                if (e instanceof UpdateDownload.ChecksumException) {
+                    // the patch is broken, get the whole update instead
+                    downloadFile(channel, updateFile);
+                } else {
+                    onDownloadFinished();
                 }
             }
         });
     }
 
+    private void onUpdateDownloaded(File updateFile, String checksum) {
+        ChecksumService.getInstance(mContext).putChecksum(updateFile, checksum);
+
+        String updateFilePath = updateFile.getAbsolutePath();
+        PrefUtils.getPrefs(mContext).edit()
+                .putString(UPDATE_FILE, updateFilePath)
+                .putLong(SHA1_TIME, System.currentTimeMillis())
+                .apply();
+
+        onDownloadFinished();
+        if(mListener != null) {
+            mListener.updateAvailable(updateFilePath);
+        }
+    }
+
+    private synchronized void onDownloadFinished() {
+        mDownloading = false;
+    }
+
     public void checkUpdatesManually() {
         checkUpdates(true);
     }
@@ -320,31 +426,6 @@ public class ButterUpdater extends Observable {
         }
     };
 
-    private String SHA1(String filename) {
-        final int BUFFER_SIZE = 8192;
-        byte[] buf = new byte[BUFFER_SIZE];
-        int length;
-        try {
-            FileInputStream fis = new FileInputStream(filename);
-            BufferedInputStream bis = new BufferedInputStream(fis);
-            MessageDigest md = MessageDigest.getInstance("SHA1");
-            while ((length = bis.read(buf)) != -1) {
-                md.update(buf, 0, length);
-            }
-
-            byte[] array = md.digest();
-            StringBuilder sb = new StringBuilder();
-            for (byte anArray : array) {
-                sb.append(Integer.toHexString((anArray & 0xFF) | 0x100).substring(1, 3));
-            }
-            return sb.toString();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        return "sha1bad";
-    }
-
     private static int crc32(String str) {
         byte bytes[] = str.getBytes();
         Checksum checksum = new CRC32();
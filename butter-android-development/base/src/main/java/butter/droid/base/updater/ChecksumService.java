@@ -0,0 +1,179 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.updater;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ChecksumService.java
+ * <p/>
+ * Calculates the SHA-1 checksums the updater compares with the update data. Checksums are stored by path together
+ * with the size and modification time of the file, a file is only read again when one of those changed. Files are
+ * read through memory mapped windows on a background thread.
+ */
+public class ChecksumService {
+
+    private static final String PREFS_FILE = "checksums";
+    private static final String ALGORITHM = "SHA1";
+    private static final long MAP_SIZE = 16 * 1024 * 1024;
+
+    private static ChecksumService sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    public interface Callback {
+        /**
+         * Called on a background thread
+         */
+        void onChecksum(File file, String checksum);
+
+        void onFailure(File file, Exception e);
+    }
+
+    private ChecksumService(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_FILE, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized ChecksumService getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ChecksumService(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Get the checksum of the file, from the stored checksums when the file didn't change
+     *
+     * @param file     File
+     * @param callback Callback, called on a background thread
+     */
+    public void getChecksum(final File file, final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String checksum;
+                try {
+                    checksum = getChecksum(file);
+                } catch (IOException e) {
+                    callback.onFailure(file, e);
+                    return;
+                }
+                callback.onChecksum(file, checksum);
+            }
+        });
+    }
+
+    /**
+     * @param file File
+     * @return The stored checksum of the file, or null when the file changed since it was stored
+     */
+    public String getStoredChecksum(File file) {
+        String value = mPrefs.getString(file.getAbsolutePath(), null);
+        if (value == null) return null;
+
+        String[] parts = value.split("/");
+        if (parts.length != 3 || !parts[0].equals(Long.toString(file.length())) || !parts[1].equals(Long.toString(file.lastModified()))) {
+            return null;
+        }
+        return parts[2];
+    }
+
+    /**
+     * Store the checksum of a file that was calculated in another way, like while it was downloaded
+     *
+     * @param file     File
+     * @param checksum Checksum of the current contents of the file
+     */
+    public void putChecksum(File file, String checksum) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        // forget files that are gone, so the stored checksums don't grow
+        for (Map.Entry<String, ?> entry : mPrefs.getAll().entrySet()) {
+            if (!new File(entry.getKey()).exists()) editor.remove(entry.getKey());
+        }
+        editor.putString(file.getAbsolutePath(), file.length() + "/" + file.lastModified() + "/" + checksum);
+        editor.apply();
+    }
+
+    private String getChecksum(File file) throws IOException {
+        String checksum = getStoredChecksum(file);
+        if (checksum != null) return checksum;
+
+        long size = file.length();
+        long modified = file.lastModified();
+        MessageDigest digest = newDigest();
+        update(digest, file, size);
+        checksum = toHex(digest.digest());
+
+        // only store it when the file didn't change while it was read
+        if (size == file.length() && modified == file.lastModified()) {
+            putChecksum(file, checksum);
+        }
+        return checksum;
+    }
+
+    /**
+     * Update the digest with the start of the file
+     *
+     * @param digest Digest
+     * @param file   File
+     * @param length Number of bytes to read
+     */
+    static void update(MessageDigest digest, File file, long length) throws IOException {
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            FileChannel channel = stream.getChannel();
+            length = Math.min(length, channel.size());
+            for (long position = 0; position < length; position += MAP_SIZE) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_SIZE, length - position));
+                digest.update(buffer);
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Integer.toHexString((b & 0xFF) | 0x100).substring(1, 3));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.updater;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * DeltaPatch.java
+ * <p/>
+ * Applies a binary delta to the installed APK. Patches use the layout of bsdiff 4 (the "BSDIFF40" header followed by
+ * the control, diff and extra blocks) with the blocks compressed with gzip instead of bzip2, which isn't available on
+ * Android.
+ * <p/>
+ * The old file is read randomly, the new file is written in one pass and hashed while it is written.
+ */
+class DeltaPatch {
+
+    private static final byte[] MAGIC = {'B', 'S', 'D', 'I', 'F', 'F', '4', '0'};
+    private static final int HEADER_SIZE = 32;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private DeltaPatch() {
+    }
+
+    /**
+     * @param oldFile File the patch applies to
+     * @param patch   Patch
+     * @param newFile Location of the patched file
+     * @return Checksum of the patched file
+     */
+    static String apply(File oldFile, File patch, File newFile) throws IOException {
+        DataInputStream header = new DataInputStream(new FileInputStream(patch));
+        byte[] headerBytes = new byte[HEADER_SIZE];
+        try {
+            header.readFully(headerBytes);
+        } finally {
+            header.close();
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (headerBytes[i] != MAGIC[i]) throw new IOException("Not a patch: " + patch);
+        }
+        long controlLength = readOffset(headerBytes, 8);
+        long diffLength = readOffset(headerBytes, 16);
+        long newSize = readOffset(headerBytes, 24);
+        if (controlLength < 0 || diffLength < 0 || newSize < 0) {
+            throw new IOException("Corrupt patch: " + patch);
+        }
+
+        InputStream control = openBlock(patch, HEADER_SIZE);
+        InputStream diff = openBlock(patch, HEADER_SIZE + controlLength);
+        InputStream extra = openBlock(patch, HEADER_SIZE + controlLength + diffLength);
+        RandomAccessFile old = new RandomAccessFile(oldFile, "r");
+        MessageDigest digest = ChecksumService.newDigest();
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(newFile), BUFFER_SIZE);
+        try {
+            long oldSize = old.length();
+            byte[] controlBytes = new byte[24];
+            byte[] newBytes = new byte[BUFFER_SIZE];
+            byte[] oldBytes = new byte[BUFFER_SIZE];
+            long newPosition = 0;
+            long oldPosition = 0;
+
+            while (newPosition < newSize) {
+                readFully(control, controlBytes, 0, controlBytes.length);
+                long diffCount = readOffset(controlBytes, 0);
+                long extraCount = readOffset(controlBytes, 8);
+                long seek = readOffset(controlBytes, 16);
+                if (diffCount < 0 || extraCount < 0 || newPosition + diffCount + extraCount > newSize) {
+                    throw new IOException("Corrupt patch: " + patch);
+                }
+
+                // diff bytes are added to the bytes of the old file
+                while (diffCount > 0) {
+                    int count = (int) Math.min(diffCount, BUFFER_SIZE);
+                    readFully(diff, newBytes, 0, count);
+                    readOld(old, oldSize, oldPosition, oldBytes, count);
+                    for (int i = 0; i < count; i++) {
+                        newBytes[i] += oldBytes[i];
+                    }
+                    digest.update(newBytes, 0, count);
+                    output.write(newBytes, 0, count);
+                    newPosition += count;
+                    oldPosition += count;
+                    diffCount -= count;
+                }
+
+                // extra bytes are copied as they are
+                while (extraCount > 0) {
+                    int count = (int) Math.min(extraCount, BUFFER_SIZE);
+                    readFully(extra, newBytes, 0, count);
+                    digest.update(newBytes, 0, count);
+                    output.write(newBytes, 0, count);
+                    newPosition += count;
+                    extraCount -= count;
+                }
+
+                oldPosition += seek;
+            }
+        } finally {
+            output.close();
+            old.close();
+            control.close();
+            diff.close();
+            extra.close();
+        }
+        return ChecksumService.toHex(digest.digest());
+    }
+
+    /**
+     * Read count bytes of the old file at the position, bytes outside the file are 0
+     */
+    private static void readOld(RandomAccessFile old, long oldSize, long position, byte[] buffer, int count) throws IOException {
+        int start = (int) Math.max(0, Math.min(count, -position));
+        int end = (int) Math.max(0, Math.min(count, oldSize - position));
+        for (int i = 0; i < start; i++) buffer[i] = 0;
+        if (end > start) {
+            old.seek(position + start);
+            old.readFully(buffer, start, end - start);
+        }
+        for (int i = Math.max(start, end); i < count; i++) buffer[i] = 0;
+    }
+
+    private static InputStream openBlock(File patch, long offset) throws IOException {
+        FileInputStream input = new FileInputStream(patch);
+        try {
+            input.getChannel().position(offset);
+            return new GZIPInputStream(new BufferedInputStream(input, BUFFER_SIZE), BUFFER_SIZE);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    private static void readFully(InputStream input, byte[] buffer, int offset, int count) throws IOException {
+        while (count > 0) {
+            int read = input.read(buffer, offset, count);
+            if (read == -1) throw new EOFException("Patch ended early");
+            offset += read;
+            count -= read;
+        }
+    }
+
+    /**
+     * bsdiff stores numbers as 8 bytes little endian with the sign in the highest bit
+     */
+    private static long readOffset(byte[] buffer, int offset) {
+        long value = buffer[offset + 7] & 0x7F;
+        for (int i = 6; i >= 0; i--) {
+            value = (value << 8) | (buffer[offset + i] & 0xFF);
+        }
+        return (buffer[offset + 7] & 0x80) != 0 ? -value : value;
+    }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.updater;
+
+import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * UpdateDownload.java
+ * <p/>
+ * Downloads a file so it can be resumed after the connection dropped. The data is written to a .part file, a journal
+ * next to it keeps the url, the expected checksum, the validator of the server (ETag or Last-Modified) and the number
+ * of bytes that are safely on disk. A next attempt asks the server for the rest of the file with a Range request, and
+ * starts from zero when the file changed on the server.
+ * <p/>
+ * The checksum is calculated while the data is written, the file is only moved to its target when it matches the
+ * expected checksum.
+ */
+class UpdateDownload {
+
+    private static final String PART_SUFFIX = ".part";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String KEY_URL = "url";
+    private static final String KEY_CHECKSUM = "checksum";
+    private static final String KEY_VALIDATOR = "validator";
+    private static final String KEY_LENGTH = "length";
+    private static final int READ_SIZE = 64 * 1024;
+    // the journal is updated every time this many bytes were written
+    private static final long JOURNAL_INTERVAL = 1024 * 1024;
+
+    private final OkHttpClient mHttpClient;
+    private final String mUrl;
+    private final File mTarget;
+    private final File mPart;
+    private final File mJournal;
+    private final String mChecksum;
+
+    /**
+     * The downloaded file didn't match the expected checksum
+     */
+    static class ChecksumException extends IOException {
+        ChecksumException(String message) {
+            super(message);
+        }
+    }
+
+    interface Listener {
+        /**
+         * Called on a background thread
+         */
+        void onDownloaded(File file, String checksum);
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * @param httpClient Client
+     * @param url        Url of the file
+     * @param target     Location of the downloaded file
+     * @param checksum   Expected checksum of the file, or null when it isn't known
+     */
+    UpdateDownload(OkHttpClient httpClient, String url, File target, String checksum) {
+        mHttpClient = httpClient;
+        mUrl = url;
+        mTarget = target;
+        mPart = new File(target.getPath() + PART_SUFFIX);
+        mJournal = new File(target.getPath() + JOURNAL_SUFFIX);
+        mChecksum = checksum;
+    }
+
+    void start(final Listener listener) {
+        final Properties journal = readJournal();
+        long offset = 0;
+        String validator = null;
+        if (journal != null && mUrl.equals(journal.getProperty(KEY_URL)) && equals(mChecksum, journal.getProperty(KEY_CHECKSUM))) {
+            validator = journal.getProperty(KEY_VALIDATOR);
+            try {
+                offset = Math.min(Long.parseLong(journal.getProperty(KEY_LENGTH, "0")), mPart.length());
+            } catch (NumberFormatException e) {
+                offset = 0;
+            }
+        }
+        // without a validator there's no way to know the rest belongs to the same file
+        if (validator == null) {
+            offset = 0;
+        }
+
+        Request.Builder builder = new Request.Builder().url(mUrl);
+        if (offset > 0) {
+            builder.header("Range", "bytes=" + offset + "-");
+            builder.header("If-Range", validator);
+        }
+
+        final long requestedOffset = offset;
+        mHttpClient.newCall(builder.build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Request request, IOException e) {
+                listener.onFailure(e);
+            }
+
+            @Override
+            public void onResponse(Response response) throws IOException {
+                try {
+                    String checksum = write(response, requestedOffset);
+                    listener.onDownloaded(mTarget, checksum);
+                } catch (IOException e) {
+                    listener.onFailure(e);
+                } finally {
+                    response.body().close();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Checksum of the downloaded file
+     */
+    private String write(Response response, long offset) throws IOException {
+        if (response.code() == 206) {
+            String range = response.header("Content-Range");
+            if (offset == 0 || range == null || !range.startsWith("bytes " + offset + "-")) {
+                throw new IOException("Unexpected range " + range + " for " + mUrl);
+            }
+        } else if (response.isSuccessful()) {
+            // the server sent the whole file
+            offset = 0;
+        } else {
+            if (response.code() == 416) {
+                // the part is no use, the next attempt starts from zero
+                delete();
+            }
+            throw new IOException("Download of " + mUrl + " failed with " + response.code());
+        }
+
+        String validator = response.header("ETag");
+        if (validator == null) {
+            validator = response.header("Last-Modified");
+        }
+
+        RandomAccessFile part = new RandomAccessFile(mPart, "rw");
+        try {
+            part.setLength(offset);
+        } finally {
+            part.close();
+        }
+
+        MessageDigest digest = ChecksumService.newDigest();
+        if (offset > 0) {
+            ChecksumService.update(digest, mPart, offset);
+        }
+
+        long length = offset;
+        writeJournal(validator, length);
+
+        FileOutputStream output = new FileOutputStream(mPart, true);
+        try {
+            BufferedSource source = response.body().source();
+            Buffer buffer = new Buffer();
+            byte[] bytes = new byte[READ_SIZE];
+            long journaled = length;
+            long read;
+            while ((read = source.read(buffer, READ_SIZE)) != -1) {
+                while (buffer.size() > 0) {
+                    int count = buffer.read(bytes, 0, (int) Math.min(bytes.length, buffer.size()));
+                    digest.update(bytes, 0, count);
+                    output.write(bytes, 0, count);
+                }
+                length += read;
+
+                if (length - journaled >= JOURNAL_INTERVAL) {
+                    output.getFD().sync();
+                    writeJournal(validator, length);
+                    journaled = length;
+                }
+            }
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        writeJournal(validator, length);
+
+        String checksum = ChecksumService.toHex(digest.digest());
+        if (mChecksum != null && !mChecksum.equalsIgnoreCase(checksum)) {
+            delete();
+            throw new ChecksumException("Checksum of " + mUrl + " doesn't match");
+        }
+
+        if (mTarget.exists() && !mTarget.delete()) {
+            throw new IOException("Can't replace " + mTarget);
+        }
+        if (!mPart.renameTo(mTarget)) {
+            throw new IOException("Can't move " + mPart + " to " + mTarget);
+        }
+        mJournal.delete();
+        return checksum;
+    }
+
+    /**
+     * Remove the partial download and its journal
+     */
+    void delete() {
+        mPart.delete();
+        mJournal.delete();
+    }
+
+    private Properties readJournal() {
+        if (!mJournal.exists() || !mPart.exists()) return null;
+
+        Properties journal = new Properties();
+        try {
+            FileInputStream input = new FileInputStream(mJournal);
+            try {
+                journal.load(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return journal;
+    }
+
+    private void writeJournal(String validator, long length) throws IOException {
+        Properties journal = new Properties();
+        journal.setProperty(KEY_URL, mUrl);
+        if (mChecksum != null) journal.setProperty(KEY_CHECKSUM, mChecksum);
+        if (validator != null) journal.setProperty(KEY_VALIDATOR, validator);
+        journal.setProperty(KEY_LENGTH, Long.toString(length));
+
+        // write a new journal next to the old one, so a crash leaves one of them intact
+        File temp = new File(mJournal.getPath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(temp);
+        try {
+            journal.store(output, null);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!temp.renameTo(mJournal)) {
+            throw new IOException("Can't write journal " + mJournal);
+        }
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+}
@@ -28,5 +28,12 @@ public class UpdaterData {
         public String versionName;
         public String checksum;
         public String updateUrl;
+        // patches to this version, by the checksum of the APK they apply to
+        public Map<String, Delta> deltas;
+    }
+
+    public class Delta {
+        public String updateUrl;
+        public String checksum;
     }
 }
\ No newline at end of file
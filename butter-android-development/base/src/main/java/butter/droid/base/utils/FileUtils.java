@@ -20,6 +20,7 @@ package butter.droid.base.utils;
 import org.mozilla.universalchardet.Constants;
 import org.mozilla.universalchardet.UniversalDetector;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
@@ -44,6 +45,9 @@ import butter.droid.base.content.UnicodeBOMInputStream;
 
 public class FileUtils {
 
+    public static final int CHARSET_DETECTION_LIMIT = 64 * 1024;
+    private static final String TRASH_DIR = ".trash";
+
     private static HashMap<String, String> sOverrideMap;
 
     static {
@@ -103,6 +107,33 @@ public class FileUtils {
         return file.delete();
     }
 
+    /**
+     * Move a file or directory into the trash directory next to it, so the location can be used again right away. The
+     * trash is removed with {@link #emptyTrash(File)}, which can run in the background. Falls back to deleting the file
+     * when it can't be moved.
+     *
+     * @param file Location
+     */
+    public static void moveToTrash(File file) {
+        if (!file.exists()) return;
+
+        File trash = new File(file.getParentFile(), TRASH_DIR);
+        trash.mkdirs();
+        File target = new File(trash, file.getName() + "-" + System.nanoTime());
+        if (!file.renameTo(target)) {
+            recursiveDelete(file);
+        }
+    }
+
+    /**
+     * Delete everything that was moved to the trash directory in the given location
+     *
+     * @param parent Location that contains the trash directory
+     */
+    public static void emptyTrash(File parent) {
+        recursiveDelete(new File(parent, TRASH_DIR));
+    }
+
     /**
      * Get the charset of the contents of an {@link InputStream}
      *
@@ -138,12 +169,68 @@ public class FileUtils {
         }
         charsetDetector.dataEnd();
 
+        String detectedCharset = resolveCharset(charsetDetector, bomInputStream.getBOM(), languageCode);
+
+        byte[] stringBytes = byteArrayOutputStream.toByteArray();
+        Charset charset = Charset.forName(detectedCharset);
+        CharsetDecoder decoder = charset.newDecoder();
+
+        try {
+            CharBuffer charBuffer = decoder.decode(ByteBuffer.wrap(stringBytes));
+            return charBuffer.toString();
+        } catch (CharacterCodingException e) {
+            return new String(stringBytes, detectedCharset);
+        }
+    }
+
+    /**
+     * Get a {@link Reader} that decodes the contents of an {@link InputStream} with the detected charset.
+     * Unlike {@link #inputstreamToCharsetString(InputStream, String)} the contents are not loaded in memory,
+     * the charset is detected on the first {@link #CHARSET_DETECTION_LIMIT} bytes only.
+     *
+     * @param inputStream  {@link InputStream}
+     * @param languageCode Language code for charset override
+     * @return Buffered reader over the decoded contents
+     * @throws IOException
+     */
+    public static BufferedReader inputstreamToCharsetReader(InputStream inputStream, String languageCode) throws IOException {
+        UniversalDetector charsetDetector = new UniversalDetector(null);
+
+        UnicodeBOMInputStream bomInputStream = new UnicodeBOMInputStream(inputStream);
+        bomInputStream.skipBOM();
+        BufferedInputStream bufferedInputStream = new BufferedInputStream(bomInputStream, CHARSET_DETECTION_LIMIT);
+        bufferedInputStream.mark(CHARSET_DETECTION_LIMIT);
+
+        byte data[] = new byte[1024];
+        int total = 0;
+        int count;
+        while (!charsetDetector.isDone() && total < CHARSET_DETECTION_LIMIT
+                && (count = bufferedInputStream.read(data, 0, Math.min(data.length, CHARSET_DETECTION_LIMIT - total))) != -1) {
+            charsetDetector.handleData(data, 0, count);
+            total += count;
+        }
+        charsetDetector.dataEnd();
+        bufferedInputStream.reset();
+
+        String detectedCharset = resolveCharset(charsetDetector, bomInputStream.getBOM(), languageCode);
+        return new BufferedReader(new InputStreamReader(bufferedInputStream, detectedCharset));
+    }
+
+    /**
+     * Pick the charset to decode with from the detector result, the BOM and the language overrides
+     *
+     * @param charsetDetector Detector that received the data
+     * @param bom             BOM of the data
+     * @param languageCode    Language code for charset override
+     * @return Charset String name
+     */
+    private static String resolveCharset(UniversalDetector charsetDetector, UnicodeBOMInputStream.BOM bom, String languageCode) {
         String detectedCharset = charsetDetector.getDetectedCharset();
         charsetDetector.reset();
 
         if (detectedCharset == null || detectedCharset.isEmpty()) {
             // UniversalDetector can't detect the charset so try to get charset from BOM.
-            detectedCharset = getCharsetFromBOM(bomInputStream.getBOM());
+            detectedCharset = getCharsetFromBOM(bom);
         } else if ("MACCYRILLIC".equals(detectedCharset)) {
             detectedCharset = "Windows-1256";
         }
@@ -152,16 +239,7 @@ public class FileUtils {
             detectedCharset = sOverrideMap.get(languageCode);
         }
 
-        byte[] stringBytes = byteArrayOutputStream.toByteArray();
-        Charset charset = Charset.forName(detectedCharset);
-        CharsetDecoder decoder = charset.newDecoder();
-
-        try {
-            CharBuffer charBuffer = decoder.decode(ByteBuffer.wrap(stringBytes));
-            return charBuffer.toString();
-        } catch (CharacterCodingException e) {
-            return new String(stringBytes, detectedCharset);
-        }
+        return detectedCharset;
     }
 
     /**
@@ -196,11 +274,21 @@ public class FileUtils {
      * @throws IOException
      */
     public static void saveStringFile(String[] inputStr, File path) throws IOException {
-        StringBuilder stringBuilder = new StringBuilder();
-        for (String str : inputStr) {
-            stringBuilder.append(str).append("\n");
+        if (path.exists()) {
+            path.delete();
+        }
+
+        if ((path.getParentFile().mkdirs() || path.getParentFile().exists()) && (path.exists() || path.createNewFile())) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), "UTF-8"));
+            try {
+                for (String str : inputStr) {
+                    writer.write(str);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
         }
-        saveStringFile(stringBuilder.toString(), path);
     }
 
     /**
@@ -24,6 +24,8 @@ import butter.droid.base.content.ObscuredSharedPreferences;
 
 public class PrefUtils {
 
+    private static ObscuredSharedPreferences sPrefs;
+
     /**
      * Clear the central {@link ObscuredSharedPreferences}
      *
@@ -147,13 +149,17 @@ public class PrefUtils {
     }
 
     /**
-     * Get the central {@link ObscuredSharedPreferences}
+     * Get the central {@link ObscuredSharedPreferences}, the same instance is shared by the whole app so the decrypted
+     * values are only read once
      *
      * @param context Context
      * @return {@link ObscuredSharedPreferences}
      */
-    public static ObscuredSharedPreferences getPrefs(Context context) {
-        return new ObscuredSharedPreferences(context, context.getSharedPreferences(Constants.PREFS_FILE, Context.MODE_PRIVATE));
+    public static synchronized ObscuredSharedPreferences getPrefs(Context context) {
+        if (sPrefs == null) {
+            sPrefs = new ObscuredSharedPreferences(context, context.getSharedPreferences(Constants.PREFS_FILE, Context.MODE_PRIVATE));
+        }
+        return sPrefs;
     }
 
 }
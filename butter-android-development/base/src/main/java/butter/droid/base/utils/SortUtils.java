@@ -31,7 +31,7 @@ public class SortUtils {
                     int q2 = Integer.parseInt(rhs.substring(0, rhs.indexOf('p')));
                     if (q1 < q2) {
                         return 1;
-                    } else if (q1 < q2) {
+                    } else if (q1 > q2) {
                         return -1;
                     } else {
                         return 0;
@@ -39,7 +39,9 @@ public class SortUtils {
                 }
 
                 if(lhs.equals("3D"))
-                    return 1;
+                    return rhs.equals("3D") ? 0 : 1;
+                if(rhs.equals("3D"))
+                    return -1;
 
                 return 0;
             }
@@ -0,0 +1,118 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.base.subs;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Measures {@link CaptionIndex#find(long)} against a linear scan over the captions, on subtitles of 1000, 20000 and
+ * 200000 captions of which some overlap. Run the main method on a JVM or device; it prints the best time per lookup
+ * of each size side by side.
+ */
+public class CaptionIndexBenchmark {
+
+    private static final int[] SIZES = {1000, 20000, 200000};
+    private static final int LOOKUPS = 1000000;
+    // the linear scan visits every caption, this many lookups of it take about as long as all lookups of the index
+    private static final long LINEAR_CAPTIONS = 20000L * LOOKUPS / 100;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        double[] indexNs = new double[SIZES.length];
+        double[] linearNs = new double[SIZES.length];
+
+        for (int s = 0; s < SIZES.length; s++) {
+            int size = SIZES[s];
+            TreeMap<Integer, Caption> captions = createCaptions(new Random(42), size);
+            CaptionIndex index = new CaptionIndex(captions.values());
+            Caption[] linear = captions.values().toArray(new Caption[captions.size()]);
+
+            long duration = linear[linear.length - 1].end.mseconds;
+            long[] times = new long[LOOKUPS];
+            Random random = new Random(7);
+            for (int i = 0; i < LOOKUPS; i++) {
+                times[i] = (long) (random.nextDouble() * duration);
+            }
+
+            // both have to agree before their speed means anything
+            for (int i = 0; i < 10000; i++) {
+                if (index.find(times[i]) != findLinear(linear, times[i])) {
+                    throw new IllegalStateException("Different caption at " + times[i] + " of " + size);
+                }
+            }
+
+            int linearLookups = (int) Math.max(1000, LINEAR_CAPTIONS / size);
+            indexNs[s] = Double.MAX_VALUE;
+            linearNs[s] = Double.MAX_VALUE;
+
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                int found = 0;
+                for (long time : times) {
+                    if (index.find(time) != null) found++;
+                }
+                double roundIndexNs = (System.nanoTime() - start) / (double) LOOKUPS;
+
+                start = System.nanoTime();
+                for (int i = 0; i < linearLookups; i++) {
+                    if (findLinear(linear, times[i]) != null) found++;
+                }
+                double roundLinearNs = (System.nanoTime() - start) / (double) linearLookups;
+
+                System.out.printf("%d captions, round %d: index %.1f ns/lookup, linear scan %.1f ns/lookup (%d found)%n",
+                        size, round, roundIndexNs, roundLinearNs, found);
+
+                // the best round is the one least disturbed by warm up and garbage collection
+                indexNs[s] = Math.min(indexNs[s], roundIndexNs);
+                linearNs[s] = Math.min(linearNs[s], roundLinearNs);
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%10s %16s %16s %10s%n", "captions", "index ns", "linear ns", "speedup");
+        for (int s = 0; s < SIZES.length; s++) {
+            System.out.printf("%10d %16.1f %16.1f %9.0fx%n", SIZES[s], indexNs[s], linearNs[s], linearNs[s] / indexNs[s]);
+        }
+    }
+
+    private static TreeMap<Integer, Caption> createCaptions(Random random, int size) {
+        TreeMap<Integer, Caption> captions = new TreeMap<>();
+        int time = 0;
+        for (int i = 0; i < size; i++) {
+            time += 500 + random.nextInt(3000);
+            Caption caption = new Caption();
+            caption.start = new Time(time);
+            // every tenth caption stays on screen over the next ones
+            caption.end = new Time(time + 1000 + random.nextInt(i % 10 == 0 ? 8000 : 2000));
+            caption.content = "caption " + i;
+            captions.put(time, caption);
+        }
+        return captions;
+    }
+
+    private static Caption findLinear(Caption[] captions, long time) {
+        for (Caption caption : captions) {
+            if (caption.start.mseconds <= time && caption.end.mseconds >= time) {
+                return caption;
+            }
+        }
+        return null;
+    }
+
+}
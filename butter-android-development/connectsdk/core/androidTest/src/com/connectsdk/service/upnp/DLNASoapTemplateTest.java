@@ -0,0 +1,122 @@
+package com.connectsdk.service.upnp;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.connectsdk.service.DLNAService;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Checks that {@link DLNASoapTemplate#build} sends the same bytes as the DOM and Transformer serialization of the
+ * device, and measures the cost of both per command. The time and allocations per command are logged with the tag
+ * {@value #TAG}.
+ */
+public class DLNASoapTemplateTest extends AndroidTestCase {
+
+    private static final String TAG = "SoapBenchmark";
+    private static final int TEMPLATE_MESSAGES = 20000;
+    private static final int DOM_MESSAGES = 500;
+
+    public void testPlay() throws Exception {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("Speed", "1");
+
+        assertSameAsSerializer(DLNAService.AV_TRANSPORT_URN, "Play", "0", params);
+    }
+
+    public void testSeek() throws Exception {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("Unit", "REL_TIME");
+        params.put("Target", "01:02:03");
+
+        assertSameAsSerializer(DLNAService.AV_TRANSPORT_URN, "Seek", "0", params);
+    }
+
+    public void testSetAVTransportURI() throws Exception {
+        assertSameAsSerializer(DLNAService.AV_TRANSPORT_URN, "SetAVTransportURI", "0", setAVTransportURIParams());
+    }
+
+    public void testEscaping() throws Exception {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("Quotes", "\"double\" 'single'");
+        params.put("Markup", "a < b && c > d ]]>");
+        params.put("Whitespace", "tab\tline\nreturn\r\nend");
+        params.put("Control", "\u0001\u001f\u007f\u0085\u009f");
+        params.put("Unicode", "été 日本 🎬");
+        params.put("Empty", "");
+
+        assertSameAsSerializer(DLNAService.AV_TRANSPORT_URN, "SetAVTransportURI", "0", params);
+    }
+
+    public void testEmptyAction() throws Exception {
+        assertSameAsSerializer(DLNAService.AV_TRANSPORT_URN, "GetTransportInfo", null, null);
+        assertSameAsSerializer(DLNAService.RENDERING_CONTROL_URN, "GetVolume", null, new LinkedHashMap<String, String>());
+    }
+
+    public void testUnpairedSurrogate() {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("Title", "broken \ud83c");
+
+        assertNull(DLNASoapTemplate.get(DLNAService.AV_TRANSPORT_URN, "SetAVTransportURI").build("0", params));
+    }
+
+    public void testCostPerCommand() throws Exception {
+        Map<String, String> params = setAVTransportURIParams();
+        DLNASoapTemplate template = DLNASoapTemplate.get(DLNAService.AV_TRANSPORT_URN, "SetAVTransportURI");
+
+        int length = 0;
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            long start = System.nanoTime();
+            for (int i = 0; i < TEMPLATE_MESSAGES; i++) {
+                length += template.build("0", params).length();
+            }
+            log("template", System.nanoTime() - start, TEMPLATE_MESSAGES);
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            for (int i = 0; i < DOM_MESSAGES; i++) {
+                length += DLNASoapTemplate.serialize(DLNAService.AV_TRANSPORT_URN, "SetAVTransportURI", "0", params).length();
+            }
+            log("serializer", System.nanoTime() - start, DOM_MESSAGES);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+
+        assertTrue(length > 0);
+    }
+
+    private static void assertSameAsSerializer(String serviceURN, String method, String instanceId, Map<String, String> params) throws Exception {
+        assertEquals(DLNASoapTemplate.serialize(serviceURN, method, instanceId, params),
+                DLNASoapTemplate.get(serviceURN, method).build(instanceId, params));
+    }
+
+    private static Map<String, String> setAVTransportURIParams() {
+        String metadata = "<DIDL-Lite xmlns=\"urn:schemas-upnp-org:metadata-1-0/DIDL-Lite/\" "
+                + "xmlns:upnp=\"urn:schemas-upnp-org:metadata-1-0/upnp/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+                + "<item id=\"1000\" parentID=\"0\" restricted=\"0\">"
+                + "<dc:title>Tom &amp; Jerry: été 🎬</dc:title>"
+                + "<dc:description>Line one\nLine two</dc:description>"
+                + "<res protocolInfo=\"http-get:*:video/mp4:DLNA.ORG_OP=01\">http://192.168.1.2:8080/video.mp4?a=1&amp;b=2</res>"
+                + "<upnp:class>object.item.videoItem</upnp:class>"
+                + "</item></DIDL-Lite>";
+
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("CurrentURI", "http://192.168.1.2:8080/video.mp4?a=1&b=2");
+        params.put("CurrentURIMetaData", metadata);
+        return params;
+    }
+
+    private static void log(String name, long nanos, int messages) {
+        Log.i(TAG, String.format(Locale.US, "%s: %.1f us, %d allocations, %d bytes per command", name,
+                nanos / 1000.0 / messages, Debug.getThreadAllocCount() / messages,
+                Debug.getThreadAllocSize() / messages));
+    }
+}
@@ -49,6 +49,7 @@ import com.connectsdk.device.ConnectableDevice;
 import com.connectsdk.device.ConnectableDeviceListener;
 import com.connectsdk.device.ConnectableDeviceStore;
 import com.connectsdk.device.DefaultConnectableDeviceStore;
+import com.connectsdk.etc.helper.HttpConnectionPool;
 import com.connectsdk.service.DLNAService;
 import com.connectsdk.service.DeviceService;
 import com.connectsdk.service.DeviceService.PairingType;
@@ -243,6 +244,8 @@ public class DiscoveryManager implements ConnectableDeviceListener, DiscoveryPro
                         }
                         compatibleDevices.clear();
 
+                        HttpConnectionPool.getInstance().evictAll();
+
                         break;
 
                     case CONNECTING:
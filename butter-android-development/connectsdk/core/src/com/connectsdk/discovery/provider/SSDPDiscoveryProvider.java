@@ -28,23 +28,30 @@ import com.connectsdk.discovery.DiscoveryFilter;
 import com.connectsdk.discovery.DiscoveryProvider;
 import com.connectsdk.discovery.DiscoveryProviderListener;
 import com.connectsdk.discovery.provider.ssdp.SSDPClient;
+import com.connectsdk.discovery.provider.ssdp.SSDPDescriptionCache;
 import com.connectsdk.discovery.provider.ssdp.SSDPDevice;
+import com.connectsdk.discovery.provider.ssdp.SSDPDuplicateFilter;
 import com.connectsdk.discovery.provider.ssdp.SSDPPacket;
 import com.connectsdk.service.config.ServiceDescription;
 
 import org.xml.sax.SAXException;
 
 import java.io.IOException;
+import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -64,18 +71,35 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
 
     private SSDPClient ssdpClient;
 
-    private Timer scanTimer;
+    // descriptions of the devices found before, kept across network changes and restarts
+    private final SSDPDescriptionCache descriptionCache;
+
+    // sends all searches, one thread for as long as the provider runs
+    private ScheduledExecutorService scheduler;
 
     private Pattern uuidReg;
 
     private Thread responseThread;
     private Thread notifyThread;
 
+    /* Each search is sent several times, copies of a response arriving within the window are dropped */
+    private static final int SEARCH_REPEAT = 3;
+    private static final long DUPLICATE_WINDOW = RESCAN_INTERVAL / 2;
+
+    private final SSDPDuplicateFilter duplicateFilter = new SSDPDuplicateFilter(DUPLICATE_WINDOW, 256);
+
+    private final AtomicLong receivedPacketCount = new AtomicLong();
+    private final AtomicLong duplicatePacketCount = new AtomicLong();
+    private final AtomicLong receiveBufferCount = new AtomicLong();
+    private final AtomicLong threadCount = new AtomicLong();
+
     boolean isRunning = false;
 
     public SSDPDiscoveryProvider(Context context) {
         this.context = context;
 
+        descriptionCache = new SSDPDescriptionCache(context);
+
         uuidReg = Pattern.compile("(?<=uuid:)(.+?)(?=(::)|$)");
 
         serviceListeners = new CopyOnWriteArrayList<DiscoveryProviderListener>();
@@ -112,18 +136,25 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
 
         openSocket();
 
-        scanTimer = new Timer();
-        scanTimer.schedule(new TimerTask() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                threadCount.incrementAndGet();
+                return new Thread(r, "SSDP Search");
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
 
             @Override
             public void run() {
                 sendSearch();
             }
-        }, 100, RESCAN_INTERVAL);
+        }, 100, RESCAN_INTERVAL, TimeUnit.MILLISECONDS);
 
-        responseThread = new Thread(mResponseHandler);
-        notifyThread = new Thread(mRespNotifyHandler);
+        responseThread = new Thread(mResponseHandler, "SSDP Response");
+        notifyThread = new Thread(mRespNotifyHandler, "SSDP Notify");
 
+        threadCount.addAndGet(2);
         responseThread.start();
         notifyThread.start();
     }
@@ -158,9 +189,9 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
     public void stop() {
         isRunning = false;
 
-        if (scanTimer != null) {
-            scanTimer.cancel();
-            scanTimer = null;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
         }
 
         if (responseThread != null) {
@@ -190,33 +221,76 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
         stop();
         foundServices.clear();
         discoveredServices.clear();
+        duplicateFilter.clear();
     }
 
     @Override
     public void rescan() {
+        ScheduledExecutorService scheduler = this.scheduler;
+        if (scheduler == null)
+            return;
+
+        final List<String> messages = new ArrayList<String>();
         for (DiscoveryFilter searchTarget : serviceFilters) {
-            final String message = SSDPClient.getSSDPSearchMessage(searchTarget.getServiceFilter());
-
-            Timer timer = new Timer();
-            /* Send 3 times like WindowsMedia */
-            for (int i = 0; i < 3; i++) {
-                TimerTask task = new TimerTask() {
-
-                    @Override
-                    public void run() {
-                        try {
-                            if (ssdpClient != null)
-                                ssdpClient.send(message);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
+            messages.add(SSDPClient.getSSDPSearchMessage(searchTarget.getServiceFilter()));
+        }
+
+        Runnable search = new Runnable() {
+
+            @Override
+            public void run() {
+                SSDPClient client = ssdpClient;
+                if (client == null)
+                    return;
+
+                for (String message : messages) {
+                    try {
+                        client.send(message);
+                    } catch (IOException e) {
+                        e.printStackTrace();
                     }
-                };
+                }
+            }
+        };
 
-                timer.schedule(task, i * 1000);
+        /* Send 3 times like WindowsMedia */
+        try {
+            for (int i = 0; i < SEARCH_REPEAT; i++) {
+                scheduler.schedule(search, i * 1000, TimeUnit.MILLISECONDS);
             }
+        } catch (RejectedExecutionException e) {
+            // stopped in the meantime
         }
+    }
+
+    /**
+     * @return Number of SSDP packets received since the provider was created
+     */
+    public long getReceivedPacketCount() {
+        return receivedPacketCount.get();
+    }
+
+    /**
+     * @return Number of M-SEARCH responses that were dropped as copies of one received just before
+     */
+    public long getDuplicatePacketCount() {
+        return duplicatePacketCount.get();
+    }
 
+    /**
+     * @return Number of receive buffers allocated since the provider was created, two per start as they are used
+     * for every packet
+     */
+    public long getReceiveBufferCount() {
+        return receiveBufferCount.get();
+    }
+
+    /**
+     * @return Number of threads started since the provider was created, three per start whatever the number of
+     * searches
+     */
+    public long getThreadCount() {
+        return threadCount.get();
     }
 
     @Override
@@ -246,9 +320,19 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
     private Runnable mResponseHandler = new Runnable() {
         @Override
         public void run() {
-            while (ssdpClient != null) {
+            // the packet is only read while it is handled, so the buffer is used for every packet
+            DatagramPacket packet = new DatagramPacket(new byte[SSDPClient.BUFFER_SIZE], SSDPClient.BUFFER_SIZE);
+            receiveBufferCount.incrementAndGet();
+            SSDPClient client;
+            while ((client = ssdpClient) != null) {
                 try {
-                    handleSSDPPacket(new SSDPPacket(ssdpClient.responseReceive()));
+                    client.responseReceive(packet);
+                    receivedPacketCount.incrementAndGet();
+                    if (duplicateFilter.isDuplicate(packet)) {
+                        duplicatePacketCount.incrementAndGet();
+                        continue;
+                    }
+                    handleSSDPPacket(new SSDPPacket(packet));
                 } catch (IOException e) {
                     e.printStackTrace();
                     break;
@@ -263,9 +347,14 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
     private Runnable mRespNotifyHandler = new Runnable() {
         @Override
         public void run() {
-            while (ssdpClient != null) {
+            DatagramPacket packet = new DatagramPacket(new byte[SSDPClient.BUFFER_SIZE], SSDPClient.BUFFER_SIZE);
+            receiveBufferCount.incrementAndGet();
+            SSDPClient client;
+            while ((client = ssdpClient) != null) {
                 try {
-                    handleSSDPPacket(new SSDPPacket(ssdpClient.multicastReceive()));
+                    client.multicastReceive(packet);
+                    receivedPacketCount.incrementAndGet();
+                    handleSSDPPacket(new SSDPPacket(packet));
                 } catch (IOException e) {
                     e.printStackTrace();
                     break;
@@ -341,7 +430,7 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
 
                 discoveredServices.put(uuid, foundService);
 
-                getLocationData(location, uuid, serviceFilter);
+                getLocationData(location, uuid, serviceFilter, ssdpPacket.getData().get("BOOTID.UPNP.ORG"), ssdpPacket.getData().get("CONFIGID.UPNP.ORG"));
             }
 
             if (foundService != null)
@@ -350,63 +439,114 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
     }
 
     public void getLocationData(final String location, final String uuid, final String serviceFilter) {
+        getLocationData(location, uuid, serviceFilter, null, null);
+    }
+
+    public void getLocationData(final URL location, final String uuid, final String serviceFilter) {
+        getLocationData(location, uuid, serviceFilter, null, null);
+    }
+
+    public void getLocationData(final String location, final String uuid, final String serviceFilter, final String bootId, final String configId) {
         try {
-            getLocationData(new URL(location), uuid, serviceFilter);
+            getLocationData(new URL(location), uuid, serviceFilter, bootId, configId);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public void getLocationData(final URL location, final String uuid, final String serviceFilter) {
+    /**
+     * Get the description of the device from the cache, or download it when it isn't cached. A cached description is
+     * checked with the device after the service has been added.
+     */
+    public void getLocationData(final URL location, final String uuid, final String serviceFilter, final String bootId, final String configId) {
         Util.runInBackground(new Runnable() {
 
             @Override
             public void run() {
-                SSDPDevice device = null;
-                try {
-                    device = new SSDPDevice(location, serviceFilter);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } catch (ParserConfigurationException e) {
-                    e.printStackTrace();
-                } catch (SAXException e) {
-                    e.printStackTrace();
+                SSDPDevice device = descriptionCache.get(uuid, location, bootId, configId, serviceFilter);
+                boolean cached = device != null;
+
+                if (!cached) {
+                    try {
+                        device = new SSDPDevice(location, serviceFilter);
+                        descriptionCache.put(uuid, location, bootId, configId, device);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } catch (ParserConfigurationException e) {
+                        e.printStackTrace();
+                    } catch (SAXException e) {
+                        e.printStackTrace();
+                    }
                 }
 
                 if (device != null) {
-                    device.UUID = uuid;
-                    boolean hasServices = containsServicesWithFilter(device, serviceFilter);
-
-                    if (hasServices) {
-                        final ServiceDescription service = discoveredServices.get(uuid);
-
-                        if (service != null) {
-                            service.setServiceFilter(serviceFilter);
-                            service.setFriendlyName(device.friendlyName);
-                            service.setModelName(device.modelName);
-                            service.setModelNumber(device.modelNumber);
-                            service.setModelDescription(device.modelDescription);
-                            service.setManufacturer(device.manufacturer);
-                            service.setApplicationURL(device.applicationURL);
-                            service.setServiceList(device.serviceList);
-                            service.setResponseHeaders(device.headers);
-                            service.setLocationXML(device.locationXML);
-                            service.setServiceURI(device.serviceURI);
-                            service.setPort(device.port);
-
-                            foundServices.put(uuid, service);
-
-                            notifyListenersOfNewService(service);
-                        }
+                    final ServiceDescription service = discoveredServices.get(uuid);
+
+                    if (service != null && setDevice(service, device, uuid, serviceFilter)) {
+                        foundServices.put(uuid, service);
+
+                        notifyListenersOfNewService(service);
                     }
                 }
 
                 discoveredServices.remove(uuid);
+
+                if (cached && descriptionCache.needsRevalidation(uuid)) {
+                    revalidateLocationData(location, uuid, serviceFilter);
+                }
             }
         }, true);
 
     }
 
+    private void revalidateLocationData(URL location, String uuid, String serviceFilter) {
+        SSDPDevice device = null;
+        try {
+            device = descriptionCache.revalidate(uuid, location, serviceFilter);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (ParserConfigurationException e) {
+            e.printStackTrace();
+        } catch (SAXException e) {
+            e.printStackTrace();
+        }
+
+        if (device == null)
+            return;
+
+        // the description has changed since it was cached
+        ServiceDescription service = foundServices.get(uuid);
+
+        if (service != null && setDevice(service, device, uuid, serviceFilter)) {
+            notifyListenersOfNewService(service);
+        }
+    }
+
+    /**
+     * @return false when the device doesn't have the services of the filter
+     */
+    private boolean setDevice(ServiceDescription service, SSDPDevice device, String uuid, String serviceFilter) {
+        device.UUID = uuid;
+        boolean hasServices = containsServicesWithFilter(device, serviceFilter);
+
+        if (hasServices) {
+            service.setServiceFilter(serviceFilter);
+            service.setFriendlyName(device.friendlyName);
+            service.setModelName(device.modelName);
+            service.setModelNumber(device.modelNumber);
+            service.setModelDescription(device.modelDescription);
+            service.setManufacturer(device.manufacturer);
+            service.setApplicationURL(device.applicationURL);
+            service.setServiceList(device.serviceList);
+            service.setResponseHeaders(device.headers);
+            service.setLocationXML(device.locationXML);
+            service.setServiceURI(device.serviceURI);
+            service.setPort(device.port);
+        }
+
+        return hasServices;
+    }
+
     private void notifyListenersOfNewService(ServiceDescription service) {
         List<String> serviceIds = serviceIdsForFilter(service.getServiceFilter());
 
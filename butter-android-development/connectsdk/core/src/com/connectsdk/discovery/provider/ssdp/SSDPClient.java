@@ -37,6 +37,9 @@ public class SSDPClient {
     public static final String MULTICAST_ADDRESS = "239.255.255.250";
     public static final int PORT = 1900;
 
+    /* Size of the buffer a packet is received in, larger packets are truncated */
+    public static final int BUFFER_SIZE = 2048;
+
     /* Definitions of start line */
     public static final String NOTIFY = "NOTIFY * HTTP/1.1";
     public static final String MSEARCH = "M-SEARCH * HTTP/1.1";
@@ -93,24 +96,36 @@ public class SSDPClient {
 
     /** Used to receive SSDP Response packet */
     public DatagramPacket responseReceive() throws IOException {
-        byte[] buf = new byte[1024];
-        DatagramPacket dp = new DatagramPacket(buf, buf.length);
+        DatagramPacket dp = new DatagramPacket(new byte[BUFFER_SIZE], BUFFER_SIZE);
 
-        datagramSocket.receive(dp);
+        responseReceive(dp);
 
         return dp;
     }
 
+    /** Used to receive SSDP Response packet in a packet that is reused */
+    public void responseReceive(DatagramPacket dp) throws IOException {
+        dp.setLength(dp.getData().length - dp.getOffset());
+
+        datagramSocket.receive(dp);
+    }
+
     /** Used to receive SSDP Multicast packet */
     public DatagramPacket multicastReceive() throws IOException {
-        byte[] buf = new byte[1024];
-        DatagramPacket dp = new DatagramPacket(buf, buf.length);
+        DatagramPacket dp = new DatagramPacket(new byte[BUFFER_SIZE], BUFFER_SIZE);
 
-        multicastSocket.receive(dp);
+        multicastReceive(dp);
 
         return dp;
     }
 
+    /** Used to receive SSDP Multicast packet in a packet that is reused */
+    public void multicastReceive(DatagramPacket dp) throws IOException {
+        dp.setLength(dp.getData().length - dp.getOffset());
+
+        multicastSocket.receive(dp);
+    }
+
 //    /** Starts the socket */
 //    public void start() {
 //    
@@ -0,0 +1,401 @@
+/*
+ * SSDPDescriptionCache
+ * Connect SDK
+ *
+ * Copyright (c) 2014 LG Electronics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.connectsdk.discovery.provider.ssdp;
+
+import android.content.Context;
+
+import com.connectsdk.core.Util;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.xml.sax.SAXException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Device descriptions downloaded during SSDP discovery, stored in a file next to the one of
+ * DefaultConnectableDeviceStore. A description is used again for a device that is found with the same UUID,
+ * LOCATION, BOOTID.UPNP.ORG and CONFIGID.UPNP.ORG, so known devices are back right after the network reconnects.
+ * The description is checked with the device afterwards, with a conditional request when the device sent an ETag or
+ * Last-Modified.
+ */
+public class SSDPDescriptionCache {
+    static final int CURRENT_VERSION = 0;
+
+    static final String FILENAME = "StoredDescriptions";
+
+    static final String KEY_VERSION = "version";
+    static final String KEY_DESCRIPTIONS = "descriptions";
+
+    static final String UUID = "uuid";
+    static final String LOCATION = "location";
+    static final String BOOT_ID = "bootId";
+    static final String CONFIG_ID = "configId";
+    static final String LOCATION_XML = "locationXML";
+    static final String APPLICATION_URL = "applicationURL";
+    static final String HEADERS = "headers";
+    static final String VALIDATED = "validated";
+
+    static final int MAX_DESCRIPTIONS = 64;
+
+    // a description without CONFIGID, ETag or Last-Modified is downloaded again once it's this old
+    static final long MAX_AGE = TimeUnit.DAYS.toMillis(1);
+
+    private final String fileFullPath;
+
+    private final Map<String, Description> descriptions = new ConcurrentHashMap<String, Description>();
+
+    private boolean waitToWrite = false;
+    private long updated;
+
+    public SSDPDescriptionCache(Context context) {
+        fileFullPath = context.getApplicationInfo().dataDir + "/" + FILENAME;
+
+        load();
+    }
+
+    /**
+     * @return Device from the cached description, null when no description of the device is cached or the device
+     * announced a different one
+     */
+    public SSDPDevice get(String uuid, URL location, String bootId, String configId, String ST) {
+        Description description = descriptions.get(uuid);
+
+        if (description == null || !description.matches(location.toString(), bootId, configId))
+            return null;
+
+        try {
+            return new SSDPDevice(location, ST, description.locationXML, description.applicationURL, description.headers);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (ParserConfigurationException e) {
+            e.printStackTrace();
+        } catch (SAXException e) {
+            e.printStackTrace();
+        }
+
+        // the cached description is broken, download it again
+        descriptions.remove(uuid);
+        store();
+
+        return null;
+    }
+
+    /**
+     * @return true when the cached description of the device has to be checked with the device
+     */
+    public boolean needsRevalidation(String uuid) {
+        Description description = descriptions.get(uuid);
+
+        return description != null && description.needsRevalidation();
+    }
+
+    /**
+     * Check the cached description with the device, and download it again when it has changed. The DIAL
+     * Application-URL is sent as a header, a device can change it without changing its description.
+     *
+     * @return Device when the description or its Application-URL has changed, null when they're the same
+     */
+    public SSDPDevice revalidate(String uuid, URL location, String ST) throws IOException, ParserConfigurationException, SAXException {
+        Description description = descriptions.get(uuid);
+
+        if (description == null)
+            return SSDPDevice.revalidate(location, ST, null, null);
+
+        SSDPDevice device = SSDPDevice.revalidate(location, ST, description.getHeader("ETag"), description.getHeader("Last-Modified"));
+
+        if (device == null || (description.locationXML.equals(device.locationXML)
+                && Description.equals(description.applicationURL, device.applicationURL))) {
+            description.validated = System.currentTimeMillis();
+            if (device != null)
+                description.headers = copyHeaders(device.headers);
+
+            store();
+
+            return null;
+        }
+
+        put(uuid, location, description.bootId, description.configId, device);
+
+        return device;
+    }
+
+    public void put(String uuid, URL location, String bootId, String configId, SSDPDevice device) {
+        if (device.locationXML == null)
+            return;
+
+        Description description = new Description();
+        description.location = location.toString();
+        description.bootId = bootId;
+        description.configId = configId;
+        description.locationXML = device.locationXML;
+        description.applicationURL = device.applicationURL;
+        description.headers = copyHeaders(device.headers);
+        description.validated = System.currentTimeMillis();
+
+        descriptions.put(uuid, description);
+
+        trim();
+        store();
+    }
+
+    public void removeAll() {
+        descriptions.clear();
+
+        store();
+    }
+
+    private void trim() {
+        while (descriptions.size() > MAX_DESCRIPTIONS) {
+            String oldest = null;
+            long oldestValidated = Long.MAX_VALUE;
+
+            for (Map.Entry<String, Description> entry : descriptions.entrySet()) {
+                if (entry.getValue().validated < oldestValidated) {
+                    oldest = entry.getKey();
+                    oldestValidated = entry.getValue().validated;
+                }
+            }
+
+            if (oldest == null)
+                return;
+
+            descriptions.remove(oldest);
+        }
+    }
+
+    /**
+     * Copy of the response headers without the status line, looked up like the headers of a connection
+     */
+    private static Map<String, List<String>> copyHeaders(Map<String, List<String>> headers) {
+        Map<String, List<String>> copy = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null)
+                    copy.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+            }
+        }
+
+        return copy;
+    }
+
+    private void load() {
+        File file = new File(fileFullPath);
+
+        if (!file.exists())
+            return;
+
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new FileReader(file));
+
+            StringBuilder sb = new StringBuilder();
+            String line;
+
+            while ((line = in.readLine()) != null) {
+                sb.append(line);
+            }
+
+            JSONObject data = new JSONObject(sb.toString());
+            JSONArray descriptionArray = data.optJSONArray(KEY_DESCRIPTIONS);
+
+            if (descriptionArray != null) {
+                for (int i = 0; i < descriptionArray.length(); i++) {
+                    JSONObject json = descriptionArray.getJSONObject(i);
+                    descriptions.put(json.getString(UUID), new Description(json));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (JSONException e) {
+            e.printStackTrace();
+
+            // the cache has been corrupted, the descriptions are downloaded again
+            descriptions.clear();
+            file.delete();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private synchronized void store() {
+        // counted rather than timed, two updates within a millisecond are both written
+        updated++;
+
+        writeCacheToDisk();
+    }
+
+    private synchronized void writeCacheToDisk() {
+        // a write is running, it writes again when the cache was updated meanwhile
+        if (waitToWrite)
+            return;
+
+        final long lastUpdate = updated;
+        waitToWrite = true;
+
+        Util.runInBackground(new Runnable() {
+
+            @Override
+            public void run() {
+                boolean changed = false;
+
+                try {
+                    JSONObject cache = new JSONObject();
+                    JSONArray descriptionArray = new JSONArray();
+
+                    for (Map.Entry<String, Description> entry : descriptions.entrySet()) {
+                        descriptionArray.put(entry.getValue().toJSONObject(entry.getKey()));
+                    }
+
+                    cache.put(KEY_VERSION, CURRENT_VERSION);
+                    cache.put(KEY_DESCRIPTIONS, descriptionArray);
+
+                    File output = new File(fileFullPath);
+
+                    if (!output.exists())
+                        output.getParentFile().mkdirs();
+
+                    FileWriter out = new FileWriter(output);
+                    out.write(cache.toString());
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                } finally {
+                    synchronized (SSDPDescriptionCache.this) {
+                        waitToWrite = false;
+                        changed = lastUpdate < updated;
+                    }
+                }
+
+                if (changed)
+                    writeCacheToDisk();
+            }
+        }, true);
+    }
+
+    static class Description {
+        String location;
+        String bootId;
+        String configId;
+        String locationXML;
+        String applicationURL;
+        Map<String, List<String>> headers;
+        long validated;
+
+        Description() {
+        }
+
+        Description(JSONObject json) throws JSONException {
+            location = json.getString(LOCATION);
+            bootId = json.isNull(BOOT_ID) ? null : json.getString(BOOT_ID);
+            configId = json.isNull(CONFIG_ID) ? null : json.getString(CONFIG_ID);
+            locationXML = json.getString(LOCATION_XML);
+            applicationURL = json.isNull(APPLICATION_URL) ? null : json.getString(APPLICATION_URL);
+            validated = json.optLong(VALIDATED, 0);
+
+            headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+            JSONObject headersJSON = json.optJSONObject(HEADERS);
+
+            if (headersJSON != null) {
+                Iterator<?> names = headersJSON.keys();
+
+                while (names.hasNext()) {
+                    String name = (String) names.next();
+                    JSONArray valuesJSON = headersJSON.getJSONArray(name);
+                    List<String> values = new ArrayList<String>(valuesJSON.length());
+
+                    for (int i = 0; i < valuesJSON.length(); i++) {
+                        values.add(valuesJSON.getString(i));
+                    }
+
+                    headers.put(name, values);
+                }
+            }
+        }
+
+        JSONObject toJSONObject(String uuid) throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put(UUID, uuid);
+            json.put(LOCATION, location);
+            json.putOpt(BOOT_ID, bootId);
+            json.putOpt(CONFIG_ID, configId);
+            json.put(LOCATION_XML, locationXML);
+            json.putOpt(APPLICATION_URL, applicationURL);
+            json.put(VALIDATED, validated);
+
+            JSONObject headersJSON = new JSONObject();
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                headersJSON.put(entry.getKey(), new JSONArray(entry.getValue()));
+            }
+            json.put(HEADERS, headersJSON);
+
+            return json;
+        }
+
+        boolean matches(String location, String bootId, String configId) {
+            return this.location.equals(location) && equals(this.bootId, bootId) && equals(this.configId, configId);
+        }
+
+        /**
+         * A conditional request is cheap, so a description with an ETag or Last-Modified is always checked. A device
+         * that announces a CONFIGID changes it with its description, other descriptions are trusted for a while.
+         */
+        boolean needsRevalidation() {
+            if (getHeader("ETag") != null || getHeader("Last-Modified") != null)
+                return true;
+
+            return configId == null && System.currentTimeMillis() - validated >= MAX_AGE;
+        }
+
+        String getHeader(String name) {
+            List<String> values = headers.get(name);
+
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
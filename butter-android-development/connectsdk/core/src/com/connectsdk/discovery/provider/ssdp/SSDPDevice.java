@@ -24,6 +24,7 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
@@ -83,6 +84,25 @@ public class SSDPDevice {
     }
 
     public SSDPDevice(URL urlObject, String ST) throws IOException, ParserConfigurationException, SAXException {
+        this(urlObject);
+
+        parse(urlObject);
+    }
+
+    /**
+     * Device from a description that was downloaded before
+     */
+    public SSDPDevice(URL urlObject, String ST, String locationXML, String applicationURL, Map<String, List<String>> headers) throws ParserConfigurationException, SAXException, IOException {
+        this(urlObject);
+
+        this.locationXML = locationXML;
+        this.applicationURL = applicationURL;
+        this.headers = headers;
+
+        parseDescription();
+    }
+
+    private SSDPDevice(URL urlObject) {
         if (urlObject.getPort() == -1) {
             baseURL = String.format("%s://%s", urlObject.getProtocol(), urlObject.getHost());
         } else {
@@ -93,18 +113,39 @@ public class SSDPDevice {
         UUID = null;
 
         serviceURI = String.format("%s://%s",  urlObject.getProtocol(), urlObject.getHost());
+    }
 
-        parse(urlObject);
+    /**
+     * Download the description again, unless the device answers that it hasn't changed since it was downloaded
+     *
+     * @param eTag         ETag of the description that was downloaded before, may be null
+     * @param lastModified Last-Modified of the description that was downloaded before, may be null
+     * @return Device, or null when the description hasn't changed
+     */
+    public static SSDPDevice revalidate(URL urlObject, String ST, String eTag, String lastModified) throws IOException, ParserConfigurationException, SAXException {
+        SSDPDevice device = new SSDPDevice(urlObject);
+
+        return device.parse(urlObject, eTag, lastModified) ? device : null;
     }
 
     public void parse(URL url) throws IOException, ParserConfigurationException, SAXException {
-        SAXParserFactory factory = SAXParserFactory.newInstance();
-        SAXParser saxParser;
-
-        SSDPDeviceDescriptionParser parser = new SSDPDeviceDescriptionParser(this);
+        parse(url, null, null);
+    }
 
+    private boolean parse(URL url, String eTag, String lastModified) throws IOException, ParserConfigurationException, SAXException {
         URLConnection urlConnection = url.openConnection();
 
+        if (eTag != null)
+            urlConnection.setRequestProperty("If-None-Match", eTag);
+        if (lastModified != null)
+            urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+
+        if (urlConnection instanceof HttpURLConnection
+                && ((HttpURLConnection) urlConnection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            ((HttpURLConnection) urlConnection).disconnect();
+            return false;
+        }
+
         applicationURL = urlConnection.getHeaderField("Application-URL");
         if (applicationURL != null && !applicationURL.substring(applicationURL.length() - 1).equals("/")) {
             applicationURL = applicationURL.concat("/");
@@ -116,8 +157,7 @@ public class SSDPDevice {
             s = new Scanner(in).useDelimiter("\\A");
             locationXML = s.hasNext() ? s.next() : "";
 
-            saxParser = factory.newSAXParser();
-            saxParser.parse(new ByteArrayInputStream(locationXML.getBytes()), parser);
+            parseDescription();
         } finally {
             in.close();
             if (s != null)
@@ -125,6 +165,16 @@ public class SSDPDevice {
         }
 
         headers = urlConnection.getHeaderFields();
+        return true;
+    }
+
+    private void parseDescription() throws ParserConfigurationException, SAXException, IOException {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        SAXParser saxParser = factory.newSAXParser();
+
+        SSDPDeviceDescriptionParser parser = new SSDPDeviceDescriptionParser(this);
+
+        saxParser.parse(new ByteArrayInputStream(locationXML.getBytes()), parser);
     }
 
     @Override
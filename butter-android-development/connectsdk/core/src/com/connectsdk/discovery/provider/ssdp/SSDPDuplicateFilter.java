@@ -0,0 +1,195 @@
+/*
+ * SSDPDuplicateFilter
+ * Connect SDK
+ *
+ * Copyright (c) 2014 LG Electronics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.connectsdk.discovery.provider.ssdp;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recognizes packets that were already received from the same address a moment ago. Devices answer every M-SEARCH,
+ * which is sent several times per search, so most responses are copies of one received just before.
+ * Packets are compared by a hash of their source address and the headers that identify what they announce, USN, ST,
+ * LOCATION and BOOTID.UPNP.ORG. Headers like DATE change between the copies and are left out.
+ */
+public class SSDPDuplicateFilter {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final Charset ASCII_CHARSET = Charset.forName("US-ASCII");
+
+    // headers of the key
+    private static final byte[][] KEY_HEADERS = {
+            "USN".getBytes(ASCII_CHARSET),
+            "ST".getBytes(ASCII_CHARSET),
+            "LOCATION".getBytes(ASCII_CHARSET),
+            "BOOTID.UPNP.ORG".getBytes(ASCII_CHARSET)
+    };
+    private static final int USN = 0;
+
+    private final long window;
+    private final int capacity;
+
+    // time a packet was first seen by its hash, oldest first
+    private final LinkedHashMap<Long, Long> seen = new LinkedHashMap<Long, Long>();
+
+    /**
+     * @param window   Time in milliseconds during which a copy of a packet is a duplicate
+     * @param capacity Maximum number of packets to remember
+     */
+    public SSDPDuplicateFilter(long window, int capacity) {
+        this.window = window;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return true when a packet with the same key was received from the same address within the window
+     */
+    public synchronized boolean isDuplicate(DatagramPacket packet) {
+        long now = System.currentTimeMillis();
+
+        Iterator<Map.Entry<Long, Long>> iterator = seen.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Long> entry = iterator.next();
+            if (entry.getValue() > now - window && seen.size() < capacity) {
+                break;
+            }
+            iterator.remove();
+        }
+
+        Long hash = hash(packet);
+        if (seen.containsKey(hash)) {
+            return true;
+        }
+
+        seen.put(hash, now);
+        return false;
+    }
+
+    public synchronized void clear() {
+        seen.clear();
+    }
+
+    /**
+     * Hash of the source address and the values of the key headers. A packet without a USN can't be told apart from
+     * other packets of the device by its headers, all of its content is hashed then.
+     */
+    private static long hash(DatagramPacket packet) {
+        long hash = FNV_OFFSET_BASIS;
+
+        InetAddress address = packet.getAddress();
+        if (address != null) {
+            for (byte b : address.getAddress()) {
+                hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+            }
+        }
+
+        byte[] data = packet.getData();
+        int start = packet.getOffset();
+        int end = start + packet.getLength();
+
+        // the headers may come in any order, each one is hashed on its own and the hashes are added up
+        long headers = 0;
+        boolean foundUSN = false;
+
+        // the start line is skipped
+        int pos = indexOf(data, (byte) '\n', start, end) + 1;
+        while (pos > 0 && pos < end) {
+            int eolPos = indexOf(data, (byte) '\n', pos, end);
+            int lineEnd = eolPos == -1 ? end : eolPos;
+            int colon = indexOf(data, (byte) ':', pos, lineEnd);
+
+            if (colon != -1) {
+                int header = keyHeader(data, pos, colon);
+                if (header != -1) {
+                    int valueStart = colon + 1;
+                    while (valueStart < lineEnd && (data[valueStart] & 0xff) <= ' ')
+                        valueStart++;
+                    int valueEnd = lineEnd;
+                    while (valueEnd > valueStart && (data[valueEnd - 1] & 0xff) <= ' ')
+                        valueEnd--;
+
+                    headers += fnv((FNV_OFFSET_BASIS ^ header) * FNV_PRIME, data, valueStart, valueEnd);
+                    foundUSN |= header == USN;
+                }
+            }
+
+            pos = eolPos + 1;
+        }
+
+        if (!foundUSN) {
+            hash = (hash ^ packet.getPort()) * FNV_PRIME;
+            return fnv(hash, data, start, end);
+        }
+
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash = (hash ^ ((headers >>> shift) & 0xff)) * FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    private static long fnv(long hash, byte[] data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ (data[i] & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static int indexOf(byte[] data, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == b)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return Index of the key header with the name, compared without case and surrounding spaces, -1 for other headers
+     */
+    private static int keyHeader(byte[] data, int from, int to) {
+        while (from < to && (data[from] & 0xff) <= ' ')
+            from++;
+        while (to > from && (data[to - 1] & 0xff) <= ' ')
+            to--;
+
+        for (int header = 0; header < KEY_HEADERS.length; header++) {
+            byte[] name = KEY_HEADERS[header];
+            if (name.length != to - from)
+                continue;
+
+            int i = 0;
+            while (i < name.length) {
+                int c = data[from + i];
+                if (c >= 'a' && c <= 'z')
+                    c -= 'a' - 'A';
+                if (c != name[i])
+                    break;
+                i++;
+            }
+            if (i == name.length)
+                return header;
+        }
+        return -1;
+    }
+}
@@ -31,60 +31,67 @@ public class SSDPPacket {
     String type;
     Charset ASCII_CHARSET = Charset.forName("US-ASCII");
 
+    /**
+     * Parse the start line and headers of the packet. Only the received bytes are read, header names are upper
+     * cased and values trimmed.
+     */
     public SSDPPacket(DatagramPacket datagramPacket) {
         this.datagramPacket = datagramPacket;
 
-        String text = new String(datagramPacket.getData(), ASCII_CHARSET);
+        byte[] bytes = datagramPacket.getData();
+        int pos = datagramPacket.getOffset();
+        int end = pos + datagramPacket.getLength();
 
-        int pos = 0;
-
-        String CRLF = "\r\n";
-        String LF = "\n";
-        int eolPos;
-
-        if ((eolPos = text.indexOf(CRLF)) != -1) {
-            pos = eolPos + CRLF.length();
-        }
-        else if ((eolPos = text.indexOf(LF)) != -1) {
-            pos = eolPos + LF.length();
-        }
-        else 
+        int eolPos = indexOf(bytes, (byte) '\n', pos, end);
+        if (eolPos == -1)
             return;
 
         // Get first line
-        type = text.substring(0, eolPos);
+        type = new String(bytes, pos, trimCR(bytes, pos, eolPos) - pos, ASCII_CHARSET);
+        pos = eolPos + 1;
 
-        while (pos < text.length()) {
-            String line;
-            if ((eolPos = text.indexOf(CRLF, pos)) != -1) {
-                line = text.substring(pos, eolPos);
-                pos = eolPos + CRLF.length();
-            }
-            else if ((eolPos = text.indexOf(LF, pos)) != -1) {
-                line = text.substring(pos, eolPos);
-                pos = eolPos + LF.length();
-            }
-            else 
+        while (pos < end) {
+            eolPos = indexOf(bytes, (byte) '\n', pos, end);
+            if (eolPos == -1)
                 break;
 
-            int index = line.indexOf(':');
-            if (index == -1) {
-                continue;
+            int lineEnd = trimCR(bytes, pos, eolPos);
+            int index = indexOf(bytes, (byte) ':', pos, lineEnd);
+            if (index != -1) {
+                String key = asciiUpper(bytes, pos, index);
+
+                int valueStart = index + 1;
+                while (valueStart < lineEnd && (bytes[valueStart] & 0xff) <= ' ')
+                    valueStart++;
+                int valueEnd = lineEnd;
+                while (valueEnd > valueStart && (bytes[valueEnd - 1] & 0xff) <= ' ')
+                    valueEnd--;
+
+                data.put(key, new String(bytes, valueStart, valueEnd - valueStart, ASCII_CHARSET));
             }
 
-            String key = asciiUpper(line.substring(0, index));
-            String value = line.substring(index + 1).trim();
+            pos = eolPos + 1;
+        }
+    }
 
-            data.put(key, value);
+    private static int indexOf(byte[] bytes, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b)
+                return i;
         }
+        return -1;
+    }
+
+    private static int trimCR(byte[] bytes, int from, int eolPos) {
+        return eolPos > from && bytes[eolPos - 1] == '\r' ? eolPos - 1 : eolPos;
     }
 
     // Fast toUpperCase for ASCII strings
-    private static String asciiUpper(String text) {
-        char [] chars = text.toCharArray();
+    private static String asciiUpper(byte[] bytes, int from, int to) {
+        char [] chars = new char[to - from];
 
         for (int i = 0; i < chars.length; i++) {
-            char c = chars[i];
+            char c = bytes[from + i] < 0 ? '\uFFFD' : (char) bytes[from + i];
             chars[i] = (c >= 97 && c <= 122) ? (char) (c - 32) : c;
         }
 
@@ -21,31 +21,40 @@ package com.connectsdk.etc.helper;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 import java.net.ProtocolException;
-import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * HTTP connection implementation based on this article
  * http://android-developers.blogspot.com/2011/09/androids-http-clients.html
  * Also DefaultHttpClient has been deprecated since Android 5.1
+ *
+ * Plain HTTP requests go over the kept-alive connections of {@link HttpConnectionPool}.
  */
 public abstract class HttpConnection {
 
     public static HttpConnection newInstance(URI uri) throws IOException {
+        if ("http".equalsIgnoreCase(uri.getScheme())) {
+            return new PooledConnectionClient(uri);
+        }
         return new HttpURLConnectionClient(uri);
     }
 
     public static HttpConnection newSubscriptionInstance(URI uri) throws IOException {
-        return new CustomConnectionClient(uri);
+        return new PooledConnectionClient(uri);
     }
 
     public abstract void setMethod(Method method) throws ProtocolException;
@@ -152,18 +161,30 @@ public abstract class HttpConnection {
         }
     }
 
-    private static class CustomConnectionClient extends HttpConnection {
+    /**
+     * Client that sends the request over a connection of {@link HttpConnectionPool} and keeps the connection open
+     * for the next request to the same host when the server allows it. The response is read as bytes and framed by
+     * its Content-Length or chunked encoding.
+     */
+    private static class PooledConnectionClient extends HttpConnection {
+
+        private static final Charset HEADER_CHARSET = Charset.forName("ISO-8859-1");
+        private static final int MAX_LINE_LENGTH = 8 * 1024;
 
         private final URI uri;
-        private Method method;
-        private String payload;
+        private final String host;
+        private final int port;
+        private Method method = Method.GET;
+        private byte[] payload;
         private Map<String, String> headers = new LinkedHashMap<String, String>();
         private int code;
         private String response;
-        private Map<String, String> responseHeaders = new HashMap<String, String>();
+        private Map<String, String> responseHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
 
-        private CustomConnectionClient(URI uri) {
+        private PooledConnectionClient(URI uri) {
             this.uri = uri;
+            this.host = uri.getHost();
+            this.port = uri.getPort() > 0 ? uri.getPort() : 80;
         }
 
         @Override
@@ -183,76 +204,298 @@ public abstract class HttpConnection {
 
         @Override
         public void execute() throws IOException {
-            int port = uri.getPort() > 0 ? uri.getPort() : 80;
-            Socket socket = new Socket(uri.getHost(), port);
-            PrintWriter writer =
-                    new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
-            BufferedReader reader =
-                    new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-            // send request
-            writer.print(method.name());
-            writer.print(" ");
-            writer.print(uri.getPath());
-            writer.print(uri.getQuery().isEmpty() ? "" : "?" + uri.getQuery());
-            writer.print(" HTTP/1.1\r\n");
-
-            writer.print("Host:");
-            writer.print(uri.getHost());
-            writer.print(":");
-            writer.print(port);
-            writer.print("\r\n");
+            HttpConnectionPool pool = HttpConnectionPool.getInstance();
+            byte[] request = buildRequest();
+
+            while (true) {
+                HttpConnectionPool.Connection connection = pool.acquire(host, port);
+                long start = System.currentTimeMillis();
+                boolean responseStarted = false;
+                try {
+                    connection.output.write(request);
+                    if (payload != null) {
+                        connection.output.write(payload);
+                    }
+                    connection.output.flush();
+
+                    if (!awaitResponse(connection.input)) {
+                        throw new EOFException("Connection closed before the response");
+                    }
+                    responseStarted = true;
+
+                    String statusLine = readStatusLine(connection.input);
+                    if (statusLine == null) {
+                        throw new EOFException("Connection closed before the response");
+                    }
+                    long keepAlive = readResponse(connection.input, statusLine);
+
+                    pool.recordRequest(host, System.currentTimeMillis() - start, connection.reused, false);
+                    pool.release(connection, keepAlive);
+                    return;
+                } catch (IOException e) {
+                    connection.close();
+                    if (connection.reused && !responseStarted && !(e instanceof SocketTimeoutException)) {
+                        // the server closed the idle connection in the meantime, it was closed or reset without a
+                        // byte of a response, so the request didn't reach it. Try again on a new one, whatever the
+                        // method.
+                        continue;
+                    }
+                    pool.recordRequest(host, System.currentTimeMillis() - start, connection.reused, true);
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * Wait for the first byte of the response, it's left in the stream
+         *
+         * @return false when the connection was closed before a byte of the response arrived
+         */
+        private static boolean awaitResponse(InputStream input) throws IOException {
+            input.mark(1);
+            if (input.read() == -1) {
+                return false;
+            }
+            input.reset();
+            return true;
+        }
+
+        private byte[] buildRequest() {
+            StringBuilder sb = new StringBuilder(256);
+            String path = uri.getRawPath();
+            String query = uri.getRawQuery();
+            sb.append(method.name()).append(' ');
+            sb.append(path == null || path.isEmpty() ? "/" : path);
+            if (query != null && !query.isEmpty()) {
+                sb.append('?').append(query);
+            }
+            sb.append(" HTTP/1.1\r\n");
 
+            sb.append("Host: ").append(host).append(':').append(port).append("\r\n");
+            if (getHeader("User-Agent") == null) {
+                String agent = System.getProperty("http.agent");
+                if (agent != null) {
+                    sb.append("User-Agent: ").append(agent).append("\r\n");
+                }
+            }
+            if (payload != null && getHeader("Content-Type") == null) {
+                sb.append("Content-Type: application/x-www-form-urlencoded\r\n");
+            }
+            if (getHeader("Content-Length") == null && (payload != null || method == Method.POST || method == Method.PUT)) {
+                sb.append("Content-Length: ").append(payload == null ? 0 : payload.length).append("\r\n");
+            }
             for (Map.Entry<String, String> pair : headers.entrySet()) {
-                writer.print(pair.getKey());
-                writer.print(":");
-                writer.print(pair.getValue());
-                writer.print("\r\n");
+                sb.append(pair.getKey()).append(": ").append(pair.getValue()).append("\r\n");
             }
-            writer.print("\r\n");
+            sb.append("\r\n");
+            return sb.toString().getBytes(HEADER_CHARSET);
+        }
 
-            if (payload != null) {
-                writer.print(payload);
+        private String getHeader(String name) {
+            for (Map.Entry<String, String> pair : headers.entrySet()) {
+                if (pair.getKey().equalsIgnoreCase(name)) {
+                    return pair.getValue();
+                }
             }
-            writer.flush();
+            return null;
+        }
 
-            // receive response
-            StringBuilder sb = new StringBuilder();
-            String line;
-            line = reader.readLine();
-            if (line != null) {
-                String[] tokens = line.split(" ");
-                if (tokens.length > 2) {
+        /**
+         * @return Status line of the final response, informational responses are skipped
+         */
+        private String readStatusLine(InputStream input) throws IOException {
+            while (true) {
+                String line = readLine(input);
+                if (line == null) {
+                    return null;
+                }
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] tokens = line.split(" ", 3);
+                if (tokens.length < 2) {
+                    throw new ProtocolException("Invalid status line " + line);
+                }
+                try {
                     code = Integer.parseInt(tokens[1]);
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Invalid status line " + line);
+                }
+                if (code >= 100 && code < 200) {
+                    readHeaders(input, new HashMap<String, String>());
+                    continue;
+                }
+                return line;
+            }
+        }
+
+        /**
+         * @return How long the connection may be kept open for the next request, 0 when it has to be closed
+         */
+        private long readResponse(InputStream input, String statusLine) throws IOException {
+            readHeaders(input, responseHeaders);
+
+            String connectionHeader = responseHeaders.get("Connection");
+            boolean keepAlive = statusLine.startsWith("HTTP/1.1")
+                    ? !"close".equalsIgnoreCase(connectionHeader)
+                    : "keep-alive".equalsIgnoreCase(connectionHeader);
+            if ("close".equalsIgnoreCase(getHeader("Connection"))) {
+                keepAlive = false;
+            }
+
+            byte[] body;
+            String transferEncoding = responseHeaders.get("Transfer-Encoding");
+            String contentLength = responseHeaders.get("Content-Length");
+            if (code == 204 || code == 304) {
+                body = new byte[0];
+            } else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.US).contains("chunked")) {
+                body = readChunked(input);
+            } else if (contentLength != null) {
+                long length;
+                try {
+                    length = Long.parseLong(contentLength.trim());
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Invalid Content-Length " + contentLength);
+                }
+                if (length < 0 || length > Integer.MAX_VALUE) {
+                    throw new ProtocolException("Invalid Content-Length " + contentLength);
                 }
+                body = readFully(input, (int) length);
+            } else {
+                // the body ends when the server closes the connection
+                body = readToEnd(input);
+                keepAlive = false;
             }
+            response = new String(body, getCharset());
 
-            while (null != (line = reader.readLine())) {
+            return keepAlive ? getKeepAliveTimeout() : 0;
+        }
+
+        private long getKeepAliveTimeout() {
+            String header = responseHeaders.get("Keep-Alive");
+            if (header != null) {
+                for (String param : header.split(",")) {
+                    String[] pair = param.trim().split("=", 2);
+                    if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("timeout")) {
+                        try {
+                            // leave a second of margin so a connection isn't reused just as the server closes it
+                            return Math.max(0, Long.parseLong(pair[1].trim()) * 1000 - 1000);
+                        } catch (NumberFormatException ignored) {
+                        }
+                    }
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        private Charset getCharset() {
+            String contentType = responseHeaders.get("Content-Type");
+            if (contentType != null) {
+                for (String param : contentType.split(";")) {
+                    String[] pair = param.trim().split("=", 2);
+                    if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+                        try {
+                            return Charset.forName(pair[1].trim().replace("\"", ""));
+                        } catch (IllegalArgumentException ignored) {
+                        }
+                    }
+                }
+            }
+            return Charset.forName("UTF-8");
+        }
+
+        private static void readHeaders(InputStream input, Map<String, String> headers) throws IOException {
+            String line;
+            while (null != (line = readLine(input))) {
                 if (line.isEmpty()) {
+                    return;
+                }
+                int separator = line.indexOf(':');
+                if (separator > 0) {
+                    headers.put(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+                }
+            }
+            throw new EOFException("Connection closed in the response headers");
+        }
+
+        /**
+         * @return Line without its line ending, or null at the end of the stream
+         */
+        private static String readLine(InputStream input) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+            int b;
+            while ((b = input.read()) != -1) {
+                if (b == '\n') {
                     break;
                 }
-                String[] pair = line.split(":", 2);
-                if (pair != null && pair.length == 2) {
-                    responseHeaders.put(pair[0].trim(), pair[1].trim());
+                if (line.size() >= MAX_LINE_LENGTH) {
+                    throw new ProtocolException("Header line too long");
                 }
+                line.write(b);
+            }
+            if (b == -1 && line.size() == 0) {
+                return null;
             }
+            byte[] bytes = line.toByteArray();
+            int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+            return new String(bytes, 0, length, HEADER_CHARSET);
+        }
 
-            while (null != (line = reader.readLine())) {
-                sb.append(line);
-                sb.append("\r\n");
+        private static byte[] readFully(InputStream input, int length) throws IOException {
+            byte[] buffer = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int read = input.read(buffer, offset, length - offset);
+                if (read == -1) {
+                    throw new EOFException("Connection closed in the response body");
+                }
+                offset += read;
             }
-            response = sb.toString();
-            socket.close();
+            return buffer;
+        }
+
+        private static byte[] readChunked(InputStream input) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            while (true) {
+                String line = readLine(input);
+                if (line == null) {
+                    throw new EOFException("Connection closed in the response body");
+                }
+                int extension = line.indexOf(';');
+                int size;
+                try {
+                    size = Integer.parseInt((extension >= 0 ? line.substring(0, extension) : line).trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Invalid chunk size " + line);
+                }
+                if (size == 0) {
+                    // trailers
+                    readHeaders(input, new HashMap<String, String>());
+                    return body.toByteArray();
+                }
+                body.write(readFully(input, size));
+                readLine(input);
+            }
+        }
+
+        private static byte[] readToEnd(InputStream input) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return body.toByteArray();
         }
 
         @Override
         public void setPayload(String payload) {
-            this.payload = payload;
+            this.payload = payload.getBytes(Charset.forName("UTF-8"));
         }
 
         @Override
         public void setPayload(byte[] payload) {
-            throw new UnsupportedOperationException();
+            this.payload = payload;
         }
 
         @Override
@@ -0,0 +1,316 @@
+/*
+ * HttpConnectionPool
+ * Connect SDK
+ *
+ * Copyright (c) 2015 LG Electronics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.connectsdk.etc.helper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Keeps the sockets to devices open between requests. Idle sockets are kept per host and port for a while, so the
+ * next command to the same device doesn't have to set up a TCP connection again. The latency of the requests is
+ * recorded per host.
+ */
+public class HttpConnectionPool {
+
+    static final int CONNECT_TIMEOUT = 10 * 1000;
+    static final int READ_TIMEOUT = 30 * 1000;
+
+    private static final int MAX_IDLE_PER_HOST = 4;
+    private static final long DEFAULT_KEEP_ALIVE = 15 * 1000;
+
+    private static final HttpConnectionPool instance = new HttpConnectionPool();
+
+    private final Map<String, Deque<Connection>> idleConnections = new HashMap<String, Deque<Connection>>();
+    private final Map<String, Metrics> metrics = new HashMap<String, Metrics>();
+
+    public static HttpConnectionPool getInstance() {
+        return instance;
+    }
+
+    HttpConnectionPool() {
+    }
+
+    /**
+     * @return Idle connection to the host, or a new one when there is none
+     */
+    Connection acquire(String host, int port) throws IOException {
+        String key = host + ":" + port;
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            removeExpired(now);
+            Deque<Connection> idle = idleConnections.get(key);
+            while (idle != null && !idle.isEmpty()) {
+                Connection connection = idle.pollFirst();
+                if (connection.isUsable(now)) {
+                    connection.reused = true;
+                    return connection;
+                }
+                connection.close();
+            }
+        }
+
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            socket.setSoTimeout(READ_TIMEOUT);
+            return new Connection(key, socket);
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Give a connection back after a request. It is kept for the next request when the response allows it,
+     * otherwise it is closed.
+     *
+     * @param keepAlive How long the server keeps the connection open, 0 when it has to be closed
+     */
+    void release(Connection connection, long keepAlive) {
+        if (keepAlive <= 0) {
+            connection.close();
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        connection.expires = now + Math.min(keepAlive, DEFAULT_KEEP_ALIVE);
+        Connection evicted = null;
+        synchronized (this) {
+            removeExpired(now);
+            Deque<Connection> idle = idleConnections.get(connection.key);
+            if (idle == null) {
+                idle = new ArrayDeque<Connection>();
+                idleConnections.put(connection.key, idle);
+            }
+            idle.addFirst(connection);
+            if (idle.size() > MAX_IDLE_PER_HOST) {
+                evicted = idle.pollLast();
+            }
+        }
+        if (evicted != null) {
+            evicted.close();
+        }
+    }
+
+    /**
+     * Close all idle connections, like when the network changes
+     */
+    public void evictAll() {
+        synchronized (this) {
+            for (Deque<Connection> idle : idleConnections.values()) {
+                for (Connection connection : idle) {
+                    connection.close();
+                }
+            }
+            idleConnections.clear();
+        }
+    }
+
+    /**
+     * Close the idle connections that have expired. This also happens on every acquire and release, so the sockets
+     * to devices that aren't used anymore don't stay open.
+     */
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            removeExpired(now);
+        }
+    }
+
+    /**
+     * Close the idle connections of all hosts that have expired, the caller holds the lock
+     */
+    private void removeExpired(long now) {
+        Iterator<Deque<Connection>> iterator = idleConnections.values().iterator();
+        while (iterator.hasNext()) {
+            Deque<Connection> idle = iterator.next();
+            Iterator<Connection> connections = idle.iterator();
+            while (connections.hasNext()) {
+                Connection connection = connections.next();
+                if (!connection.isUsable(now)) {
+                    connection.close();
+                    connections.remove();
+                }
+            }
+            if (idle.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    void recordRequest(String host, long latency, boolean reused, boolean failed) {
+        synchronized (metrics) {
+            Metrics hostMetrics = metrics.get(host);
+            if (hostMetrics == null) {
+                hostMetrics = new Metrics();
+                metrics.put(host, hostMetrics);
+            }
+            hostMetrics.record(latency, reused, failed);
+        }
+    }
+
+    /**
+     * @param host IP address or host name of the device
+     * @return Latency of the requests to the device, null when no request has been sent to it
+     */
+    public Metrics getMetrics(String host) {
+        synchronized (metrics) {
+            Metrics hostMetrics = metrics.get(host);
+            return hostMetrics == null ? null : new Metrics(hostMetrics);
+        }
+    }
+
+    static class Connection {
+
+        final String key;
+        final Socket socket;
+        final InputStream input;
+        final OutputStream output;
+        boolean reused;
+        long expires;
+
+        Connection(String key, Socket socket) throws IOException {
+            this.key = key;
+            this.socket = socket;
+            this.input = new BufferedInputStream(socket.getInputStream());
+            this.output = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        boolean isUsable(long now) {
+            if (now >= expires || socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+                return false;
+            }
+            try {
+                // anything waiting before a request is sent means the server is closing or out of sync
+                return input.available() == 0;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Latency of the requests to a device, from sending a request until its response has been read
+     */
+    public static class Metrics {
+
+        private static final double SMOOTHING = 0.2;
+
+        private int requestCount;
+        private int reusedCount;
+        private int failureCount;
+        private long lastLatency;
+        private long minLatency = Long.MAX_VALUE;
+        private long maxLatency;
+        private double averageLatency;
+
+        Metrics() {
+        }
+
+        Metrics(Metrics other) {
+            requestCount = other.requestCount;
+            reusedCount = other.reusedCount;
+            failureCount = other.failureCount;
+            lastLatency = other.lastLatency;
+            minLatency = other.minLatency;
+            maxLatency = other.maxLatency;
+            averageLatency = other.averageLatency;
+        }
+
+        void record(long latency, boolean reused, boolean failed) {
+            if (failed) {
+                failureCount++;
+                return;
+            }
+
+            requestCount++;
+            if (reused) {
+                reusedCount++;
+            }
+            lastLatency = latency;
+            minLatency = Math.min(minLatency, latency);
+            maxLatency = Math.max(maxLatency, latency);
+            averageLatency = requestCount == 1 ? latency : averageLatency + SMOOTHING * (latency - averageLatency);
+        }
+
+        /** @return Number of requests that got a response */
+        public int getRequestCount() {
+            return requestCount;
+        }
+
+        /** @return Number of requests that were sent over a connection of an earlier request */
+        public int getReusedCount() {
+            return reusedCount;
+        }
+
+        /** @return Number of requests that failed without a response */
+        public int getFailureCount() {
+            return failureCount;
+        }
+
+        /** @return Latency of the last request in milliseconds */
+        public long getLastLatency() {
+            return lastLatency;
+        }
+
+        /** @return Lowest latency in milliseconds, 0 when no request got a response */
+        public long getMinLatency() {
+            return requestCount == 0 ? 0 : minLatency;
+        }
+
+        /** @return Highest latency in milliseconds */
+        public long getMaxLatency() {
+            return maxLatency;
+        }
+
+        /** @return Moving average of the latency in milliseconds, recent requests weigh the most */
+        public long getAverageLatency() {
+            return Math.round(averageLatency);
+        }
+
+        @Override
+        public String toString() {
+            return "requests " + requestCount + " (" + reusedCount + " reused, " + failureCount + " failed), latency "
+                    + getAverageLatency() + " ms (last " + lastLatency + ", min " + getMinLatency() + ", max "
+                    + maxLatency + ")";
+        }
+    }
+}
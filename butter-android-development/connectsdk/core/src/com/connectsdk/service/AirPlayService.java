@@ -22,7 +22,6 @@ package com.connectsdk.service;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.util.Log;
 
 import com.connectsdk.core.ImageInfo;
 import com.connectsdk.core.MediaInfo;
@@ -66,6 +65,7 @@ import java.util.StringTokenizer;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class AirPlayService extends DeviceService implements MediaPlayer, MediaControl {
     public static final String X_APPLE_SESSION_ID = "X-Apple-Session-ID";
@@ -79,9 +79,10 @@ public class AirPlayService extends DeviceService implements MediaPlayer, MediaC
 
     private String mSessionId;
 
-    private Timer timer, updateTimer;
+    private Timer timer;
 
-    private List<URLServiceSubscription<?>> mSubscriptions = new ArrayList<>();
+    // read by the timer thread
+    private List<URLServiceSubscription<?>> mSubscriptions = new CopyOnWriteArrayList<>();
 
     ServiceCommand pendingCommand = null;
     String authenticate = null;
@@ -669,8 +670,6 @@ public class AirPlayService extends DeviceService implements MediaPlayer, MediaC
         capabilities.add(Rewind);
         capabilities.add(FastForward);
 
-        capabilities.add(PlayState_Subscribe);
-
         setCapabilities(capabilities);
     }
 
@@ -754,95 +753,110 @@ public class AirPlayService extends DeviceService implements MediaPlayer, MediaC
      * stopping media session
      * 
      * Fix for https://github.com/ConnectSDK/Connect-SDK-Cordova-Plugin/issues/5
+     *
+     * The play state is polled on the same timer while there are subscriptions for it. AirPlay has no events, so
+     * PlayState_Subscribe isn't announced and callers poll getPlayState at their own rate instead.
      */
     private void startTimer() {
         stopTimer();
         timer = new Timer();
         timer.scheduleAtFixedRate(new TimerTask() {
+            long lastKeepAliveTime = System.currentTimeMillis();
 
             @Override
             public void run() {
-                Log.d("Timer", "Timer");
-                getPlaybackPosition(new PlaybackPositionListener() {
+                long now = System.currentTimeMillis();
+                if (hasPlayStateSubscriptions()) {
+                    updatePlayState();
+                }
+                if (now - lastKeepAliveTime >= KEEP_ALIVE_PERIOD) {
+                    lastKeepAliveTime = now;
+                    keepAlive();
+                }
+            }
+        }, UPDATE_PERIOD, UPDATE_PERIOD);
+    }
 
-                    @Override
-                    public void onGetPlaybackPositionSuccess(long duration, long position) {
-                        if (position >= duration) {
-                            stopTimer();
-                        }
-                    }
+    private void stopTimer() {
+        if (timer != null) {
+            timer.cancel();
+        }
+        timer = null;
+    }
 
-                    @Override
-                    public void onGetPlaybackPositionFailed(ServiceCommandError error) {
-                    }
-                });
+    private boolean hasPlayStateSubscriptions() {
+        for (URLServiceSubscription<?> subscription : mSubscriptions) {
+            if (subscription.getTarget().equalsIgnoreCase(PLAY_STATE)) {
+                return true;
             }
-        }, KEEP_ALIVE_PERIOD, KEEP_ALIVE_PERIOD);
+        }
+        return false;
+    }
+
+    private void keepAlive() {
+        getPlaybackPosition(new PlaybackPositionListener() {
 
-        updateTimer = new Timer();
-        updateTimer.scheduleAtFixedRate(new TimerTask() {
             @Override
-            public void run() {
-                getPlaybackInfo(new ResponseListener<Object>() {
-                    @Override
-                    public void onSuccess(Object object) {
-                        PlayStateStatus playState = PlayStateStatus.Unknown;
-                        try {
-                            JSONObject response = new PListParser().parse(object.toString());
-                            if (response.length() > 0) {
-                                boolean readyToPlay = false;
-                                if (response.has("readyToPlay")) {
-                                    readyToPlay = response.getBoolean("readyToPlay");
-                                }
+            public void onGetPlaybackPositionSuccess(long duration, long position) {
+                if (position >= duration) {
+                    stopTimer();
+                }
+            }
 
-                                if (!readyToPlay) {
-                                    playState = PlayStateStatus.Buffering;
-                                } else {
-                                    if (!response.has("rate")) {
-                                        playState = PlayStateStatus.Finished;
-                                    } else {
-                                        int rate = response.getInt("rate");
-                                        if (rate == 0) {
-                                            playState = PlayStateStatus.Paused;
-                                        } else if (rate == 1) {
-                                            playState = PlayStateStatus.Playing;
-                                        }
-                                    }
+            @Override
+            public void onGetPlaybackPositionFailed(ServiceCommandError error) {
+            }
+        });
+    }
+
+    private void updatePlayState() {
+        getPlaybackInfo(new ResponseListener<Object>() {
+            @Override
+            public void onSuccess(Object object) {
+                PlayStateStatus playState = PlayStateStatus.Unknown;
+                try {
+                    JSONObject response = new PListParser().parse(object.toString());
+                    if (response.length() > 0) {
+                        boolean readyToPlay = false;
+                        if (response.has("readyToPlay")) {
+                            readyToPlay = response.getBoolean("readyToPlay");
+                        }
+
+                        if (!readyToPlay) {
+                            playState = PlayStateStatus.Buffering;
+                        } else {
+                            if (!response.has("rate")) {
+                                playState = PlayStateStatus.Finished;
+                            } else {
+                                int rate = response.getInt("rate");
+                                if (rate == 0) {
+                                    playState = PlayStateStatus.Paused;
+                                } else if (rate == 1) {
+                                    playState = PlayStateStatus.Playing;
                                 }
+                            }
+                        }
 
-                                if (mSubscriptions.size() > 0) {
-                                    for (URLServiceSubscription<?> subscription : mSubscriptions) {
-                                        if (subscription.getTarget().equalsIgnoreCase(PLAY_STATE)) {
-                                            for (int i = 0; i < subscription.getListeners().size(); i++) {
-                                                @SuppressWarnings("unchecked")
-                                                ResponseListener<Object> listener = (ResponseListener<Object>) subscription.getListeners().get(i);
-                                                Util.postSuccess(listener, playState);
-                                            }
-                                        }
+                        if (mSubscriptions.size() > 0) {
+                            for (URLServiceSubscription<?> subscription : mSubscriptions) {
+                                if (subscription.getTarget().equalsIgnoreCase(PLAY_STATE)) {
+                                    for (int i = 0; i < subscription.getListeners().size(); i++) {
+                                        @SuppressWarnings("unchecked")
+                                        ResponseListener<Object> listener = (ResponseListener<Object>) subscription.getListeners().get(i);
+                                        Util.postSuccess(listener, playState);
                                     }
                                 }
                             }
-                        } catch (Exception e) {
                         }
                     }
-
-                    @Override
-                    public void onError(ServiceCommandError error) {
-                    }
-                });
+                } catch (Exception e) {
+                }
             }
-        }, 0, UPDATE_PERIOD);
-    }
 
-    private void stopTimer() {
-        if (timer != null) {
-            timer.cancel();
-        }
-        if(updateTimer != null) {
-            updateTimer.cancel();
-        }
-        updateTimer = null;
-        timer = null;
+            @Override
+            public void onError(ServiceCommandError error) {
+            }
+        });
     }
 
     private void addSubscription(URLServiceSubscription<?> subscription) {
@@ -859,7 +873,7 @@ public class AirPlayService extends DeviceService implements MediaPlayer, MediaC
     }
 
     public void setSubscriptions(List<URLServiceSubscription<?>> subscriptions) {
-        this.mSubscriptions = subscriptions;
+        this.mSubscriptions = new CopyOnWriteArrayList<>(subscriptions);
     }
 
 }
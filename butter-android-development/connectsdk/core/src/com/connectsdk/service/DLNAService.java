@@ -49,6 +49,7 @@ import com.connectsdk.service.sessions.LaunchSession;
 import com.connectsdk.service.sessions.LaunchSession.LaunchSessionType;
 import com.connectsdk.service.upnp.DLNAHttpServer;
 import com.connectsdk.service.upnp.DLNAMediaInfoParser;
+import com.connectsdk.service.upnp.DLNASoapTemplate;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -553,9 +554,10 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
 
             @Override
             public void onGetPositionInfoSuccess(String positionInfoXml) {
-                String strDuration = parseData(positionInfoXml, "TrackDuration");
+                Map<String, String> values = parseData(positionInfoXml, "TrackDuration", "TrackMetaData");
+                String strDuration = values.get("TrackDuration");
 
-                String trackMetaData = parseData(positionInfoXml, "TrackMetaData");
+                String trackMetaData = values.get("TrackMetaData");
                 MediaInfo info = DLNAMediaInfoParser.getMediaInfo(trackMetaData);
                 // Check if duration we get not equals 0 or media is image, otherwise wait 1 second and try again
                 if ((!strDuration.equals("0:00:00")) || (info.getMimeType().contains("image"))) {
@@ -615,39 +617,14 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
     }
 
     protected String getMessageXml(String serviceURN, String method, String instanceId, Map<String, String> params) {
-        try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document doc = db.newDocument();
-            doc.setXmlStandalone(true);
-            doc.setXmlVersion("1.0");
-
-            Element root = doc.createElement("s:Envelope");
-            Element bodyElement = doc.createElement("s:Body");
-            Element methodElement = doc.createElementNS(serviceURN, "u:" + method);
-            Element instanceElement = doc.createElement("InstanceID");
-
-            root.setAttribute("s:encodingStyle", "http://schemas.xmlsoap.org/soap/encoding/");
-            root.setAttribute("xmlns:s", "http://schemas.xmlsoap.org/soap/envelope/");
-
-            doc.appendChild(root);
-            root.appendChild(bodyElement);
-            bodyElement.appendChild(methodElement);
-            if (instanceId != null) {
-                instanceElement.setTextContent(instanceId);
-                methodElement.appendChild(instanceElement);
-            }
+        String message = DLNASoapTemplate.get(serviceURN, method).build(instanceId, params);
+        if (message != null) {
+            return message;
+        }
 
-            if (params != null) {
-                for (Map.Entry<String, String> entry : params.entrySet()) {
-                    String key = entry.getKey();
-                    String value = entry.getValue();
-                    Element element = doc.createElement(key);
-                    element.setTextContent(value);
-                    methodElement.appendChild(element);
-                }
-            }
-            return xmlToString(doc, true);
+        // a value with an unpaired surrogate, leave it to the serializer
+        try {
+            return DLNASoapTemplate.serialize(serviceURN, method, instanceId, params);
         } catch (Exception e) {
             return null;
         }
@@ -890,6 +867,20 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
     }
 
     String parseData(String response, String key) {
+        return parseData(response, new String[] { key }).get(key);
+    }
+
+    /**
+     * Read the values of several elements of a response in one pass, the value of a key is the first text after its
+     * start tag. Parsing stops as soon as every key has a value.
+     *
+     * @return Values by key, "" for the keys that weren't found
+     */
+    Map<String, String> parseData(String response, String... keys) {
+        Map<String, String> values = new HashMap<String, String>(keys.length * 2);
+        boolean[] found = new boolean[keys.length];
+        int remaining = keys.length;
+
         if (isXmlEncoded(response)) {
             response = Html.fromHtml(response).toString();
         }
@@ -897,22 +888,34 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
         try {
             parser.setInput(new StringReader(response));
             int event;
-            boolean isFound = false;
             do {
                 event = parser.next();
                 if (event == XmlPullParser.START_TAG) {
                     String tag = parser.getName();
-                    if (key.equals(tag)) {
-                        isFound = true;
+                    for (int i = 0; i < keys.length; i++) {
+                        if (keys[i].equals(tag)) {
+                            found[i] = true;
+                        }
+                    }
+                } else if (event == XmlPullParser.TEXT) {
+                    for (int i = 0; i < keys.length; i++) {
+                        if (found[i] && !values.containsKey(keys[i])) {
+                            values.put(keys[i], parser.getText());
+                            remaining--;
+                        }
                     }
-                } else if (event == XmlPullParser.TEXT && isFound) {
-                    return parser.getText();
                 }
-            } while (event != XmlPullParser.END_DOCUMENT);
+            } while (remaining > 0 && event != XmlPullParser.END_DOCUMENT);
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return "";
+
+        for (String key : keys) {
+            if (!values.containsKey(key)) {
+                values.put(key, "");
+            }
+        }
+        return values;
     }
 
     long convertStrTimeFormatToLong(String strTime) {
@@ -1131,7 +1134,11 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
                             connection.setHeader("USER-AGENT", "Android UPnp/1.1 ConnectSDK");
                             connection.execute();
                             if (connection.getResponseCode() == 200) {
-                                SIDList.put(serviceList.get(i).serviceType, connection.getResponseHeader("SID"));
+                                String oldSID = SIDList.put(serviceList.get(i).serviceType, connection.getResponseHeader("SID"));
+                                // a subscription that expired was replaced by a new one
+                                if (oldSID != null && !oldSID.equals(SIDList.get(serviceList.get(i).serviceType))) {
+                                    httpServer.endSubscription(oldSID);
+                                }
                             }
                         } catch (Exception e) {
                             e.printStackTrace();
@@ -1208,6 +1215,8 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
                             connection.setMethod(HttpConnection.Method.UNSUBSCRIBE);
                             connection.setHeader("SID", sid);
                             connection.execute();
+                            // the subscription is over for us, whatever the renderer answers
+                            httpServer.endSubscription(sid);
                             if (connection.getResponseCode() == 200) {
                                 SIDList.remove(serviceList.get(i).serviceType);
                             }
@@ -11,26 +11,66 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.xmlpull.v1.XmlPullParserException;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
-
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives the GENA events of the subscriptions. Every connection is handled on a worker of a small pool and kept
+ * open between requests, so a renderer that sends many events doesn't wait for a new connection each time. Event
+ * bodies are delimited by their Content-Length or chunked encoding and parsed straight from the socket. When idle
+ * connections hold all workers, the one that has been idle the longest is closed to make room for a new connection.
+ */
 public class DLNAHttpServer {
+    static final int MAX_CONNECTIONS = 8;
+    static final int MAX_LINE_LENGTH = 8 * 1024;
+    static final int KEEP_ALIVE_TIMEOUT = 30 * 1000;
+    // event keys of subscriptions that expired without being ended are dropped beyond this
+    static final int MAX_EVENT_KEYS = 32;
+    static final int HANDOVER_ATTEMPTS = 10;
+    static final int HANDOVER_WAIT = 10;
+
     final int port = 49291;
 
     volatile ServerSocket welcomeSocket;
 
     volatile boolean running = false;
 
+    ThreadPoolExecutor workers;
+
+    final Set<Socket> connections = Collections.synchronizedSet(new HashSet<Socket>());
+
+    // connections waiting for their next request, in the order they became idle
+    final Set<Socket> idleConnections = new LinkedHashSet<Socket>();
+
+    // last event key of every subscription, events that arrive late on another connection are dropped
+    final Map<String, Long> eventKeys = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_EVENT_KEYS;
+        }
+    };
+
     CopyOnWriteArrayList<URLServiceSubscription<?>> subscriptions;
 
     public DLNAHttpServer() {
@@ -51,12 +91,18 @@ public class DLNAHttpServer {
             return;
         }
 
-        Util.runInBackground(new Runnable() {
+        workers = new ThreadPoolExecutor(0, MAX_CONNECTIONS, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+
+        final ServerSocket serverSocket = welcomeSocket;
+        final ThreadPoolExecutor executor = workers;
+        Thread acceptThread = new Thread(new Runnable() {
             @Override
             public void run() {
-                processRequests();
+                processRequests(serverSocket, executor);
             }
-        }, true);
+        }, "DLNA Event Server");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
     }
 
     public synchronized void stop() {
@@ -77,112 +123,444 @@ public class DLNAHttpServer {
             }
         }
 
+        synchronized (connections) {
+            for (Socket socket : connections) {
+                closeQuietly(socket);
+            }
+            connections.clear();
+        }
+
+        synchronized (idleConnections) {
+            idleConnections.clear();
+        }
+
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+
+        synchronized (eventKeys) {
+            eventKeys.clear();
+        }
+
         welcomeSocket = null;
+        workers = null;
         running = false;
     }
 
-    private void processRequests() {
-        while (running) {
-            if (welcomeSocket == null || welcomeSocket.isClosed()) {
-                break;
-            }
-
-            Socket connectionSocket = null;
-            BufferedReader inFromClient = null;
-            DataOutputStream outToClient = null;
+    private void processRequests(ServerSocket serverSocket, ThreadPoolExecutor executor) {
+        while (running && !serverSocket.isClosed()) {
+            final Socket connectionSocket;
 
             try {
-                connectionSocket = welcomeSocket.accept();
+                connectionSocket = serverSocket.accept();
             } catch (IOException ex) {
-                ex.printStackTrace();
+                if (!serverSocket.isClosed()) {
+                    ex.printStackTrace();
+                }
                 // this socket may have been closed, so we'll stop
                 break;
             }
 
-            int c = 0;
+            connections.add(connectionSocket);
+            boolean accepted = execute(executor, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handleConnection(connectionSocket);
+                    } finally {
+                        synchronized (idleConnections) {
+                            idleConnections.remove(connectionSocket);
+                        }
+                        connections.remove(connectionSocket);
+                        closeQuietly(connectionSocket);
+                    }
+                }
+            });
+
+            if (!accepted) {
+                // all workers are busy with requests, the renderer sends the event again on a new connection
+                connections.remove(connectionSocket);
+                closeQuietly(connectionSocket);
+            }
+        }
+    }
+
+    /**
+     * @return false when all workers are busy with requests
+     */
+    private boolean execute(ThreadPoolExecutor executor, Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            // all workers are taken, some may only be waiting on idle keep-alive connections
+        }
+
+        Socket idle;
+        synchronized (idleConnections) {
+            Iterator<Socket> iterator = idleConnections.iterator();
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            idle = iterator.next();
+            iterator.remove();
+        }
+
+        // the worker of the closed connection is free as soon as its read fails
+        closeQuietly(idle);
 
-            String body = null;
+        for (int i = 0; i < HANDOVER_ATTEMPTS; i++) {
+            try {
+                Thread.sleep(HANDOVER_WAIT);
+            } catch (InterruptedException ex) {
+                return false;
+            }
 
             try {
-                inFromClient = new BufferedReader(new InputStreamReader(connectionSocket.getInputStream()));
+                executor.execute(task);
+                return true;
+            } catch (RejectedExecutionException ex) {
+                // the worker hasn't finished yet
+            }
+        }
+        return false;
+    }
 
-                StringBuilder sb = new StringBuilder();
+    /**
+     * Forget the last event key of a subscription that has ended
+     *
+     * @param sid SID of the subscription
+     */
+    public void endSubscription(String sid) {
+        if (sid == null) {
+            return;
+        }
 
-                while ((c = inFromClient.read()) != -1) {
-                    sb.append((char)c);
+        synchronized (eventKeys) {
+            eventKeys.remove(sid);
+        }
+    }
 
-                    if (sb.toString().endsWith("\r\n\r\n"))
-                        break;
+    private void handleConnection(Socket socket) {
+        try {
+            socket.setSoTimeout(KEEP_ALIVE_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            do {
+                // waiting for the next request, the connection can be closed to make room for a new one
+                synchronized (idleConnections) {
+                    idleConnections.add(socket);
                 }
-                sb = new StringBuilder();
+            } while (running && handleRequest(socket, in, out));
+        } catch (EOFException ex) {
+            // connection closed by the renderer
+        } catch (SocketException ex) {
+            // connection closed by the renderer or the server stopped
+        } catch (IOException ex) {
+            // includes the keep-alive timeout
+        }
+    }
 
-                while ((c = inFromClient.read()) != -1) {
-                    sb.append((char)c);
-                    body = sb.toString();
+    /**
+     * @return true when the connection is kept open for the next request
+     */
+    private boolean handleRequest(Socket socket, InputStream in, OutputStream out) throws IOException {
+        String requestLine = readLine(in);
+        while (requestLine != null && requestLine.length() == 0) {
+            // tolerate empty lines between requests
+            requestLine = readLine(in);
+        }
+        if (requestLine == null) {
+            return false;
+        }
 
-                    if (body.endsWith("</e:propertyset>"))
-                        break;
-                }
-            } catch (IOException ex) {
-                ex.printStackTrace();
+        synchronized (idleConnections) {
+            idleConnections.remove(socket);
+        }
+
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 3) {
+            writeResponse(out, "400 Bad Request", false);
+            return false;
+        }
+        String method = parts[0];
+        boolean http10 = parts[2].equalsIgnoreCase("HTTP/1.0");
+
+        Map<String, String> headers = new HashMap<String, String>();
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
             }
+        }
+        if (line == null) {
+            return false;
+        }
 
-            PrintWriter out = null;
+        String connection = headers.get("connection");
+        boolean keepAlive = http10
+                ? connection != null && connection.equalsIgnoreCase("keep-alive")
+                : connection == null || !connection.equalsIgnoreCase("close");
 
+        if ("100-continue".equalsIgnoreCase(headers.get("expect"))) {
+            out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes("ISO-8859-1"));
+            out.flush();
+        }
+
+        InputStream body;
+        String transferEncoding = headers.get("transfer-encoding");
+        String contentLength = headers.get("content-length");
+        if (transferEncoding != null && transferEncoding.toLowerCase(Locale.US).contains("chunked")) {
+            body = new ChunkedInputStream(in);
+        } else if (contentLength != null) {
+            long length;
             try {
-                outToClient = new DataOutputStream(connectionSocket.getOutputStream());
-                out = new PrintWriter(outToClient);
-                out.println("HTTP/1.1 200 OK");
-                out.println("Connection: Close");
-                out.println("Content-Length: 0");
-                out.println();
-                out.flush();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            } finally {
-                try {
-                    inFromClient.close();
-                    out.close();
-                    outToClient.close();
-                    connectionSocket.close();
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                } catch (NullPointerException ex) {
-                    ex.printStackTrace();
+                length = Long.parseLong(contentLength);
+            } catch (NumberFormatException ex) {
+                writeResponse(out, "400 Bad Request", false);
+                return false;
+            }
+            body = new FixedLengthInputStream(in, length);
+        } else if (!keepAlive) {
+            // some renderers leave out the length and close the connection after the body
+            body = new FixedLengthInputStream(in, Long.MAX_VALUE);
+        } else {
+            body = new FixedLengthInputStream(in, 0);
+        }
+
+        JSONArray propertySet = null;
+        if (method.equalsIgnoreCase("NOTIFY") && isCurrentEvent(headers.get("sid"), headers.get("seq"))) {
+            try {
+                // the parser closes the body, that reads the rest of it but leaves the connection open
+                propertySet = new DLNANotifyParser().parse(body);
+            } catch (XmlPullParserException e) {
+                e.printStackTrace();
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+        body.close();
+
+        writeResponse(out, "200 OK", keepAlive);
+
+        if (propertySet != null) {
+            handlePropertySet(propertySet);
+        }
+        return keepAlive;
+    }
+
+    /**
+     * @return false when a later event of the subscription was handled already
+     */
+    private boolean isCurrentEvent(String sid, String seq) {
+        if (sid == null || seq == null) {
+            return true;
+        }
+
+        long key;
+        try {
+            key = Long.parseLong(seq.trim());
+        } catch (NumberFormatException ex) {
+            return true;
+        }
+
+        synchronized (eventKeys) {
+            Long last = eventKeys.get(sid);
+            // the key starts at 0 for a new subscription and wraps from 4294967295 to 1
+            if (last != null && key != 0 && key <= last && last - key < 0x7FFFFFFFL) {
+                return false;
+            }
+            eventKeys.put(sid, key);
+            return true;
+        }
+    }
+
+    private void handlePropertySet(JSONArray propertySet) {
+        try {
+            for (int i = 0; i < propertySet.length(); i++) {
+                JSONObject property = propertySet.getJSONObject(i);
+
+                if (property.has("LastChange")) {
+                    JSONObject lastChange = property.getJSONObject("LastChange");
+                    handleLastChange(lastChange);
+                }
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void writeResponse(OutputStream out, String status, boolean keepAlive) throws IOException {
+        String response = "HTTP/1.1 " + status + "\r\n"
+                + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n"
+                + "Content-Length: 0\r\n"
+                + "\r\n";
+        out.write(response.getBytes("ISO-8859-1"));
+        out.flush();
+    }
+
+    /**
+     * @return Line without the line break, or null at the end of the stream
+     */
+    static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = sb.length();
+                if (length > 0 && sb.charAt(length - 1) == '\r') {
+                    sb.setLength(length - 1);
                 }
+                return sb.toString();
             }
+            if (sb.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("Line too long");
+            }
+            sb.append((char) c);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
 
-            if (body == null)
-                continue;
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            // nothing to do
+        }
+    }
 
-            InputStream stream = null;
+    /**
+     * Body with a known length. Closing it skips the rest of the body, the connection stays open.
+     */
+    static class FixedLengthInputStream extends InputStream {
+        final InputStream in;
+        long remaining;
 
-            try {
-                stream = new ByteArrayInputStream(body.getBytes("UTF-8"));
-            } catch (UnsupportedEncodingException ex) {
-                ex.printStackTrace();
+        FixedLengthInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int c = in.read();
+            if (c == -1) {
+                remaining = 0;
+                return -1;
             }
+            remaining--;
+            return c;
+        }
 
-            JSONArray propertySet;
-            DLNANotifyParser parser = new DLNANotifyParser();
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (count == -1) {
+                remaining = 0;
+                return -1;
+            }
+            remaining -= count;
+            return count;
+        }
 
-            try {
-                propertySet = parser.parse(stream);
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
 
-                for (int i = 0; i < propertySet.length(); i++) {
-                    JSONObject property = propertySet.getJSONObject(i);
+        @Override
+        public void close() throws IOException {
+            byte[] buffer = new byte[1024];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // skip the rest
+            }
+        }
+    }
 
-                    if (property.has("LastChange")) {
-                        JSONObject lastChange = property.getJSONObject("LastChange");
-                        handleLastChange(lastChange);
+    /**
+     * Body in chunked transfer encoding. Closing it skips the rest of the body, the connection stays open.
+     */
+    static class ChunkedInputStream extends InputStream {
+        final InputStream in;
+        long chunkRemaining = 0;
+        boolean done = false;
+
+        ChunkedInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (done) {
+                return false;
+            }
+            if (chunkRemaining == 0) {
+                String line = readLine(in);
+                if (line != null && line.length() == 0) {
+                    // line break after the previous chunk
+                    line = readLine(in);
+                }
+                if (line == null) {
+                    throw new EOFException("Unexpected end of chunked body");
+                }
+                int extension = line.indexOf(';');
+                try {
+                    chunkRemaining = Long.parseLong((extension < 0 ? line : line.substring(0, extension)).trim(), 16);
+                } catch (NumberFormatException ex) {
+                    throw new IOException("Invalid chunk size " + line);
+                }
+                if (chunkRemaining == 0) {
+                    // skip the trailers
+                    String trailer;
+                    while ((trailer = readLine(in)) != null && trailer.length() > 0) {
+                        // ignored
                     }
+                    done = true;
+                    return false;
                 }
-            } catch (XmlPullParserException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
-            } catch (JSONException e) {
-                e.printStackTrace();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            int c = in.read();
+            if (c == -1) {
+                throw new EOFException("Unexpected end of chunked body");
+            }
+            chunkRemaining--;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            int count = in.read(buffer, offset, (int) Math.min(length, chunkRemaining));
+            if (count == -1) {
+                throw new EOFException("Unexpected end of chunked body");
+            }
+            chunkRemaining -= count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            byte[] buffer = new byte[1024];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // skip the rest
             }
         }
     }
@@ -0,0 +1,196 @@
+package com.connectsdk.service.upnp;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * SOAP envelope of an action of a UPnP service. The fixed parts of the envelope are built once per service and
+ * action, a message only appends the escaped arguments. The output is the same as that of {@link #serialize}, the DOM
+ * and Transformer based serialization this replaces, byte for byte. DLNASoapTemplateTest in core/androidTest checks
+ * this on the serializer of the device it runs on, run it with {@code ./gradlew connectedAndroidTest}.
+ */
+public class DLNASoapTemplate {
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n");
+
+    private static final Map<String, DLNASoapTemplate> templates = new ConcurrentHashMap<String, DLNASoapTemplate>();
+
+    private final String head;
+    private final String tail;
+    private final String empty;
+
+    private DLNASoapTemplate(String serviceURN, String method) {
+        String envelope = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\" s:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\">"
+                + "<s:Body>";
+        String methodElement = "<u:" + method + " xmlns:u=\"" + escape(serviceURN, true) + "\"";
+
+        head = envelope + methodElement + ">";
+        tail = "</u:" + method + "></s:Body></s:Envelope>";
+        empty = envelope + methodElement + "/></s:Body></s:Envelope>";
+    }
+
+    public static DLNASoapTemplate get(String serviceURN, String method) {
+        String key = serviceURN + '#' + method;
+        DLNASoapTemplate template = templates.get(key);
+        if (template == null) {
+            template = new DLNASoapTemplate(serviceURN, method);
+            templates.put(key, template);
+        }
+        return template;
+    }
+
+    /**
+     * @param instanceId Instance id, left out when null
+     * @param params     Arguments in the order they are sent, may be null
+     * @return Message, or null when a value contains an unpaired surrogate and has to go through the serializer
+     */
+    public String build(String instanceId, Map<String, String> params) {
+        if (instanceId == null && (params == null || params.isEmpty())) {
+            return empty;
+        }
+
+        StringBuilder sb = new StringBuilder(head.length() + tail.length() + 64);
+        sb.append(head);
+        if (instanceId != null && !appendElement(sb, "InstanceID", instanceId)) {
+            return null;
+        }
+        if (params != null) {
+            for (Map.Entry<String, String> entry : params.entrySet()) {
+                if (!appendElement(sb, entry.getKey(), entry.getValue())) {
+                    return null;
+                }
+            }
+        }
+        sb.append(tail);
+        return sb.toString();
+    }
+
+    /**
+     * Build the message with a DOM and serialize it with a Transformer, the way it was done before the templates
+     *
+     * @param instanceId Instance id, left out when null
+     * @param params     Arguments in the order they are sent, may be null
+     */
+    public static String serialize(String serviceURN, String method, String instanceId, Map<String, String> params)
+            throws ParserConfigurationException, TransformerException {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        DocumentBuilder db = dbf.newDocumentBuilder();
+        Document doc = db.newDocument();
+        doc.setXmlStandalone(true);
+        doc.setXmlVersion("1.0");
+
+        Element root = doc.createElement("s:Envelope");
+        Element bodyElement = doc.createElement("s:Body");
+        Element methodElement = doc.createElementNS(serviceURN, "u:" + method);
+        Element instanceElement = doc.createElement("InstanceID");
+
+        root.setAttribute("s:encodingStyle", "http://schemas.xmlsoap.org/soap/encoding/");
+        root.setAttribute("xmlns:s", "http://schemas.xmlsoap.org/soap/envelope/");
+
+        doc.appendChild(root);
+        root.appendChild(bodyElement);
+        bodyElement.appendChild(methodElement);
+        if (instanceId != null) {
+            instanceElement.setTextContent(instanceId);
+            methodElement.appendChild(instanceElement);
+        }
+
+        if (params != null) {
+            for (Map.Entry<String, String> entry : params.entrySet()) {
+                Element element = doc.createElement(entry.getKey());
+                element.setTextContent(entry.getValue());
+                methodElement.appendChild(element);
+            }
+        }
+
+        StringWriter writer = new StringWriter();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(writer));
+        return writer.toString();
+    }
+
+    private static boolean appendElement(StringBuilder sb, String name, String value) {
+        sb.append('<').append(name);
+        if (value == null || value.length() == 0) {
+            sb.append("/>");
+            return true;
+        }
+        sb.append('>');
+        if (!appendEscaped(sb, value, false)) {
+            return false;
+        }
+        sb.append("</").append(name).append('>');
+        return true;
+    }
+
+    private static String escape(String value, boolean attribute) {
+        StringBuilder sb = new StringBuilder(value.length() + 16);
+        if (!appendEscaped(sb, value, attribute)) {
+            throw new IllegalArgumentException("Invalid value " + value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Escape text the way the serializer of the platform does for UTF-8 output
+     *
+     * @return false when the value contains an unpaired surrogate
+     */
+    static boolean appendEscaped(StringBuilder sb, String value, boolean attribute) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '"':
+                    sb.append(attribute ? "&quot;" : "\"");
+                    break;
+                case '\r':
+                    sb.append("&#13;");
+                    break;
+                case '\n':
+                    sb.append(attribute ? "&#10;" : LINE_SEPARATOR);
+                    break;
+                case '\t':
+                    if (attribute) {
+                        sb.append("&#9;");
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+                default:
+                    if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        sb.append("&#").append(Character.toCodePoint(c, value.charAt(++i))).append(';');
+                    } else if (Character.isSurrogate(c)) {
+                        // what the serializer makes of an unpaired surrogate depends on the text around it
+                        return false;
+                    } else if (c < 0x20 || (c >= 0x7F && c <= 0x9F)) {
+                        sb.append("&#").append((int) c).append(';');
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        return true;
+    }
+}
@@ -54,8 +54,8 @@ import butter.droid.base.beaming.BeamPlayerNotificationService;
 import butter.droid.base.beaming.server.BeamServerService;
 import butter.droid.base.content.preferences.Prefs;
 import butter.droid.base.providers.media.models.Movie;
+import butter.droid.base.providers.subs.MultiSubsProvider;
 import butter.droid.base.providers.subs.SubsProvider;
-import butter.droid.base.providers.subs.YSubsProvider;
 import butter.droid.base.torrent.StreamInfo;
 import butter.droid.base.utils.PrefUtils;
 import butter.droid.base.utils.SignUtils;
@@ -263,7 +263,7 @@ public class MainActivity extends ButterBaseActivity implements NavigationDrawer
                             .setPositiveButton("Start", new DialogInterface.OnClickListener() {
                                 @Override
                                 public void onClick(DialogInterface dialog, int which) {
-                                    Movie media = new Movie(new VodoProvider(), new YSubsProvider());
+                                    Movie media = new Movie(new VodoProvider(), new MultiSubsProvider());
 
                                     media.videoId = "dialogtestvideo";
                                     media.title = "User input test video";
@@ -281,13 +281,13 @@ public class MainActivity extends ButterBaseActivity implements NavigationDrawer
                     builder.show();
                 } else if (YouTubeData.isYouTubeUrl(location)) {
                     Intent i = new Intent(MainActivity.this, TrailerPlayerActivity.class);
-                    Movie media = new Movie(new VodoProvider(), new YSubsProvider());
+                    Movie media = new Movie(new VodoProvider(), new MultiSubsProvider());
                     media.title = file_types[index];
                     i.putExtra(TrailerPlayerActivity.DATA, media);
                     i.putExtra(TrailerPlayerActivity.LOCATION, location);
                     startActivity(i);
                 } else {
-                    final Movie media = new Movie(new VodoProvider(), new YSubsProvider());
+                    final Movie media = new Movie(new VodoProvider(), new MultiSubsProvider());
                     media.videoId = "bigbucksbunny";
                     media.title = file_types[index];
                     media.subtitles = new HashMap<>();
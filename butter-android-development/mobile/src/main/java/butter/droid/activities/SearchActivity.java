@@ -93,10 +93,8 @@ public class SearchActivity extends ButterBaseActivity {
 
         @Override
         public boolean onQueryTextChange(String s) {
-            if (s.equals("")) {
-                onQueryTextSubmit(s);
-            }
-            return false;
+            // the search is debounced, so it can follow the typing
+            return onQueryTextSubmit(s);
         }
     };
 
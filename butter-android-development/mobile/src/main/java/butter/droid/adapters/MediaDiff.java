@@ -0,0 +1,224 @@
+/*
+ * This file is part of Butter.
+ *
+ * Butter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Butter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Butter. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package butter.droid.adapters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import butter.droid.base.providers.media.models.Media;
+
+/**
+ * MediaDiff.java
+ * <p/>
+ * Calculates the updates that turn one list of media into another, items are matched by their videoId. Uses the
+ * Myers diff algorithm on the part of the lists between the common start and end, which is usually small since pages
+ * are appended or refreshed.
+ * <p/>
+ * The updates are ordered from the end of the list to the start, so every position is valid at the moment the update
+ * is applied and they can be passed to the RecyclerView.Adapter notify methods one by one.
+ */
+class MediaDiff {
+
+    static final int INSERT = 0, REMOVE = 1, CHANGE = 2;
+
+    // above this many edits everything between the common start and end is replaced
+    private static final int MAX_EDITS = 256;
+
+    static class Update {
+        final int type;
+        int position;
+        int newPosition;
+        int count = 1;
+
+        Update(int type, int position, int newPosition) {
+            this.type = type;
+            this.position = position;
+            this.newPosition = newPosition;
+        }
+    }
+
+    private final List<Media> mOld;
+    private final List<Media> mNew;
+    private final List<Update> mUpdates = new ArrayList<>();
+
+    private MediaDiff(List<Media> oldItems, List<Media> newItems) {
+        mOld = oldItems;
+        mNew = newItems;
+    }
+
+    /**
+     * @param oldItems Current items, null items (like a loading item) never match
+     * @param newItems New items
+     * @return Updates ordered from the end of the list to the start
+     */
+    static List<Update> calculate(List<Media> oldItems, List<Media> newItems) {
+        MediaDiff diff = new MediaDiff(oldItems, newItems);
+        diff.run();
+        return diff.mUpdates;
+    }
+
+    private void run() {
+        int oldSize = mOld.size();
+        int newSize = mNew.size();
+
+        int start = 0;
+        while (start < oldSize && start < newSize && isSameItem(start, start)) start++;
+        int end = 0;
+        while (end < oldSize - start && end < newSize - start && isSameItem(oldSize - 1 - end, newSize - 1 - end)) end++;
+
+        for (int i = 0; i < end; i++) {
+            match(oldSize - 1 - i, newSize - 1 - i);
+        }
+
+        int oldCount = oldSize - start - end;
+        int newCount = newSize - start - end;
+        if (!diff(start, oldCount, newCount)) {
+            for (int i = oldCount - 1; i >= 0; i--) remove(start + i);
+            for (int i = newCount - 1; i >= 0; i--) insert(start, start + i);
+        }
+
+        for (int i = start - 1; i >= 0; i--) {
+            match(i, i);
+        }
+    }
+
+    /**
+     * Myers diff of the middle part of the lists
+     *
+     * @return false when there are more than {@link #MAX_EDITS} edits
+     */
+    private boolean diff(int start, int oldCount, int newCount) {
+        int max = Math.min(oldCount + newCount, MAX_EDITS);
+        List<int[]> trace = new ArrayList<>();
+        int[] v = new int[2 * max + 3];
+        int offset = max + 1;
+
+        int edits = -1;
+        for (int d = 0; d <= max && edits < 0; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    x = v[offset + k + 1];
+                } else {
+                    x = v[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < oldCount && y < newCount && isSameItem(start + x, start + y)) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= oldCount && y >= newCount) {
+                    edits = d;
+                    break;
+                }
+            }
+            int[] step = new int[2 * d + 1];
+            System.arraycopy(v, offset - d, step, 0, step.length);
+            trace.add(step);
+        }
+
+        if (edits < 0) {
+            return false;
+        }
+
+        int x = oldCount;
+        int y = newCount;
+        for (int d = edits; d > 0; d--) {
+            int[] previous = trace.get(d - 1);
+            int k = x - y;
+            boolean down = k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1]);
+            int previousK = down ? k + 1 : k - 1;
+            int previousX = previous[previousK + d - 1];
+            int previousY = previousX - previousK;
+
+            while (x > previousX && y > previousY) {
+                x--;
+                y--;
+                match(start + x, start + y);
+            }
+
+            if (down) {
+                y--;
+                insert(start + x, start + y);
+            } else {
+                x--;
+                remove(start + x);
+            }
+        }
+        while (x > 0 && y > 0) {
+            x--;
+            y--;
+            match(start + x, start + y);
+        }
+        return true;
+    }
+
+    private boolean isSameItem(int oldPosition, int newPosition) {
+        Media oldItem = mOld.get(oldPosition);
+        Media newItem = mNew.get(newPosition);
+        return oldItem != null && newItem != null && oldItem.videoId != null && oldItem.videoId.equals(newItem.videoId);
+    }
+
+    private boolean isSameContent(Media oldItem, Media newItem) {
+        return oldItem == newItem || (equals(oldItem.title, newItem.title) && equals(oldItem.year, newItem.year)
+                && equals(oldItem.image, newItem.image));
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private void match(int oldPosition, int newPosition) {
+        if (isSameContent(mOld.get(oldPosition), mNew.get(newPosition))) return;
+
+        Update last = last();
+        if (last != null && last.type == CHANGE && last.position == oldPosition + 1) {
+            last.position = oldPosition;
+            last.newPosition = newPosition;
+            last.count++;
+        } else {
+            mUpdates.add(new Update(CHANGE, oldPosition, newPosition));
+        }
+    }
+
+    private void insert(int position, int newPosition) {
+        Update last = last();
+        if (last != null && last.type == INSERT && last.position == position && last.newPosition == newPosition + 1) {
+            last.newPosition = newPosition;
+            last.count++;
+        } else {
+            mUpdates.add(new Update(INSERT, position, newPosition));
+        }
+    }
+
+    private void remove(int position) {
+        Update last = last();
+        if (last != null && last.type == REMOVE && last.position == position + 1) {
+            last.position = position;
+            last.count++;
+        } else {
+            mUpdates.add(new Update(REMOVE, position, -1));
+        }
+    }
+
+    private Update last() {
+        return mUpdates.isEmpty() ? null : mUpdates.get(mUpdates.size() - 1);
+    }
+
+}
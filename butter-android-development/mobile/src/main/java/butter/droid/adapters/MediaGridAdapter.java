@@ -38,6 +38,9 @@ import com.squareup.picasso.Picasso;
 import com.squareup.picasso.Transformation;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import butterknife.ButterKnife;
 import butterknife.Bind;
@@ -47,15 +50,21 @@ import butter.droid.base.providers.media.models.Media;
 import butter.droid.base.utils.AnimUtils;
 import butter.droid.base.utils.LocaleUtils;
 import butter.droid.base.utils.PixelUtils;
+import butter.droid.base.utils.ThreadUtils;
 
 
 public class MediaGridAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
+    private static final ExecutorService sDiffExecutor = Executors.newSingleThreadExecutor();
+
     private int mItemWidth, mItemHeight, mMargin, mColumns;
     private ArrayList<OverviewItem> mItems = new ArrayList<>();
     //	private ArrayList<Media> mData = new ArrayList<>();
     private MediaGridAdapter.OnItemClickListener mItemClickListener;
     final int NORMAL = 0, LOADING = 1;
+    // changed with every update of mItems, so a diff against an outdated list isn't applied
+    private int mVersion = 0;
+    private List<Media> mPendingItems;
 
     public MediaGridAdapter(Context context, ArrayList<Media> items, Integer columns) {
         mColumns = columns;
@@ -164,8 +173,9 @@ public class MediaGridAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
         if (getItemCount() <= 0) return;
         OverviewItem item = mItems.get(getItemCount() - 1);
         if (item.isLoadingItem) {
+            mVersion++;
             mItems.remove(getItemCount() - 1);
-            notifyDataSetChanged();
+            notifyItemRemoved(getItemCount());
         }
     }
 
@@ -177,8 +187,9 @@ public class MediaGridAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
         }
 
         if (getItemCount() == 0 || (item != null && !item.isLoadingItem)) {
+            mVersion++;
             mItems.add(new OverviewItem(true));
-            notifyDataSetChanged();
+            notifyItemInserted(getItemCount() - 1);
         }
     }
 
@@ -190,6 +201,8 @@ public class MediaGridAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
 
     @DebugLog
     public void setItems(ArrayList<Media> items) {
+        mVersion++;
+        mPendingItems = null;
         // Clear items
         mItems.clear();
         // Add new items, if available
@@ -201,9 +214,116 @@ public class MediaGridAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
         notifyDataSetChanged();
     }
 
+    /**
+     * Update the items with granular notifications instead of rebinding the whole grid. The difference is calculated
+     * on a background thread, items that stay keep their state.
+     *
+     * @param items New items, the list must not be changed afterwards
+     */
+    public void updateItems(final List<Media> items) {
+        updateItems(items, null);
+    }
+
+    /**
+     * @param items     New items, the list must not be changed afterwards
+     * @param onUpdated Run on the ui thread once the items are in the grid, not run when a newer update replaced this
+     *                  one, may be null
+     */
+    public void updateItems(final List<Media> items, final Runnable onUpdated) {
+        mPendingItems = items;
+        final int version = mVersion;
+        final List<Media> oldItems = new ArrayList<>(mItems.size());
+        for (OverviewItem item : mItems) {
+            oldItems.add(item.media);
+        }
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<MediaDiff.Update> updates = MediaDiff.calculate(oldItems, items);
+                ThreadUtils.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mPendingItems != items) return; // replaced by a newer update
+                        if (mVersion != version) {
+                            // the grid changed while calculating, start over
+                            updateItems(items, onUpdated);
+                            return;
+                        }
+                        mPendingItems = null;
+                        applyUpdates(updates, items);
+                        if (onUpdated != null) onUpdated.run();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Update the items from a position to the end, like the page that was just appended to the list or a refreshed
+     * copy of it. Only that range is compared and notified, on the ui thread since it's one page. Falls back to
+     * {@link #updateItems(List, Runnable)} when the grid doesn't hold the items before the range yet.
+     *
+     * @param items     All items, the items before start must already be in the grid
+     * @param start     Position of the first item that changed
+     * @param onUpdated Run on the ui thread once the items are in the grid, may be null
+     */
+    public void updateRange(List<Media> items, int start, Runnable onUpdated) {
+        int count = mItems.size();
+        if (count > 0 && mItems.get(count - 1).isLoadingItem) count--;
+        if (mPendingItems != null || start > count) {
+            updateItems(new ArrayList<>(items), onUpdated);
+            return;
+        }
+
+        List<Media> oldRange = new ArrayList<>(mItems.size() - start);
+        for (OverviewItem item : mItems.subList(start, mItems.size())) {
+            oldRange.add(item.media);
+        }
+        List<Media> newRange = items.subList(start, items.size());
+        List<MediaDiff.Update> updates = MediaDiff.calculate(oldRange, newRange);
+        for (MediaDiff.Update update : updates) {
+            update.position += start;
+            update.newPosition += start;
+        }
+        applyUpdates(updates, items);
+        if (onUpdated != null) onUpdated.run();
+    }
+
+    private void applyUpdates(List<MediaDiff.Update> updates, List<Media> items) {
+        mVersion++;
+        for (MediaDiff.Update update : updates) {
+            switch (update.type) {
+                case MediaDiff.INSERT:
+                    List<OverviewItem> inserted = new ArrayList<>(update.count);
+                    for (Media media : items.subList(update.newPosition, update.newPosition + update.count)) {
+                        inserted.add(new OverviewItem(media));
+                    }
+                    mItems.addAll(update.position, inserted);
+                    notifyItemRangeInserted(update.position, update.count);
+                    break;
+                case MediaDiff.REMOVE:
+                    mItems.subList(update.position, update.position + update.count).clear();
+                    notifyItemRangeRemoved(update.position, update.count);
+                    break;
+                case MediaDiff.CHANGE:
+                    notifyItemRangeChanged(update.position, update.count);
+                    break;
+            }
+        }
+
+        // the items are in the same order now, matching items can still be different objects
+        for (int i = 0; i < mItems.size(); i++) {
+            mItems.get(i).media = items.get(i);
+        }
+    }
+
     public void clearItems() {
+        mVersion++;
+        mPendingItems = null;
+        int count = mItems.size();
         mItems.clear();
-        notifyDataSetChanged();
+        notifyItemRangeRemoved(0, count);
     }
 
     public interface OnItemClickListener {
@@ -45,10 +45,6 @@ import com.sothree.slidinguppanel.SlidingUpPanelLayout;
 import com.squareup.picasso.Callback;
 import com.squareup.picasso.Picasso;
 
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-
 import butterknife.ButterKnife;
 import butterknife.Bind;
 import butterknife.OnClick;
@@ -61,6 +57,7 @@ import butter.droid.activities.VideoPlayerActivity;
 import butter.droid.base.beaming.BeamDeviceListener;
 import butter.droid.base.beaming.BeamManager;
 import butter.droid.base.beaming.BeamPlayerNotificationService;
+import butter.droid.base.beaming.RemotePlaybackTracker;
 import butter.droid.base.torrent.StreamInfo;
 import butter.droid.base.utils.AnimUtils;
 import butter.droid.base.utils.FragmentUtil;
@@ -73,21 +70,17 @@ import timber.log.Timber;
 
 public class BeamPlayerFragment extends Fragment implements TorrentListener {
 
-    public static final int REFRESH_INTERVAL_MS = (int) TimeUnit.SECONDS.toMillis(1);
-
     private StreamInfo mStreamInfo;
     private Long mResumePosition;
     private BeamPlayerActivity mActivity;
     private BeamManager mBeamManager = BeamManager.getInstance(getActivity());
-    private MediaControl mMediaControl;
     private VolumeControl mVolumeControl;
     private boolean mHasVolumeControl = true, mHasSeekControl = true, mIsPlaying = false, mIsUserSeeking = false, mProcessingSeeking = false;
     private int mRetries = 0;
     private long mTotalTimeDuration = 0;
     private Float mDownloadProgress = 0f;
     private LoadingBeamingDialogFragment mLoadingDialog;
-    private ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(2);
-    private ScheduledFuture mTask;
+    private RemotePlaybackTracker mPlaybackTracker;
 
     View mRootView;
     @Bind(R.id.toolbar)
@@ -248,6 +241,11 @@ public class BeamPlayerFragment extends Fragment implements TorrentListener {
     public void onDestroy() {
         super.onDestroy();
 
+        if (mPlaybackTracker != null) {
+            mPlaybackTracker.removeListener(mPlaybackListener);
+            mPlaybackTracker = null;
+        }
+
         Intent intent = new Intent( getActivity(), BeamPlayerNotificationService.class );
         getActivity().stopService(intent);
     }
@@ -256,10 +254,15 @@ public class BeamPlayerFragment extends Fragment implements TorrentListener {
         mBeamManager.playVideo(mStreamInfo, new MediaPlayer.LaunchListener() {
             @Override
             public void onSuccess(MediaPlayer.MediaLaunchObject object) {
-                mMediaControl = object.mediaControl;
-
-                mMediaControl.subscribePlayState(mPlayStateListener);
-                mMediaControl.getPlayState(mPlayStateListener);
+                if (mPlaybackTracker != null) {
+                    mPlaybackTracker.removeListener(mPlaybackListener);
+                }
+                mPlaybackTracker = mBeamManager.getPlaybackTracker();
+                if (mPlaybackTracker == null) {
+                    closePlayer();
+                    return;
+                }
+                mPlaybackTracker.addListener(mPlaybackListener);
 
                 if (mHasVolumeControl) {
                     mVolumeControl = BeamManager.getInstance(getActivity()).getVolumeControl();
@@ -267,13 +270,8 @@ public class BeamPlayerFragment extends Fragment implements TorrentListener {
                     mVolumeControl.getVolume(mVolumeListener);
                 }
 
-                if (mHasSeekControl) {
-                    startUpdating();
-                    mMediaControl.getDuration(mDurationListener);
-                }
-
                 if(mResumePosition > 0) {
-                    mMediaControl.seek(mResumePosition, null);
+                    mPlaybackTracker.seek(mResumePosition, null);
                 }
             }
 
@@ -308,26 +306,15 @@ public class BeamPlayerFragment extends Fragment implements TorrentListener {
 
     @OnClick(R.id.play_button)
     public void playPauseClick(View v) {
-        if(mMediaControl == null) return;
-
-        ResponseListener<Object> responseListener = new ResponseListener<Object>() {
-            @Override
-            public void onSuccess(Object object) {
-                mMediaControl.getPlayState(mPlayStateListener);
-            }
-
-            @Override
-            public void onError(ServiceCommandError error) {
-                mMediaControl.getPlayState(mPlayStateListener);
-            }
-        };
+        if(mPlaybackTracker == null) return;
 
+        // the tracker polls the device for the new state
         if (mIsPlaying) {
             mIsPlaying = false;
-            mMediaControl.pause(responseListener);
+            mPlaybackTracker.pause(null);
         } else {
             mIsPlaying = true;
-            mMediaControl.play(responseListener);
+            mPlaybackTracker.play(null);
         }
 
         mPlayButton.setImageResource(mIsPlaying ? R.drawable.ic_av_pause : R.drawable.ic_av_play);
@@ -336,31 +323,18 @@ public class BeamPlayerFragment extends Fragment implements TorrentListener {
 
     @OnClick(R.id.forward_button)
     public void forwardClick(View v) {
+        if(mPlaybackTracker == null) return;
         int newProgress = mSeekBar.getProgress() + 10000;
         if (newProgress > mTotalTimeDuration) newProgress = (int) mTotalTimeDuration;
-        mMediaControl.seek(newProgress, null);
+        mPlaybackTracker.seek(newProgress, null);
     }
 
     @OnClick(R.id.backward_button)
     public void backwardClick(View v) {
+        if(mPlaybackTracker == null) return;
         int newProgress = mSeekBar.getProgress() - 10000;
         if (newProgress < 0) newProgress = 0;
-        mMediaControl.seek(newProgress, null);
-    }
-
-    private void startUpdating() {
-        mTask = mExecutor.scheduleAtFixedRate(mPositionRunnable, 0, REFRESH_INTERVAL_MS, TimeUnit.MILLISECONDS);
-    }
-
-    private void stopUpdating() {
-        if (mTask != null) {
-            mTask.cancel(false);
-        }
-        if (mExecutor != null) {
-            for (Runnable r : mExecutor.getQueue()) {
-                mExecutor.remove(r);
-            }
-        }
+        mPlaybackTracker.seek(newProgress, null);
     }
 
     private void closePlayer() {
@@ -371,9 +345,33 @@ public class BeamPlayerFragment extends Fragment implements TorrentListener {
         getActivity().finish();
     }
 
-    private MediaControl.PlayStateListener mPlayStateListener = new MediaControl.PlayStateListener() {
+    private RemotePlaybackTracker.Listener mPlaybackListener = new RemotePlaybackTracker.Listener() {
         @Override
-        public void onSuccess(MediaControl.PlayStateStatus state) {
+        public void onPositionChanged(long position, long duration) {
+            if(!FragmentUtil.isAdded(BeamPlayerFragment.this) || !mHasSeekControl) {
+                return;
+            }
+
+            if (duration > 0 && mTotalTimeDuration != duration) {
+                mTotalTimeDuration = duration;
+                mSeekBar.setMax((int) duration);
+            }
+
+            updatePlayhead(position);
+
+            if (!mIsUserSeeking && !mProcessingSeeking) {
+                mSeekBar.setProgress((int) position);
+                mSeekBar.setSecondaryProgress(0); // hack to make the secondary progress appear on Android 5.0
+                mSeekBar.setSecondaryProgress(mDownloadProgress.intValue());
+            }
+
+            if (mLoadingDialog.isVisible() && !getActivity().isFinishing() && position > 0) {
+                mLoadingDialog.dismiss();
+            }
+        }
+
+        @Override
+        public void onPlayStateChanged(MediaControl.PlayStateStatus state) {
             if(!FragmentUtil.isAdded(BeamPlayerFragment.this)) {
                 return;
             }
@@ -385,14 +383,10 @@ public class BeamPlayerFragment extends Fragment implements TorrentListener {
             if (mLoadingDialog.isVisible() && mIsPlaying && !getActivity().isFinishing()) {
                 mLoadingDialog.dismiss();
             }
-
-            if (mIsPlaying) {
-                mMediaControl.getDuration(mDurationListener);
-            }
         }
 
         @Override
-        public void onError(ServiceCommandError error) {
+        public void onPlayStateError(ServiceCommandError error) {
             if(!FragmentUtil.isAdded(BeamPlayerFragment.this)) {
                 return;
             }
@@ -415,21 +409,6 @@ public class BeamPlayerFragment extends Fragment implements TorrentListener {
         }
     };
 
-    private MediaControl.DurationListener mDurationListener = new MediaControl.DurationListener() {
-        @Override
-        public void onError(ServiceCommandError error) {
-        }
-
-        @Override
-        public void onSuccess(Long duration) {
-            if(mTotalTimeDuration != duration) {
-                mTotalTimeDuration = duration;
-                mSeekBar.setMax(duration.intValue());
-            }
-            //durationTextView.setText(formatTime(duration.intValue()));
-        }
-    };
-
     private VolumeControl.VolumeListener mVolumeListener = new VolumeControl.VolumeListener() {
         @Override
         public void onSuccess(Float volume) {
@@ -441,31 +420,6 @@ public class BeamPlayerFragment extends Fragment implements TorrentListener {
         }
     };
 
-    private Runnable mPositionRunnable = new Runnable() {
-        @Override
-        public void run() {
-            mMediaControl.getPosition(new MediaControl.PositionListener() {
-                @Override
-                public void onSuccess(Long position) {
-                    if (!mIsUserSeeking) {
-                        mSeekBar.setProgress(position.intValue());
-                        mSeekBar.setSecondaryProgress(0); // hack to make the secondary progress appear on Android 5.0
-                        mSeekBar.setSecondaryProgress(mDownloadProgress.intValue());
-                    }
-
-                    if (mLoadingDialog.isVisible() && !getActivity().isFinishing() && position > 0) {
-                        mLoadingDialog.dismiss();
-                    }
-                }
-
-                @Override
-                public void onError(ServiceCommandError error) {
-
-                }
-            });
-        }
-    };
-
     private SeekBar.OnSeekBarChangeListener mSeekBarChangeListener = new SeekBar.OnSeekBarChangeListener() {
         @Override
         public void onProgressChanged(android.widget.SeekBar seekBar, int progress, boolean fromUser) {
@@ -476,17 +430,16 @@ public class BeamPlayerFragment extends Fragment implements TorrentListener {
                     mSeekBar.setSecondaryProgress(mDownloadProgress.intValue());
 
                     mProcessingSeeking = true;
-                    mMediaControl.seek(mSeekBar.getProgress(), new ResponseListener<Object>() {
+                    updatePlayhead(progress);
+                    mPlaybackTracker.seek(mSeekBar.getProgress(), new ResponseListener<Object>() {
                         @Override
                         public void onSuccess(Object response) {
                             mProcessingSeeking = false;
-                            startUpdating();
                         }
 
                         @Override
                         public void onError(ServiceCommandError error) {
                             mProcessingSeeking = false;
-                            startUpdating();
                         }
                     });
                 } else {
@@ -500,7 +453,6 @@ public class BeamPlayerFragment extends Fragment implements TorrentListener {
         @Override
         public void onStartTrackingTouch(android.widget.SeekBar seekBar) {
             mIsUserSeeking = true;
-            stopUpdating();
         }
 
         @Override
@@ -534,9 +486,23 @@ public class BeamPlayerFragment extends Fragment implements TorrentListener {
     @Override
     public void onStreamReady(Torrent torrent) { }
 
+    /**
+     * Let the torrent service download the pieces at the position of the device first
+     */
+    private void updatePlayhead(long position) {
+        if (mActivity != null && mActivity.getService() != null) {
+            mActivity.getService().setPlaybackPosition(position, mTotalTimeDuration);
+        }
+    }
+
     @Override
     public void onStreamProgress(Torrent torrent, StreamStatus status) {
-        mDownloadProgress = mTotalTimeDuration / 100 * status.progress;
+        float buffered = mActivity == null || mActivity.getService() == null ? -1 : mActivity.getService().getBufferedPosition();
+        if (buffered >= 0) {
+            mDownloadProgress = mTotalTimeDuration * buffered;
+        } else {
+            mDownloadProgress = mTotalTimeDuration / 100 * status.progress;
+        }
         mSeekBar.setSecondaryProgress(0); // hack to make the secondary progress appear on Android 5.0
         mSeekBar.setSecondaryProgress(mDownloadProgress.intValue());
     }
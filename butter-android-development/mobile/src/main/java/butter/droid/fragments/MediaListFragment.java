@@ -34,9 +34,9 @@ import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
-import com.squareup.okhttp.Call;
 
 import java.util.ArrayList;
+import java.util.Collections;
 
 import butterknife.ButterKnife;
 import butterknife.Bind;
@@ -46,7 +46,10 @@ import butter.droid.activities.MediaDetailActivity;
 import butter.droid.adapters.MediaGridAdapter;
 import butter.droid.base.ButterApplication;
 import butter.droid.base.content.preferences.Prefs;
+import butter.droid.base.providers.RequestManager;
+import butter.droid.base.providers.media.MediaList;
 import butter.droid.base.providers.media.MediaProvider;
+import butter.droid.base.providers.media.MediaSearch;
 import butter.droid.base.providers.media.models.Media;
 import butter.droid.base.utils.LocaleUtils;
 import butter.droid.base.utils.PrefUtils;
@@ -100,14 +103,15 @@ public class MediaListFragment extends Fragment implements LoadingDetailDialogFr
         UNINITIALISED, LOADING, SEARCHING, LOADING_PAGE, LOADED, LOADING_DETAIL
     }
 
-    private ArrayList<Media> mItems = new ArrayList<>();
+    private MediaList mItems = new MediaList();
 
     private boolean mEndOfListReached = false;
 
     private int mFirstVisibleItem, mVisibleItemCount, mTotalItemCount = 0, mLoadingTreshold = mColumns * 3, mPreviousTotal = 0;
 
     private MediaProvider mProvider;
-    private Call mCurrentCall;
+    private RequestManager.Ticket mCurrentCall;
+    private MediaSearch mSearch;
     private int mPage = 1;
     private MediaProvider.Filters mFilters = new MediaProvider.Filters();
     private String mGenre;
@@ -141,16 +145,12 @@ public class MediaListFragment extends Fragment implements LoadingDetailDialogFr
     public void changeGenre(String genre) {
         if (!(mFilters.genre == null ? "" : mFilters.genre).equals(genre == null ? "" : genre)) {
             if(mCurrentCall != null)
-                ButterApplication.getHttpClient().getDispatcher().getExecutorService().execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCurrentCall.cancel();
-                    }
-                });
+                mCurrentCall.cancel();
             mAdapter.clearItems();
             mGenre = mFilters.genre = genre;
             mFilters.page = 1;
-            mCurrentCall = mProvider.getList(new MediaProvider.Filters(mFilters), mCallback);
+            mItems.clear();
+            mCurrentCall = mProvider.getList(mItems, new MediaProvider.Filters(mFilters), this, mCallback);
             setState(State.LOADING);
         }
     }
@@ -215,7 +215,7 @@ public class MediaListFragment extends Fragment implements LoadingDetailDialogFr
 
         //don't load initial data in search mode
         if (mMode != Mode.SEARCH && mAdapter.getItemCount() == 0) {
-            mCurrentCall = mProvider.getList(new MediaProvider.Filters(mFilters), mCallback);/* fetch new items */
+            mCurrentCall = mProvider.getList(mItems, new MediaProvider.Filters(mFilters), this, mCallback);/* fetch new items */
             setState(State.LOADING);
         } else updateUI();
     }
@@ -294,30 +294,57 @@ public class MediaListFragment extends Fragment implements LoadingDetailDialogFr
         if (null == mAdapter) return;
 
         if(mCurrentCall != null)
-            ButterApplication.getHttpClient().getDispatcher().getExecutorService().execute(new Runnable() {
-                @Override
-                public void run() {
-                    mCurrentCall.cancel();
-                }
-            });
+            mCurrentCall.cancel();
 
         mEndOfListReached = false;
 
-        mItems.clear();
-        mAdapter.clearItems();//clear out adapter
+        if (mSearch == null) {
+            mSearch = new MediaSearch(Collections.singletonList(mProvider), mFilters, mSearchListener);
+        }
 
         if (searchQuery.equals("")) {
+            mSearch.cancel();
+            mItems.clear();
+            mAdapter.clearItems();//clear out adapter
             setState(State.LOADED);
             return; //don't do a search for empty queries
         }
 
+        // the current results stay visible until the results of the new query are in
         setState(State.SEARCHING);
         mFilters.keywords = searchQuery;
         mFilters.page = 1;
         mPage = 1;
-        mCurrentCall = mProvider.getList(new MediaProvider.Filters(mFilters), mCallback);
+        mSearch.search(searchQuery);
     }
 
+    private MediaSearch.Listener mSearchListener = new MediaSearch.Listener() {
+        @Override
+        public void onResults(String query, ArrayList<Media> items, boolean complete) {
+            if (!isAdded()) return;
+
+            mItems.clear();
+            mItems.addAll(items);
+            mAdapter.updateItems(new ArrayList<>(mItems));
+            if (complete) {
+                mPage = 2;
+                setState(State.LOADED);
+            }
+        }
+
+        @Override
+        public void onFailure(String query, Exception e) {
+            if (!isAdded()) return;
+
+            // providers fail when nothing is found, show the empty view
+            Timber.w(e, "Search for %s failed", query);
+            mItems.clear();
+            mAdapter.clearItems();
+            mEndOfListReached = true;
+            setState(State.LOADED);
+        }
+    };
+
     private MediaProvider.Callback mCallback = new MediaProvider.Callback() {
         @Override
         @DebugLog
@@ -328,14 +355,8 @@ public class MediaListFragment extends Fragment implements LoadingDetailDialogFr
                 return;
             }
 
-            mItems.clear();
-            ThreadUtils.runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    setState(State.LOADED);
-                }
-            });
-            if (null != items) mItems.addAll(items);
+            // called on the main thread, the provider has appended the page to mItems from getPageStart()
+            setState(State.LOADED);
 
             //fragment may be detached, so we dont want to update the UI
             if (!isAdded())
@@ -343,11 +364,12 @@ public class MediaListFragment extends Fragment implements LoadingDetailDialogFr
 
             mEndOfListReached = false;
 
-            mPage = mPage + 1;
-            ThreadUtils.runOnUiThread(new Runnable() {
+            // a cached page and its refreshed copy are both delivered, so don't count the page twice
+            mPage = (filters.page == null ? 1 : filters.page) + 1;
+            mAdapter.updateRange(mItems, mItems.getPageStart(), new Runnable() {
                 @Override
                 public void run() {
-                    mAdapter.setItems(items);
+                    // the adapter has the new items only once the difference has been applied
                     mPreviousTotal = mTotalItemCount = mAdapter.getItemCount();
                 }
             });
@@ -356,13 +378,17 @@ public class MediaListFragment extends Fragment implements LoadingDetailDialogFr
         @Override
         @DebugLog
         public void onFailure(Exception e) {
-            if (isDetached() || e.getMessage().equals("Canceled")) {
+            if (isDetached() || RequestManager.CANCELED.equals(e.getMessage())) {
                 ThreadUtils.runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
                         if (mAdapter == null) {
                             return;
                         }
+                        // replaced by a search or a newer request, that one updates the state
+                        if (mState == State.SEARCHING || (mCurrentCall != null && mCurrentCall.isActive())) {
+                            return;
+                        }
 
                         mAdapter.removeLoading();
                         setState(State.LOADED);
@@ -393,7 +419,7 @@ public class MediaListFragment extends Fragment implements LoadingDetailDialogFr
                         }
                     });
                 } else {
-                    mCurrentCall = mProvider.getList(mItems, new MediaProvider.Filters(mFilters), this);
+                    mCurrentCall = mProvider.getList(mItems, new MediaProvider.Filters(mFilters), MediaListFragment.this, this);
                 }
                 mRetries++;
             }
@@ -464,7 +490,7 @@ public class MediaListFragment extends Fragment implements LoadingDetailDialogFr
                     mLoadingTreshold)) {
 
                 mFilters.page = mPage;
-                mCurrentCall = mProvider.getList(mItems, new MediaProvider.Filters(mFilters), mCallback);
+                mCurrentCall = mProvider.getList(mItems, new MediaProvider.Filters(mFilters), MediaListFragment.this, mCallback);
 
                 mPreviousTotal = mTotalItemCount = mLayoutManager.getItemCount();
                 setState(State.LOADING_PAGE);
@@ -31,11 +31,14 @@ import butter.droid.activities.TrailerPlayerActivity;
 import butter.droid.activities.VideoPlayerActivity;
 import butter.droid.base.content.preferences.DefaultQuality;
 import butter.droid.base.content.preferences.Prefs;
+import butter.droid.base.providers.media.models.Media;
 import butter.droid.base.providers.media.models.Movie;
 import butter.droid.base.providers.subs.SubsProvider;
 import butter.droid.base.torrent.Magnet;
 import butter.droid.base.torrent.StreamInfo;
 import butter.droid.base.torrent.TorrentHealth;
+import butter.droid.base.torrent.TorrentHealthService;
+import butter.droid.base.utils.FragmentUtil;
 import butter.droid.base.utils.LocaleUtils;
 import butter.droid.base.utils.PixelUtils;
 import butter.droid.base.utils.PrefUtils;
@@ -53,6 +56,7 @@ public class MovieDetailFragment extends BaseDetailFragment {
     private static Movie sMovie;
     private String mSelectedSubtitleLanguage, mSelectedQuality;
     private Boolean mAttached = false;
+    private boolean mQualityChosen = false;
     private Magnet mMagnet;
 
     @Bind(R.id.play_button)
@@ -242,20 +246,28 @@ public class MovieDetailFragment extends BaseDetailFragment {
                 mQuality.setListener(new OptionSelector.SelectorListener() {
                     @Override
                     public void onSelectionChanged(int position, String value) {
+                        mQualityChosen = true;
                         mSelectedQuality = value;
                         renderHealth();
                         updateMagnet();
                     }
                 });
 
-                String quality = DefaultQuality.get(mActivity, Arrays.asList(qualities));
-                int qualityIndex = Arrays.asList(qualities).indexOf(quality);
-                mSelectedQuality = quality;
-                mQuality.setText(mSelectedQuality);
-                mQuality.setDefault(qualityIndex);
+                selectQuality(qualities, DefaultQuality.get(mActivity, sMovie.torrents, sMovie.getRuntimeMs()));
 
-                renderHealth();
-                updateMagnet();
+                TorrentHealthService.getInstance().refresh(sMovie.torrents, new TorrentHealthService.Callback() {
+                    @Override
+                    public void onHealthUpdated(String quality, Media.Torrent torrent) {
+                        if (!FragmentUtil.isAdded(MovieDetailFragment.this)) return;
+
+                        if (!mQualityChosen) {
+                            // the default can change with the live numbers, as long as the user didn't pick one
+                            selectQuality(qualities, DefaultQuality.get(mActivity, sMovie.torrents, sMovie.getRuntimeMs()));
+                        } else if (quality.equals(mSelectedQuality)) {
+                            renderHealth();
+                        }
+                    }
+                });
             }
 
             if (mCoverImage != null) {
@@ -280,6 +292,16 @@ public class MovieDetailFragment extends BaseDetailFragment {
         mAttached = false;
     }
 
+    private void selectQuality(String[] qualities, String quality) {
+        int qualityIndex = Arrays.asList(qualities).indexOf(quality);
+        mSelectedQuality = quality;
+        mQuality.setText(mSelectedQuality);
+        mQuality.setDefault(qualityIndex);
+
+        renderHealth();
+        updateMagnet();
+    }
+
     private void renderHealth() {
         if(mHealth.getVisibility() == View.GONE) {
             mHealth.setVisibility(View.VISIBLE);
@@ -63,6 +63,11 @@ public class ShowDetailSeasonFragment extends BaseDetailFragment {
                 return 0;
             }
         });
+
+        // the season's subtitles are searched at once, so opening an episode finds them ready
+        if (!mEpisodes.isEmpty() && mEpisodes.get(0).getSubsProvider() != null) {
+            mEpisodes.get(0).getSubsProvider().preload(mEpisodes);
+        }
     }
 
     public int getSeasonNumber() {
@@ -152,8 +152,9 @@ public class StreamLoadingFragment extends BaseStreamLoadingFragment {
             public void run() {
                 mProgressIndicator.setIndeterminate(false);
                 if(!mPlayingExternal) {
-                    mProgressIndicator.setProgress(status.bufferProgress);
-                    mPrimaryTextView.setText(status.bufferProgress + "%");
+                    int progress = getStartProgress(status);
+                    mProgressIndicator.setProgress(progress);
+                    mPrimaryTextView.setText(progress + "%");
                 } else {
                     int progress = ((Float) status.progress).intValue();
                     mProgressIndicator.setProgress(progress);
@@ -165,7 +166,9 @@ public class StreamLoadingFragment extends BaseStreamLoadingFragment {
                 } else {
                     mSecondaryTextView.setText(df.format(status.downloadSpeed / 1048576) + " MB/s");
                 }
-                mTertiaryTextView.setText(status.seeds + " " + getString(R.string.seeds));
+                String seeds = status.seeds + " " + getString(R.string.seeds);
+                long wait = mPlayingExternal ? -1 : getStartWaitSeconds();
+                mTertiaryTextView.setText(wait > 0 ? seeds + " - " + getString(R.string.starts_in, wait) : seeds);
             }
         });
     }
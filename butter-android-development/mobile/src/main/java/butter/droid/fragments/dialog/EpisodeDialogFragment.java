@@ -59,6 +59,7 @@ import butter.droid.base.providers.meta.MetaProvider;
 import butter.droid.base.providers.subs.SubsProvider;
 import butter.droid.base.torrent.Magnet;
 import butter.droid.base.torrent.StreamInfo;
+import butter.droid.base.torrent.TorrentHealthService;
 import butter.droid.base.utils.FragmentUtil;
 import butter.droid.base.utils.LocaleUtils;
 import butter.droid.base.utils.PixelUtils;
@@ -81,7 +82,7 @@ public class EpisodeDialogFragment extends DialogFragment {
     private Activity mActivity;
     private MetaProvider mMetaProvider;
     private SubsProvider mSubsProvider;
-    private boolean mTouching = false, mOpened = false;
+    private boolean mTouching = false, mOpened = false, mQualityChosen = false;
     private String mSelectedSubtitleLanguage, mSelectedQuality;
     private Episode mEpisode;
     private Show mShow;
@@ -255,22 +256,27 @@ public class EpisodeDialogFragment extends DialogFragment {
         SortUtils.sortQualities(qualities);
         mQuality.setData(qualities);
 
-        String quality = DefaultQuality.get(mActivity, Arrays.asList(qualities));
-        int qualityIndex = Arrays.asList(qualities).indexOf(quality);
-        mSelectedQuality = quality;
-        mQuality.setText(mSelectedQuality);
-        mQuality.setDefault(qualityIndex);
-
-        updateMagnet();
+        selectQuality(qualities, DefaultQuality.get(mActivity, mEpisode.torrents, mShow.getRuntimeMs()));
 
         mQuality.setListener(new OptionSelector.SelectorListener() {
             @Override
             public void onSelectionChanged(int position, String value) {
+                mQualityChosen = true;
                 mSelectedQuality = value;
                 updateMagnet();
             }
         });
 
+        TorrentHealthService.getInstance().refresh(mEpisode.torrents, new TorrentHealthService.Callback() {
+            @Override
+            public void onHealthUpdated(String quality, Media.Torrent torrent) {
+                // the default can change with the live numbers, as long as the user didn't pick one
+                if (FragmentUtil.isAdded(EpisodeDialogFragment.this) && !mQualityChosen) {
+                    selectQuality(qualities, DefaultQuality.get(mActivity, mEpisode.torrents, mShow.getRuntimeMs()));
+                }
+            }
+        });
+
         mSubtitles.setText(R.string.loading_subs);
         mSubtitles.setClickable(false);
         if (mSubsProvider != null) {
@@ -324,6 +330,8 @@ public class EpisodeDialogFragment extends DialogFragment {
 
                 @Override
                 public void onFailure(Exception e) {
+                    if (!FragmentUtil.isAdded(EpisodeDialogFragment.this)) return;
+
                     mSubtitles.setData(new String[0]);
                     mSubtitles.setClickable(true);
                 }
@@ -379,6 +387,15 @@ public class EpisodeDialogFragment extends DialogFragment {
         super.onAttach(activity);
     }
 
+    private void selectQuality(String[] qualities, String quality) {
+        int qualityIndex = Arrays.asList(qualities).indexOf(quality);
+        mSelectedQuality = quality;
+        mQuality.setText(mSelectedQuality);
+        mQuality.setDefault(qualityIndex);
+
+        updateMagnet();
+    }
+
     private void updateMagnet() {
         if (mOpenMagnet == null) return;
 
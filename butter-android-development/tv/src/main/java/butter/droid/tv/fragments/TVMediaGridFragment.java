@@ -64,6 +64,8 @@ public class TVMediaGridFragment extends VerticalGridFragment implements OnItemV
     private Callback mCallback;
     private BackgroundUpdater mBackgroundUpdater;
     private int mCurrentPage = 1;
+    private Integer mLoadedPage;
+    private int mLoadedPageStart;
 
     public static TVMediaGridFragment newInstance() {
         return new TVMediaGridFragment();
@@ -135,11 +137,21 @@ public class TVMediaGridFragment extends VerticalGridFragment implements OnItemV
             @Override
             public void onSuccess(MediaProvider.Filters filters, ArrayList<Media> items, boolean changed) {
                 mCurrentPage = filters.page;
+                if (!changed) return;
                 List<MediaCardPresenter.MediaCardItem> list = MediaCardPresenter.convertMediaToOverview(items);
 
+                int previousSize = mAdapter.size();
+                if (filters.page != null && filters.page.equals(mLoadedPage)) {
+                    // refreshed copy of the page that was served from the cache, replace it
+                    previousSize = mLoadedPageStart;
+                    mAdapter.removeItems(previousSize, mAdapter.size() - previousSize);
+                    mItems.subList(previousSize, mItems.size()).clear();
+                }
+                mLoadedPage = filters.page;
+                mLoadedPageStart = previousSize;
+
                 mItems.addAll(list);
 
-                int previousSize = mAdapter.size();
                 mAdapter.addAll(previousSize,list);
                 mAdapter.notifyArrayItemRangeChanged(previousSize,list.size());
             }
@@ -18,7 +18,6 @@
 package butter.droid.tv.fragments;
 
 import android.os.Bundle;
-import android.os.Handler;
 import android.support.v17.leanback.widget.ArrayObjectAdapter;
 import android.support.v17.leanback.widget.HeaderItem;
 import android.support.v17.leanback.widget.ListRow;
@@ -32,11 +31,13 @@ import android.support.v17.leanback.widget.RowPresenter;
 import android.text.TextUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import butter.droid.base.providers.media.VodoProvider;
 import hugo.weaving.DebugLog;
 import butter.droid.base.providers.media.MediaProvider;
+import butter.droid.base.providers.media.MediaSearch;
 import butter.droid.base.providers.media.models.Media;
 import butter.droid.tv.R;
 import butter.droid.tv.activities.TVMediaDetailActivity;
@@ -45,15 +46,12 @@ import butter.droid.tv.utils.BackgroundUpdater;
 
 public class TVSearchFragment extends android.support.v17.leanback.app.SearchFragment
 		implements android.support.v17.leanback.app.SearchFragment.SearchResultProvider {
-	private static final int SEARCH_DELAY_MS = 300;
-
 	//private XProvider mShowsProvider = x
 	private VodoProvider mMovieProvider = new VodoProvider();
 	private MediaProvider.Filters mSearchFilter = new MediaProvider.Filters();
 
 	private ArrayObjectAdapter mRowsAdapter;
-	private Handler mHandler = new Handler();
-	private SearchRunnable mDelayedLoad;
+	private MediaSearch mSearch;
 	private ListRowPresenter mListRowPresenter;
 	private ListRow mLoadingRow;
 	private BackgroundUpdater mBackgroundUpdater = new BackgroundUpdater();
@@ -67,7 +65,8 @@ public class TVSearchFragment extends android.support.v17.leanback.app.SearchFra
 		setSearchResultProvider(this);
 		setOnItemViewClickedListener(getDefaultItemClickedListener());
 		setOnItemViewSelectedListener(new ItemViewSelectedListener());
-		mDelayedLoad = new SearchRunnable();
+		//add mShowsProvider here to merge the show results
+		mSearch = new MediaSearch(Collections.<MediaProvider>singletonList(mMovieProvider), mSearchFilter, mSearchListener);
 
 		//setup row to use for loading
 		mLoadingRow = createLoadingRow();
@@ -86,12 +85,15 @@ public class TVSearchFragment extends android.support.v17.leanback.app.SearchFra
 	}
 
 	private void queryByWords(String words) {
-		mRowsAdapter.clear();
-		if (!TextUtils.isEmpty(words)) {
-			mDelayedLoad.setSearchQuery(words);
-			mHandler.removeCallbacks(mDelayedLoad);
-			mHandler.postDelayed(mDelayedLoad, SEARCH_DELAY_MS);
+		if (TextUtils.isEmpty(words)) {
+			mSearch.cancel();
+			mRowsAdapter.clear();
+			return;
 		}
+
+		// the current results stay visible until the results of the new query are in
+		if (mRowsAdapter.size() == 0) addLoadingRow();
+		mSearch.search(words);
 	}
 
 	@Override
@@ -107,42 +109,19 @@ public class TVSearchFragment extends android.support.v17.leanback.app.SearchFra
 		return true;
 	}
 
-	@DebugLog
-	private void loadRows(String query) {
-		mMovieProvider.cancel();
-		//mShowsProvider.cancel();
-		mRowsAdapter.clear();
-		addLoadingRow();
-
-		mSearchFilter.keywords = query;
-		mSearchFilter.page = 1;
-		/*
-		mShowsProvider.getList(mSearchFilter, new MediaProvider.Callback() {
-			@Override public void onSuccess(MediaProvider.Filters filters, ArrayList<Media> items, boolean changed) {
-				List<MediaCardPresenter.MediaCardItem> list = MediaCardPresenter.convertMediaToOverview(items);
-				addRow(getString(R.string.show_results), list);
-			}
-
-			@Override public void onFailure(Exception e) {
-
-			}
-		});
-		*/
-
-		mMovieProvider.getList(mSearchFilter, new MediaProvider.Callback() {
-			@Override public void onSuccess(MediaProvider.Filters filters, ArrayList<Media> items, boolean changed) {
-						List<MediaCardPresenter.MediaCardItem> list = MediaCardPresenter.convertMediaToOverview(items);
-						addRow(getString(R.string.movie_results), list);
-					}
-
-					@Override public void onFailure(Exception e) {
-
-					}
-				}
-
-		);
+	private MediaSearch.Listener mSearchListener = new MediaSearch.Listener() {
+		@DebugLog
+		@Override public void onResults(String query, ArrayList<Media> items, boolean complete) {
+			if (!isAdded() || (items.isEmpty() && !complete)) return;
+			List<MediaCardPresenter.MediaCardItem> list = MediaCardPresenter.convertMediaToOverview(items);
+			addRow(getString(R.string.search_results), list);
+		}
 
-	}
+		@Override public void onFailure(String query, Exception e) {
+			if (!isAdded()) return;
+			mRowsAdapter.clear();
+		}
+	};
 
 	private void addRow(String title, List<MediaCardPresenter.MediaCardItem> items) {
 		mRowsAdapter.remove(mLoadingRow);
@@ -150,7 +129,17 @@ public class TVSearchFragment extends android.support.v17.leanback.app.SearchFra
 		HeaderItem header = new HeaderItem(0, title);
 		ArrayObjectAdapter listRowAdapter = new ArrayObjectAdapter(new MediaCardPresenter(getActivity()));
 		listRowAdapter.addAll(0, items);
-		mRowsAdapter.add(new ListRow(header, listRowAdapter));
+		ListRow listRow = new ListRow(header, listRowAdapter);
+
+		// newer results replace the row that is shown
+		for (int i = 0; i < mRowsAdapter.size(); i++) {
+			Object row = mRowsAdapter.get(i);
+			if (row instanceof ListRow && title.equals(((ListRow) row).getHeaderItem().getName())) {
+				mRowsAdapter.replace(i, listRow);
+				return;
+			}
+		}
+		mRowsAdapter.add(listRow);
 	}
 
 	private void addLoadingRow() {
@@ -182,20 +171,4 @@ public class TVSearchFragment extends android.support.v17.leanback.app.SearchFra
 			}
 		}
 	}
-
-	private class SearchRunnable implements Runnable {
-
-		private volatile String searchQuery;
-
-		public SearchRunnable() {
-		}
-
-		public void run() {
-			loadRows(searchQuery);
-		}
-
-		public void setSearchQuery(String value) {
-			this.searchQuery = value;
-		}
-	}
 }
@@ -95,15 +95,18 @@ public class TVStreamLoadingFragment extends BaseStreamLoadingFragment {
 			@Override
 			public void run() {
 				progressIndicator.setIndeterminate(false);
-				progressIndicator.setProgress(status.bufferProgress);
-				mPrimaryTextView.setText(status.bufferProgress + "%");
+				int progress = getStartProgress(status);
+				progressIndicator.setProgress(progress);
+				mPrimaryTextView.setText(progress + "%");
 
 				if (status.downloadSpeed / 1024 < 1000) {
 					mSecondaryTextView.setText(df.format(status.downloadSpeed / 1024) + " KB/s");
 				} else {
 					mSecondaryTextView.setText(df.format(status.downloadSpeed / 1048576) + " MB/s");
 				}
-				mTertiaryTextView.setText(status.seeds + " " + getString(R.string.seeds));
+				String seeds = status.seeds + " " + getString(R.string.seeds);
+				long wait = getStartWaitSeconds();
+				mTertiaryTextView.setText(wait > 0 ? seeds + " - " + getString(R.string.starts_in, wait) : seeds);
 			}
 		});
 	}
@@ -89,6 +89,8 @@ public class RecommendationService extends IntentService {
         mMovieProvider.getList(movieFilter, new MediaProvider.Callback() {
             @Override
             public void onSuccess(MediaProvider.Filters filters, ArrayList<Media> items, boolean changed) {
+                // the first list is enough, ignore the refresh of a cached list
+                if (mMoviesCallFinished.get()) return;
                 Timber.d(String.format("loaded %s movies", items.size()));
                 mMovies.addAll(items);
                 mMoviesCallFinished.set(true);